@@ -22,10 +22,18 @@
 package dimawo.agents;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import dimawo.agents.events.StopAgent;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
 
 
 
@@ -103,18 +111,71 @@ import dimawo.agents.events.StopAgent;
  * or {@link #agentPrintMessage(Throwable) agentPrintMessage(Throwable)}
  * are printed onto standard output (System.out). However, agent's logging
  * stream can be changed by {@link #setPrintStream(PrintStream) setPrintStream}.
+ * Messages can also be given as a pattern and arguments
+ * ({@link #agentPrintMessage(int, String, Object...)}): they are then only
+ * formatted if they are printed.
  * <p>
  * A name can be associated to an agent, this name is used by logging
  * and is used to name the thread running the message handling code.
+ * <p>
+ * By default, each agent owns a thread executing its message handling code
+ * ({@link ExecutionMode#DEDICATED_THREAD DEDICATED_THREAD} execution mode).
+ * An agent can also be executed by the shared pool of the
+ * {@link AgentScheduler} ({@link ExecutionMode#SHARED_POOL SHARED_POOL}
+ * execution mode, see {@link #setExecutionMode(ExecutionMode)} and
+ * {@link #setDefaultExecutionMode(ExecutionMode)}). In this case, the agent
+ * only uses a thread while it has messages to handle. The behavior described
+ * above is the same in both modes: messages are handled sequentially, in
+ * queue order, and init, message handling and exit are never executed
+ * concurrently.
+ * <p>
+ * Finally, an agent can take several messages from its queue at once
+ * (see {@link #setBatchSize(int)}). Consecutive messages of a batch are
+ * given to {@link #handleMessages(List)} which, by default, calls
+ * {@link #handleMessage(Object)} for each of them. Stop and error events
+ * are still handled in queue order: messages queued after a stop event are
+ * not handled and can be retrieved using {@link #flushPendingMessages()}.
+ * <p>
+ * The messages queue is a {@link Mailbox}. By default, it is a lock-based
+ * blocking queue; a lock-free queue can be chosen instead (see
+ * {@link #setDefaultMailboxType(MailboxType)}) or given to the constructor.
+ * <p>
+ * Some message types can be marked as high priority (see
+ * {@link #setHighPriority(Class)}): these messages go through a separate
+ * lane of the queue that is always emptied first. Messages of each lane
+ * are handled in the order they were queued. By default, only error events
+ * are high priority; stop events are not, so that messages queued before
+ * a call to {@link #stop()} are still handled.
  */
 public abstract class AbstractAgent
 implements Runnable, ErrorHandler {
 	
 	/** Incoming messages queue. */
-	private LinkedBlockingQueue<Object> incoming;
+	private Mailbox incoming;
 	
-	/** Message handling loop thread. */
+	/** Maximum number of messages taken from queue at once. */
+	private int batchSize;
+	/** Default maximum number of messages taken from queue at once. */
+	private static int defaultBatchSize = 1;
+	/** Messages taken from queue (batch mode), reused for each batch. */
+	private ArrayList<Object> batch;
+	/** Index of the next message of the batch to be handled. */
+	private int batchPos;
+	/** Number of messages given to {@link #handleMessages(List)} and not
+	 * yet handled. */
+	private int unhandledInRun;
+	/** True if the messages given to {@link #handleMessages(List)} are
+	 * handled one by one by the default implementation. */
+	private boolean runTracked;
+	/** Classes of the messages inserted into the high priority lane of
+	 * the queue (the set is replaced on update). */
+	private volatile Set<Class<?>> highPriority;
+	
+	/** Message handling loop thread (only used in DEDICATED_THREAD
+	 * execution mode). */
 	transient private Thread agentThread;
+	/** Daemon flag of message handling loop thread. */
+	private boolean daemon;
 
 	/** Represents the 3 possible states of an AbstractAgent */
 	public enum AgentState {
@@ -128,8 +189,47 @@ implements Runnable, ErrorHandler {
 		 * AbstractAgent} behavior). */
 		STOPPED
 	};
+	
+	/** Represents the 2 possible implementations of the messages queue of
+	 * an AbstractAgent */
+	public enum MailboxType {
+		/** A lock-based queue (see {@link BlockingQueueMailbox}). */
+		BLOCKING_QUEUE,
+		/** A lock-free queue (see {@link MpscMailbox}, or
+		 * {@link ArrayMailbox} if the queue is bounded). */
+		LOCK_FREE
+	};
+	/** Default messages queue implementation of a newly instantiated
+	 * agent. */
+	private static MailboxType defaultMailboxType = MailboxType.BLOCKING_QUEUE;
+	
+	/** Represents the 2 possible execution modes of an AbstractAgent */
+	public enum ExecutionMode {
+		/** The agent owns a thread executing its message handling code. */
+		DEDICATED_THREAD,
+		/** The message handling code of the agent is executed by the
+		 * shared pool of the {@link AgentScheduler}. */
+		SHARED_POOL
+	};
+	/** The execution mode of the agent. */
+	private ExecutionMode executionMode;
+	/** Default execution mode associated to a newly instantiated agent. */
+	private static ExecutionMode defaultExecutionMode =
+		ExecutionMode.DEDICATED_THREAD;
+	/** Indicates if the agent is currently scheduled on the shared pool
+	 * (SHARED_POOL execution mode). */
+	private AtomicBoolean scheduled;
+	/** Indicates if the agent was started in SHARED_POOL execution mode. */
+	private volatile boolean poolStarted;
+	/** Indicates if {@link #init() init} has already been called
+	 * (SHARED_POOL execution mode). */
+	private boolean initialized;
+	/** Task scheduled on the shared pool (SHARED_POOL execution mode). */
+	private Runnable activation;
+	/** Released when the agent terminated its execution. */
+	private CountDownLatch terminated;
 	/** The current state of the agent. */
-	private AgentState state;
+	private volatile AgentState state;
 	/** The throwable that was thrown initially after agent was started by
 	 * {@link #init() init} or during message handling
 	 * {@link #messageHandling() messageHandling}. */
@@ -140,6 +240,8 @@ implements Runnable, ErrorHandler {
 	protected String agentName;
 	/** The output stream logs are printed onto. */
 	private PrintStream printStream;
+	/** The log file logs are written to, if any (replaces print stream). */
+	private AsyncLogWriter.Log log;
 
 	/** Error handler associated to this agent. */
 	protected ErrorHandler errorHandler;
@@ -234,10 +336,26 @@ implements Runnable, ErrorHandler {
 	 */
 	public AbstractAgent(ErrorHandler parent, String name, boolean daemon,
 			int capacity) {
-		if(capacity <= 0)
-			incoming = new LinkedBlockingQueue<Object>();
-		else
-			incoming = new LinkedBlockingQueue<Object>(capacity);
+		this(parent, name, daemon, newMailbox(defaultMailboxType, capacity));
+	}
+
+	/**
+	 * Instantiates an <code>AbstractAgent</code> having given error handler,
+	 * name and messages queue.
+	 * 
+	 * @param parent The <code>ErrorHandler</code> to associate to this agent.
+	 * @param name The name to associate to this agent.
+	 * @param daemon Daemon flag for the thread that will execute message
+	 * handling code.
+	 * @param mailbox The incoming messages queue (see
+	 * {@link #submitMessage(Object) submitMessage}), it must not be shared
+	 * with another agent.
+	 * 
+	 * @see ErrorHandler
+	 */
+	public AbstractAgent(ErrorHandler parent, String name, boolean daemon,
+			Mailbox mailbox) {
+		incoming = mailbox;
 		
 		agentName = name;
 		currentVerbosityLevel = defaultVerbosityLevel;
@@ -245,8 +363,14 @@ implements Runnable, ErrorHandler {
 		this.printStream = System.out;
 		this.errorHandler = parent;
 		
-		agentThread = new Thread(this, name);
-		agentThread.setDaemon(daemon);
+		this.daemon = daemon;
+		executionMode = defaultExecutionMode;
+		batchSize = defaultBatchSize;
+		batch = new ArrayList<Object>();
+		highPriority = new HashSet<Class<?>>();
+		highPriority.add(UncaughtThrowable.class);
+		scheduled = new AtomicBoolean(false);
+		terminated = new CountDownLatch(1);
 		state = AgentState.INIT;
 	}
 	
@@ -267,14 +391,173 @@ implements Runnable, ErrorHandler {
 	/**
 	 * Sets the daemon flag of the thread that will execute message
 	 * handling code. This method must be called before the agent is started
-	 * (i.e. before a call to {@link #start()}).
+	 * (i.e. before a call to {@link #start()}). The flag is ignored in
+	 * SHARED_POOL execution mode (the threads of the shared pool are
+	 * daemon threads).
 	 * 
 	 * @param on Value of the daemon flag.
 	 * 
 	 * @see Thread#setDaemon(boolean)
 	 */
 	public void setDaemon(boolean on) {
-		agentThread.setDaemon(on);
+		daemon = on;
+	}
+	
+	/**
+	 * Sets the execution mode of this agent. This method must be called
+	 * before the agent is started (i.e. before a call to {@link #start()}).
+	 * <p>
+	 * An agent whose message handling code blocks for long periods of time
+	 * should be kept in DEDICATED_THREAD mode.
+	 * 
+	 * @param mode The execution mode.
+	 * 
+	 * @throws AgentException If the agent was already started.
+	 */
+	public synchronized void setExecutionMode(ExecutionMode mode)
+	throws AgentException {
+		if( ! state.equals(AgentState.INIT))
+			throw new AgentException("Execution mode cannot be changed: "+state);
+		executionMode = mode;
+	}
+	
+	/**
+	 * Returns the execution mode of this agent.
+	 * 
+	 * @return The execution mode of this agent.
+	 */
+	public synchronized ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/**
+	 * Sets the default execution mode for all agents that will be
+	 * instantiated after this call.
+	 * 
+	 * @param mode An execution mode.
+	 */
+	public static void setDefaultExecutionMode(ExecutionMode mode) {
+		defaultExecutionMode = mode;
+	}
+
+	/**
+	 * Returns the default execution mode of agents.
+	 * 
+	 * @return The default execution mode of agents.
+	 */
+	public static ExecutionMode getDefaultExecutionMode() {
+		return defaultExecutionMode;
+	}
+
+	/**
+	 * Sets the maximum number of messages this agent takes from its queue
+	 * at once. This method must be called before the agent is started (i.e.
+	 * before a call to {@link #start()}).
+	 * <p>
+	 * Taking messages in batches reduces the synchronization cost of agents
+	 * receiving a lot of messages. The state of the agent is checked once
+	 * per batch instead of once per message.
+	 * 
+	 * @param size A number of messages (1 disables batches).
+	 * 
+	 * @throws AgentException If the agent was already started.
+	 */
+	public synchronized void setBatchSize(int size) throws AgentException {
+		if(size < 1)
+			throw new IllegalArgumentException("Batch size must be positive");
+		if( ! state.equals(AgentState.INIT))
+			throw new AgentException("Batch size cannot be changed: "+state);
+		batchSize = size;
+	}
+	
+	/**
+	 * Returns the maximum number of messages this agent takes from its
+	 * queue at once.
+	 * 
+	 * @return A number of messages.
+	 */
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Sets the default batch size for all agents that will be
+	 * instantiated after this call (see {@link #setBatchSize(int)}).
+	 * 
+	 * @param size A number of messages (1 disables batches).
+	 */
+	public static void setDefaultBatchSize(int size) {
+		if(size < 1)
+			throw new IllegalArgumentException("Batch size must be positive");
+		defaultBatchSize = size;
+	}
+
+	/**
+	 * Marks a message type as high priority: the messages of this exact
+	 * class are inserted into the high priority lane of the queue and
+	 * are therefore handled before all normal messages already queued.
+	 * Insertion into this lane never blocks. This method is generally
+	 * called by the constructor of the agent and is typically used for
+	 * time-outs and failure notifications.
+	 * <p>
+	 * Note that, in batch mode, a high priority message queued while a
+	 * batch is being handled is handled after this batch.
+	 * 
+	 * @param type The class of the messages.
+	 */
+	protected synchronized void setHighPriority(Class<?> type) {
+		Set<Class<?>> s = new HashSet<Class<?>>(highPriority);
+		s.add(type);
+		highPriority = s;
+	}
+	
+	/**
+	 * Tells if the messages of given type are high priority messages.
+	 * 
+	 * @param type The class of the messages.
+	 * @return True if the messages of given type are inserted into the
+	 * high priority lane of the queue.
+	 * 
+	 * @see #setHighPriority(Class)
+	 */
+	public boolean isHighPriority(Class<?> type) {
+		return highPriority.contains(type);
+	}
+
+	/**
+	 * Sets the default messages queue implementation for all agents that
+	 * will be instantiated after this call.
+	 * 
+	 * @param type A messages queue implementation.
+	 */
+	public static void setDefaultMailboxType(MailboxType type) {
+		defaultMailboxType = type;
+	}
+
+	/**
+	 * Returns the default messages queue implementation of agents.
+	 * 
+	 * @return The default messages queue implementation of agents.
+	 */
+	public static MailboxType getDefaultMailboxType() {
+		return defaultMailboxType;
+	}
+	
+	/**
+	 * Instantiates a messages queue.
+	 * 
+	 * @param type The implementation of the queue.
+	 * @param capacity The capacity of the queue, 0 for an unbounded queue.
+	 * 
+	 * @return A new messages queue.
+	 */
+	public static Mailbox newMailbox(MailboxType type, int capacity) {
+		if(type.equals(MailboxType.BLOCKING_QUEUE))
+			return new BlockingQueueMailbox(capacity);
+		else if(capacity <= 0)
+			return new MpscMailbox();
+		else
+			return new ArrayMailbox(capacity);
 	}
 
 	/**
@@ -326,7 +609,7 @@ implements Runnable, ErrorHandler {
 	 */
 	public synchronized void stop() throws InterruptedException, AgentException {
 		if(state.equals(AgentState.RUNNING)) {
-			incoming.put(new StopAgent());
+			enqueue(new StopAgent());
 		} else {
 			throw new AgentException("Agent cannot be stopped: "+state);
 		}
@@ -342,7 +625,20 @@ implements Runnable, ErrorHandler {
 		if(state.equals(AgentState.INIT)) {
 			state = AgentState.RUNNING;
 
-			agentThread.start();
+			if(executionMode.equals(ExecutionMode.SHARED_POOL)) {
+				activation = new Runnable() {
+					@Override
+					public void run() {
+						runActivation();
+					}
+				};
+				poolStarted = true;
+				schedule();
+			} else {
+				agentThread = new Thread(this, agentName);
+				agentThread.setDaemon(daemon);
+				agentThread.start();
+			}
 		} else {
 			throw new AgentException("Agent cannot be started: "+state);
 		}
@@ -362,11 +658,12 @@ implements Runnable, ErrorHandler {
 	
 	/**
 	 * Provides the current state of the agent. This method allows the
-	 * thread-safe access to the state of the agent.
+	 * thread-safe access to the state of the agent (the state is volatile,
+	 * the message handling loop reads it without locking).
 	 * 
 	 * @return The current state of the agent.
 	 */
-	public synchronized AgentState getState() {
+	public AgentState getState() {
 		return state;
 	}
 
@@ -377,7 +674,15 @@ implements Runnable, ErrorHandler {
 	 * @throws AgentException 
 	 */
 	public void join() throws InterruptedException {
-		agentThread.join();
+		AgentScheduler.beginBlocking();
+		try {
+			if(poolStarted)
+				terminated.await();
+			else if(agentThread != null)
+				agentThread.join();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
 	}
 	
 	/**
@@ -389,7 +694,15 @@ implements Runnable, ErrorHandler {
 	 * @throws InterruptedException if this thread is interrupted.
 	 */
 	public void join(long millis) throws InterruptedException {
-		agentThread.join(millis);
+		AgentScheduler.beginBlocking();
+		try {
+			if(poolStarted)
+				terminated.await(millis, TimeUnit.MILLISECONDS);
+			else if(agentThread != null)
+				agentThread.join(millis);
+		} finally {
+			AgentScheduler.endBlocking();
+		}
 	}
 
 
@@ -426,6 +739,87 @@ implements Runnable, ErrorHandler {
 			setState(AgentState.STOPPED);
 		}
 
+		terminate();
+	}
+	
+	
+	/**
+	 * Executes the agent on a worker thread of the shared pool
+	 * (SHARED_POOL execution mode): initializes the agent if needed and
+	 * handles at most {@link AgentScheduler#getQuantum()} messages. If
+	 * messages are still queued afterwards, the agent is re-scheduled.
+	 */
+	private void runActivation() {
+		
+		// Init
+		if( ! initialized) {
+			initialized = true;
+			try {
+				init();
+			} catch (Throwable e) {
+				error = e;
+				setState(AgentState.STOPPED);
+			}
+		}
+		
+		// Message handling
+		try {
+			int quantum = AgentScheduler.getQuantum();
+			AgentState currentState = getState();
+			if(batchSize > 1) {
+				int handled = 0;
+				while(handled < quantum &&
+						! currentState.equals(AgentState.STOPPED)) {
+					int n = incoming.drainTo(batch,
+							Math.min(batchSize, quantum - handled));
+					if(n == 0)
+						break;
+					handled += n;
+					handleBatch();
+					currentState = getState();
+				}
+			} else {
+				for(int i = 0; i < quantum &&
+					! currentState.equals(AgentState.STOPPED); ++i) {
+					Object o = incoming.poll();
+					if(o == null)
+						break;
+					handleQueuedObject(o);
+					currentState = getState();
+				}
+			}
+		} catch (Throwable t) {
+			error = t;
+			setState(AgentState.STOPPED);
+		}
+		
+		if(getState().equals(AgentState.STOPPED)) {
+			// Agent stays marked as scheduled: it is never executed again.
+			terminate();
+			return;
+		}
+		
+		scheduled.set(false);
+		if( ! incoming.isEmpty())
+			schedule();
+	}
+	
+	
+	/**
+	 * Schedules the agent on the shared pool if it is not already scheduled
+	 * (SHARED_POOL execution mode).
+	 */
+	private void schedule() {
+		if(scheduled.compareAndSet(false, true))
+			AgentScheduler.execute(activation);
+	}
+	
+	
+	/**
+	 * Forwards the error (if any) to error handler, calls
+	 * {@link #exit() exit} and signals the termination of the agent.
+	 */
+	private void terminate() {
 		// Exit
 		if(error != null) {
 			agentPrintMessage(error);
@@ -433,7 +827,11 @@ implements Runnable, ErrorHandler {
 				errorHandler.signalChildError(error, agentName);
 		}
 
-		exit();
+		try {
+			exit();
+		} finally {
+			terminated.countDown();
+		}
 	}
 
 	
@@ -454,13 +852,84 @@ implements Runnable, ErrorHandler {
 	/**
 	 * This method tries to take a message from messages queue.
 	 * If no message is available, the method blocks until a message
-	 * is inserted.
+	 * is inserted. In batch mode, the messages inserted meanwhile are
+	 * taken too, up to batch size.
 	 * 
 	 * @throws Throwable If the handling of a message generated an error. 
 	 * 
 	 */
 	private void messageHandling() throws Throwable {
-		Object o = incoming.take();
+		if(batchSize > 1) {
+			batch.add(incoming.take());
+			incoming.drainTo(batch, batchSize - 1);
+			handleBatch();
+		} else {
+			handleQueuedObject(incoming.take());
+		}
+	}
+	
+	/**
+	 * Handles the messages of current batch. Consecutive messages are given
+	 * at once to {@link #handleMessages(List)}, stop and error events are
+	 * handled in between by {@link #handleQueuedObject(Object)}. If the
+	 * agent is stopped or an error is thrown, the messages following the
+	 * stop event or the failed messages are kept in the batch (see
+	 * {@link #flushPendingMessages()}).
+	 * 
+	 * @throws Throwable If the handling of a message generated an error. 
+	 */
+	private void handleBatch() throws Throwable {
+		int size = batch.size();
+		while(batchPos < size) {
+			Object o = batch.get(batchPos);
+			if(isControlObject(o)) {
+				++batchPos;
+				handleQueuedObject(o);
+				if(getState().equals(AgentState.STOPPED))
+					return;
+			} else {
+				int end = batchPos + 1;
+				while(end < size && ! isControlObject(batch.get(end)))
+					++end;
+				List<Object> run = batch.subList(batchPos, end);
+				unhandledInRun = end - batchPos;
+				batchPos = end;
+				try {
+					handleMessages(run);
+				} catch(Throwable t) {
+					// Messages following the failed one are still pending
+					if(runTracked)
+						batchPos = end - unhandledInRun;
+					throw t;
+				} finally {
+					unhandledInRun = 0;
+					runTracked = false;
+				}
+			}
+		}
+		batch.clear();
+		batchPos = 0;
+	}
+	
+	/**
+	 * Tells if an object taken from queue is handled by this class instead
+	 * of {@link #handleMessage(Object)}.
+	 * 
+	 * @param o The object.
+	 * @return True if the object is a stop or error event.
+	 */
+	private static boolean isControlObject(Object o) {
+		return o instanceof StopAgent || o instanceof Throwable;
+	}
+	
+	/**
+	 * Handles an object taken from messages queue.
+	 * 
+	 * @param o The object taken from queue.
+	 * 
+	 * @throws Throwable If the handling of a message generated an error. 
+	 */
+	private void handleQueuedObject(Object o) throws Throwable {
 		if(o instanceof StopAgent) {
 			agentPrintMessage("StopAgent event taken from queue.");
 			setState(AgentState.STOPPED);
@@ -483,7 +952,86 @@ implements Runnable, ErrorHandler {
 	 * thread is interrupted.
 	 */
 	protected void submitMessage(Object o) throws InterruptedException {
-		incoming.put(o);
+		enqueue(o);
+	}
+	
+	/**
+	 * Inserts an object into messages queue and, in SHARED_POOL execution
+	 * mode, schedules the agent.
+	 * 
+	 * @param o The object to insert into the queue.
+	 * 
+	 * @throws InterruptedException If the call is blocking and executing
+	 * thread is interrupted.
+	 */
+	private void enqueue(Object o) throws InterruptedException {
+		if(highPriority.contains(o.getClass()))
+			incoming.putUrgent(o);
+		else
+			incoming.put(o);
+		if(poolStarted)
+			schedule();
+	}
+	
+	
+	/**
+	 * Schedules the insertion of a message into messages queue after
+	 * given delay. The time-out is handled by the
+	 * {@link TimerWheel#getSharedWheel() shared timer wheel}.
+	 * 
+	 * @param o The message to insert into the queue.
+	 * @param delay The delay in milliseconds.
+	 * 
+	 * @return The time-out, which can be used to cancel the insertion.
+	 */
+	protected Timeout scheduleMessage(Object o, long delay) {
+		return TimerWheel.getSharedWheel().schedule(
+				new ScheduledSubmission(o), delay);
+	}
+	
+	/**
+	 * Schedules the periodic insertion of a message into messages queue.
+	 * The same message instance is inserted at each expiration.
+	 * The time-out is handled by the
+	 * {@link TimerWheel#getSharedWheel() shared timer wheel}.
+	 * 
+	 * @param o The message to insert into the queue.
+	 * @param delay The delay in milliseconds before the first insertion.
+	 * @param period The delay in milliseconds between 2 insertions.
+	 * 
+	 * @return The time-out, which can be used to cancel the insertions.
+	 */
+	protected Timeout scheduleMessageAtFixedRate(Object o, long delay,
+			long period) {
+		return TimerWheel.getSharedWheel().scheduleAtFixedRate(
+				new ScheduledSubmission(o), delay, period);
+	}
+	
+	/**
+	 * The task inserting a message into messages queue when a time-out
+	 * expires.
+	 */
+	private class ScheduledSubmission implements Runnable {
+		/** The message to insert. */
+		private Object msg;
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param msg The message to insert.
+		 */
+		public ScheduledSubmission(Object msg) {
+			this.msg = msg;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				submitMessage(msg);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
 	
@@ -519,11 +1067,67 @@ implements Runnable, ErrorHandler {
 	public void agentPrintMessage(int verbLevel, String message) {
 		if(agentName == null)
 			throw new Error("Agent name not set");
-		if(verbLevel >= currentVerbosityLevel)
+		if(verbLevel < currentVerbosityLevel)
+			return;
+		if(log != null)
+			log.println(agentName, message);
+		else
 			printStream.println("["+agentName+"] "+message);
 	}
 	
 	
+	/**
+	 * Logs a message given as a pattern and arguments if given verbosity
+	 * level is high enough (see {@link #agentPrintMessage(int, String)}).
+	 * Each "{}" in the pattern is replaced by the next argument. The
+	 * message is only formatted if it is printed; when the agent logs to a
+	 * file, it is formatted by the log writer thread (see
+	 * {@link AsyncLogWriter}) and arguments must therefore not be modified
+	 * after the call.
+	 * 
+	 * @param verbLevel Message's verbosity level
+	 * @param pattern The pattern of the message.
+	 * @param args The arguments.
+	 */
+	public void agentPrintMessage(int verbLevel, String pattern,
+			Object... args) {
+		if(agentName == null)
+			throw new Error("Agent name not set");
+		if(verbLevel < currentVerbosityLevel)
+			return;
+		if(log != null)
+			log.println(agentName, pattern, args);
+		else
+			printStream.println("["+agentName+"] "+
+					AsyncLogWriter.format(pattern, args));
+	}
+	
+	
+	/**
+	 * Logs a message given as a pattern and arguments if current verbosity
+	 * level is lesser or equal to 0 (see
+	 * {@link #agentPrintMessage(int, String, Object...)}).
+	 * 
+	 * @param pattern The pattern of the message.
+	 * @param args The arguments.
+	 */
+	public void agentPrintMessage(String pattern, Object... args) {
+		agentPrintMessage(0, pattern, args);
+	}
+	
+	
+	/**
+	 * Tells if a message of given verbosity level would be printed. This
+	 * allows to skip the building of messages that are not printed.
+	 * 
+	 * @param verbLevel A verbosity level.
+	 * @return True if a message of given verbosity level is printed.
+	 */
+	public boolean isLogged(int verbLevel) {
+		return verbLevel >= currentVerbosityLevel;
+	}
+	
+	
 	/**
 	 * Logs a message on standard output if current verbosity level is lesser
 	 * or equal to 0.
@@ -544,7 +1148,10 @@ implements Runnable, ErrorHandler {
 	 * @param e The given <code>Throwable</code> instance.
 	 */
 	public void agentPrintMessage(Throwable e) {
-		e.printStackTrace(printStream);
+		if(log != null)
+			log.printStackTrace(e);
+		else
+			e.printStackTrace(printStream);
 	}
 
 
@@ -557,14 +1164,28 @@ implements Runnable, ErrorHandler {
 	 */
 	protected LinkedList<Object> flushPendingMessages() {
 		LinkedList<Object> list = new LinkedList<Object>();
-		while(incoming.size() > 0) {
-			Object o = incoming.poll();
+		list.addAll(batch.subList(batchPos, batch.size()));
+		batch.clear();
+		batchPos = 0;
+		Object o;
+		while((o = incoming.poll()) != null)
 			list.add(o);
-		}
 		return list;
 	}
 	
 	
+	/**
+	 * Tells if messages are waiting in message queue. In batch mode,
+	 * messages of current batch not yet handled are also waiting.
+	 * 
+	 * @return True if message queue is not empty.
+	 */
+	protected boolean hasPendingMessages() {
+		return unhandledInRun > 0 || batchPos < batch.size() ||
+			! incoming.isEmpty();
+	}
+	
+	
 	/**
 	 * Sets the default print stream this agent logs to.
 	 * The access to the print stream is not thread-safe.
@@ -573,6 +1194,18 @@ implements Runnable, ErrorHandler {
 	 */
 	protected void setPrintStream(PrintStream printStream) {
 		this.printStream = printStream;
+		this.log = null;
+	}
+	
+	
+	/**
+	 * Sets the log file this agent logs to. Logs are written by the log
+	 * writer of the JVM instead of the logging thread.
+	 * 
+	 * @param log A log file.
+	 */
+	void setLog(AsyncLogWriter.Log log) {
+		this.log = log;
 	}
 
 
@@ -583,7 +1216,8 @@ implements Runnable, ErrorHandler {
 	 */
 	protected void setAgentName(String name) {
 		this.agentName = name;
-		agentThread.setName(name);
+		if(agentThread != null)
+			agentThread.setName(name);
 	}
 
 	
@@ -624,6 +1258,27 @@ implements Runnable, ErrorHandler {
 	protected abstract void handleMessage(Object o) throws Throwable;
 	
 	
+	/**
+	 * Handles consecutive messages taken from the queue in batch mode (see
+	 * {@link #setBatchSize(int)}). The default implementation calls
+	 * {@link #handleMessage(Object)} for each message. Overriding
+	 * implementations see the messages of the list as pending (see
+	 * {@link #hasPendingMessages()}) until they return.
+	 * 
+	 * @param messages The messages, in queue order. The list is reused
+	 * and must not be kept after the call.
+	 * 
+	 * @throws Throwable If an error occurred during message handling.
+	 */
+	protected void handleMessages(List<Object> messages) throws Throwable {
+		runTracked = true;
+		for(Object o : messages) {
+			--unhandledInRun;
+			handleMessage(o);
+		}
+	}
+	
+	
 	/**
 	 * Implements the operations to be executed when agent enters STOPPED state.
 	 * The agent enters this state because a stop event was taken from
@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * @author Gerard Dethier
+ * 
+ * The agent scheduler is the shared, bounded thread pool running the agents
+ * that are in {@link AbstractAgent.ExecutionMode#SHARED_POOL SHARED_POOL}
+ * execution mode. Such agents do not own a thread: an agent is scheduled on
+ * the pool when messages are inserted into its queue and releases its
+ * worker thread when its queue is empty (or after a given number of
+ * messages, in order to be fair with other agents). An agent is never
+ * executed by more than one worker thread at a time, the message handling
+ * code of an agent is therefore still executed sequentially.
+ * <p>
+ * A worker thread executing an agent may block (for example, when an agent
+ * waits for the termination of another agent, see
+ * {@link AbstractAgent#join()}). In order to prevent the pool from being
+ * exhausted by blocked workers, blocking calls are surrounded by
+ * {@link #beginBlocking()} and {@link #endBlocking()}: while a worker is
+ * blocked, the pool is temporarily allowed to run an additional thread.
+ * The pool only grows when the number of blocked workers exceeds the
+ * number of additional threads already allowed; it shrinks lazily, when
+ * a task is submitted.
+ * <p>
+ * The pool is lazily instantiated the first time an agent is scheduled on it.
+ * Its worker threads are daemon threads.
+ */
+public class AgentScheduler {
+
+	/** Default number of threads of the shared pool. */
+	public static final int DEFAULT_POOL_SIZE =
+		Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+	/** Default maximum number of messages handled by an agent before it
+	 * releases its worker thread. */
+	public static final int DEFAULT_QUANTUM = 64;
+
+	/** Number of threads of the shared pool. */
+	private static int poolSize = DEFAULT_POOL_SIZE;
+	/** Maximum number of messages handled by an agent before it
+	 * releases its worker thread. */
+	private static int quantum = DEFAULT_QUANTUM;
+	/** The shared pool. */
+	private static volatile ThreadPoolExecutor pool;
+	/** Current core and maximum size of the shared pool. */
+	private static volatile int currentSize;
+	/** Number of workers currently blocked. */
+	private static final AtomicInteger blockedWorkers = new AtomicInteger();
+
+	/** Marks the threads of the shared pool. */
+	private static final ThreadLocal<Boolean> isWorker =
+		new ThreadLocal<Boolean>();
+
+
+	/**
+	 * Sets the number of threads of the shared pool. This method must be
+	 * called before the first agent is scheduled on the pool.
+	 * 
+	 * @param size The number of threads.
+	 * 
+	 * @throws AgentException If the pool was already instantiated.
+	 */
+	public static synchronized void setPoolSize(int size)
+	throws AgentException {
+		if(size <= 0)
+			throw new IllegalArgumentException("Pool size must be positive");
+		if(pool != null)
+			throw new AgentException("Shared agent pool already running");
+		poolSize = size;
+	}
+
+	/**
+	 * Returns the number of threads of the shared pool.
+	 * 
+	 * @return The number of threads of the shared pool.
+	 */
+	public static synchronized int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Sets the maximum number of messages an agent handles before it
+	 * releases its worker thread.
+	 * 
+	 * @param n The maximum number of messages.
+	 */
+	public static void setQuantum(int n) {
+		if(n <= 0)
+			throw new IllegalArgumentException("Quantum must be positive");
+		quantum = n;
+	}
+
+	/**
+	 * Returns the maximum number of messages an agent handles before it
+	 * releases its worker thread.
+	 * 
+	 * @return The quantum.
+	 */
+	public static int getQuantum() {
+		return quantum;
+	}
+
+	/**
+	 * Tells if the current thread is a worker thread of the shared pool.
+	 * 
+	 * @return True if the current thread is a worker of the shared pool.
+	 */
+	public static boolean isWorkerThread() {
+		return isWorker.get() != null;
+	}
+
+	/**
+	 * Signals the current thread is going to block. If the current thread is
+	 * a worker of the shared pool, an additional thread is allowed in the
+	 * pool until {@link #endBlocking()} is called. Otherwise, this call
+	 * has no effect.
+	 */
+	public static void beginBlocking() {
+		if( ! isWorkerThread())
+			return;
+
+		int size = poolSize + blockedWorkers.incrementAndGet();
+		if(size > currentSize)
+			resize();
+	}
+
+	/**
+	 * Signals the current thread is not blocked anymore. This method must be
+	 * called after each call to {@link #beginBlocking()}.
+	 */
+	public static void endBlocking() {
+		if( ! isWorkerThread())
+			return;
+
+		blockedWorkers.decrementAndGet();
+	}
+
+	/**
+	 * Submits a task to the shared pool.
+	 * 
+	 * @param task The task.
+	 */
+	static void execute(Runnable task) {
+		ThreadPoolExecutor p = pool;
+		if(p == null)
+			p = getPool();
+		else if(currentSize > poolSize + blockedWorkers.get())
+			resize();
+		p.execute(task);
+	}
+
+	/**
+	 * Adapts the size of the shared pool to the number of blocked workers.
+	 */
+	private static synchronized void resize() {
+		int size = poolSize + blockedWorkers.get();
+		if(size > currentSize) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		} else if(size < currentSize) {
+			pool.setCorePoolSize(size);
+			pool.setMaximumPoolSize(size);
+		}
+		currentSize = size;
+	}
+
+	/**
+	 * Returns the shared pool, instantiates it if needed.
+	 * 
+	 * @return The shared pool.
+	 */
+	private static synchronized ThreadPoolExecutor getPool() {
+		if(pool == null) {
+			ThreadPoolExecutor p = new ThreadPoolExecutor(poolSize, poolSize,
+				10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private int nextId = 0;
+
+					@Override
+					public synchronized Thread newThread(final Runnable r) {
+						Thread t = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								isWorker.set(Boolean.TRUE);
+								r.run();
+							}
+						}, "AgentScheduler-worker-"+(nextId++));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			currentSize = poolSize;
+			pool = p;
+		}
+		return pool;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A bounded lock-free mailbox for multiple producers and a single consumer.
+ * <p>
+ * Messages are stored in a ring of slots, each slot having a sequence
+ * number telling if it is free or holds a message for a given position.
+ * Producers reserve a position with a compare-and-set on the tail counter;
+ * the consumer takes messages without any atomic operation. Producers
+ * finding the mailbox full park until the consumer frees half of the
+ * slots.
+ * <p>
+ * The high priority lane is an unbounded linked list (see
+ * {@link LinkedLane}). As in {@link MpscMailbox}, the consumer only parks
+ * when the mailbox is empty and only unparks producers when some are
+ * blocked.
+ * 
+ * @author Gerard Dethier
+ */
+public class ArrayMailbox implements Mailbox {
+	
+	/** Maximum time in nanoseconds a blocked producer waits before
+	 * checking again if a slot was freed */
+	private static final long MAX_WAIT = 1000000;
+	
+	private Object[] slots;
+	private AtomicLongArray sequences;
+	private int mask;
+	
+	/** The high priority lane */
+	private LinkedLane urgent;
+	/** Next position to take, only accessed by the consumer */
+	private long head;
+	/** Next position to reserve */
+	private AtomicLong tail;
+	/** The consumer if it is parked, null otherwise */
+	private AtomicReference<Thread> waiter;
+	/** Number of producers waiting for a free slot */
+	private AtomicInteger blockedProducers;
+	/** Producers waiting for a free slot */
+	private ConcurrentLinkedQueue<Thread> blocked;
+	
+	
+	/**
+	 * Instantiates a mailbox.
+	 * 
+	 * @param capacity The minimum capacity of the mailbox, rounded up to a
+	 * power of 2.
+	 */
+	public ArrayMailbox(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+			size <<= 1;
+		
+		slots = new Object[size];
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; ++i)
+			sequences.set(i, i);
+		mask = size - 1;
+		tail = new AtomicLong();
+		urgent = new LinkedLane();
+		waiter = new AtomicReference<Thread>();
+		blockedProducers = new AtomicInteger();
+		blocked = new ConcurrentLinkedQueue<Thread>();
+	}
+	
+	/**
+	 * @return The capacity of the mailbox.
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	@Override
+	public void put(Object o) throws InterruptedException {
+		long pos;
+		boolean yielded = false;
+		while(true) {
+			pos = tail.get();
+			long diff = sequences.get((int) pos & mask) - pos;
+			if(diff == 0) {
+				if(tail.compareAndSet(pos, pos + 1))
+					break;
+			} else if(diff < 0) {
+				// Full: gives the consumer a chance to run before parking
+				if( ! yielded) {
+					Thread.yield();
+					yielded = true;
+				} else {
+					waitFreeSlot(pos);
+				}
+			}
+		}
+		
+		int i = (int) pos & mask;
+		slots[i] = o;
+		sequences.set(i, pos + 1); // Publishes the message
+		wakeUpConsumer();
+	}
+
+	@Override
+	public void putUrgent(Object o) {
+		urgent.add(o);
+		wakeUpConsumer();
+	}
+	
+	private void wakeUpConsumer() {
+		// Only one producer unparks the consumer
+		if(waiter.get() != null) {
+			Thread w = waiter.getAndSet(null);
+			if(w != null)
+				LockSupport.unpark(w);
+		}
+	}
+
+	@Override
+	public Object poll() {
+		Object u = urgent.poll();
+		if(u != null)
+			return u;
+		
+		int i = (int) head & mask;
+		if(sequences.get(i) != head + 1)
+			return null;
+		Object o = slots[i];
+		slots[i] = null;
+		sequences.set(i, head + slots.length); // Frees the slot
+		++head;
+		
+		// Blocked producers are woken up once half of the slots are free
+		if(blockedProducers.get() > 0 && tail.get() - head <= slots.length / 2)
+			for(Thread t : blocked)
+				LockSupport.unpark(t);
+		return o;
+	}
+
+	@Override
+	public Object take() throws InterruptedException {
+		Object o;
+		while((o = poll()) == null) {
+			waiter.set(Thread.currentThread());
+			if(isEmpty())
+				LockSupport.park(this);
+			waiter.set(null);
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+		return o;
+	}
+
+	@Override
+	public int drainTo(Collection<Object> c, int max) {
+		int n = 0;
+		Object o;
+		while(n < max && (o = poll()) != null) {
+			c.add(o);
+			++n;
+		}
+		return n;
+	}
+
+	/**
+	 * Blocks a producer until the slot of a position is freed by the
+	 * consumer (or a time-out expires). The producer may be woken up later
+	 * than the release of the slot (see {@link #poll()}).
+	 * 
+	 * @param pos The position.
+	 * 
+	 * @throws InterruptedException If the producer was interrupted.
+	 */
+	private void waitFreeSlot(long pos) throws InterruptedException {
+		Thread t = Thread.currentThread();
+		blockedProducers.incrementAndGet();
+		blocked.add(t);
+		try {
+			// Registration must be visible before the last check: the
+			// consumer freeing the slot after the check unparks producer.
+			if(sequences.get((int) pos & mask) - pos < 0)
+				LockSupport.parkNanos(this, MAX_WAIT);
+		} finally {
+			blocked.remove(t);
+			blockedProducers.decrementAndGet();
+		}
+		if(Thread.interrupted())
+			throw new InterruptedException();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return urgent.isEmpty() &&
+			sequences.get((int) head & mask) != head + 1;
+	}
+
+}
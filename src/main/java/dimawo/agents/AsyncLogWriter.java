@@ -0,0 +1,359 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * @author Gerard Dethier
+ * 
+ * The log writer of the JVM: a single thread writing the logs of all
+ * {@link LoggingAgent logging agents} into their files. Logging threads
+ * only insert a record into a bounded ring buffer (an {@link ArrayMailbox});
+ * formatting, writing and flushing are done by the writer thread. Files are
+ * flushed each time the ring buffer has been emptied. A logging thread only
+ * blocks if the ring buffer is full.
+ * <p>
+ * Log lines can be given as a pattern and arguments (see
+ * {@link #format(String, Object[])}). In this case, the line is formatted by
+ * the writer thread: arguments must therefore not be modified after they
+ * were logged (numbers, strings, identifiers, etc. are safe).
+ * <p>
+ * The writer is lazily instantiated the first time a log file is opened.
+ * Its thread is a daemon thread; the records still in the ring buffer are
+ * written when the JVM shuts down.
+ */
+public class AsyncLogWriter implements Runnable {
+	
+	/** Default capacity of the ring buffer. */
+	public static final int DEFAULT_CAPACITY = 8192;
+	/** Size of the buffer of a log file. */
+	private static final int FILE_BUFFER_SIZE = 16384;
+	/** Maximum number of records taken from the ring buffer at once. */
+	private static final int BATCH_SIZE = 256;
+	/** Maximum time the shutdown of the JVM is delayed by pending records. */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	
+	/** Capacity of the ring buffer of the writer. */
+	private static int defaultCapacity = DEFAULT_CAPACITY;
+	/** The writer of the JVM. */
+	private static AsyncLogWriter instance;
+	
+	/**
+	 * A log file written by the writer.
+	 */
+	public static class Log {
+		private AsyncLogWriter writer;
+		/** The file stream, only accessed by the writer thread. */
+		private PrintStream out;
+		/** True if the stream was written since last flush (writer thread). */
+		private boolean dirty;
+		
+		private Log(AsyncLogWriter writer, PrintStream out) {
+			this.writer = writer;
+			this.out = out;
+		}
+		
+		/**
+		 * Logs a line.
+		 * 
+		 * @param source The name of the logging component, printed between
+		 * brackets before the line (may be null).
+		 * @param message The line.
+		 */
+		public void println(String source, String message) {
+			writer.submit(new Record(this, Record.LINE, source, message,
+					null, null));
+		}
+		
+		/**
+		 * Logs a line given as a pattern and arguments, the line being
+		 * formatted by the writer thread.
+		 * 
+		 * @param source The name of the logging component, printed between
+		 * brackets before the line (may be null).
+		 * @param pattern The pattern of the line.
+		 * @param args The arguments.
+		 * 
+		 * @see AsyncLogWriter#format(String, Object[])
+		 */
+		public void println(String source, String pattern, Object[] args) {
+			writer.submit(new Record(this, Record.LINE, source, pattern,
+					args, null));
+		}
+		
+		/**
+		 * Logs the stack trace of a Throwable.
+		 * 
+		 * @param t The Throwable.
+		 */
+		public void printStackTrace(Throwable t) {
+			writer.submit(new Record(this, Record.STACK_TRACE, null, null,
+					null, t));
+		}
+		
+		/**
+		 * Closes the log file after all the records already logged
+		 * have been written. Following records are ignored.
+		 */
+		public void close() {
+			writer.submit(new Record(this, Record.CLOSE, null, null,
+					null, null));
+		}
+	}
+	
+	/** A record of the ring buffer. */
+	private static class Record {
+		private static final int LINE = 0;
+		private static final int STACK_TRACE = 1;
+		private static final int CLOSE = 2;
+		private static final int SYNC = 3;
+		
+		private final Log log;
+		private final int type;
+		private final String source;
+		private final String text;
+		private final Object[] args;
+		private final Throwable error;
+		private final CountDownLatch sync;
+		
+		public Record(Log log, int type, String source, String text,
+				Object[] args, Throwable error) {
+			this.log = log;
+			this.type = type;
+			this.source = source;
+			this.text = text;
+			this.args = args;
+			this.error = error;
+			this.sync = type == SYNC ? new CountDownLatch(1) : null;
+		}
+	}
+	
+	/** The ring buffer. */
+	private ArrayMailbox ring;
+	/** The log files written since last flush (writer thread). */
+	private ArrayList<Log> dirty;
+	/** The writer thread. */
+	private Thread thread;
+	
+	
+	private AsyncLogWriter(int capacity) {
+		ring = new ArrayMailbox(capacity);
+		dirty = new ArrayList<Log>();
+		
+		thread = new Thread(this, "AsyncLogWriter");
+		thread.setDaemon(true);
+		thread.start();
+		
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					sync(SHUTDOWN_TIMEOUT);
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Sets the capacity of the ring buffer of the writer. This method has no
+	 * effect once the writer has been instantiated.
+	 * 
+	 * @param capacity A number of records.
+	 */
+	public static void setDefaultCapacity(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		defaultCapacity = capacity;
+	}
+	
+	/**
+	 * Returns the writer of the JVM, the writer being instantiated if
+	 * necessary.
+	 * 
+	 * @return The writer of the JVM.
+	 */
+	public static synchronized AsyncLogWriter getInstance() {
+		if(instance == null)
+			instance = new AsyncLogWriter(defaultCapacity);
+		return instance;
+	}
+	
+	/**
+	 * Opens (and truncates) a log file.
+	 * 
+	 * @param file The file.
+	 * @return The log file.
+	 * 
+	 * @throws FileNotFoundException If the file could not be opened.
+	 */
+	public Log open(File file) throws FileNotFoundException {
+		return new Log(this, new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(file), FILE_BUFFER_SIZE), false));
+	}
+	
+	/**
+	 * Waits until all the records logged before this call have been written
+	 * and files flushed.
+	 * 
+	 * @param millis Maximum waiting time in milliseconds.
+	 * @return True if the records have been written, false if the
+	 * waiting time elapsed.
+	 * 
+	 * @throws InterruptedException If the calling thread was interrupted.
+	 */
+	public boolean sync(long millis) throws InterruptedException {
+		Record r = new Record(null, Record.SYNC, null, null, null, null);
+		submit(r);
+		return r.sync.await(millis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Inserts a record into the ring buffer.
+	 * 
+	 * @param r The record.
+	 */
+	private void submit(Record r) {
+		try {
+			ring.put(r);
+		} catch (InterruptedException e) {
+			// The record is not lost, it may only be written out of order.
+			ring.putUrgent(r);
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void run() {
+		ArrayList<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+		while(true) {
+			try {
+				batch.add(ring.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+			ring.drainTo(batch, BATCH_SIZE - 1);
+			
+			for(int i = 0; i < batch.size(); ++i) {
+				try {
+					write((Record) batch.get(i));
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			batch.clear();
+			
+			if(ring.isEmpty())
+				flushAll();
+		}
+	}
+	
+	/**
+	 * Writes a record (writer thread).
+	 * 
+	 * @param r The record.
+	 */
+	private void write(Record r) {
+		if(r.type == Record.SYNC) {
+			flushAll();
+			r.sync.countDown();
+			return;
+		}
+		
+		Log log = r.log;
+		PrintStream out = log.out;
+		if(out == null)
+			return; // Closed
+		
+		if(r.type == Record.CLOSE) {
+			out.close();
+			log.out = null;
+			return;
+		}
+		
+		if(r.type == Record.STACK_TRACE) {
+			r.error.printStackTrace(out);
+		} else {
+			if(r.source != null) {
+				out.print('[');
+				out.print(r.source);
+				out.print("] ");
+			}
+			if(r.args == null)
+				out.println(r.text);
+			else
+				out.println(format(r.text, r.args));
+		}
+		
+		if( ! log.dirty) {
+			log.dirty = true;
+			dirty.add(log);
+		}
+	}
+	
+	/**
+	 * Flushes the log files written since last flush (writer thread).
+	 */
+	private void flushAll() {
+		for(Log l : dirty) {
+			l.dirty = false;
+			if(l.out != null)
+				l.out.flush();
+		}
+		dirty.clear();
+	}
+	
+	/**
+	 * Formats a line given as a pattern and arguments: each occurrence of
+	 * "{}" in the pattern is replaced by the string representation of the
+	 * next argument. Arguments without placeholder are ignored.
+	 * 
+	 * @param pattern A pattern.
+	 * @param args The arguments.
+	 * @return The formatted line.
+	 */
+	public static String format(String pattern, Object[] args) {
+		if(args == null || args.length == 0)
+			return pattern;
+		
+		StringBuilder b = new StringBuilder(pattern.length() + 16 * args.length);
+		int from = 0;
+		for(int i = 0; i < args.length; ++i) {
+			int at = pattern.indexOf("{}", from);
+			if(at < 0)
+				break;
+			b.append(pattern, from, at).append(args[i]);
+			from = at + 2;
+		}
+		b.append(pattern, from, pattern.length());
+		return b.toString();
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * A mailbox based on a {@link LinkedBlockingQueue}. Each insertion and
+ * removal takes a lock.
+ * <p>
+ * The high priority lane is a separate queue. In order to wake the consumer
+ * up if it is waiting, a marker is also inserted into the blocking queue
+ * for each high priority message; markers are skipped by the consumer.
+ * 
+ * @author Gerard Dethier
+ */
+public class BlockingQueueMailbox implements Mailbox {
+	
+	/** Marker inserted into the blocking queue to wake the consumer up */
+	private static final Object WAKE_UP = new Object();
+	
+	private LinkedBlockingQueue<Object> queue;
+	private ConcurrentLinkedQueue<Object> urgent;
+	/** Set once a message was inserted into the high priority lane */
+	private volatile boolean urgentUsed;
+	
+	
+	/**
+	 * Instantiates a mailbox.
+	 * 
+	 * @param capacity The capacity of the mailbox, 0 for an unbounded
+	 * mailbox.
+	 */
+	public BlockingQueueMailbox(int capacity) {
+		if(capacity <= 0)
+			queue = new LinkedBlockingQueue<Object>();
+		else
+			queue = new LinkedBlockingQueue<Object>(capacity);
+		urgent = new ConcurrentLinkedQueue<Object>();
+	}
+
+	@Override
+	public void put(Object o) throws InterruptedException {
+		queue.put(o);
+	}
+
+	@Override
+	public void putUrgent(Object o) {
+		urgent.add(o);
+		urgentUsed = true;
+		// If the queue is full, the consumer is not waiting
+		queue.offer(WAKE_UP);
+	}
+
+	@Override
+	public Object poll() {
+		if( ! urgentUsed)
+			return queue.poll();
+		
+		Object o = urgent.poll();
+		while(o == null) {
+			o = queue.poll();
+			if(o != WAKE_UP)
+				return o;
+			o = urgent.poll();
+		}
+		return o;
+	}
+
+	@Override
+	public Object take() throws InterruptedException {
+		Object o = poll();
+		while(o == null) {
+			o = queue.take();
+			if(o == WAKE_UP)
+				o = poll();
+		}
+		return o;
+	}
+
+	@Override
+	public int drainTo(Collection<Object> c, int max) {
+		if( ! urgentUsed)
+			return queue.drainTo(c, max);
+		
+		int n = 0;
+		Object o;
+		while(n < max && (o = poll()) != null) {
+			c.add(o);
+			++n;
+		}
+		return n;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if( ! urgentUsed)
+			return queue.isEmpty();
+		
+		if( ! urgent.isEmpty())
+			return false;
+		// Markers are not removed: the queue is only iterated
+		for(Object o : queue) {
+			if(o != WAKE_UP)
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * An unbounded lock-free FIFO list for multiple producers and a single
+ * consumer, the building block of {@link MpscMailbox} and of the high
+ * priority lane of {@link ArrayMailbox}.
+ * <p>
+ * A producer appends its node by atomically swapping the tail of the list,
+ * then links it to the previous tail. The consumer walks the list from its
+ * head without any atomic operation. A message whose node is not yet
+ * linked is not visible to the consumer.
+ * 
+ * @author Gerard Dethier
+ */
+class LinkedLane {
+	
+	/** A node of the list. */
+	private static class Node {
+		private Object msg;
+		private volatile Node next;
+		
+		public Node(Object msg) {
+			this.msg = msg;
+		}
+	}
+	
+	/** The last consumed node (its message was already taken), only
+	 * accessed by the consumer */
+	private Node head;
+	/** The last inserted node */
+	private AtomicReference<Node> tail;
+	
+	
+	public LinkedLane() {
+		head = new Node(null);
+		tail = new AtomicReference<Node>(head);
+	}
+	
+	/**
+	 * Appends a message. This method may be called by any thread.
+	 * 
+	 * @param o The message.
+	 */
+	public void add(Object o) {
+		Node n = new Node(o);
+		Node prev = tail.getAndSet(n);
+		prev.next = n;
+	}
+	
+	/**
+	 * Takes the oldest message. This method must only be called by the
+	 * consumer.
+	 * 
+	 * @return The oldest message or null if the list is empty.
+	 */
+	public Object poll() {
+		Node n = head.next;
+		if(n == null)
+			return null;
+		Object o = n.msg;
+		n.msg = null;
+		head = n;
+		return o;
+	}
+	
+	/**
+	 * @return True if the list is empty.
+	 */
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+}
@@ -24,7 +24,6 @@ package dimawo.agents;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintStream;
 
 
 /**
@@ -38,6 +37,9 @@ import java.io.PrintStream;
  * prefix and the name of the agent. If <i>p</i> is the file name prefix,
  * <i>n</i> the name of the agent, then the file name is "<i>pn</i>.log"
  * (without quotes).
+ * <p>
+ * Log files are written by the log writer of the JVM (see
+ * {@link AsyncLogWriter}): logging does not block the agent on file I/O.
  */
 public abstract class LoggingAgent extends AbstractAgent {
 	/**
@@ -45,9 +47,9 @@ public abstract class LoggingAgent extends AbstractAgent {
 	 */
 	private String filePrefix;
 	/**
-	 * The print stream the agent logs to or <i>log stream</i>.
+	 * The log file the agent logs to or <i>log stream</i>.
 	 */
-	private PrintStream printStream;
+	private AsyncLogWriter.Log log;
 	
 	
 	/**
@@ -106,8 +108,10 @@ public abstract class LoggingAgent extends AbstractAgent {
 					parent.getAbsolutePath()).printStackTrace();
 		
 		try {
-			printStream = new PrintStream(logFile);
-			setPrintStream(printStream);
+			if(log != null)
+				log.close();
+			log = AsyncLogWriter.getInstance().open(logFile);
+			setLog(log);
 			return true;
 		} catch (FileNotFoundException e) {
 			return false;
@@ -127,16 +131,16 @@ public abstract class LoggingAgent extends AbstractAgent {
 	
 	
 	/**
-	 * Closes the log stream (and therefore ensures all logs
-	 * are written into the log file). This method is final, in order to
+	 * Closes the log stream (all logs are written into the log file by
+	 * the log writer before it is closed). This method is final, in order to
 	 * describe the operations to execute when entering into STOPPED state,
 	 * {@link #logAgentExit()} method must be overridden.
 	 */
 	@Override
 	final protected void exit() {
 		logAgentExit();
-		if(printStream != null)
-			printStream.close();
+		if(log != null)
+			log.close();
 	}
 
 	
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.Collection;
+
+
+/**
+ * The queue of the messages submitted to an agent (see
+ * {@link AbstractAgent}). Messages can be inserted by any thread but are
+ * always taken by a single thread at a time: the thread executing the
+ * message handling code of the agent (the consumer).
+ * <p>
+ * A mailbox has 2 lanes: messages of the high priority lane are always
+ * taken before the messages of the normal lane. Each lane is FIFO.
+ * <p>
+ * Implementations: {@link BlockingQueueMailbox} (a lock-based queue),
+ * {@link MpscMailbox} (an unbounded lock-free queue) and
+ * {@link ArrayMailbox} (a bounded lock-free queue).
+ * 
+ * @author Gerard Dethier
+ */
+public interface Mailbox {
+	
+	/**
+	 * Inserts a message. This method may be called by any thread and
+	 * blocks while a bounded mailbox is full.
+	 * 
+	 * @param o The message.
+	 * 
+	 * @throws InterruptedException If the calling thread was interrupted
+	 * while waiting for free space.
+	 */
+	public void put(Object o) throws InterruptedException;
+	
+	/**
+	 * Inserts a message into the high priority lane. This method may be
+	 * called by any thread and never blocks (the high priority lane is
+	 * not bounded).
+	 * 
+	 * @param o The message.
+	 */
+	public void putUrgent(Object o);
+	
+	/**
+	 * Takes the oldest message. This method must only be called by the
+	 * consumer.
+	 * 
+	 * @return The oldest message or null if the mailbox is empty.
+	 */
+	public Object poll();
+	
+	/**
+	 * Takes the oldest message, waiting for a message to be inserted if
+	 * the mailbox is empty. This method must only be called by the
+	 * consumer.
+	 * 
+	 * @return The oldest message.
+	 * 
+	 * @throws InterruptedException If the consumer was interrupted while
+	 * waiting.
+	 */
+	public Object take() throws InterruptedException;
+	
+	/**
+	 * Takes the oldest messages, without waiting. This method must only be
+	 * called by the consumer.
+	 * 
+	 * @param c The collection the messages are added to, in queue order.
+	 * @param max The maximum number of messages to take.
+	 * 
+	 * @return The number of messages taken.
+	 */
+	public int drainTo(Collection<Object> c, int max);
+	
+	/**
+	 * Tells if the mailbox is empty. A message being inserted concurrently
+	 * may not be visible yet.
+	 * 
+	 * @return True if the mailbox is empty.
+	 */
+	public boolean isEmpty();
+
+}
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * @author Gerard Dethier
+ * 
+ * A message dispatch table replacing the chains of <code>instanceof</code>
+ * tests in the message handling code of an agent. A handler is registered
+ * for each type of message (a class or an interface); a message is then
+ * given to the handler of the first registered type it is an instance of,
+ * the same way it would be by a chain of <code>instanceof</code> tests
+ * written in registration order.
+ * <p>
+ * The handler associated to the class of a message is looked for only
+ * the first time a message of this class is dispatched; the result is
+ * kept in a table indexed by class. Dispatching a message therefore costs
+ * a single lookup in a hash table, whatever the number of registered
+ * types. The number of dispatched messages is also counted per class.
+ * <p>
+ * Handlers are generally registered by the constructor of the agent.
+ * Dispatching is thread-safe but is generally done by the thread
+ * executing the message handling code of the agent.
+ */
+public class MessageDispatcher {
+	
+	/**
+	 * The handler of a type of message.
+	 *
+	 * @param <T> The type of message.
+	 */
+	public interface Handler<T> {
+		/**
+		 * Handles a message.
+		 * 
+		 * @param message The message.
+		 * 
+		 * @throws Exception If an error occurred during message handling.
+		 */
+		public void handle(T message) throws Exception;
+	}
+	
+	/** An entry of the dispatch table. */
+	private static class Entry {
+		private final Handler<Object> handler;
+		private final AtomicLong count;
+		
+		public Entry(Handler<Object> handler) {
+			this.handler = handler;
+			this.count = new AtomicLong();
+		}
+	}
+	
+	/** Registered types, in registration order. */
+	private ArrayList<Class<?>> types;
+	/** Registered handlers, in registration order. */
+	private ArrayList<Handler<Object>> handlers;
+	/** Dispatch table: the entry associated to each class of message
+	 * already dispatched. */
+	private ConcurrentHashMap<Class<?>, Entry> table;
+	
+	
+	/**
+	 * Instantiates an empty dispatch table.
+	 */
+	public MessageDispatcher() {
+		types = new ArrayList<Class<?>>();
+		handlers = new ArrayList<Handler<Object>>();
+		table = new ConcurrentHashMap<Class<?>, Entry>();
+	}
+	
+	/**
+	 * Registers the handler of a type of message. Messages that are an
+	 * instance of an already registered type are not affected.
+	 * 
+	 * @param <T> The type of message.
+	 * @param type The class or interface of the messages.
+	 * @param handler The handler.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> void register(Class<T> type,
+			Handler<? super T> handler) {
+		types.add(type);
+		handlers.add((Handler<Object>) handler);
+		table.clear();
+	}
+	
+	/**
+	 * Gives a message to the handler associated to its type, if any.
+	 * 
+	 * @param message The message.
+	 * @return True if a handler was associated to the type of the message,
+	 * false otherwise.
+	 * 
+	 * @throws Exception If the handler threw an exception.
+	 */
+	public boolean dispatch(Object message) throws Exception {
+		Class<?> c = message.getClass();
+		Entry e = table.get(c);
+		if(e == null)
+			e = resolve(c);
+		if(e.handler == null)
+			return false;
+		
+		e.count.incrementAndGet();
+		e.handler.handle(message);
+		return true;
+	}
+	
+	/**
+	 * Gives a message to the handler associated to its type.
+	 * 
+	 * @param message The message.
+	 * 
+	 * @throws UnknownAgentMessage If no handler is associated to the type
+	 * of the message.
+	 * @throws Exception If the handler threw an exception.
+	 */
+	public void dispatchOrFail(Object message) throws Exception {
+		if( ! dispatch(message))
+			throw new UnknownAgentMessage(message);
+	}
+	
+	/**
+	 * Looks for the handler associated to a class of message and inserts
+	 * the result into the dispatch table.
+	 * 
+	 * @param c The class of message.
+	 * @return The entry of the dispatch table.
+	 */
+	private synchronized Entry resolve(Class<?> c) {
+		Entry e = table.get(c);
+		if(e != null)
+			return e;
+		
+		Handler<Object> h = null;
+		for(int i = 0; i < types.size() && h == null; ++i) {
+			if(types.get(i).isAssignableFrom(c))
+				h = handlers.get(i);
+		}
+		e = new Entry(h);
+		table.put(c, e);
+		return e;
+	}
+	
+	/**
+	 * Returns the number of dispatched messages of given class (instances
+	 * of subclasses are not counted).
+	 * 
+	 * @param c A class of message.
+	 * @return The number of dispatched messages.
+	 */
+	public long getCount(Class<?> c) {
+		Entry e = table.get(c);
+		if(e == null)
+			return 0;
+		return e.count.get();
+	}
+	
+	/**
+	 * Returns the number of dispatched messages per class, classes being
+	 * sorted by name. Only classes associated to a handler are listed.
+	 * 
+	 * @return The number of dispatched messages per class name.
+	 */
+	public Map<String, Long> getCounts() {
+		TreeMap<String, Long> counts = new TreeMap<String, Long>();
+		for(Map.Entry<Class<?>, Entry> e : table.entrySet()) {
+			if(e.getValue().handler != null)
+				counts.put(e.getKey().getName(), e.getValue().count.get());
+		}
+		return counts;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for(Map.Entry<String, Long> e : getCounts().entrySet()) {
+			if(b.length() > 0)
+				b.append(", ");
+			int dot = e.getKey().lastIndexOf('.');
+			b.append(e.getKey().substring(dot + 1)).append('=').append(e.getValue());
+		}
+		return b.toString();
+	}
+
+}
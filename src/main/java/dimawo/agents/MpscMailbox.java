@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * An unbounded lock-free mailbox for multiple producers and a single
+ * consumer.
+ * <p>
+ * Messages are stored in linked lists (see {@link LinkedLane}), one per
+ * lane. A message whose node is not yet linked is not visible to the
+ * consumer, which is harmless: the producer wakes the consumer up after
+ * linking.
+ * <p>
+ * The consumer only parks when the mailbox is empty, and producers only
+ * unpark it when it is parked.
+ * 
+ * @author Gerard Dethier
+ */
+public class MpscMailbox implements Mailbox {
+	
+	private LinkedLane normal;
+	private LinkedLane urgent;
+	/** The consumer if it is parked, null otherwise */
+	private AtomicReference<Thread> waiter;
+	
+	
+	public MpscMailbox() {
+		normal = new LinkedLane();
+		urgent = new LinkedLane();
+		waiter = new AtomicReference<Thread>();
+	}
+
+	@Override
+	public void put(Object o) {
+		normal.add(o);
+		wakeUpConsumer();
+	}
+
+	@Override
+	public void putUrgent(Object o) {
+		urgent.add(o);
+		wakeUpConsumer();
+	}
+	
+	private void wakeUpConsumer() {
+		// Only one producer unparks the consumer
+		if(waiter.get() != null) {
+			Thread w = waiter.getAndSet(null);
+			if(w != null)
+				LockSupport.unpark(w);
+		}
+	}
+
+	@Override
+	public Object poll() {
+		Object o = urgent.poll();
+		if(o != null)
+			return o;
+		return normal.poll();
+	}
+
+	@Override
+	public Object take() throws InterruptedException {
+		Object o;
+		while((o = poll()) == null) {
+			// Waiter must be visible before the last check: a producer
+			// inserting a message after the check unparks the consumer.
+			waiter.set(Thread.currentThread());
+			if(isEmpty())
+				LockSupport.park(this);
+			waiter.set(null);
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+		return o;
+	}
+
+	@Override
+	public int drainTo(Collection<Object> c, int max) {
+		int n = 0;
+		Object o;
+		while(n < max && (o = poll()) != null) {
+			c.add(o);
+			++n;
+		}
+		return n;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return urgent.isEmpty() && normal.isEmpty();
+	}
+
+}
@@ -51,4 +51,67 @@ public class WorkerParameters {
 	/** Server port of the worker this worker connects to in order to join
 	 * workers' overaly. */
 	public int bootstrapPort = -1;
+	/** Number of threads of the pool shared by the agents instantiated in
+	 * the context of the worker (see {@link dimawo.agents.AgentScheduler}).
+	 * If this value is 0, each agent is executed by its own thread. */
+	public int agentPoolSize = 0;
+	/** Maximum number of messages the agents instantiated in the context
+	 * of the worker take from their queue at once (see
+	 * {@link dimawo.agents.AbstractAgent#setBatchSize(int)}). */
+	public int agentBatchSize = 32;
+	/** If true, the messages queues of the agents instantiated in the
+	 * context of the worker are lock-free (see
+	 * {@link dimawo.agents.MpscMailbox}). */
+	public boolean lockFreeMailbox = false;
+	/** If true, the connections of the worker are handled by non-blocking
+	 * channels (see {@link dimawo.middleware.communication.nio}) instead of
+	 * threads. */
+	public boolean nioTransport = false;
+	/** If true, broken connections are resumed and messages not received
+	 * by the remote worker are sent again (see
+	 * {@link dimawo.middleware.communication.outputStream.MessageOutputStream#setDefaultResumeMode(boolean)}). */
+	public boolean resumableConnections = false;
+	/** Number of bytes that can be queued on a connection before it is
+	 * reported as not writable (see
+	 * {@link dimawo.middleware.communication.outputStream.WriteCredit}). */
+	public int writeCredit = 1 << 20;
+	/** If true, bulk messages (e.g. file chunks) do not delay other
+	 * messages written to the same connection (see
+	 * {@link dimawo.middleware.communication.outputStream.MessageOutputStream#setDefaultBulkLane(boolean)}). */
+	public boolean bulkLane = false;
+	/** If true, small loss-tolerant messages (e.g. pings) are sent as UDP
+	 * datagrams instead of being written to a connection (see
+	 * {@link dimawo.middleware.communication.DatagramLane}). All the
+	 * workers must use the same value. */
+	public boolean datagramLane = false;
+	/** Time in milliseconds after which a connection that is not used by any
+	 * component is closed. */
+	public long connectionIdleTime = 5000;
+	/** Maximum number of connections a worker keeps open, least recently
+	 * used idle connections are closed when it is reached. */
+	public int maxConnections = 256;
+	/** Number of event loops the connections of a worker are partitioned
+	 * into, by destination (see
+	 * {@link dimawo.middleware.communication.Communicator#setDefaultShards(int)}). */
+	public int communicatorShards = 4;
+	/** If true, messages to workers running in the same JVM are directly
+	 * submitted to their Communicator (see
+	 * {@link dimawo.middleware.communication.local.LocalTransport}). */
+	public boolean localTransport = false;
+	/** Time in milliseconds during which connections to a worker detected
+	 * as broken fail without being attempted. */
+	public long brokenDaTtl = 10000;
+	/** If true, frames of at least compressionThreshold bytes are
+	 * compressed on connections to workers that also enabled compression
+	 * (see {@link dimawo.middleware.communication.FrameCompressor}). */
+	public boolean compression = false;
+	/** Minimum size in bytes of compressed frames and attachments. */
+	public int compressionThreshold = 4096;
+	/** Deflater compression level (1 is the fastest). */
+	public int compressionLevel = 1;
+	/** Period in milliseconds at which per-worker communication metrics
+	 * are appended to the log directory (see
+	 * {@link dimawo.middleware.communication.CommunicationMetrics}), 0
+	 * disables dumps. */
+	public long metricsDumpPeriod = 0;
 }
@@ -24,6 +24,13 @@ package dimawo.exec;
 import dimawo.MasterWorkerFactory;
 import dimawo.Reflection;
 import dimawo.agents.AbstractAgent;
+import dimawo.agents.AbstractAgent.ExecutionMode;
+import dimawo.agents.AbstractAgent.MailboxType;
+import dimawo.agents.AgentScheduler;
+import dimawo.middleware.communication.Communicator;
+import dimawo.middleware.communication.FrameCompressor;
+import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.outputStream.WriteCredit;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.distributedAgent.DistributedAgent;
 import dimawo.middleware.distributedAgent.logging.LoggerInterface;
@@ -108,6 +115,30 @@ public class WorkerProcess {
 		}
 
 		AbstractAgent.setDefaultVerbosityLevel(params.verbLevel);
+		AbstractAgent.setDefaultBatchSize(params.agentBatchSize);
+		AbstractAgent.setDefaultMailboxType(params.lockFreeMailbox ?
+				MailboxType.LOCK_FREE : MailboxType.BLOCKING_QUEUE);
+		if(params.agentPoolSize > 0) {
+			if(AgentScheduler.getPoolSize() != params.agentPoolSize)
+				AgentScheduler.setPoolSize(params.agentPoolSize);
+			AbstractAgent.setDefaultExecutionMode(ExecutionMode.SHARED_POOL);
+		} else {
+			AbstractAgent.setDefaultExecutionMode(ExecutionMode.DEDICATED_THREAD);
+		}
+		Communicator.setDefaultTransport(params.nioTransport ?
+				Communicator.Transport.NIO : Communicator.Transport.BLOCKING);
+		MessageOutputStream.setDefaultResumeMode(params.resumableConnections);
+		WriteCredit.setDefaultCapacity(params.writeCredit);
+		MessageOutputStream.setDefaultBulkLane(params.bulkLane);
+		Communicator.setDefaultDatagramLane(params.datagramLane);
+		Communicator.setDefaultConnectionIdleTime(params.connectionIdleTime);
+		Communicator.setDefaultMaxConnections(params.maxConnections);
+		Communicator.setDefaultShards(params.communicatorShards);
+		Communicator.setDefaultLocalTransport(params.localTransport);
+		Communicator.setDefaultBrokenDaTtl(params.brokenDaTtl);
+		FrameCompressor.setDefaultCompression(params.compression,
+				params.compressionThreshold, params.compressionLevel);
+		Communicator.setDefaultMetricsDumpPeriod(params.metricsDumpPeriod);
 
 		// Instantiating core agents.
 		MasterWorkerFactory tFact = (MasterWorkerFactory) 
@@ -43,6 +43,10 @@ import dimawo.fileTransfer.server.messages.PingServerMessage;
  * the class) of a message is used to route it to the good agent. The message
  * factory is therefore used by file transfer components in order to instantiate
  * messages with the right type in order to be routed correctly.
+ * <p>
+ * The file transfer server instantiates chunk messages without data
+ * (<code>data</code> is null) and attaches the chunk to the message
+ * (see {@link dimawo.middleware.communication.Attachment}).
  * 
  * @author Gerard Dethier
  */
@@ -31,6 +31,7 @@ import java.util.LinkedList;
 import dimawo.fileTransfer.FileTransferMessageFactory;
 import dimawo.fileTransfer.client.events.GetFile;
 import dimawo.fileTransfer.client.messages.ChunkMessage;
+import dimawo.middleware.communication.Attachment;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.distributedAgent.DAId;
@@ -87,10 +88,18 @@ public class DownloadSession {
 	}
 
 	public void writeChunk(ChunkMessage o) throws IOException {
-		byte[] data = o.getData();
+		Attachment data = ((Message) o).getAttachment();
 		boolean isLast = o.isLast();
 		
-		fos.write(data);
+		if(data != null) {
+			try {
+				data.writeTo(fos.getChannel());
+			} finally {
+				data.release();
+			}
+		} else {
+			fos.write(o.getData());
+		}
 		if(isLast) {
 			fos.close();
 			cb.submitFile(new GetFileCallBack(access.getDestinationDAId(),
@@ -23,8 +23,6 @@ package dimawo.fileTransfer.client;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeMap;
 
 import dimawo.agents.ErrorHandler;
@@ -45,6 +43,7 @@ import dimawo.middleware.communication.Message;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
 import dimawo.middleware.distributedAgent.DAId;
+import dimawo.timer.Timeout;
 
 
 
@@ -57,14 +56,12 @@ implements MOSCallBack, ConnectionRequestCallBack {
 	private TreeMap<DAId, DownloadSession> sessions;
 	
 	private long pingPeriod = 3000;
-	private Timer pingTimer;
+	private Timeout pingTimer;
 	
 	public FileTransferClientAgent(ErrorHandler err, String name) {
 		super(err, name);
 		
 		sessions = new TreeMap<DAId, DownloadSession>();
-		
-		pingTimer = new Timer(true);
 	}
 	
 	public void setCommunicator(CommunicatorInterface com) {
@@ -81,6 +78,8 @@ implements MOSCallBack, ConnectionRequestCallBack {
 
 	@Override
 	protected void logAgentExit() {
+		if(pingTimer != null)
+			pingTimer.cancel();
 		agentPrintMessage("exit");
 	}
 
@@ -91,15 +90,8 @@ implements MOSCallBack, ConnectionRequestCallBack {
 		if(com == null)
 			throw new Error("Communicator is not set");
 		
-		pingTimer.schedule(new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new PingServers());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}, pingPeriod, pingPeriod);
+		pingTimer = scheduleMessageAtFixedRate(new PingServers(),
+				pingPeriod, pingPeriod);
 	}
 
 	@Override
@@ -21,10 +21,22 @@
  */
 package dimawo.fileTransfer.client.messages;
 
+import java.io.IOException;
+
 import dimawo.middleware.distributedAgent.DAId;
 
 public interface ChunkMessage extends FileTransferClientMessage {
 	DAId getServerDaId();
-	byte[] getData();
+	/**
+	 * Returns the data of the chunk. If the data are attached to the
+	 * message (see
+	 * {@link dimawo.middleware.communication.Message#getAttachment()}), a
+	 * copy of the attachment is returned.
+	 * 
+	 * @return The data.
+	 * 
+	 * @throws IOException If the attachment could not be read.
+	 */
+	byte[] getData() throws IOException;
 	boolean isLast();
 }
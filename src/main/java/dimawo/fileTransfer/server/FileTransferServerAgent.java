@@ -23,8 +23,6 @@ package dimawo.fileTransfer.server;
 
 import java.io.IOException;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeMap;
 
 import dimawo.agents.ErrorHandler;
@@ -44,6 +42,7 @@ import dimawo.middleware.communication.Message;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
 import dimawo.middleware.distributedAgent.DAId;
+import dimawo.timer.Timeout;
 
 
 
@@ -60,7 +59,7 @@ implements MOSCallBack, ConnectionRequestCallBack {
 	private LinkedList<GetFileRequest> pendingRequests;
 	
 	private long pingPeriod = 3000;
-	private Timer pingTimer;
+	private Timeout pingTimer;
 
 
 	public FileTransferServerAgent(ErrorHandler parent, String name) {
@@ -68,8 +67,6 @@ implements MOSCallBack, ConnectionRequestCallBack {
 		
 		sessions = new TreeMap<DAId, UploadSession>();
 		pendingRequests = new LinkedList<GetFileRequest>();
-		
-		pingTimer = new Timer(true);
 	}
 	
 	public void setMaxSessions(int maxSessions) {
@@ -98,6 +95,8 @@ implements MOSCallBack, ConnectionRequestCallBack {
 
 	@Override
 	protected void logAgentExit() {
+		if(pingTimer != null)
+			pingTimer.cancel();
 		agentPrintMessage("exit");
 	}
 
@@ -129,15 +128,8 @@ implements MOSCallBack, ConnectionRequestCallBack {
 		if(fileProv == null)
 			throw new Error("No file provider set");
 		
-		pingTimer.schedule(new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new PingClients());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}, pingPeriod, pingPeriod);
+		pingTimer = scheduleMessageAtFixedRate(new PingClients(),
+				pingPeriod, pingPeriod);
 	}
 	
 	private void handleGetFileRequest(GetFileRequest o) {
@@ -22,14 +22,18 @@
 package dimawo.fileTransfer.server;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.LinkedList;
 
 import dimawo.fileTransfer.FileTransferMessageFactory;
 import dimawo.fileTransfer.server.messages.GetFileRequest;
+import dimawo.middleware.commonEvents.BrokenDA;
+import dimawo.middleware.communication.Attachment;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
+import dimawo.middleware.communication.outputStream.MOSCallBack;
 
 
 
@@ -46,8 +50,11 @@ public class UploadSession {
 	private FileTransferMessageFactory mFact;
 	private String fileUID;
 	private File file;
+	/** The channel the chunks of the current file are read from. */
+	private FileChannel channel;
 	private int availableBytes;
-	private FileInputStream fis;
+	private long offset;
+	private boolean uploading;
 	
 	private LinkedList<GetFileRequest> pendingRequests;
 
@@ -75,26 +82,40 @@ public class UploadSession {
 	}
 
 
+	/**
+	 * Sends the next chunk of the file. The chunk is attached to the
+	 * message as a region of the file (see {@link Attachment}): it is
+	 * read from the file when the message is written to the connection.
+	 * All the chunks of a file are read through the same channel, which
+	 * is closed once the last chunk was sent.
+	 * 
+	 * @throws IOException
+	 */
 	public void sendNextChunk() throws IOException {
 		int chunkSize = Math.min(availableBytes, maxChunkSize);
-		byte[] data = new byte[chunkSize];
-		fis.read(data);
+		Attachment data = Attachment.fileRegion(file, channel, offset,
+				chunkSize);
+		offset += chunkSize;
 		availableBytes -= chunkSize;
 		boolean isLast = (availableBytes == 0);
 		
-		Message m = (Message) mFact.newChunkMessage(fileUID, data, isLast);
-		m.setCallBack(server);
+		Message m = (Message) mFact.newChunkMessage(fileUID, null, isLast);
+		m.setAttachment(data);
+		if(isLast) {
+			m.setCallBack(new LastChunkCallBack(channel));
+			channel = null;
+		} else {
+			m.setCallBack(server);
+		}
 		access.writeNonBlockingMessage(m);
 		
 		if(isLast) {
-			fis.close();
-			
 			prepareNextUpload();
 		}
 	}
 
 	private void prepareNextUpload() throws IOException {
-		fis = null;
+		uploading = false;
 		file = null;
 
 		while(! pendingRequests.isEmpty()) {
@@ -126,7 +147,9 @@ public class UploadSession {
 			return false;
 		} else {
 			availableBytes = (int) file.length();
-			fis = new FileInputStream(file);
+			offset = 0;
+			uploading = true;
+			channel = new RandomAccessFile(file, "r").getChannel();
 			
 			sendNextChunk();
 			
@@ -144,14 +167,10 @@ public class UploadSession {
 
 
 	public void close() {
-		if(fis != null) {
-			try {
-				fis.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			fis = null;
-		}
+		uploading = false;
+		// Chunks not written yet open the file again
+		closeChannel(channel);
+		channel = null;
 		
 		if(access != null) {
 			try {
@@ -163,11 +182,44 @@ public class UploadSession {
 	}
 
 	public boolean isActive() {
-		return fis != null;
+		return uploading;
 	}
 
 	public void pingClient() {
 		if(access != null)
 			access.writeNonBlockingMessage((Message) mFact.newPingClientMessage());
 	}
+
+	private static void closeChannel(FileChannel ch) {
+		if(ch != null) {
+			try {
+				ch.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * The call-back of the last chunk of a file: closes the channel of the
+	 * file and forwards the signal to the server.
+	 */
+	private class LastChunkCallBack implements MOSCallBack {
+		private FileChannel ch;
+
+		public LastChunkCallBack(FileChannel ch) {
+			this.ch = ch;
+		}
+
+		@Override
+		public void signalBroken(BrokenDA bda) {
+			closeChannel(ch);
+			server.signalBroken(bda);
+		}
+
+		@Override
+		public void signalSent(Message m, boolean success) {
+			closeChannel(ch);
+			server.signalSent(m, success);
+		}
+	}
 }
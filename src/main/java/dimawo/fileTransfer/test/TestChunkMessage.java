@@ -21,6 +21,8 @@
  */
 package dimawo.fileTransfer.test;
 
+import java.io.IOException;
+
 import dimawo.fileTransfer.client.messages.ChunkMessage;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
@@ -45,7 +47,9 @@ public class TestChunkMessage extends Message implements ChunkMessage {
 	}
 	
 	@Override
-	public byte[] getData() {
+	public byte[] getData() throws IOException {
+		if(data == null && getAttachment() != null)
+			return getAttachment().toByteArray();
 		return data;
 	}
 	
@@ -54,6 +58,16 @@ public class TestChunkMessage extends Message implements ChunkMessage {
 		return isLast;
 	}
 
+	@Override
+	public int getEstimatedSize() {
+		return super.getEstimatedSize() + (data == null ? 0 : data.length);
+	}
+
+	@Override
+	public boolean isBulk() {
+		return true;
+	}
+
 	@Override
 	public DAId getServerDaId() {
 		return this.getSender();
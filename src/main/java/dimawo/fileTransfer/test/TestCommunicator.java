@@ -23,10 +23,12 @@ package dimawo.fileTransfer.test;
 
 import java.io.IOException;
 
+import dimawo.agents.AsyncLogWriter;
 import dimawo.fileTransfer.client.FileTransferClientAgent;
 import dimawo.fileTransfer.client.messages.FileTransferClientMessage;
 import dimawo.fileTransfer.server.FileTransferServerAgent;
 import dimawo.fileTransfer.server.messages.SimpleFTPServerMessage;
+import dimawo.middleware.communication.CommunicationMetrics;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.ConnectCallBack;
 import dimawo.middleware.communication.ConnectionRequestCallBack;
@@ -34,6 +36,7 @@ import dimawo.middleware.communication.Message;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
 import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.outputStream.WritableCallBack;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.simulation.socket.SocketFactory;
 
@@ -44,6 +47,7 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 
 	private FileTransferServerAgent server;
 	private FileTransferClientAgent client;
+	private CommunicationMetrics metrics;
 	
 	public static final DAId CLIENTDAID = new DAId("client", 42, 0), SERVERDAID = new DAId("server", 666, 0);
 	
@@ -58,6 +62,16 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 			return CLIENTDAID;
 		}
 
+		@Override
+		public boolean canWrite() {
+			return true;
+		}
+
+		@Override
+		public void notifyWhenWritable(WritableCallBack cb) {
+			cb.signalWritable(CLIENTDAID);
+		}
+
 		@Override
 		public void writeBlockingMessage(Message m) throws IOException,
 				InterruptedException {
@@ -84,6 +98,16 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 			return SERVERDAID;
 		}
 
+		@Override
+		public boolean canWrite() {
+			return true;
+		}
+
+		@Override
+		public void notifyWhenWritable(WritableCallBack cb) {
+			cb.signalWritable(SERVERDAID);
+		}
+
 		@Override
 		public void writeBlockingMessage(Message m) throws IOException,
 				InterruptedException {
@@ -103,6 +127,7 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 	public TestCommunicator(FileTransferServerAgent server, FileTransferClientAgent client) {
 		this.server = server;
 		this.client = client;
+		metrics = new CommunicationMetrics();
 	}
 
 	@Override
@@ -117,6 +142,11 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 		}
 	}
 
+	@Override
+	public CommunicationMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public SocketFactory getSocketFactory() {
 		throw new Error("Unimplemented");
@@ -174,5 +204,15 @@ public abstract class TestCommunicator implements CommunicatorInterface {
 	public synchronized void printMessage(Throwable t) {
 		t.printStackTrace(System.out);
 	}
+	
+	@Override
+	public void printMessage(String pattern, Object... args) {
+		printMessage(AsyncLogWriter.format(pattern, args));
+	}
+	
+	@Override
+	public boolean isLogged() {
+		return true;
+	}
 
 }
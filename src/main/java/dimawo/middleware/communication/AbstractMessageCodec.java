@@ -0,0 +1,265 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * A base class for message codecs. The fields of the {@link Message} class
+ * (sequence number, reliability flag, sender and recipient) are handled by
+ * this class, sub-classes only encode the fields of the actual message type.
+ * <p>
+ * This class also provides helpers to encode the types commonly found in
+ * messages.
+ * 
+ * @author Gerard Dethier
+ */
+public abstract class AbstractMessageCodec implements MessageCodec {
+
+	@Override
+	public void encode(Message m, ObjectOutput out) throws IOException {
+		encodeBody(m, out);
+		out.writeInt(m.getSeqNum());
+		out.writeBoolean(m.isReliabilityFlagSet());
+		writeDAId(m.getSender(), out);
+		writeDAId(m.getRecipient(), out);
+	}
+
+	@Override
+	public Message decode(ObjectInput in) throws IOException, ClassNotFoundException {
+		Message m = decodeBody(in);
+		m.setSeqNum(in.readInt());
+		m.setReliabilityFlag(in.readBoolean());
+		m.setSender(readDAId(in));
+		m.setRecipient(readDAId(in));
+		return m;
+	}
+
+	/**
+	 * Encodes the fields specific to the type of the message.
+	 * 
+	 * @param m The message.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	protected abstract void encodeBody(Message m, ObjectOutput out) throws IOException;
+
+	/**
+	 * Decodes the fields specific to the type of the message and
+	 * instantiates it.
+	 * 
+	 * @param in The input.
+	 * @return A new message.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If a nested object could not be
+	 * deserialized.
+	 */
+	protected abstract Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Writes a DA ID, which may be null. On a connection (see
+	 * {@link ConnectionObjectOutputStream}), the ID is interned: it is
+	 * written entirely only the first time.
+	 * 
+	 * @param id A DA ID or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeDAId(DAId id, DataOutput out) throws IOException {
+		if(out instanceof ConnectionObjectOutputStream) {
+			if(! ((ConnectionObjectOutputStream) out).writeInternedTag(id))
+				return;
+		} else if(id == null) {
+			out.writeBoolean(false);
+			return;
+		} else {
+			out.writeBoolean(true);
+		}
+		out.writeUTF(id.getHostName());
+		out.writeInt(id.getPort());
+		out.writeLong(id.getTimeStamp());
+	}
+
+	/**
+	 * Reads a DA ID written by {@link #writeDAId(DAId, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A DA ID or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static DAId readDAId(DataInput in) throws IOException {
+		ConnectionObjectInputStream cin = null;
+		if(in instanceof ConnectionObjectInputStream) {
+			cin = (ConnectionObjectInputStream) in;
+			int tag = cin.readInternedTag();
+			if(tag == ConnectionObjectOutputStream.NULL_OBJECT)
+				return null;
+			else if(tag == ConnectionObjectOutputStream.CACHED_OBJECT)
+				return cin.readInterned(DAId.class);
+			else if(tag != ConnectionObjectOutputStream.NEW_OBJECT)
+				throw new StreamCorruptedException("Unknown DA ID tag "+tag);
+		} else if(! in.readBoolean()) {
+			return null;
+		}
+		
+		String hostName = in.readUTF();
+		int port = in.readInt();
+		long timeStamp = in.readLong();
+		DAId id = new DAId(hostName, port, timeStamp);
+		if(cin != null)
+			cin.intern(id);
+		return id;
+	}
+
+	/**
+	 * Writes a string, which may be null.
+	 * 
+	 * @param s A string or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeString(String s, DataOutput out) throws IOException {
+		out.writeBoolean(s != null);
+		if(s != null)
+			out.writeUTF(s);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(String, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A string or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static String readString(DataInput in) throws IOException {
+		if(! in.readBoolean())
+			return null;
+		return in.readUTF();
+	}
+
+	/**
+	 * Writes a byte array, which may be null.
+	 * 
+	 * @param b A byte array or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeBytes(byte[] b, DataOutput out) throws IOException {
+		if(b == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Reads a byte array written by {@link #writeBytes(byte[], DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A byte array or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static byte[] readBytes(DataInput in) throws IOException {
+		int len = in.readInt();
+		if(len < 0)
+			return null;
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return b;
+	}
+
+	/**
+	 * Writes the ordinal of an enum constant, which may be null.
+	 * 
+	 * @param e An enum constant or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeEnum(Enum<?> e, DataOutput out) throws IOException {
+		out.writeByte(e == null ? -1 : e.ordinal());
+	}
+
+	/**
+	 * Reads an enum constant written by {@link #writeEnum(Enum, DataOutput)}.
+	 * 
+	 * @param values The constants of the enum type.
+	 * @param in The input.
+	 * @return An enum constant or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static <E extends Enum<E>> E readEnum(E[] values, DataInput in) throws IOException {
+		int ordinal = in.readByte();
+		if(ordinal < 0)
+			return null;
+		if(ordinal >= values.length)
+			throw new IOException("Invalid enum ordinal "+ordinal);
+		return values[ordinal];
+	}
+
+	/**
+	 * Writes a nested message. The codec of the nested message is used if
+	 * any, Java serialization otherwise.
+	 * 
+	 * @param m A message or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeMessage(Message m, ObjectOutput out) throws IOException {
+		MessageCodecRegistry.writeMessage(m, out);
+	}
+
+	/**
+	 * Reads a nested message written by
+	 * {@link #writeMessage(Message, ObjectOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A message or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If the message could not be
+	 * deserialized.
+	 */
+	public static Message readMessage(ObjectInput in) throws IOException, ClassNotFoundException {
+		return MessageCodecRegistry.readMessage(in);
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+
+
+/**
+ * The reliable messages written on a connection and not yet acknowledged.
+ * <p>
+ * Reliable messages are not acknowledged one by one: the receiver sends
+ * cumulative acknowledgments i.e. an acknowledgment carrying sequence
+ * number n acknowledges all messages with a sequence number lower or equal
+ * to n (see {@link Message#getSeqNum()}). The sender can write up to
+ * {@link #getCapacity()} reliable messages before waiting for an
+ * acknowledgment.
+ * <p>
+ * An acknowledgment is made of {@link #ACK_SIZE} bytes: a status byte
+ * ({@link FailureDetectionCommons#OK_ACK} or
+ * {@link FailureDetectionCommons#OUT_OF_SYNC}) followed by a sequence
+ * number.
+ * <p>
+ * A window can also keep messages that are not signaled as sent on
+ * acknowledgment (see {@link #add(Message, boolean)}) in order to be able
+ * to write them again on a new connection.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class AckWindow implements FailureDetectionCommons {
+	
+	/** Size of an acknowledgment in bytes. */
+	public static final int ACK_SIZE = 5;
+	/** Default capacity of a window. */
+	public static final int DEFAULT_CAPACITY = 32;
+	
+	private static int defaultCapacity = DEFAULT_CAPACITY;
+	
+	/** A message waiting an acknowledgment. */
+	private static class UnackedMessage {
+		private Message msg;
+		private boolean signal;
+		private long writeTime;
+		private long writeNanos;
+		
+		public UnackedMessage(Message msg, boolean signal) {
+			this.msg = msg;
+			this.signal = signal;
+			this.writeTime = System.currentTimeMillis();
+			this.writeNanos = System.nanoTime();
+		}
+	}
+	
+	private int capacity;
+	private LinkedList<UnackedMessage> unacked;
+	/** The metrics round-trip times are recorded into, or null */
+	private PeerMetrics metrics;
+	
+	
+	/**
+	 * Sets the capacity of windows instantiated after this call. A capacity
+	 * of 1 gives a stop-and-wait protocol.
+	 * 
+	 * @param capacity A number of messages (at least 1).
+	 */
+	public static void setDefaultCapacity(int capacity) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		defaultCapacity = capacity;
+	}
+	
+	/**
+	 * Returns the capacity of newly instantiated windows.
+	 * 
+	 * @return A number of messages.
+	 */
+	public static int getDefaultCapacity() {
+		return defaultCapacity;
+	}
+	
+	public AckWindow() {
+		this(defaultCapacity);
+	}
+	
+	public AckWindow(int capacity) {
+		this.capacity = capacity;
+		unacked = new LinkedList<UnackedMessage>();
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Sets the metrics of the remote DA. For each acknowledgment, the
+	 * round-trip time of the last message it acknowledges is recorded into
+	 * them (earlier messages waited for the acknowledgment batch).
+	 * 
+	 * @param metrics The metrics or null.
+	 */
+	public void setMetrics(PeerMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public int size() {
+		return unacked.size();
+	}
+	
+	public boolean isEmpty() {
+		return unacked.isEmpty();
+	}
+	
+	public boolean isFull() {
+		return unacked.size() >= capacity;
+	}
+	
+	/**
+	 * Adds a reliable message that has just been written. Messages must be
+	 * added in the order of their sequence number.
+	 * 
+	 * @param m A message.
+	 */
+	public void add(Message m) {
+		add(m, true);
+	}
+	
+	/**
+	 * Adds a message that has just been written. Messages must be added in
+	 * the order of their sequence number.
+	 * 
+	 * @param m A message.
+	 * @param signal If true, the message is signaled as sent (or not) by
+	 * this window.
+	 */
+	public void add(Message m, boolean signal) {
+		assert unacked.isEmpty() ||
+			unacked.getLast().msg.getSeqNum() < m.getSeqNum();
+		unacked.add(new UnackedMessage(m, signal));
+	}
+	
+	/**
+	 * Returns the sequence number of the oldest unacknowledged message.
+	 * 
+	 * @return A sequence number or -1 if the window is empty.
+	 */
+	public int getFirstSeqNum() {
+		UnackedMessage u = unacked.peek();
+		return u == null ? -1 : u.msg.getSeqNum();
+	}
+	
+	/**
+	 * Returns the unacknowledged messages.
+	 * 
+	 * @return The messages, in sequence number order.
+	 */
+	public LinkedList<Message> getMessages() {
+		LinkedList<Message> l = new LinkedList<Message>();
+		for(UnackedMessage u : unacked)
+			l.add(u.msg);
+		return l;
+	}
+	
+	/**
+	 * Returns the time the oldest unacknowledged message was added to this
+	 * window.
+	 * 
+	 * @return A time in milliseconds or -1 if the window is empty.
+	 */
+	public long getOldestWriteTime() {
+		UnackedMessage u = unacked.peek();
+		return u == null ? -1 : u.writeTime;
+	}
+	
+	/**
+	 * Tells if the oldest unacknowledged message has been waiting for its
+	 * acknowledgment for more than given time.
+	 * 
+	 * @param timeout A time in milliseconds.
+	 * @return True if an acknowledgment timed out.
+	 */
+	public boolean isTimedOut(long timeout) {
+		long t = getOldestWriteTime();
+		return t >= 0 && System.currentTimeMillis() - t > timeout;
+	}
+	
+	/**
+	 * Handles an acknowledgment. Acknowledged messages are removed from the
+	 * window and signaled as sent (see {@link Message#setMessageSent(boolean)}).
+	 * 
+	 * @param ack The acknowledgment (its position is moved by
+	 * {@link #ACK_SIZE} bytes).
+	 * @return The acknowledged sequence number.
+	 * 
+	 * @throws OutOfSyncException If the receiver signaled it is out of sync.
+	 * @throws IOException If the acknowledgment is invalid.
+	 */
+	public int acknowledge(ByteBuffer ack) throws IOException,
+	OutOfSyncException {
+		int status = ack.get() & 0xff;
+		int seqNum = ack.getInt();
+		if(status == (OUT_OF_SYNC & 0xff))
+			throw new OutOfSyncException("Remote DA out of sync at message "+
+					seqNum);
+		if(status != OK_ACK)
+			throw new IOException("Invalid acknowledgment");
+		
+		UnackedMessage last = null;
+		Iterator<UnackedMessage> it = unacked.iterator();
+		while(it.hasNext()) {
+			UnackedMessage u = it.next();
+			if(u.msg.getSeqNum() > seqNum)
+				break;
+			it.remove();
+			if(u.signal)
+				u.msg.setMessageSent(true);
+			last = u;
+		}
+		if(metrics != null && last != null)
+			metrics.ackReceived(System.nanoTime() - last.writeNanos);
+		return seqNum;
+	}
+	
+	/**
+	 * Removes all messages from the window.
+	 * 
+	 * @return The unacknowledged messages, in sequence number order.
+	 */
+	public LinkedList<Message> removeAll() {
+		LinkedList<Message> tail = new LinkedList<Message>();
+		for(UnackedMessage u : unacked)
+			tail.add(u.msg);
+		unacked.clear();
+		return tail;
+	}
+	
+	/**
+	 * Removes all messages from the window and signals them as not sent
+	 * (if they are signaled by this window).
+	 */
+	public void failAll() {
+		LinkedList<UnackedMessage> l = unacked;
+		unacked = new LinkedList<UnackedMessage>();
+		for(UnackedMessage u : l) {
+			if(u.signal)
+				u.msg.setMessageSent(false);
+		}
+	}
+	
+	/**
+	 * Encodes an acknowledgment.
+	 * 
+	 * @param status The status ({@link FailureDetectionCommons#OK_ACK} or
+	 * {@link FailureDetectionCommons#OUT_OF_SYNC}).
+	 * @param seqNum The sequence number of the last received message.
+	 * 
+	 * @return A buffer containing the acknowledgment.
+	 */
+	public static ByteBuffer encodeAck(int status, int seqNum) {
+		ByteBuffer b = ByteBuffer.allocate(ACK_SIZE);
+		b.put((byte) status);
+		b.putInt(seqNum);
+		b.flip();
+		return b;
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Bulk data sent out of band with a message (see
+ * {@link Message#setAttachment(Attachment)}). An attachment is not
+ * serialized: connections write its bytes right after the frame of the
+ * message (see {@link FrameEncoder}) and the receiver gets them in a
+ * buffer associated to the received message. The content of an attachment
+ * is either a buffer or a region of a file, the latter being transferred
+ * from the file to the connection without being copied into the heap
+ * when the transport allows it.
+ * <p>
+ * The content of an attachment must not be modified until its message was
+ * signaled as sent. A received attachment may use a pooled buffer: it
+ * should be released (see {@link #release()}) when its content is not
+ * needed anymore.
+ * 
+ * @author Gerard Dethier
+ */
+public abstract class Attachment {
+	
+	/** Maximum size of an attachment. */
+	public static final int MAX_SIZE = FrameReader.MAX_FRAME_SIZE;
+	
+	/**
+	 * Creates an attachment whose content is the remaining bytes of a
+	 * buffer. The position and limit of the buffer are not modified.
+	 * 
+	 * @param data A buffer.
+	 * @return An attachment.
+	 */
+	public static Attachment wrap(ByteBuffer data) {
+		return new BufferAttachment(data.duplicate(), false);
+	}
+	
+	/**
+	 * Creates an attachment whose content is a byte array.
+	 * 
+	 * @param data A byte array.
+	 * @return An attachment.
+	 */
+	public static Attachment wrap(byte[] data) {
+		return wrap(ByteBuffer.wrap(data));
+	}
+	
+	/**
+	 * Creates an attachment whose content is a region of a file. The file is
+	 * only read when the attachment is written.
+	 * 
+	 * @param file The file.
+	 * @param position The position of the region in the file.
+	 * @param length The length of the region.
+	 * @return An attachment.
+	 */
+	public static Attachment fileRegion(File file, long position, int length) {
+		return new FileRegion(file, null, position, length);
+	}
+	
+	/**
+	 * Creates an attachment whose content is a region of a file read
+	 * through a channel opened by the caller, so that the successive
+	 * regions of a file do not open it again. The channel may be closed
+	 * once the message of the attachment was signaled as sent; if it is
+	 * closed before the attachment is written, the file is opened again.
+	 * 
+	 * @param file The file.
+	 * @param channel A channel reading the file.
+	 * @param position The position of the region in the file.
+	 * @param length The length of the region.
+	 * @return An attachment.
+	 */
+	public static Attachment fileRegion(File file, FileChannel channel,
+			long position, int length) {
+		return new FileRegion(file, channel, position, length);
+	}
+	
+	/**
+	 * Creates an attachment whose content is a buffer taken from
+	 * {@link DirectBufferPool}. The buffer is given back to the pool when
+	 * the attachment is released.
+	 * 
+	 * @param data A pooled buffer, ready to be read.
+	 * @return An attachment.
+	 */
+	public static Attachment wrapPooled(ByteBuffer data) {
+		return new BufferAttachment(data, true);
+	}
+	
+	/**
+	 * @return The number of bytes of this attachment.
+	 */
+	public abstract int getLength();
+	
+	/**
+	 * Returns the content of this attachment. File regions are mapped in
+	 * memory.
+	 * 
+	 * @return A buffer ready to be read. Its content must not be modified.
+	 * 
+	 * @throws IOException If the content could not be read.
+	 */
+	public abstract ByteBuffer getBuffer() throws IOException;
+	
+	/**
+	 * Writes the content of this attachment to a channel, for example the
+	 * channel of a file.
+	 * 
+	 * @param ch The channel.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public abstract void writeTo(WritableByteChannel ch) throws IOException;
+	
+	/**
+	 * Writes the content of this attachment to a stream.
+	 * 
+	 * @param out The stream.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		writeTo(Channels.newChannel(out));
+	}
+	
+	/**
+	 * Copies the content of this attachment into a new array.
+	 * 
+	 * @return A byte array.
+	 * 
+	 * @throws IOException If the content could not be read.
+	 */
+	public byte[] toByteArray() throws IOException {
+		byte[] b = new byte[getLength()];
+		getBuffer().get(b);
+		return b;
+	}
+	
+	/**
+	 * Returns an attachment with the same content that does not share any
+	 * modifiable state with this attachment.
+	 * 
+	 * @return An attachment.
+	 */
+	public abstract Attachment copy();
+	
+	/**
+	 * Signals the content of this attachment is not needed anymore.
+	 */
+	public void release() {
+	}
+	
+	
+	private static class BufferAttachment extends Attachment {
+		private ByteBuffer data;
+		private boolean pooled;
+		
+		public BufferAttachment(ByteBuffer data, boolean pooled) {
+			this.data = data;
+			this.pooled = pooled;
+		}
+		
+		@Override
+		public int getLength() {
+			return data.remaining();
+		}
+		
+		@Override
+		public ByteBuffer getBuffer() {
+			return data.duplicate();
+		}
+		
+		@Override
+		public void writeTo(WritableByteChannel ch) throws IOException {
+			ByteBuffer b = data.duplicate();
+			while(b.hasRemaining())
+				ch.write(b);
+		}
+		
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			if(data.hasArray())
+				out.write(data.array(), data.arrayOffset() + data.position(),
+						data.remaining());
+			else
+				super.writeTo(out);
+		}
+		
+		@Override
+		public Attachment copy() {
+			ByteBuffer b = ByteBuffer.allocate(data.remaining());
+			b.put(data.duplicate());
+			b.flip();
+			return new BufferAttachment(b, false);
+		}
+		
+		@Override
+		public synchronized void release() {
+			if(pooled) {
+				pooled = false;
+				DirectBufferPool.release(data);
+			}
+		}
+	}
+	
+	
+	private static class FileRegion extends Attachment {
+		private File file;
+		private FileChannel channel;
+		private long position;
+		private int length;
+		
+		public FileRegion(File file, FileChannel channel, long position,
+				int length) {
+			this.file = file;
+			this.channel = channel;
+			this.position = position;
+			this.length = length;
+		}
+		
+		@Override
+		public int getLength() {
+			return length;
+		}
+		
+		@Override
+		public ByteBuffer getBuffer() throws IOException {
+			FileChannel fc = channel;
+			if(fc != null && fc.isOpen())
+				return fc.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+						position, length);
+			} finally {
+				raf.close();
+			}
+		}
+		
+		@Override
+		public void writeTo(WritableByteChannel ch) throws IOException {
+			FileChannel fc = channel;
+			if(fc != null && fc.isOpen()) {
+				transfer(fc, ch);
+				return;
+			}
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				transfer(raf.getChannel(), ch);
+			} finally {
+				raf.close();
+			}
+		}
+		
+		private void transfer(FileChannel fc, WritableByteChannel ch)
+		throws IOException {
+			long written = 0;
+			while(written < length) {
+				long n = fc.transferTo(position + written,
+						length - written, ch);
+				if(n <= 0)
+					throw new IOException("Region of "+file+
+							" is out of file");
+				written += n;
+			}
+		}
+		
+		@Override
+		public Attachment copy() {
+			return this;
+		}
+	}
+
+}
@@ -22,37 +22,61 @@
 package dimawo.middleware.communication;
 
 import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.TreeMap;
 
 import dimawo.middleware.distributedAgent.DAId;
 
 
 
+/**
+ * The DAs recently detected as broken. Connections to these DAs fail
+ * immediately instead of being attempted again. A DA is forgotten after
+ * some time (a transient failure does not prevent later connections) or
+ * when more recent broken DAs exceed the capacity of the cache.
+ * 
+ * @author Gerard Dethier
+ */
 public class BrokenDaCache {
 	private int capacity;
-	private TreeSet<DAId> brokenDAs;
+	private long ttl;
+	private TreeMap<DAId, Long> brokenDAs;
 	private LinkedList<DAId> chronology;
 
-	public BrokenDaCache(int capacity) {
+	/**
+	 * Instantiates a cache.
+	 * 
+	 * @param capacity The maximum number of DAs in the cache.
+	 * @param ttl The time in milliseconds a DA is considered as broken.
+	 */
+	public BrokenDaCache(int capacity, long ttl) {
 		this.capacity = capacity;
+		this.ttl = ttl;
 		
-		brokenDAs = new TreeSet<DAId>();
+		brokenDAs = new TreeMap<DAId, Long>();
 		chronology = new LinkedList<DAId>();
 	}
 
 	public void addBrokenDa(DAId daId) {
-		boolean added = brokenDAs.add(daId);
-		if(added) {
-			chronology.addLast(daId);
-
-			if(chronology.size() > capacity) {
-				DAId removed = chronology.removeFirst();
-				brokenDAs.remove(removed);
-			}
+		Long previous = brokenDAs.put(daId, System.currentTimeMillis());
+		if(previous != null)
+			chronology.remove(daId);
+		chronology.addLast(daId);
+
+		if(chronology.size() > capacity) {
+			DAId removed = chronology.removeFirst();
+			brokenDAs.remove(removed);
 		}
 	}
 
 	public boolean isBroken(DAId daId) {
-		return brokenDAs.contains(daId);
+		Long t = brokenDAs.get(daId);
+		if(t == null)
+			return false;
+		if(System.currentTimeMillis() - t > ttl) {
+			brokenDAs.remove(daId);
+			chronology.remove(daId);
+			return false;
+		}
+		return true;
 	}
 }
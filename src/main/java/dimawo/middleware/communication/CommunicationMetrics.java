@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
+
+
+/**
+ * The communication metrics of a Communicator, one {@link PeerMetrics} per
+ * remote DA. Metrics are created the first time a DA is connected to (or
+ * connects) and are kept until the Communicator is stopped.
+ * <p>
+ * Metrics can be read through {@link #getPeer(DAId)} and
+ * {@link #getPeers()} or periodically appended to a file (see
+ * {@link #startPeriodicDump(String, long)}). Periodic dumps are written by
+ * a dedicated thread, the shared {@link TimerWheel} only requests them.
+ * This class is thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class CommunicationMetrics {
+	
+	private ConcurrentSkipListMap<DAId, PeerMetrics> peers;
+	
+	private PrintStream dumpStream;
+	private Timeout dumpTO;
+	/** Dumps requested by the wheel and not written yet. */
+	private Semaphore dumpRequests;
+	
+	
+	public CommunicationMetrics() {
+		peers = new ConcurrentSkipListMap<DAId, PeerMetrics>();
+	}
+	
+	/**
+	 * Returns the metrics of a remote DA, creating them if needed.
+	 * 
+	 * @param daId The ID of the remote DA.
+	 * @return The metrics of the DA.
+	 */
+	public PeerMetrics getPeer(DAId daId) {
+		PeerMetrics m = peers.get(daId);
+		if(m == null) {
+			m = new PeerMetrics(daId);
+			PeerMetrics prev = peers.putIfAbsent(daId, m);
+			if(prev != null)
+				m = prev;
+		}
+		return m;
+	}
+	
+	/**
+	 * @return The metrics of all remote DAs, sorted by DA ID.
+	 */
+	public Collection<PeerMetrics> getPeers() {
+		return peers.values();
+	}
+	
+	/**
+	 * Prints the metrics of all remote DAs, one line per DA.
+	 * 
+	 * @param ps The stream to print to.
+	 */
+	public void dump(PrintStream ps) {
+		ps.println("--- "+new Date()+" ---");
+		for(PeerMetrics m : peers.values())
+			ps.println(m);
+		ps.flush();
+	}
+	
+	/**
+	 * Appends the metrics to a file periodically, until
+	 * {@link #stopPeriodicDump()} is called.
+	 * 
+	 * @param fileName The name of the file.
+	 * @param period The period in milliseconds.
+	 * 
+	 * @throws FileNotFoundException If the file could not be opened.
+	 */
+	public synchronized void startPeriodicDump(String fileName, long period)
+	throws FileNotFoundException {
+		if(dumpTO != null)
+			throw new IllegalStateException("Periodic dump already started");
+		final PrintStream ps =
+			new PrintStream(new FileOutputStream(fileName, true));
+		final Semaphore requests = new Semaphore(0);
+		dumpStream = ps;
+		dumpRequests = requests;
+		
+		Thread t = new Thread("CommunicationMetrics-dump") {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						requests.acquire();
+						requests.drainPermits(); // Late requests are merged
+						if( ! periodicDump(ps))
+							return;
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		
+		dumpTO = TimerWheel.getSharedWheel().scheduleAtFixedRate(
+				new Runnable() {
+					@Override
+					public void run() {
+						requests.release();
+					}
+				}, period, period);
+	}
+	
+	/**
+	 * Stops the periodic dump after a last dump of the metrics. This
+	 * method has no effect if the periodic dump was not started.
+	 */
+	public synchronized void stopPeriodicDump() {
+		if(dumpTO == null)
+			return;
+		dumpTO.cancel();
+		dumpTO = null;
+		dump(dumpStream);
+		dumpStream.close();
+		dumpStream = null;
+		dumpRequests.release(); // Dump thread terminates
+		dumpRequests = null;
+	}
+	
+	/**
+	 * Writes a periodic dump. This method is called by the dump thread.
+	 * 
+	 * @param ps The stream of the dump thread.
+	 * @return False if the periodic dump of the thread was stopped.
+	 */
+	private synchronized boolean periodicDump(PrintStream ps) {
+		if(dumpStream != ps)
+			return false;
+		dump(ps);
+		return true;
+	}
+
+}
@@ -23,12 +23,10 @@ package dimawo.middleware.communication;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.SocketException;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeMap;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import dimawo.agents.AgentException;
 import dimawo.agents.LoggingAgent;
@@ -45,15 +43,21 @@ import dimawo.middleware.communication.events.NewMOSConnection;
 import dimawo.middleware.communication.events.NewRMOSConnection;
 import dimawo.middleware.communication.events.PrepareStop;
 import dimawo.middleware.communication.events.SendDatagramMessage;
-import dimawo.middleware.communication.events.TriggerConnectionGc;
+import dimawo.middleware.communication.events.ShardDrained;
 import dimawo.middleware.communication.inputStream.MessageInputStream;
+import dimawo.middleware.communication.local.LocalMessageOutputStream;
+import dimawo.middleware.communication.local.LocalTransport;
 import dimawo.middleware.communication.messages.CommunicatorMessage;
-import dimawo.middleware.communication.outputStream.LocalAccessor;
+import dimawo.middleware.communication.nio.NewNioMOSConnection;
+import dimawo.middleware.communication.nio.NioMessageInputStream;
+import dimawo.middleware.communication.nio.NioMessageOutputStream;
+import dimawo.middleware.communication.nio.NioServer;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
 import dimawo.middleware.communication.outputStream.MessageOutputStream;
 import dimawo.middleware.communication.outputStream.MessageOutputStreamAccessor;
 import dimawo.middleware.communication.server.CommunicatorConnectionHandler;
+import dimawo.middleware.communication.server.ServerInterface;
 import dimawo.middleware.communication.server.ServerLoop;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.distributedAgent.DistributedAgentInterface;
@@ -72,22 +76,83 @@ import dimawo.simulation.socket.SocketFactory;
  * communication to the destination computer if it is has not already been set
  * up. After the message os</li>
  * </ul>
+ * <p>
+ * Connections to remote DAs are handled by a transport. The blocking
+ * transport associates threads to each connection, the non-blocking
+ * transport (see {@link dimawo.middleware.communication.nio}) handles all
+ * connections using a small set of selector threads. Non-blocking transport
+ * requires real sockets: with simulated sockets, the blocking transport is
+ * always used. Both transports use the same protocol and are therefore able
+ * to communicate.
+ * <p>
+ * The routing state of the Communicator (open connections, components and
+ * datagram messages waiting for a connection) is partitioned into shards
+ * (see {@link #setDefaultShards(int)}). Each shard has its own event loop
+ * and handles the DAs mapped to it by {@link #getShard(DAId)}: messages to
+ * different DAs may be sent in parallel while the messages to a given DA
+ * are still handled in submission order. The Communicator itself handles
+ * incoming connections and coordinates the shutdown of the shards.
  * 
  * @author Gerard Dethier
  */
 public class Communicator
 extends LoggingAgent
 implements CommunicatorInterface {
+	
+	/**
+	 * The transports that can be used by the Communicator.
+	 */
+	public enum Transport {
+		/** Threads are associated to each connection. */
+		BLOCKING,
+		/** Connections are handled by a set of selector threads. */
+		NIO
+	};
+	
+	private static Transport defaultTransport = Transport.BLOCKING;
+	
+	/** If true, loss-tolerant messages are sent as datagrams by default */
+	private static boolean defaultDatagramLane = false;
+	
+	/** If true, DAs of the same JVM are connected by local streams */
+	private static boolean defaultLocalTransport = false;
+	
+	/** Default maximum number of open connections */
+	private static int defaultMaxConnections = 256;
+	
+	/** Default time in milliseconds connections to a broken DA fail
+	 * without being attempted */
+	private static long defaultBrokenDaTtl = 10000;
+	
+	/** Default time in milliseconds after which a connection not used by
+	 * any component is closed */
+	private static long defaultConnectionIdleTime = 5000;
+	
+	/** Default number of shards */
+	private static int defaultShards = 4;
+	
+	/** Default period in milliseconds of metrics dumps (0 disables
+	 * dumps) */
+	private static long defaultMetricsDumpPeriod = 0;
+	
+	/** The transport used by this Communicator */
+	private Transport transport;
 
 	/** Indicates the communicator is going down */
 	private int closeLevel;
 	private boolean connectionHandlerClosed;
+	/** Number of shards having flushed their waiting messages */
+	private int drainedShards;
 
 
-	/** Communicator connections handler */
+	/** Communicator connections handler (blocking transport only) */
 	private CommunicatorConnectionHandler cH;
 	/** Listener for incoming connections */
-	private ServerLoop server;
+	private ServerInterface server;
+	/** UDP socket for loss-tolerant messages (null if disabled) */
+	private DatagramLane datagrams;
+	/** If true, DAs of the same JVM are connected by local streams */
+	private boolean localTransport;
 
 	/** The hosting DA */
 	private DistributedAgentInterface da;
@@ -96,23 +161,22 @@ implements CommunicatorInterface {
 
 //	/** The address cache */
 //	private AddressCache cache;
-	private BrokenDaCache brokenCache;
-
-	int nextAccessorUID;
-	/** Connected output message streams */
-	private TreeMap<DAId, Connection> openConnections;
-	/** Components waiting a connection (DA address is not in local cache) */
-	private TreeMap<DAId, LinkedList<Connect>> waitingConnections;
-	/** Datagram messages waiting a connection to be sent */
-	private QueuedDatagramMessages queuedMsg;
+
+	/** Shards handling the connections to remote DAs */
+	private CommunicatorShard[] shards;
 	
-	/** Maintains data and implements actions for handling output streams */
-	private OutputStreamsHandler outHandler;
+	/** Output streams not yet closed or broken (may be read by any
+	 * thread) */
+	private ConcurrentSkipListMap<DAId, MessageOutputStream> outputStreams;
 	
 	/** Active MessageReaders */
 	private TreeMap<DAId, MessageInputStream> inputStreams;
 	
 	private MessageHandlersRegistry msgHandReg;
+	
+	/** Metrics of the connections to and from remote DAs */
+	private CommunicationMetrics metrics;
+	private long metricsDumpPeriod;
 
 
 	/////////////////
@@ -126,8 +190,7 @@ implements CommunicatorInterface {
 		
 		closeLevel = 0;
 		connectionHandlerClosed = false;
-
-		nextAccessorUID = 0;
+		drainedShards = 0;
 
 		this.da = da;
 		this.overInt = overInt;
@@ -135,20 +198,38 @@ implements CommunicatorInterface {
 		
 		setPrintStream(da.getFilePrefix());
 
-		brokenCache = new BrokenDaCache(100);
-
-		openConnections = new TreeMap<DAId, Connection>();
-		waitingConnections = new TreeMap<DAId, LinkedList<Connect>>();
-		queuedMsg = new QueuedDatagramMessages();
+		inputStreams = new TreeMap<DAId, MessageInputStream>();
+		outputStreams = new ConcurrentSkipListMap<DAId, MessageOutputStream>();
 		
-		outHandler = new OutputStreamsHandler(this);
+		if(defaultTransport.equals(Transport.NIO) && ! sockFact.isVirtual()) {
+			transport = Transport.NIO;
+			server = new NioServer(da.getTcpPort(), this, overInt);
+		} else {
+			transport = Transport.BLOCKING;
+			cH = new CommunicatorConnectionHandler(this, overInt, 70, 5000);
+			server = new ServerLoop(da.getTcpPort(), this, cH, sockFact);
+		}
 
-		inputStreams = new TreeMap<DAId, MessageInputStream>();
+		if(defaultDatagramLane && ! sockFact.isVirtual()) {
+			try {
+				datagrams = new DatagramLane(this, da.getTcpPort());
+			} catch(SocketException e) {
+				agentPrintMessage("Datagram lane disabled:");
+				agentPrintMessage(e);
+			}
+		}
+		localTransport = defaultLocalTransport;
 		
-		cH = new CommunicatorConnectionHandler(this, overInt, 70, 5000);
-		server = new ServerLoop(da.getTcpPort(), this, cH, sockFact);
+		shards = new CommunicatorShard[defaultShards];
+		int shardConnections = (defaultMaxConnections + shards.length - 1) /
+			shards.length;
+		for(int i = 0; i < shards.length; ++i)
+			shards[i] = new CommunicatorShard(this, i, shardConnections,
+					defaultConnectionIdleTime, defaultBrokenDaTtl);
 
 		msgHandReg = new MessageHandlersRegistry();
+		metrics = new CommunicationMetrics();
+		metricsDumpPeriod = defaultMetricsDumpPeriod;
 	}
 
 
@@ -156,6 +237,153 @@ implements CommunicatorInterface {
 	// Public methods //
 	////////////////////
 	
+	/**
+	 * Enables or disables the datagram lane of Communicators instantiated
+	 * after this call (see {@link DatagramLane}). This setting must be the
+	 * same for all the DAs of a distributed application.
+	 * 
+	 * @param on True to send loss-tolerant messages as datagrams.
+	 */
+	public static void setDefaultDatagramLane(boolean on) {
+		defaultDatagramLane = on;
+	}
+	
+	/**
+	 * Enables or disables the local transport of Communicators instantiated
+	 * after this call. When enabled, messages to a DA running in the same
+	 * JVM and whose Communicator also uses the local transport are
+	 * directly submitted to its Communicator (see
+	 * {@link dimawo.middleware.communication.local.LocalTransport}).
+	 * 
+	 * @param on True to enable the local transport.
+	 */
+	public static void setDefaultLocalTransport(boolean on) {
+		defaultLocalTransport = on;
+	}
+	
+	/**
+	 * Sets the time during which connections to a DA detected as broken
+	 * fail immediately, for Communicators instantiated after this call.
+	 * 
+	 * @param millis A time in milliseconds (0 disables fast failures).
+	 */
+	public static void setDefaultBrokenDaTtl(long millis) {
+		defaultBrokenDaTtl = millis;
+	}
+	
+	/**
+	 * Sets the time after which a connection that is not used by any
+	 * component is closed, for Communicators instantiated after this call.
+	 * 
+	 * @param millis A time in milliseconds.
+	 */
+	public static void setDefaultConnectionIdleTime(long millis) {
+		if(millis <= 0)
+			throw new IllegalArgumentException("Idle time must be positive");
+		defaultConnectionIdleTime = millis;
+	}
+	
+	/**
+	 * Sets the maximum number of connections open by Communicators
+	 * instantiated after this call. When this number is reached, the least
+	 * recently used connection that is not used by any component is closed
+	 * (see {@link ConnectionCache}).
+	 * 
+	 * @param max A number of connections.
+	 */
+	public static void setDefaultMaxConnections(int max) {
+		if(max <= 0)
+			throw new IllegalArgumentException("Maximum must be positive");
+		defaultMaxConnections = max;
+	}
+	
+	/**
+	 * Sets the number of shards of Communicators instantiated after this
+	 * call. The maximum number of connections is evenly split among the
+	 * shards.
+	 * 
+	 * @param n A number of shards.
+	 */
+	public static void setDefaultShards(int n) {
+		if(n <= 0)
+			throw new IllegalArgumentException("At least 1 shard");
+		defaultShards = n;
+	}
+	
+	/**
+	 * Sets the period of the metrics dumps of Communicators instantiated
+	 * after this call. Metrics are appended to the file
+	 * <code>CommunicationMetrics.log</code> written next to the logs of
+	 * the DA (see {@link CommunicationMetrics}).
+	 * 
+	 * @param millis A period in milliseconds, 0 disables dumps.
+	 */
+	public static void setDefaultMetricsDumpPeriod(long millis) {
+		if(millis < 0)
+			throw new IllegalArgumentException("Period must be positive");
+		defaultMetricsDumpPeriod = millis;
+	}
+	
+	/**
+	 * Returns the open connections of the shards of this Communicator.
+	 * Their counters (hits, misses, evictions) may be read by any thread.
+	 * 
+	 * @return The connection caches, one per shard.
+	 */
+	public ConnectionCache[] getConnectionCaches() {
+		ConnectionCache[] caches = new ConnectionCache[shards.length];
+		for(int i = 0; i < shards.length; ++i)
+			caches[i] = shards[i].getConnectionCache();
+		return caches;
+	}
+	
+	/**
+	 * Returns the shard handling the connections to a DA.
+	 * 
+	 * @param daId The ID of a DA.
+	 * @return The shard.
+	 */
+	CommunicatorShard getShard(DAId daId) {
+		int h = daId.hashCode();
+		h ^= h >>> 16;
+		return shards[(h & 0x7fffffff) % shards.length];
+	}
+	
+	/**
+	 * @return The datagram lane of this Communicator or null if it is
+	 * disabled.
+	 */
+	public DatagramLane getDatagramLane() {
+		return datagrams;
+	}
+	
+	/**
+	 * Sets the transport used by Communicators instantiated after this call.
+	 * 
+	 * @param t A transport.
+	 */
+	public static void setDefaultTransport(Transport t) {
+		defaultTransport = t;
+	}
+	
+	/**
+	 * Returns the transport used by newly instantiated Communicators.
+	 * 
+	 * @return A transport.
+	 */
+	public static Transport getDefaultTransport() {
+		return defaultTransport;
+	}
+	
+	/**
+	 * Returns the transport used by this Communicator.
+	 * 
+	 * @return A transport.
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+	
 	@Override
 	public void stop() {
 		try {
@@ -170,7 +398,8 @@ implements CommunicatorInterface {
 			throw new Error("No recipient specified");
 		
 		try {
-			submitMessage(new SendDatagramMessage(msg));
+			getShard(msg.getRecipient()).submitEvent(
+					new SendDatagramMessage(msg));
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -178,10 +407,11 @@ implements CommunicatorInterface {
 	
 	@Override
 	public void multicastMessage(DAId[] ids, Message msg) {
-		try {
-			submitMessage(new MulticastMessage(ids, msg));
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		MulticastMessage m = new MulticastMessage(ids, msg);
+		for(int i = 0; i < ids.length; ++i) {
+			DAId to = ids[i];
+			agentPrintMessage("Broadcasting Datagram to {}", to);
+			sendDatagramMessage(m.getMulticastInstanceMessage(to));
 		}
 	}
 	
@@ -192,6 +422,14 @@ implements CommunicatorInterface {
 
 	}
 	
+	public void submitNewMOSConnection(NewMOSConnection nc) {
+		try {
+			submitMessage(nc);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	public void submitConnectionHandlerClosed() {
 		try {
 			submitMessage(new ConnectionHandlerClosed());
@@ -203,7 +441,7 @@ implements CommunicatorInterface {
 	public void checkWaitingConnections(DAId daId)
 	throws InterruptedException {
 
-		this.submitMessage(new CheckWaitingConnections(daId));
+		getShard(daId).submitEvent(new CheckWaitingConnections(daId));
 
 	}
 
@@ -272,7 +510,7 @@ implements CommunicatorInterface {
 	 */
 	public void asyncConnect(DAId daId, ConnectionRequestCallBack cb, MOSCallBack errCB, Object attachment) throws InterruptedException {
 
-		submitMessage(new Connect(daId, cb, errCB, attachment));
+		getShard(daId).submitEvent(new Connect(daId, cb, errCB, attachment));
 
 	}
 	
@@ -288,7 +526,7 @@ implements CommunicatorInterface {
 	public MOSAccessorInterface syncConnect(DAId daId, MOSCallBack errCB) throws InterruptedException, IOException {
 
 		Connect c = new Connect(daId, null, errCB, null);
-		submitMessage(c);
+		getShard(daId).submitEvent(c);
 		c.waitConnect();
 		MOSAccessorInterface mai = c.getAccessor();
 		if(mai == null)
@@ -309,8 +547,9 @@ implements CommunicatorInterface {
 	@Override
 	public void signalBrokenOutputStream(MessageOutputStream mos) {
 		
+		outputStreams.remove(mos.getRemoteDaId(), mos);
 		try {
-			submitMessage(new BrokenDA(mos));
+			getShard(mos.getRemoteDaId()).submitEvent(new BrokenDA(mos));
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -326,14 +565,42 @@ implements CommunicatorInterface {
 	 */
 	public void signalClosedOutputStream(MessageOutputStream mos) {
 		
+		outputStreams.remove(mos.getRemoteDaId(), mos);
 		try {
-			submitMessage(new ClosedOutput(mos));
+			getShard(mos.getRemoteDaId()).submitEvent(new ClosedOutput(mos));
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
 
 	}
 	
+	/**
+	 * Returns the number of bytes queued for a remote DA i.e. the bytes
+	 * charged to the credit of the output stream to this DA (see
+	 * {@link dimawo.middleware.communication.outputStream.WriteCredit}).
+	 * This method may be called by any thread.
+	 * 
+	 * @param daId The ID of the remote DA.
+	 * @return A number of bytes, 0 if there is no output stream to the DA.
+	 */
+	public long getQueuedBytes(DAId daId) {
+		MessageOutputStream mos = outputStreams.get(daId);
+		return mos == null ? 0 : mos.getWriteCredit().getQueuedBytes();
+	}
+	
+	/**
+	 * Returns the number of bytes queued for each remote DA an output
+	 * stream is open to (see {@link #getQueuedBytes(DAId)}).
+	 * 
+	 * @return A map associating a number of bytes to remote DA IDs.
+	 */
+	public TreeMap<DAId, Long> getQueuedBytes() {
+		TreeMap<DAId, Long> map = new TreeMap<DAId, Long>();
+		for(MessageOutputStream mos : outputStreams.values())
+			map.put(mos.getRemoteDaId(), mos.getWriteCredit().getQueuedBytes());
+		return map;
+	}
+	
 	/**
 	 * Signals the closing of an MessageOutputStreamAccessor.
 	 * 
@@ -344,7 +611,8 @@ implements CommunicatorInterface {
 	public void accessorClosed(DAId remoteDaId, MessageOutputStreamAccessor access) {
 
 		try {
-			submitMessage(new AccessorClosed(remoteDaId, access));
+			getShard(remoteDaId).submitEvent(
+					new AccessorClosed(remoteDaId, access));
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -376,7 +644,14 @@ implements CommunicatorInterface {
 	protected void logAgentExit() {
 
 		agentPrintMessage("exit");
-		exitCleanUp();
+		if(FrameCompressor.isDefaultEnabled())
+			agentPrintMessage("Compression: "+FrameCompressor.getStatistics());
+		if(localTransport)
+			LocalTransport.unregister(this);
+		if(datagrams != null)
+			datagrams.close();
+		closeRemainingInputStreams();
+		metrics.stopPeriodicDump();
 
 	}
 
@@ -385,8 +660,24 @@ implements CommunicatorInterface {
 	protected void init() throws Throwable {
 		agentPrintMessage("init");
 		
-		cH.start();
+		if(cH != null)
+			cH.start();
 		server.start();
+		if(datagrams != null)
+			datagrams.start();
+		if(localTransport)
+			LocalTransport.register(this);
+		for(CommunicatorShard shard : shards)
+			shard.start();
+		if(metricsDumpPeriod > 0) {
+			try {
+				metrics.startPeriodicDump(da.getFilePrefix()+
+						"CommunicationMetrics.log", metricsDumpPeriod);
+			} catch(FileNotFoundException e) {
+				agentPrintMessage("Metrics dump disabled:");
+				agentPrintMessage(e);
+			}
+		}
 	}
 
 
@@ -404,43 +695,18 @@ implements CommunicatorInterface {
 				handleConnectionHandlerClosed();
 			} else if(m instanceof NewMOSConnection) {
 				handleNewMOSConnection((NewMOSConnection) m);
+			} else if(m instanceof ShardDrained) {
+				handleShardDrained();
 			} else {
-				if(closeLevel >= 2) {
-					agentPrintMessage("Communicator close level 2, ignoring message "+m.getClass().getName());
+				if(closeLevel >= 1) {
+					agentPrintMessage("Communicator close level 1, ignoring message "+m.getClass().getName());
 					return;
 				}
 
-				else if(m instanceof AccessorClosed) {
-					handleAccessorClosed((AccessorClosed) m);
-				} else if(m instanceof ConnectionHandlerClosed) {
-					handleConnectionHandlerClosed();
-				} else if(m instanceof NewMOS) {
-					handleNewMOS((NewMOS) m);
-				} else if(m instanceof ClosedOutput) {
-					handleClosedOutput((ClosedOutput) m);
-				} else if(m instanceof BrokenDA) {
-					handleBrokenDA((BrokenDA) m);
-				} else if(m instanceof CheckWaitingConnections) {
-					handleCheckWaitingConnections((CheckWaitingConnections) m);
+				if(m instanceof PrepareStop) {
+					handlePrepareStop();
 				} else {
-					if(closeLevel >= 1) {
-						agentPrintMessage("Communicator close level 1, ignoring message "+m.getClass().getName());
-						return;
-					}
-
-					if(m instanceof MulticastMessage) {
-						handleMulticastMessage((MulticastMessage) m);
-					} else if(m instanceof Connect) {
-						handleConnect((Connect) m);
-					} else if(m instanceof SendDatagramMessage) {
-						handleSendDatagramMessage((SendDatagramMessage) m);
-					} else if(m instanceof PrepareStop) {
-						handlePrepareStop();
-					} else if(m instanceof TriggerConnectionGc) {
-						handleTriggerConnectionGc();
-					} else {
-						throw new UnknownAgentMessage(m);
-					}
+					throw new UnknownAgentMessage(m);
 				}
 			}
 		} catch (Exception e) {
@@ -450,165 +716,36 @@ implements CommunicatorInterface {
 	}
 
 
-	private void handleTriggerConnectionGc() throws Exception {
-		
-		boolean triggerNewGc = false;
-		for(Iterator<Entry<DAId, Connection>> it = openConnections.entrySet().iterator();
-		it.hasNext();) {
-			Entry<DAId, Connection> e = it.next();
-			Connection c = e.getValue();
-			if(c.isGcAble()) {
-				agentPrintMessage("GC of connection to "+c.getDaId());
-				c.close(outHandler);
-				it.remove();
-			}
-			if(c.getConnectedComponentsCount() == 0)
-				triggerNewGc = true;
-		}
-		
-		if(triggerNewGc)
-			triggerConnectionsGc();
-	}
-
-
-	private void handleNewMOS(NewMOS newmos) throws Exception {
-
-		MessageOutputStream o = newmos.getMOS();
-		DAId daId = newmos.getDaId();
-
-		LinkedList<Connect> waitingComponents =
-			waitingConnections.remove(daId);
-		LinkedList<Message> waitingDatagrams =
-			queuedMsg.removeQueue(daId);
-
-		if(closeLevel > 0 && waitingComponents != null) {
-			for(Connect c : waitingComponents) {
-				finishConnection(c, null);
-			}
-			waitingComponents = null;
-		}
-
-		if(o == null) {
-
-			// MOS could not be created
-			if(waitingComponents != null) {
-				Iterator<Connect> itCon = waitingComponents.iterator();
-				while(itCon.hasNext()) {
-					Connect c = itCon.next();
-					finishConnection(c, null);
-				}
-			}
-
-			if(waitingDatagrams != null) {
-
-				Iterator<Message> itMsg = waitingDatagrams.iterator();
-				while(itMsg.hasNext()) {
-					Message msg = itMsg.next();
-					msg.setMessageSent(false);
-				}
-
-			}
-
-		} else {
-			
-			agentPrintMessage("Creating connection to "+daId);
-			Connection c = new Connection(daId, o);
-			if(openConnections.put(daId, c) != null)
-				throw new Error("A connection was already existing");
-
-			if(waitingComponents != null) {
-				Iterator<Connect> it = waitingComponents.iterator();
-				while(it.hasNext()) {
-
-					Connect wc = it.next();
-					MessageOutputStreamAccessor acc =
-						new MessageOutputStreamAccessor(nextAccessorUID++, this,
-								wc.getErrorCB(), o);
-					c.addConnectedComponent(acc);
-
-					finishConnection(wc, acc);
-				}
-			}
-
-			// If there are waiting datagram messages they are sent
-			if(waitingDatagrams != null) {
-				agentPrintMessage("-- Sending waiting datagrams");
-
-				// o is not started yet, no exception can occur
-				Iterator<Message> it = waitingDatagrams.iterator();
-				while(it.hasNext()) {
-					Message m = it.next();
-					c.writeMessage(m);
-				}
-			}
-
-			try {
-				o.start();
-			} catch (AgentException e) {
-				e.printStackTrace();
-			}
-
-			triggerConnectionsGc();
-		}
-
-		if(closeLevel > 0) {
-			tryStop();
-		}
-
-	}
-
-
-	private void triggerConnectionsGc() {
-		Timer t = new Timer(true);
-		t.schedule(
-			new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new TriggerConnectionGc());
-				} catch (InterruptedException e) {
-				}
-			}
-		}, 10000);
-	}
-
-
 	private void handlePrepareStop() throws InterruptedException, AgentException {
 		
 		agentPrintMessage("Received stop request, flushing all waiting messages...");
 
-		// Reject waiting connections
-		rejectAllWaitingConnections();
-		
+		// Shards reject waiting connections and flush waiting messages
 		closeLevel = 1;
-		tryStop();
+		for(CommunicatorShard shard : shards)
+			shard.submitEvent(new PrepareStop());
 	}
-
-
-	private void rejectAllWaitingConnections() {
-		Iterator<Entry<DAId, LinkedList<Connect>>> waitConIt =
-			waitingConnections.entrySet().iterator();
-		while(waitConIt.hasNext()) {
-			Entry<DAId, LinkedList<Connect>> e = waitConIt.next();
-			LinkedList<Connect> conList = e.getValue();
-			Iterator<Connect> conIt = conList.iterator();
-			while(conIt.hasNext()) {
-				Connect con = conIt.next();
-				finishConnection(con, null);
-			}
-		}
-		waitingConnections.clear();
+	
+	
+	private void handleShardDrained() throws InterruptedException, AgentException {
+		
+		++drainedShards;
+		tryStop();
+		
 	}
 
 
 	private void tryStop() throws InterruptedException, AgentException {
 		
 		// First stage
-		if(closeLevel == 1 && queuedMsg.isEmpty()) {
+		if(closeLevel == 1 && drainedShards == shards.length) {
 			agentPrintMessage("Switching to close level 2...");
 			closeLevel = 2;
 			server.stop();
 		} else if(closeLevel == 2 && connectionHandlerClosed) {
 			closeLevel = 3;
+			for(CommunicatorShard shard : shards)
+				shard.stop();
 			super.stop();
 		}
 
@@ -626,88 +763,9 @@ implements CommunicatorInterface {
 	/////////////
 	// Helpers //
 	/////////////
-	
-	private void handleMulticastMessage(MulticastMessage m) throws Exception {
-		
-		DAId[] toIds = m.getToIds();
-		for(int i = 0; i < toIds.length; ++i) {
-			
-			DAId to = toIds[i];
-			agentPrintMessage("Broadcasting Datagram to "+to);
-			MulticastInstanceMessage mim = m.getMulticastInstanceMessage(to);
-			handleSendDatagramMessage(new SendDatagramMessage(mim));
-			
-		}
-		
-	}
-	
-	private void handleSendDatagramMessage(SendDatagramMessage sdm) throws Exception {
-		Message m = sdm.getMessage();
-		DAId destId = m.getRecipient();
-		
-		if(brokenCache.isBroken(destId)) {
-			m.setMessageSent(false);
-			return;
-		}
-		
-		// Loopback
-		if(destId.equals(da.getDaId())) {
-			agentPrintMessage("Datagram loopback "+m.getClass().getName());
-			m.setSender(da.getDaId());
-			this.submitIncomingMessage(m);
-			return;
-		}
-
-		// Send message to another DA
-		Connection conn = openConnections.get(destId);
-		if(conn != null) {
-			try {
-				conn.writeMessage(m);
-			} catch (IOException e) {
-				m.setMessageSent(false);
-			}
-		} else {
-			
-			boolean alreadyWaitingMOS = queuedMsg.queueDatagramMessage(m);
-			if( ! alreadyWaitingMOS) {
-				// Address found in local cache
-				agentPrintMessage("Sending datagram to "+destId);
 
-				outHandler.open(destId);
-			}
-		}
-		
-	}
-	
-	
-	private void handleCheckWaitingConnections(CheckWaitingConnections m)
-	throws Exception {
 
-		DAId daId = m.getDaId();
-		establishWaitingConnections(daId);
-		
-	}
-
-
-	private void closeRemainingConnections() {
-
-		Iterator<Connection> it2 = openConnections.values().iterator();
-		while(it2.hasNext()) {
-			
-			Connection c = it2.next();
-
-			agentPrintMessage("Closing connection to "+c.getDaId());
-			try {
-
-				c.close(outHandler);
-
-			} catch (InterruptedException e) {
-			} catch (IOException e) {
-			} catch (Exception e) {
-			}
-
-		}
-		openConnections.clear();
+	private void closeRemainingInputStreams() {
 		
 		Iterator<MessageInputStream> inIt = inputStreams.values().iterator();
 		while(inIt.hasNext()) {
@@ -737,6 +795,9 @@ implements CommunicatorInterface {
 			// New MessageInputStream must be created
 			MessageInputStream newReader = getMessageInputStream(nc);
 			MessageInputStream oldReader = inputStreams.put(senderId, newReader);
+			IdentificationMessage idm = nc.getIdMessage();
+			if(idm.isResumable())
+				newReader.setResumable(idm.isResuming(), oldReader);
 			if(oldReader != null) {
 
 				// Old reader is closed if it existed.
@@ -755,223 +816,15 @@ implements CommunicatorInterface {
 	}
 	
 	
-	/**
-	 * Decrements the reference count to a connection
-	 * associated to the MessageOutputStream.
-	 * 
-	 * @param ac Accessor closing parameter.
-	 * @throws Exception 
-	 */
-	private void handleAccessorClosed(AccessorClosed ac)
-	throws Exception {
-
-		DAId remoteDaId = ac.getRemoteDaId();
-		
-		Connection con = openConnections.get(remoteDaId);
-		if(con != null) {
-		
-			con.removeConnectedComponent(ac.getAccessor());
-			if(con.getConnectedComponentsCount() == 0) {
-				triggerConnectionsGc();
-			}
-		
-		} else {
-			
-			assert false : "Closed accessor was not associated to an " +
-					"existing connection ! ";
-			
-		}
-
-	}
-
-
-	/**
-	 * Tries to connect to a remote DA. If necessary,
-	 * the address of the DA is queried. In this case, the connection
-	 * is postponed.
-	 * 
-	 * @param c Connection parameters.
-	 * @throws Exception 
-	 */
-	private void handleConnect(Connect c) throws Exception {
-
-		DAId daId = c.getDaId();
-
-		// Check if a local accessor is needed.
-		if(daId.equals(da.getDaId())) {
-			
-			agentPrintMessage("Local connection to DA created.");
-			finishConnection(c, new LocalAccessor(this));
-			return;
-			
-		}
-		
-		if(brokenCache.isBroken(daId)) {
-			finishConnection(c, null);
-			return;
-		}
-
-		// Connection to a DA
-		Connection conn = openConnections.get(daId);
-		if(conn != null) {
-
-			// There is already a connection
-			agentPrintMessage("Connection to "+daId+
-					" available, returning new accessor.");
-
-			MessageOutputStreamAccessor acc = conn.getAccessor(nextAccessorUID++, this, c.getErrorCB());
-			finishConnection(c, acc);
-
-		} else {
-		
-			// There is no existing connection
-			agentPrintMessage("Connection to "+daId+" not available.");
-
-			// Queue connection
-			boolean alreadyWaitingMOS;
-			LinkedList<Connect> waitingComponents =
-				waitingConnections.get(daId);
-			if(waitingComponents == null) {
-
-				alreadyWaitingMOS = false;
-				waitingComponents = new LinkedList<Connect>();
-				waitingConnections.put(daId, waitingComponents);
-				
-			} else {
-				alreadyWaitingMOS = true;
-			}
-			waitingComponents.add(c);
-			
-			if( ! alreadyWaitingMOS) {
-				agentPrintMessage("Requesting new MOS for DA "+daId);
-				outHandler.open(daId);
-			} else {
-				agentPrintMessage("Queued connection to DA "+daId);
-			}
-		
-		}
-		
-	}
-
-
-	private void finishConnection(Connect c, MOSAccessorInterface access) {
-		
-		if(c.isSyncConnect()) {
-
-			c.signalConnect(access);
-
-		} else {
-
-			if(access != null)
-				c.getConnectionCB().connectCallBack(new ConnectCallBack(c.getDaId(), access, c.getAttachment()));
-			else
-				c.getConnectionCB().connectCallBack(new ConnectCallBack(c.getDaId(), c.getAttachment()));
-
-		}
-		
-	}
-
-
-//	private void queryDAAddress(int daId) throws Exception {
-//
-//		agentPrintMessage("Requesting address for DA "+daId);
-////		da.submitUrgentRequest(new GetLocalRequest(
-////				DADescriptor.getDaAddressKey(daId)), this);
-//		da.getMapAgent().getAsync(DADescriptor.getDaAddressKey(daId), this);
-//
-//	}
-
-
-	/**
-	 * Signals a connection failure to waiting components.
-	 * 
-	 * @param waitingComponents The set of waiting components.
-	 * @throws InterruptedException 
-	 */
-	private void signalConnectionFailure(DAId daId,
-			LinkedList<Connect> waitingComponents) {
-		
-		Iterator<Connect> it = waitingComponents.iterator();
-		while(it.hasNext()) {
-
-			Connect cb = it.next();
-			cb.getConnectionCB().connectCallBack(new ConnectCallBack(daId, cb.getAttachment()));
-
-		}
-		
-	}
-	
-	
-	private void handleClosedOutput(ClosedOutput m) throws Exception {
-		
-		DAId id = m.getRemoteDaId();
-		agentPrintMessage("Closed output to "+id);
-		outHandler.closed(id, m.getMessageOutputStream());
-		
-	}
-	
-	
-	/**
-	 * Handles a broken DA.
-	 * 
-	 * @param bda
-	 * 
-	 * @throws InterruptedException 
-	 * @throws AgentException 
-	 */
-	private void handleBrokenDA(BrokenDA bda) throws InterruptedException, AgentException {
-		DAId daId = bda.getId();
-		if(brokenCache.isBroken(daId))
-			return; // already handled
-
-		agentPrintMessage("Broken stream to "+daId);
-
-		// Signal connection failure to waiting components (if any)
-		LinkedList<Connect> waitingComponents =
-			waitingConnections.remove(daId);
-		if(waitingComponents != null) {
-			signalConnectionFailure(daId, waitingComponents);
-		}
-
-		// Signal connection failure to connected accessors
-		Connection con = openConnections.remove(daId);
-		if(con != null)
-			con.signalBroken();
-
-		// Signal waiting output actions
-		outHandler.broken(daId, bda.getMessageOutputStream());
-
-		// If communicator is closing, see if broken stream
-		// does not trigger shutdown.
-		tryStop();
-	}
-
-	/**
-	 * @throws InterruptedException
-	 * @throws AgentException
-	 */
-	private void exitCleanUp() {
-		closeRemainingConnections();
-	}
-	
-	
-	/**
-	 * @param addr
-	 * @throws Exception 
-	 */
-	private void establishWaitingConnections(DAId daId)
-			throws Exception {
-
-		if(waitingConnections.containsKey(daId) ||
-			queuedMsg.hasQueue(daId))
-			outHandler.open(daId);
-
-	}
-	
-	
 	protected MessageInputStream getMessageInputStream(NewMOSConnection con)
 			throws IOException {
 
+		if(con instanceof NewNioMOSConnection) {
+			NewNioMOSConnection nCon = (NewNioMOSConnection) con;
+			return new NioMessageInputStream(this, con.getSender(),
+					nCon.getConnection());
+		}
+
 		NewRMOSConnection rCon = (NewRMOSConnection) con;
 		return new MessageInputStream(this, con.getSender(),
 				rCon.getInputStream());
@@ -982,9 +835,17 @@ implements CommunicatorInterface {
 	protected MessageOutputStream getMessageOutputStream(DAId id)
 	throws FileNotFoundException {
 		
-		assert ! openConnections.containsKey(id);
+		assert ! getShard(id).getConnectionCache().containsKey(id);
 
-		return new MessageOutputStream(this, id);
+		MessageOutputStream mos;
+		if(localTransport && LocalTransport.lookup(id) != null)
+			mos = new LocalMessageOutputStream(this, id);
+		else if(transport.equals(Transport.NIO))
+			mos = new NioMessageOutputStream(this, id);
+		else
+			mos = new MessageOutputStream(this, id);
+		outputStreams.put(id, mos);
+		return mos;
 
 	}
 
@@ -996,7 +857,18 @@ implements CommunicatorInterface {
 
 	public void submitNewMOS(DAId daId, MessageOutputStream out) {
 		try {
-			submitMessage(new NewMOS(daId, out));
+			getShard(daId).submitEvent(new NewMOS(daId, out));
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Signals a shard flushed its waiting messages after a stop request.
+	 */
+	void submitShardDrained() {
+		try {
+			submitMessage(new ShardDrained());
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -1007,14 +879,30 @@ implements CommunicatorInterface {
 	}
 	
 	@Override
-	public synchronized void printMessage(String msg) {
+	public void printMessage(String msg) {
 		agentPrintMessage(msg);
 	}
 	
 	@Override
-	public synchronized void printMessage(Throwable t) {
+	public void printMessage(Throwable t) {
 		agentPrintMessage(t);
 	}
+	
+	@Override
+	public void printMessage(String pattern, Object... args) {
+		agentPrintMessage(pattern, args);
+	}
+	
+	@Override
+	public boolean isLogged() {
+		return isLogged(0);
+	}
+
+
+	@Override
+	public CommunicationMetrics getMetrics() {
+		return metrics;
+	}
 
 
 	@Override
@@ -51,4 +51,26 @@ public interface CommunicatorInterface extends ErrorHandler {
 	
 	public void printMessage(String msg);
 	public void printMessage(Throwable t);
+	/**
+	 * Logs a message given as a pattern and arguments. The message is only
+	 * formatted if it is printed (see
+	 * {@link dimawo.agents.AbstractAgent#agentPrintMessage(int, String, Object...)}).
+	 * 
+	 * @param pattern The pattern of the message.
+	 * @param args The arguments.
+	 */
+	public void printMessage(String pattern, Object... args);
+	/**
+	 * Tells if the messages given to {@link #printMessage(String)} and
+	 * {@link #printMessage(String, Object...)} are printed. This allows to
+	 * skip the building of messages that are not printed.
+	 * 
+	 * @return True if the messages are printed.
+	 */
+	public boolean isLogged();
+	
+	/**
+	 * @return The metrics of the connections of this communicator.
+	 */
+	public CommunicationMetrics getMetrics();
 }
@@ -0,0 +1,665 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import dimawo.agents.AgentException;
+import dimawo.agents.LoggingAgent;
+import dimawo.agents.MessageDispatcher;
+import dimawo.middleware.communication.events.AccessorClosed;
+import dimawo.middleware.communication.events.BrokenDA;
+import dimawo.middleware.communication.events.CheckWaitingConnections;
+import dimawo.middleware.communication.events.ClosedOutput;
+import dimawo.middleware.communication.events.Connect;
+import dimawo.middleware.communication.events.NewMOS;
+import dimawo.middleware.communication.events.PrepareStop;
+import dimawo.middleware.communication.events.SendDatagramMessage;
+import dimawo.middleware.communication.events.TriggerConnectionGc;
+import dimawo.middleware.communication.outputStream.LocalAccessor;
+import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
+import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.outputStream.MessageOutputStreamAccessor;
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.middleware.distributedAgent.DistributedAgentInterface;
+
+
+/**
+ * A shard of the {@link Communicator}. The routing state of the Communicator
+ * (open connections, components waiting for a connection and datagram
+ * messages waiting for a connection) is partitioned by destination DA:
+ * each shard handles the connections to the DAs mapped to it (see
+ * {@link Communicator#getShard(DAId)}) in its own event loop. All the
+ * events related to a given DA are handled by the same shard, in
+ * submission order, which preserves per-destination ordering while
+ * messages to DAs of different shards are handled in parallel.
+ * <p>
+ * When the Communicator is stopped, a shard first rejects waiting
+ * connections and sends its queued datagram messages. It then signals the
+ * Communicator it is drained and is finally stopped by the Communicator,
+ * closing its remaining connections.
+ * 
+ * @author Gerard Dethier
+ */
+class CommunicatorShard extends LoggingAgent {
+	
+	/** The Communicator this shard is part of */
+	private Communicator com;
+	/** The hosting DA */
+	private DistributedAgentInterface da;
+
+	/** Indicates the shard is going down */
+	private int closeLevel;
+	
+	private BrokenDaCache brokenCache;
+	
+	private int nextAccessorUID;
+	/** Time after which an unused connection is closed */
+	private long connectionIdleTime;
+	/** Connected output message streams */
+	private ConnectionCache openConnections;
+	/** Components waiting a connection */
+	private TreeMap<DAId, LinkedList<Connect>> waitingConnections;
+	/** Datagram messages waiting a connection to be sent */
+	private QueuedDatagramMessages queuedMsg;
+	
+	/** Maintains data and implements actions for handling output streams */
+	private OutputStreamsHandler outHandler;
+	
+	/** Handlers of the events handled whatever the close level */
+	private MessageDispatcher events;
+	/** Handlers of the requests ignored from close level 1 */
+	private MessageDispatcher requests;
+	
+	
+	/**
+	 * Instantiates a shard.
+	 * 
+	 * @param com The Communicator.
+	 * @param index The index of the shard.
+	 * @param maxConnections The maximum number of connections of the shard.
+	 * @param connectionIdleTime The time after which an unused connection is
+	 * closed.
+	 * @param brokenDaTtl The time during which connections to a broken DA
+	 * fail immediately.
+	 */
+	public CommunicatorShard(Communicator com, int index, int maxConnections,
+			long connectionIdleTime, long brokenDaTtl) {
+		
+		super(com.getHostingDa(), "CommunicatorShard-"+index);
+		
+		this.com = com;
+		this.da = com.getHostingDa();
+		
+		setPrintStream(da.getFilePrefix());
+		
+		closeLevel = 0;
+		nextAccessorUID = 0;
+		
+		brokenCache = new BrokenDaCache(100, brokenDaTtl);
+		this.connectionIdleTime = connectionIdleTime;
+		openConnections = new ConnectionCache(maxConnections,
+				connectionIdleTime);
+		waitingConnections = new TreeMap<DAId, LinkedList<Connect>>();
+		queuedMsg = new QueuedDatagramMessages();
+		
+		outHandler = new OutputStreamsHandler(com);
+		
+		events = new MessageDispatcher();
+		requests = new MessageDispatcher();
+		registerHandlers();
+	}
+	
+	/**
+	 * Submits an event to this shard.
+	 * 
+	 * @param event The event.
+	 * 
+	 * @throws InterruptedException If the call was interrupted.
+	 */
+	public void submitEvent(Object event) throws InterruptedException {
+		submitMessage(event);
+	}
+	
+	/**
+	 * Returns the open connections of this shard. Its counters (hits,
+	 * misses, evictions) may be read by any thread.
+	 * 
+	 * @return The connection cache.
+	 */
+	public ConnectionCache getConnectionCache() {
+		return openConnections;
+	}
+	
+	
+	//////////////////////////////////
+	// AbstractAgent implementation //
+	//////////////////////////////////
+	
+	@Override
+	protected void logAgentExit() {
+		
+		agentPrintMessage("Handled events: "+events);
+		agentPrintMessage("Handled requests: "+requests);
+		agentPrintMessage("exit");
+		closeRemainingConnections();
+		
+	}
+	
+	
+	private void registerHandlers() {
+		// Handled whatever the close level
+		events.register(AccessorClosed.class,
+				new MessageDispatcher.Handler<AccessorClosed>() {
+			public void handle(AccessorClosed m) throws Exception {
+				handleAccessorClosed(m);
+			}
+		});
+		events.register(NewMOS.class,
+				new MessageDispatcher.Handler<NewMOS>() {
+			public void handle(NewMOS m) throws Exception {
+				handleNewMOS(m);
+			}
+		});
+		events.register(ClosedOutput.class,
+				new MessageDispatcher.Handler<ClosedOutput>() {
+			public void handle(ClosedOutput m) throws Exception {
+				handleClosedOutput(m);
+			}
+		});
+		events.register(BrokenDA.class,
+				new MessageDispatcher.Handler<BrokenDA>() {
+			public void handle(BrokenDA m) throws Exception {
+				handleBrokenDA(m);
+			}
+		});
+		events.register(CheckWaitingConnections.class,
+				new MessageDispatcher.Handler<CheckWaitingConnections>() {
+			public void handle(CheckWaitingConnections m) throws Exception {
+				handleCheckWaitingConnections(m);
+			}
+		});
+		
+		// Ignored from close level 1
+		requests.register(Connect.class,
+				new MessageDispatcher.Handler<Connect>() {
+			public void handle(Connect m) throws Exception {
+				handleConnect(m);
+			}
+		});
+		requests.register(SendDatagramMessage.class,
+				new MessageDispatcher.Handler<SendDatagramMessage>() {
+			public void handle(SendDatagramMessage m) throws Exception {
+				handleSendDatagramMessage(m);
+			}
+		});
+		requests.register(PrepareStop.class,
+				new MessageDispatcher.Handler<PrepareStop>() {
+			public void handle(PrepareStop m) throws Exception {
+				handlePrepareStop();
+			}
+		});
+		requests.register(TriggerConnectionGc.class,
+				new MessageDispatcher.Handler<TriggerConnectionGc>() {
+			public void handle(TriggerConnectionGc m) throws Exception {
+				handleTriggerConnectionGc();
+			}
+		});
+	}
+	
+	
+	@Override
+	protected void init() throws Throwable {
+		agentPrintMessage("init");
+	}
+	
+	
+	@Override
+	protected void handleMessage(Object m) {
+		
+		try {
+			
+			if(closeLevel >= 2) {
+				agentPrintMessage("Shard close level 2, ignoring message "+m.getClass().getName());
+				return;
+			}
+			
+			if(events.dispatch(m))
+				return;
+			
+			if(closeLevel >= 1) {
+				agentPrintMessage("Shard close level 1, ignoring message "+m.getClass().getName());
+				return;
+			}
+			
+			requests.dispatchOrFail(m);
+		} catch (Exception e) {
+			da.signalChildError(e, this.getClass().getName());
+		}
+		
+	}
+	
+	
+	private void handleTriggerConnectionGc() throws Exception {
+		
+		for(Connection c : openConnections.removeIdle()) {
+			agentPrintMessage("GC of connection to "+c.getDaId());
+			c.close(outHandler);
+		}
+		
+		if(openConnections.hasIdle())
+			triggerConnectionsGc();
+	}
+	
+	
+	private void handleNewMOS(NewMOS newmos) throws Exception {
+		
+		MessageOutputStream o = newmos.getMOS();
+		DAId daId = newmos.getDaId();
+		
+		LinkedList<Connect> waitingComponents =
+			waitingConnections.remove(daId);
+		LinkedList<Message> waitingDatagrams =
+			queuedMsg.removeQueue(daId);
+		
+		if(closeLevel > 0 && waitingComponents != null) {
+			for(Connect c : waitingComponents) {
+				finishConnection(c, null);
+			}
+			waitingComponents = null;
+		}
+		
+		if(o == null) {
+			
+			// MOS could not be created
+			if(waitingComponents != null) {
+				Iterator<Connect> itCon = waitingComponents.iterator();
+				while(itCon.hasNext()) {
+					Connect c = itCon.next();
+					finishConnection(c, null);
+				}
+			}
+			
+			if(waitingDatagrams != null) {
+				
+				Iterator<Message> itMsg = waitingDatagrams.iterator();
+				while(itMsg.hasNext()) {
+					Message msg = itMsg.next();
+					msg.setMessageSent(false);
+				}
+				
+			}
+			
+		} else {
+			
+			agentPrintMessage("Creating connection to "+daId);
+			Connection c = new Connection(daId, o);
+			Connection evicted = openConnections.put(c);
+			if(evicted != null) {
+				agentPrintMessage("Eviction of connection to "+
+						evicted.getDaId());
+				evicted.close(outHandler);
+			}
+			
+			if(waitingComponents != null) {
+				Iterator<Connect> it = waitingComponents.iterator();
+				while(it.hasNext()) {
+					
+					Connect wc = it.next();
+					MessageOutputStreamAccessor acc =
+						new MessageOutputStreamAccessor(nextAccessorUID++, com,
+								wc.getErrorCB(), o);
+					c.addConnectedComponent(acc);
+					
+					finishConnection(wc, acc);
+				}
+			}
+			
+			// If there are waiting datagram messages they are sent
+			if(waitingDatagrams != null) {
+				agentPrintMessage("-- Sending waiting datagrams");
+				
+				// o is not started yet, no exception can occur
+				Iterator<Message> it = waitingDatagrams.iterator();
+				while(it.hasNext()) {
+					Message m = it.next();
+					c.writeMessage(m);
+				}
+			}
+			
+			try {
+				o.start();
+			} catch (AgentException e) {
+				e.printStackTrace();
+			}
+			
+			triggerConnectionsGc();
+		}
+		
+		if(closeLevel > 0) {
+			tryStop();
+		}
+		
+	}
+	
+	
+	private void triggerConnectionsGc() {
+		scheduleMessage(new TriggerConnectionGc(), 2 * connectionIdleTime);
+	}
+	
+	
+	private void handlePrepareStop() {
+		
+		agentPrintMessage("Received stop request, flushing all waiting messages...");
+		
+		// Reject waiting connections
+		rejectAllWaitingConnections();
+		
+		closeLevel = 1;
+		tryStop();
+	}
+	
+	
+	private void rejectAllWaitingConnections() {
+		Iterator<Entry<DAId, LinkedList<Connect>>> waitConIt =
+			waitingConnections.entrySet().iterator();
+		while(waitConIt.hasNext()) {
+			Entry<DAId, LinkedList<Connect>> e = waitConIt.next();
+			LinkedList<Connect> conList = e.getValue();
+			Iterator<Connect> conIt = conList.iterator();
+			while(conIt.hasNext()) {
+				Connect con = conIt.next();
+				finishConnection(con, null);
+			}
+		}
+		waitingConnections.clear();
+	}
+	
+	
+	private void tryStop() {
+		
+		if(closeLevel == 1 && queuedMsg.isEmpty()) {
+			agentPrintMessage("Shard drained.");
+			closeLevel = 2;
+			com.submitShardDrained();
+		}
+		
+	}
+	
+	
+	private void handleSendDatagramMessage(SendDatagramMessage sdm) throws Exception {
+		Message m = sdm.getMessage();
+		DAId destId = m.getRecipient();
+		
+		if(brokenCache.isBroken(destId)) {
+			m.setMessageSent(false);
+			return;
+		}
+		
+		// Loopback
+		if(destId.equals(da.getDaId())) {
+			agentPrintMessage("Datagram loopback {}", m.getClass().getName());
+			m.setSender(da.getDaId());
+			com.submitIncomingMessage(m);
+			return;
+		}
+		
+		// Send message to another DA
+		m.setSender(da.getDaId());
+		DatagramLane datagrams = com.getDatagramLane();
+		if(datagrams != null && datagrams.send(m))
+			return;
+		
+		Connection conn = openConnections.lookup(destId);
+		if(conn != null) {
+			try {
+				conn.writeMessage(m);
+			} catch (IOException e) {
+				m.setMessageSent(false);
+			}
+		} else {
+			
+			boolean alreadyWaitingMOS = queuedMsg.queueDatagramMessage(m);
+			if( ! alreadyWaitingMOS) {
+				agentPrintMessage("Sending datagram to {}", destId);
+				
+				outHandler.open(destId);
+			}
+		}
+		
+	}
+	
+	
+	private void handleCheckWaitingConnections(CheckWaitingConnections m)
+	throws Exception {
+		
+		DAId daId = m.getDaId();
+		if(waitingConnections.containsKey(daId) ||
+			queuedMsg.hasQueue(daId))
+			outHandler.open(daId);
+		
+	}
+	
+	
+	private void closeRemainingConnections() {
+		
+		Iterator<Connection> it = openConnections.values().iterator();
+		while(it.hasNext()) {
+			
+			Connection c = it.next();
+			
+			agentPrintMessage("Closing connection to "+c.getDaId());
+			try {
+				
+				c.close(outHandler);
+				
+			} catch (InterruptedException e) {
+			} catch (IOException e) {
+			} catch (Exception e) {
+			}
+			
+		}
+		openConnections.clear();
+		
+	}
+	
+	
+	/**
+	 * Decrements the reference count to a connection
+	 * associated to the MessageOutputStream.
+	 * 
+	 * @param ac Accessor closing parameter.
+	 * @throws Exception 
+	 */
+	private void handleAccessorClosed(AccessorClosed ac)
+	throws Exception {
+		
+		DAId remoteDaId = ac.getRemoteDaId();
+		
+		Connection con = openConnections.get(remoteDaId);
+		if(con != null) {
+			
+			con.removeConnectedComponent(ac.getAccessor());
+			if(con.getConnectedComponentsCount() == 0) {
+				triggerConnectionsGc();
+			}
+			
+		} else {
+			
+			assert false : "Closed accessor was not associated to an " +
+					"existing connection ! ";
+			
+		}
+		
+	}
+	
+	
+	/**
+	 * Tries to connect to a remote DA. If there is no connection to
+	 * the DA, the connection is postponed until the output stream
+	 * to the DA is created.
+	 * 
+	 * @param c Connection parameters.
+	 * @throws Exception 
+	 */
+	private void handleConnect(Connect c) throws Exception {
+		
+		DAId daId = c.getDaId();
+		
+		// Check if a local accessor is needed.
+		if(daId.equals(da.getDaId())) {
+			
+			agentPrintMessage("Local connection to DA created.");
+			finishConnection(c, new LocalAccessor(com));
+			return;
+			
+		}
+		
+		if(brokenCache.isBroken(daId)) {
+			finishConnection(c, null);
+			return;
+		}
+		
+		// Connection to a DA
+		Connection conn = openConnections.lookup(daId);
+		if(conn != null) {
+			
+			// There is already a connection
+			agentPrintMessage("Connection to "+daId+
+					" available, returning new accessor.");
+			
+			MessageOutputStreamAccessor acc = conn.getAccessor(nextAccessorUID++, com, c.getErrorCB());
+			finishConnection(c, acc);
+			
+		} else {
+			
+			// There is no existing connection
+			agentPrintMessage("Connection to "+daId+" not available.");
+			
+			// Queue connection
+			boolean alreadyWaitingMOS;
+			LinkedList<Connect> waitingComponents =
+				waitingConnections.get(daId);
+			if(waitingComponents == null) {
+				
+				alreadyWaitingMOS = false;
+				waitingComponents = new LinkedList<Connect>();
+				waitingConnections.put(daId, waitingComponents);
+				
+			} else {
+				alreadyWaitingMOS = true;
+			}
+			waitingComponents.add(c);
+			
+			if( ! alreadyWaitingMOS) {
+				agentPrintMessage("Requesting new MOS for DA "+daId);
+				outHandler.open(daId);
+			} else {
+				agentPrintMessage("Queued connection to DA "+daId);
+			}
+			
+		}
+		
+	}
+	
+	
+	private void finishConnection(Connect c, MOSAccessorInterface access) {
+		
+		if(c.isSyncConnect()) {
+			
+			c.signalConnect(access);
+			
+		} else {
+			
+			if(access != null)
+				c.getConnectionCB().connectCallBack(new ConnectCallBack(c.getDaId(), access, c.getAttachment()));
+			else
+				c.getConnectionCB().connectCallBack(new ConnectCallBack(c.getDaId(), c.getAttachment()));
+			
+		}
+		
+	}
+	
+	
+	/**
+	 * Signals a connection failure to waiting components.
+	 * 
+	 * @param waitingComponents The set of waiting components.
+	 */
+	private void signalConnectionFailure(DAId daId,
+			LinkedList<Connect> waitingComponents) {
+		
+		Iterator<Connect> it = waitingComponents.iterator();
+		while(it.hasNext()) {
+			
+			Connect cb = it.next();
+			cb.getConnectionCB().connectCallBack(new ConnectCallBack(daId, cb.getAttachment()));
+			
+		}
+		
+	}
+	
+	
+	private void handleClosedOutput(ClosedOutput m) throws Exception {
+		
+		DAId id = m.getRemoteDaId();
+		agentPrintMessage("Closed output to "+id);
+		outHandler.closed(id, m.getMessageOutputStream());
+		
+	}
+	
+	
+	/**
+	 * Handles a broken DA.
+	 * 
+	 * @param bda
+	 */
+	private void handleBrokenDA(BrokenDA bda) {
+		DAId daId = bda.getId();
+		agentPrintMessage("Broken stream to "+daId);
+		brokenCache.addBrokenDa(daId);
+		
+		// Signal connection failure to waiting components (if any)
+		LinkedList<Connect> waitingComponents =
+			waitingConnections.remove(daId);
+		if(waitingComponents != null) {
+			signalConnectionFailure(daId, waitingComponents);
+		}
+		
+		// Signal connection failure to connected accessors
+		Connection con = openConnections.remove(daId);
+		if(con != null)
+			con.signalBroken();
+		
+		// Signal waiting output actions
+		outHandler.broken(daId, bda.getMessageOutputStream());
+		
+		// If communicator is closing, see if broken stream
+		// does not trigger shutdown.
+		tryStop();
+	}
+
+}
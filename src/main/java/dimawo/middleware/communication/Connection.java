@@ -50,6 +50,11 @@ public class Connection {
 	private TreeSet<MessageOutputStreamAccessor> connectedComponents;
 	
 	private long lastActivity;
+	/** Last time the connection was used */
+	private long lastUse;
+	/** Average time in milliseconds the connection stays idle before being
+	 * used again, -1 if it was never reused */
+	private long averageIdleGap;
 
 
 	public Connection(DAId remoteDaId, MessageOutputStream out) {
@@ -58,6 +63,8 @@ public class Connection {
 		this.out = out;
 
 		connectedComponents = new TreeSet<MessageOutputStreamAccessor>();
+		lastUse = System.currentTimeMillis();
+		averageIdleGap = -1;
 
 	}
 
@@ -72,6 +79,7 @@ public class Connection {
 	 */
 	public void addConnectedComponent(MessageOutputStreamAccessor access) throws Exception {
 
+		use();
 		if( ! connectedComponents.add(access))
 			throw new Exception("Accessor already associated to MOS");
 
@@ -99,8 +107,9 @@ public class Connection {
 	throws InterruptedException {
 
 		connectedComponents.remove(access);
+		lastUse = System.currentTimeMillis();
 		if(connectedComponents.size() == 0)
-			lastActivity = System.currentTimeMillis();
+			lastActivity = lastUse;
 
 	}
 
@@ -155,23 +164,73 @@ public class Connection {
 	}
 
 	public void writeMessage(Message m) throws IOException {
+		use();
 		if(connectedComponents.size() == 0)
-			lastActivity = System.currentTimeMillis();
+			lastActivity = lastUse;
 		out.writeMessage(m);
 	}
 	
 	public MessageOutputStreamAccessor getAccessor(int uid, Communicator com, MOSCallBack cb) {
+		use();
 		MessageOutputStreamAccessor acc = new MessageOutputStreamAccessor(uid, com, cb, out);
 		connectedComponents.add(acc);
 		return acc;
 	}
 
-	public boolean isGcAble() {
+	/**
+	 * @return The last time (in milliseconds) this connection was used.
+	 */
+	public long getLastUse() {
+		return lastUse;
+	}
+
+	/**
+	 * Returns the time after which this connection can be closed if it is
+	 * not used. A connection that is regularly used again after being idle
+	 * is kept open for twice its average idle gap, so that it is not closed
+	 * just before being used again.
+	 * 
+	 * @param idleTime The minimum idle time in milliseconds.
+	 * @param maxIdleTime The maximum idle time in milliseconds.
+	 * @return A time in milliseconds.
+	 */
+	public long getIdleTimeout(long idleTime, long maxIdleTime) {
+		if(averageIdleGap < 0)
+			return idleTime;
+		return Math.max(idleTime, Math.min(maxIdleTime, 2 * averageIdleGap));
+	}
+
+	/**
+	 * Tells if this connection can be closed i.e. it is not used by any
+	 * component and no datagram message was written to it for some time.
+	 * 
+	 * @param idleTime The minimum time in milliseconds after which an
+	 * unused connection can be closed.
+	 * @param maxIdleTime The maximum time in milliseconds after which an
+	 * unused connection can be closed.
+	 * @return True if the connection can be closed.
+	 */
+	public boolean isGcAble(long idleTime, long maxIdleTime) {
 		if(connectedComponents.size() > 0)
 			return false;
 		
 		long inactivityTime = System.currentTimeMillis() - lastActivity;
-		return inactivityTime > 5000; // inactivity of 5s -> GC
+		return inactivityTime > getIdleTimeout(idleTime, maxIdleTime);
+	}
+
+	/**
+	 * Records a use of this connection. If the connection was idle, the
+	 * average idle gap is updated.
+	 */
+	private void use() {
+		lastUse = System.currentTimeMillis();
+		if(connectedComponents.size() == 0 && lastActivity > 0) {
+			long gap = lastUse - lastActivity;
+			if(averageIdleGap < 0)
+				averageIdleGap = gap;
+			else
+				averageIdleGap = (3 * averageIdleGap + gap) / 4;
+		}
 	}
 
 }
@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import dimawo.middleware.distributedAgent.DAId;
+
+
+
+/**
+ * The open connections of a Communicator. The number of connections is
+ * bounded: when a new connection is added and the cache is full, the
+ * least recently used connection that is not used by any component is
+ * evicted. Connections that are not used by any component are also closed
+ * after an idle time that depends on how often the remote DA is used (see
+ * {@link Connection#getIdleTimeout(long, long)}).
+ * <p>
+ * This class is not thread-safe, it is only used by the Communicator's
+ * thread. The counters may however be read by any thread.
+ * 
+ * @author Gerard Dethier
+ */
+public class ConnectionCache {
+	
+	/** The idle time of frequently used connections is at most this factor
+	 * times the base idle time. */
+	public static final int MAX_IDLE_FACTOR = 8;
+	
+	private TreeMap<DAId, Connection> connections;
+	private int maxConnections;
+	private long idleTime;
+	
+	private volatile int size;
+	private volatile long hits;
+	private volatile long misses;
+	private volatile long evictions;
+	private volatile long idleCloses;
+
+
+	/**
+	 * Instantiates a cache.
+	 * 
+	 * @param maxConnections The maximum number of open connections.
+	 * @param idleTime The base time in milliseconds after which a
+	 * connection that is not used by any component is closed.
+	 */
+	public ConnectionCache(int maxConnections, long idleTime) {
+		if(maxConnections <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+
+		this.maxConnections = maxConnections;
+		this.idleTime = idleTime;
+		connections = new TreeMap<DAId, Connection>();
+	}
+
+	/**
+	 * Returns the connection to a DA and counts a hit or a miss.
+	 * 
+	 * @param daId The ID of the remote DA.
+	 * @return The connection or null if there is no connection to the DA.
+	 */
+	public Connection lookup(DAId daId) {
+		Connection c = connections.get(daId);
+		if(c != null)
+			++hits;
+		else
+			++misses;
+		return c;
+	}
+
+	/**
+	 * Returns the connection to a DA without counting a hit or a miss.
+	 * 
+	 * @param daId The ID of the remote DA.
+	 * @return The connection or null if there is no connection to the DA.
+	 */
+	public Connection get(DAId daId) {
+		return connections.get(daId);
+	}
+	
+	public boolean containsKey(DAId daId) {
+		return connections.containsKey(daId);
+	}
+
+	/**
+	 * Adds a connection to the cache. If the cache is full, the least
+	 * recently used idle connection is removed from the cache and returned.
+	 * If all connections are used, the cache temporarily exceeds its
+	 * capacity.
+	 * 
+	 * @param c The new connection.
+	 * @return The evicted connection (to be closed by the caller) or null.
+	 */
+	public Connection put(Connection c) {
+		if(connections.put(c.getDaId(), c) != null)
+			throw new Error("A connection was already existing");
+
+		Connection evicted = null;
+		if(connections.size() > maxConnections) {
+			evicted = getLeastRecentlyUsedIdle(c);
+			if(evicted != null) {
+				connections.remove(evicted.getDaId());
+				++evictions;
+			}
+		}
+		size = connections.size();
+		
+		return evicted;
+	}
+
+	public Connection remove(DAId daId) {
+		Connection c = connections.remove(daId);
+		size = connections.size();
+		return c;
+	}
+
+	/**
+	 * Removes from the cache the connections that were idle for longer than
+	 * their idle timeout.
+	 * 
+	 * @return The removed connections (to be closed by the caller).
+	 */
+	public LinkedList<Connection> removeIdle() {
+		LinkedList<Connection> l = new LinkedList<Connection>();
+		long maxIdleTime = MAX_IDLE_FACTOR * idleTime;
+		for(Iterator<Connection> it = connections.values().iterator();
+		it.hasNext();) {
+			Connection c = it.next();
+			if(c.isGcAble(idleTime, maxIdleTime)) {
+				it.remove();
+				l.add(c);
+			}
+		}
+		idleCloses += l.size();
+		size = connections.size();
+		
+		return l;
+	}
+
+	/**
+	 * @return True if some connections are not used by any component.
+	 */
+	public boolean hasIdle() {
+		for(Connection c : connections.values())
+			if(c.getConnectedComponentsCount() == 0)
+				return true;
+		return false;
+	}
+
+	public Collection<Connection> values() {
+		return connections.values();
+	}
+
+	public void clear() {
+		connections.clear();
+		size = 0;
+	}
+	
+	/**
+	 * @return The number of open connections.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The maximum number of open connections.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return The number of lookups that found an open connection.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of lookups that did not find an open connection.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of connections closed because the cache was full.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of connections closed because they were idle.
+	 */
+	public long getIdleCloses() {
+		return idleCloses;
+	}
+	
+	private Connection getLeastRecentlyUsedIdle(Connection newConnection) {
+		Connection lru = null;
+		for(Connection c : connections.values()) {
+			if(c != newConnection && c.getConnectedComponentsCount() == 0 &&
+					(lru == null || c.getLastUse() < lru.getLastUse()))
+				lru = c;
+		}
+		return lru;
+	}
+
+}
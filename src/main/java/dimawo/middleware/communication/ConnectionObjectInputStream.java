@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+
+
+
+/**
+ * An object input stream reading the data written by a
+ * {@link ConnectionObjectOutputStream}. Class descriptors and interned
+ * objects (DA IDs and MN IDs) are cached for the life of the stream.
+ * 
+ * @author Gerard Dethier
+ */
+public class ConnectionObjectInputStream extends ObjectInputStream {
+
+	/** Class descriptors already read (the index in the list is the index
+	 * of the descriptor). */
+	private ArrayList<ObjectStreamClass> descriptors;
+	/** Interned objects already read (the index in the list is the index
+	 * of the object). */
+	private ArrayList<Object> interned;
+
+
+	public ConnectionObjectInputStream(InputStream in) throws IOException {
+		super(in);
+		descriptors = new ArrayList<ObjectStreamClass>();
+		interned = new ArrayList<Object>();
+		enableResolveObject(true);
+	}
+	
+	/**
+	 * Reads the tag of an interned object written by
+	 * {@link ConnectionObjectOutputStream#writeInternedTag(Object)}.
+	 * 
+	 * @return The tag.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public int readInternedTag() throws IOException {
+		return readByte();
+	}
+	
+	/**
+	 * Reads the index of a cached interned object and returns the object.
+	 * This method is called after a
+	 * {@link ConnectionObjectOutputStream#CACHED_OBJECT} tag.
+	 * 
+	 * @param c The expected class of the object.
+	 * @return The object.
+	 * 
+	 * @throws IOException If the index is invalid.
+	 */
+	public <T> T readInterned(Class<T> c) throws IOException {
+		Object o = getInterned(readCompactInt());
+		if(o.getClass() != c)
+			throw new StreamCorruptedException("Unexpected interned object "+o);
+		return c.cast(o);
+	}
+	
+	/**
+	 * Caches an interned object whose full content was read after a
+	 * {@link ConnectionObjectOutputStream#NEW_OBJECT} tag.
+	 * 
+	 * @param o The object.
+	 */
+	public void intern(Object o) {
+		if(interned.size() < ConnectionObjectOutputStream.MAX_INTERNED)
+			interned.add(o);
+	}
+
+	@Override
+	protected ObjectStreamClass readClassDescriptor() throws IOException,
+			ClassNotFoundException {
+		int type = readByte();
+		if(type == ConnectionObjectOutputStream.NEW_DESCRIPTOR) {
+			ObjectStreamClass desc = super.readClassDescriptor();
+			descriptors.add(desc);
+			return desc;
+		} else if(type == ConnectionObjectOutputStream.CACHED_DESCRIPTOR) {
+			int index = readInt();
+			if(index < 0 || index >= descriptors.size())
+				throw new StreamCorruptedException("Unknown class descriptor "+index);
+			return descriptors.get(index);
+		} else {
+			throw new StreamCorruptedException("Unknown descriptor type "+type);
+		}
+	}
+	
+	/**
+	 * Resolves the references to interned objects and caches new interned
+	 * objects.
+	 */
+	@Override
+	protected Object resolveObject(Object obj) throws IOException {
+		if(obj instanceof ConnectionObjectOutputStream.InternedRef)
+			return getInterned(
+					((ConnectionObjectOutputStream.InternedRef) obj).index);
+		if(obj != null && ConnectionObjectOutputStream.isInternable(obj))
+			intern(obj);
+		return obj;
+	}
+	
+	private Object getInterned(int index) throws IOException {
+		if(index < 0 || index >= interned.size())
+			throw new StreamCorruptedException("Unknown interned object "+index);
+		return interned.get(index);
+	}
+	
+	private int readCompactInt() throws IOException {
+		int v = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			v |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+		throw new StreamCorruptedException("Invalid compact integer");
+	}
+
+}
@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.middleware.overlay.mntree.MnId;
+
+
+
+/**
+ * An object output stream that caches class descriptors for the life of
+ * the stream. The first time a class descriptor is written, it is written
+ * entirely and associated to an index. Afterwards, only the index is written.
+ * Contrary to the handles of the objects, cached class descriptors are kept
+ * when the stream is {@link #reset() reset}.
+ * <p>
+ * DA IDs and MN IDs are interned the same way: the first time an ID is
+ * written, it is written entirely and associated to an index, afterwards
+ * only the index is written. The sender and the recipient of the messages
+ * of a connection, which rarely change, are therefore only sent once.
+ * Interning applies to IDs written by Java serialization (see
+ * {@link #replaceObject(Object)}) and to IDs written by message codecs
+ * (see {@link #writeInternedTag(Object)}). At most {@link #MAX_INTERNED}
+ * IDs are interned per connection.
+ * <p>
+ * If the encoding of a frame fails, the descriptors and IDs cached since
+ * last {@link #commit()} are forgotten and the stream is reset (see
+ * {@link #rollback()}) because the recipient will never read them.
+ * <p>
+ * The stream must be read by a {@link ConnectionObjectInputStream}.
+ * 
+ * @author Gerard Dethier
+ */
+public class ConnectionObjectOutputStream extends ObjectOutputStream {
+
+	/** Class descriptor is followed by its full description. */
+	static final int NEW_DESCRIPTOR = 0;
+	/** Class descriptor is given by its index. */
+	static final int CACHED_DESCRIPTOR = 1;
+	
+	/** Interned object is null. */
+	public static final int NULL_OBJECT = 0;
+	/** Interned object is followed by its full content. */
+	public static final int NEW_OBJECT = 1;
+	/** Interned object is given by its index. */
+	public static final int CACHED_OBJECT = 2;
+	
+	/** Maximum number of interned objects of a stream. */
+	public static final int MAX_INTERNED = 1024;
+
+	/** Indexes of the class descriptors already written. */
+	private HashMap<String, Integer> descriptors;
+	/** Names of the class descriptors in index order. */
+	private ArrayList<String> descriptorNames;
+	/** Number of class descriptors at last commit. */
+	private int committedDescriptors;
+	
+	/** Indexes of the interned objects. */
+	private HashMap<Object, Integer> interned;
+	/** Interned objects in index order. */
+	private ArrayList<Object> internedObjects;
+	/** Number of interned objects at last commit. */
+	private int committedInterned;
+
+
+	public ConnectionObjectOutputStream(OutputStream out) throws IOException {
+		super(out);
+		descriptors = new HashMap<String, Integer>();
+		descriptorNames = new ArrayList<String>();
+		interned = new HashMap<Object, Integer>();
+		internedObjects = new ArrayList<Object>();
+		enableReplaceObject(true);
+	}
+	
+	/**
+	 * Tells if objects of the class of given object are interned.
+	 * 
+	 * @param o An object.
+	 * @return True if the object is a DA ID or an MN ID.
+	 */
+	static boolean isInternable(Object o) {
+		Class<?> c = o.getClass();
+		return c == DAId.class || c == MnId.class;
+	}
+	
+	/**
+	 * Writes the tag of an interned object written by a codec. The object
+	 * must be written by the caller after the tag if it is new.
+	 * 
+	 * @param o An object (a DA ID or an MN ID) or null.
+	 * @return True if the content of the object must be written after the
+	 * tag.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public boolean writeInternedTag(Object o) throws IOException {
+		if(o == null) {
+			writeByte(NULL_OBJECT);
+			return false;
+		}
+		
+		Integer index = interned.get(o);
+		if(index != null) {
+			writeByte(CACHED_OBJECT);
+			writeCompactInt(index);
+			return false;
+		}
+		
+		intern(o);
+		writeByte(NEW_OBJECT);
+		return true;
+	}
+	
+	/**
+	 * Marks the data written since last commit as sent: cached class
+	 * descriptors and interned objects are kept.
+	 */
+	public void commit() {
+		committedDescriptors = descriptorNames.size();
+		committedInterned = internedObjects.size();
+	}
+	
+	/**
+	 * Forgets the class descriptors and the interned objects cached since
+	 * last commit and resets the stream: the handles of the objects written
+	 * since last commit are unknown to the reader (and Java serialization
+	 * may have cleared them after an error without notifying the reader).
+	 * The data written since last commit must be discarded, after a flush,
+	 * before this method is called. The reset marker must be sent to the
+	 * reader.
+	 * 
+	 * @throws IOException If the reset marker could not be written.
+	 */
+	public void rollback() throws IOException {
+		while(descriptorNames.size() > committedDescriptors)
+			descriptors.remove(descriptorNames.remove(descriptorNames.size() - 1));
+		while(internedObjects.size() > committedInterned)
+			interned.remove(internedObjects.remove(internedObjects.size() - 1));
+		reset();
+	}
+
+	@Override
+	protected void writeClassDescriptor(ObjectStreamClass desc)
+	throws IOException {
+		Integer index = descriptors.get(desc.getName());
+		if(index != null) {
+			writeByte(CACHED_DESCRIPTOR);
+			writeInt(index);
+		} else {
+			descriptors.put(desc.getName(), descriptors.size());
+			descriptorNames.add(desc.getName());
+			writeByte(NEW_DESCRIPTOR);
+			super.writeClassDescriptor(desc);
+		}
+	}
+	
+	/**
+	 * Replaces an already written DA ID or MN ID by a reference to its
+	 * index.
+	 */
+	@Override
+	protected Object replaceObject(Object obj) throws IOException {
+		if(obj == null || ! isInternable(obj))
+			return obj;
+		
+		Integer index = interned.get(obj);
+		if(index != null)
+			return new InternedRef(index);
+		
+		intern(obj);
+		return obj;
+	}
+	
+	private void intern(Object o) {
+		if(internedObjects.size() < MAX_INTERNED) {
+			interned.put(o, internedObjects.size());
+			internedObjects.add(o);
+		}
+	}
+	
+	/**
+	 * Writes a positive integer using 1 to 5 bytes.
+	 * 
+	 * @param v A positive integer.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	void writeCompactInt(int v) throws IOException {
+		while((v & ~0x7f) != 0) {
+			writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		writeByte(v);
+	}
+	
+	/**
+	 * A reference to an interned object.
+	 */
+	static class InternedRef implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		final int index;
+		
+		public InternedRef(int index) {
+			this.index = index;
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * A UDP socket shared by all the messages a Communicator sends as datagrams
+ * instead of writing them to a connection.
+ * <p>
+ * Only small loss-tolerant messages (see {@link Message#isLossTolerant()})
+ * that are not reliable are sent as datagrams. A datagram contains a
+ * version byte followed by the message encoded by
+ * {@link MessageCodecRegistry#encode(Message)}. A message whose encoding
+ * does not fit into {@link #MAX_DATAGRAM_SIZE} bytes is sent through a
+ * connection.
+ * <p>
+ * The socket is bound to the UDP port having the same number as the TCP
+ * port of the DA. A message sent as a datagram is signaled as sent as soon
+ * as it is given to the socket: its loss is never signaled. The datagram
+ * lane must therefore be enabled in all the DAs of a distributed
+ * application.
+ * 
+ * @author Gerard Dethier
+ */
+public class DatagramLane implements Runnable {
+	
+	/** Maximum size of a datagram in bytes. */
+	public static final int MAX_DATAGRAM_SIZE = 1400;
+	/** Version of datagrams encoding. */
+	private static final byte VERSION = 1;
+	
+	private CommunicatorInterface com;
+	private DatagramSocket sock;
+	private Thread receiver;
+	private volatile boolean closed;
+	
+	private final AtomicLong sentCount = new AtomicLong();
+	private volatile long receivedCount;
+	private final AtomicLong tooLargeCount = new AtomicLong();
+	private volatile long droppedCount;
+	
+	
+	/**
+	 * Instantiates a datagram lane and binds its socket.
+	 * 
+	 * @param com The Communicator incoming messages are submitted to.
+	 * @param port The UDP port.
+	 * 
+	 * @throws SocketException If the socket could not be bound.
+	 */
+	public DatagramLane(CommunicatorInterface com, int port) throws SocketException {
+		this.com = com;
+		sock = new DatagramSocket(port);
+	}
+	
+	/**
+	 * Starts the thread receiving datagrams.
+	 */
+	public void start() {
+		if(receiver == null) {
+			receiver = new Thread(this, "DatagramLane");
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+	}
+	
+	/**
+	 * Closes the socket. The receiving thread exits.
+	 */
+	public void close() {
+		closed = true;
+		sock.close();
+	}
+	
+	/**
+	 * Tells if a message can be sent as a datagram.
+	 * 
+	 * @param m A message.
+	 * @return True if the message is loss-tolerant, not reliable and has no
+	 * attachment.
+	 */
+	public static boolean accepts(Message m) {
+		return m.isLossTolerant() && ! m.isReliabilityFlagSet() &&
+			m.getAttachment() == null;
+	}
+	
+	/**
+	 * Sends a message as a datagram. The message is signaled as sent if
+	 * it could be given to the socket, not sent otherwise.
+	 * 
+	 * @param m The message, its sender and recipient must be set.
+	 * @return False if the message is not accepted (see
+	 * {@link #accepts(Message)}) or is too large, in which case it must be
+	 * sent through a connection.
+	 */
+	public boolean send(Message m) {
+		if( ! accepts(m))
+			return false;
+		
+		byte[] encoded;
+		try {
+			encoded = MessageCodecRegistry.encode(m);
+		} catch (IOException e) {
+			return false; // Connection will report the error
+		}
+		if(encoded.length + 1 > MAX_DATAGRAM_SIZE) {
+			tooLargeCount.incrementAndGet();
+			return false;
+		}
+		
+		byte[] data = new byte[encoded.length + 1];
+		data[0] = VERSION;
+		System.arraycopy(encoded, 0, data, 1, encoded.length);
+		
+		DAId to = m.getRecipient();
+		boolean success;
+		try {
+			sock.send(new DatagramPacket(data, data.length,
+					new InetSocketAddress(to.getHostName(), to.getPort())));
+			sentCount.incrementAndGet();
+			success = true;
+		} catch (IOException e) {
+			com.printMessage(e);
+			success = false;
+		}
+		m.setMessageSent(success);
+		return true;
+	}
+	
+	/**
+	 * @return The number of messages sent as datagrams.
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+	
+	/**
+	 * @return The number of messages received as datagrams.
+	 */
+	public long getReceivedCount() {
+		return receivedCount;
+	}
+	
+	/**
+	 * @return The number of loss-tolerant messages sent through a
+	 * connection because they were too large.
+	 */
+	public long getTooLargeCount() {
+		return tooLargeCount.get();
+	}
+	
+	/**
+	 * @return The number of received datagrams that could not be decoded.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+	
+	
+	/////////////////////////////
+	// Runnable implementation //
+	/////////////////////////////
+
+	@Override
+	public void run() {
+		byte[] buf = new byte[MAX_DATAGRAM_SIZE];
+		DatagramPacket p = new DatagramPacket(buf, buf.length);
+		while( ! closed) {
+			p.setLength(buf.length);
+			try {
+				sock.receive(p);
+			} catch (IOException e) {
+				if( ! closed)
+					com.printMessage(e);
+				return;
+			}
+			
+			if(p.getLength() < 1 || buf[0] != VERSION) {
+				++droppedCount;
+				continue;
+			}
+			
+			byte[] encoded = new byte[p.getLength() - 1];
+			System.arraycopy(buf, 1, encoded, 0, encoded.length);
+			Message m;
+			try {
+				m = MessageCodecRegistry.decode(encoded);
+			} catch (Exception e) {
+				++droppedCount;
+				com.printMessage("Could not decode datagram from "+
+						p.getSocketAddress()+": "+e);
+				continue;
+			}
+			
+			if(m.getSender() == null) {
+				++droppedCount;
+				continue;
+			}
+			
+			++receivedCount;
+			com.submitIncomingMessage(m);
+		}
+	}
+
+}
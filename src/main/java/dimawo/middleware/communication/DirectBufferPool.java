@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A pool of direct buffers receiving attachments (see {@link Attachment}).
+ * Writing a direct buffer to a file or a socket does not require an
+ * intermediate copy. Buffers are allocated in power-of-two size classes
+ * from {@link #MIN_SIZE} to {@link #MAX_SIZE}; larger attachments are
+ * received into heap buffers that are not pooled. At most
+ * {@link #MAX_POOLED} free buffers are kept per size class.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class DirectBufferPool {
+	
+	/** Size of the smallest pooled buffers. */
+	public static final int MIN_SIZE = 4 * 1024;
+	/** Size of the largest pooled buffers. */
+	public static final int MAX_SIZE = 4 * 1024 * 1024;
+	/** Maximum number of free buffers per size class. */
+	public static final int MAX_POOLED = 16;
+	
+	private static final int CLASSES =
+		Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+	
+	private static ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private static AtomicInteger[] freeCount;
+	
+	static {
+		free = newQueues(CLASSES);
+		freeCount = new AtomicInteger[CLASSES];
+		for(int i = 0; i < CLASSES; ++i) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			freeCount[i] = new AtomicInteger();
+		}
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ConcurrentLinkedQueue<ByteBuffer>[] newQueues(int n) {
+		return new ConcurrentLinkedQueue[n];
+	}
+	
+	/**
+	 * Returns a buffer of given length. The limit of the returned buffer
+	 * is the requested length.
+	 * 
+	 * @param length A number of bytes.
+	 * @return A cleared buffer (a direct buffer if the length is not greater
+	 * than {@link #MAX_SIZE}).
+	 */
+	public static ByteBuffer acquire(int length) {
+		if(length > MAX_SIZE)
+			return ByteBuffer.allocate(length);
+		
+		int c = getSizeClass(length);
+		ByteBuffer b = free[c].poll();
+		if(b != null)
+			freeCount[c].decrementAndGet();
+		else
+			b = ByteBuffer.allocateDirect(MIN_SIZE << c);
+		b.clear();
+		b.limit(length);
+		return b;
+	}
+	
+	/**
+	 * Gives back a buffer returned by {@link #acquire(int)}. The buffer must
+	 * not be used anymore.
+	 * 
+	 * @param b The buffer.
+	 */
+	public static void release(ByteBuffer b) {
+		if( ! b.isDirect())
+			return;
+		
+		int c = getSizeClass(b.capacity());
+		if((MIN_SIZE << c) != b.capacity())
+			return;
+		if(freeCount[c].incrementAndGet() <= MAX_POOLED)
+			free[c].add(b);
+		else
+			freeCount[c].decrementAndGet();
+	}
+	
+	private static int getSizeClass(int length) {
+		int c = 0;
+		while((MIN_SIZE << c) < length)
+			++c;
+		return c;
+	}
+
+}
@@ -23,4 +23,7 @@ package dimawo.middleware.communication;
 
 public interface FailureDetectionCommons {
 	public static final int OK_ACK = 42, OUT_OF_SYNC = 666;
+	/** Acknowledgment of an {@link IdentificationMessage} accepting
+	 * compression (see {@link FrameCompressor}). */
+	public static final int COMPRESS_ACK = 43;
 }
@@ -22,10 +22,9 @@
 package dimawo.middleware.communication;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
 
 import dimawo.middleware.communication.outputStream.OutOfSyncException;
 import dimawo.middleware.distributedAgent.DAId;
@@ -34,14 +33,29 @@ import dimawo.simulation.socket.SocketInterface;
 
 
 
+/**
+ * The input side of a connection from a remote DA. Objects are read from
+ * the frames written by a {@link FailureDetectionOutputStream} (see
+ * {@link FrameEncoder}).
+ * <p>
+ * Reliable messages are acknowledged cumulatively (see {@link AckWindow}):
+ * an acknowledgment is sent when no more data are available or after
+ * {@link #ACK_BATCH} unacknowledged messages.
+ */
 public class FailureDetectionInputStream implements FailureDetectionCommons {
+	
+	/** Maximum number of reliable messages acknowledged at once. */
+	public static final int ACK_BATCH = 8;
 
 	private int timeout;
 	private SocketInterface sock;
 	
-	private BufferedInputStream bis;
-	private ObjectInputStream in;
+	private FrameReader frames;
+	private FrameDecoder decoder;
 	private DataOutputStream ack;
+	private int lastReceived;
+	private int pendingAcks;
+	private PeerMetrics metrics;
 
 	public FailureDetectionInputStream(SocketInterface sock, int timeout) throws IOException {
 		this.sock = sock;
@@ -49,20 +63,43 @@ public class FailureDetectionInputStream implements FailureDetectionCommons {
 		this.timeout = timeout;
 		sock.setSoTimeout(timeout);
 
-		bis = new BufferedInputStream(sock.getInputStream());
+		frames = new FrameReader(new BufferedInputStream(sock.getInputStream()));
+		decoder = new FrameDecoder();
 		ack = new DataOutputStream(sock.getOutputStream());
 	}
 	
+	/**
+	 * Sets the metrics of the remote DA. Messages read after this call are
+	 * recorded into them.
+	 * 
+	 * @param metrics The metrics.
+	 */
+	public void setMetrics(PeerMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
 	public Object readObject() throws IOException, ClassNotFoundException {
-		in = new ObjectInputStream(bis);
-		Object o = in.readObject();
-		ack.write(OK_ACK);
+		Object o = decoder.decodeObject(frames.readFrame());
+		ack.write(FrameCompressor.getIdentificationAck(o));
 		return o;
 	}
 	
 	public Message readMessage(boolean sendAck, DAId localId) throws IOException, ClassNotFoundException, OutOfSyncException {
-		in = new ObjectInputStream(bis);
-		Message m = (Message) in.readObject();
+		// Pending acknowledgments must be sent before blocking: the sender
+		// could be waiting for them.
+		if(pendingAcks > 0 && frames.available() == 0)
+			flushAck();
+		
+		ByteBuffer frame = frames.readFrame();
+		int size = frame.remaining();
+		Message m = decoder.decodeMessage(frame);
+		ByteBuffer a = frames.takeAttachment();
+		if(a != null) {
+			size += a.remaining();
+			m.setAttachment(Attachment.wrap(a));
+		}
+		if(metrics != null)
+			metrics.messageReceived(size);
 		return m;
 	}
 	
@@ -74,12 +111,65 @@ public class FailureDetectionInputStream implements FailureDetectionCommons {
 		ack.write(OK_ACK);
 	}
 
-	public void ack(DAId msgDest, DAId localId) throws IOException, OutOfSyncException {
-		if(! msgDest.equals(localId)) {
-			ack.write(OUT_OF_SYNC);
+	/**
+	 * Checks a message was sent to local DA. If not, the remote DA is
+	 * signaled the stream is out of sync.
+	 * 
+	 * @param m The message.
+	 * @param localId The ID of the local DA.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws OutOfSyncException If a reliable message was not sent to
+	 * local DA.
+	 */
+	public void checkRecipient(Message m, DAId localId) throws IOException, OutOfSyncException {
+		if(m.isReliabilityFlagSet() && ! m.getRecipient().equals(localId)) {
+			writeAck(OUT_OF_SYNC, m.getSeqNum());
 			throw new OutOfSyncException();
 		}
-		ack.write(OK_ACK);
+	}
+
+	/**
+	 * Acknowledges a message. The acknowledgment may be delayed in
+	 * order to acknowledge several messages at once. A message must only
+	 * be acknowledged once delivered.
+	 * 
+	 * @param m The message.
+	 * @param localId The ID of the local DA.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws OutOfSyncException If a reliable message was not sent to
+	 * local DA.
+	 */
+	public void ack(Message m, DAId localId) throws IOException, OutOfSyncException {
+		checkRecipient(m, localId);
+		
+		lastReceived = m.getSeqNum();
+		++pendingAcks;
+		if(pendingAcks >= ACK_BATCH)
+			flushAck();
+	}
+	
+	/**
+	 * Sends the sequence number of the last message received on the
+	 * previous connection of a resuming stream.
+	 * 
+	 * @param lastSeqNum A sequence number (-1 if no message was received).
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void sendResumeReport(int lastSeqNum) throws IOException {
+		writeAck(OK_ACK, lastSeqNum);
+	}
+	
+	private void flushAck() throws IOException {
+		writeAck(OK_ACK, lastReceived);
+		pendingAcks = 0;
+	}
+	
+	private void writeAck(int status, int seqNum) throws IOException {
+		ByteBuffer b = AckWindow.encodeAck(status, seqNum);
+		ack.write(b.array(), 0, b.remaining());
 	}
 	
 }
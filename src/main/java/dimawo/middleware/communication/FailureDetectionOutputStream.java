@@ -24,7 +24,8 @@ package dimawo.middleware.communication;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import dimawo.middleware.communication.outputStream.OutOfSyncException;
 import dimawo.simulation.socket.SocketInterface;
@@ -32,47 +33,270 @@ import dimawo.simulation.socket.SocketInterface;
 
 
 
+/**
+ * The output side of a connection to a remote DA. Objects are written as
+ * frames produced by a {@link FrameEncoder} which uses a single object
+ * stream for the whole connection.
+ * <p>
+ * Reliable messages are acknowledged using a sliding window (see
+ * {@link AckWindow}): up to {@link AckWindow#getCapacity()} reliable
+ * messages can be written before blocking on an acknowledgment. Reliable
+ * messages are signaled as sent (see {@link Message#setMessageSent(boolean)})
+ * when they are acknowledged.
+ * <p>
+ * Messages are buffered: they are actually sent on {@link #flush()} or
+ * when the buffer is full. Pending messages are flushed before blocking on
+ * an acknowledgment.
+ * <p>
+ * A resumable stream keeps all written messages (not only reliable ones)
+ * in its window until they are acknowledged. If the connection breaks, the
+ * window can be given to the stream of a new connection which resumes
+ * the stream (see {@link #resume()}).
+ */
 public class FailureDetectionOutputStream implements FailureDetectionCommons {
 	
+	/** Size of the buffer messages are written to before being sent. */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	
 	private SocketInterface sock;
 	
-	private BufferedOutputStream bos;
-	private ObjectOutputStream out;
+	private OutputStream bos;
+	private FrameEncoder encoder;
 	private DataInputStream ack;
+	private AckWindow window;
+	private boolean resumable;
+	private byte[] ackBuf;
+	private int unflushedBytes;
+	
+	/**
+	 * Sets the number of messages or bytes after which the object streams of
+	 * newly created connections are reset.
+	 * 
+	 * @param messages A number of messages (at least 1).
+	 * @param bytes A number of bytes.
+	 * 
+	 * @see FrameEncoder#setDefaultResetThresholds(int, long)
+	 */
+	public static void setDefaultResetThresholds(int messages, long bytes) {
+		FrameEncoder.setDefaultResetThresholds(messages, bytes);
+	}
 	
 	public FailureDetectionOutputStream(SocketInterface sock, int timeout) throws IOException {
+		this(sock, timeout, null);
+	}
+	
+	/**
+	 * Instantiates a stream. If a window is given, the stream is resumable
+	 * and the window is kept by the stream when it is aborted (see
+	 * {@link #abort()}).
+	 * 
+	 * @param sock The socket.
+	 * @param timeout The time-out of acknowledgments.
+	 * @param resumeWindow The window of a resumable stream or null.
+	 * 
+	 * @throws IOException If the socket could not be used.
+	 */
+	public FailureDetectionOutputStream(SocketInterface sock, int timeout,
+			AckWindow resumeWindow) throws IOException {
 		this.sock = sock;
 		
 		sock.setSoTimeout(timeout);
 		
-		bos = new BufferedOutputStream(sock.getOutputStream());
+		bos = new BufferedOutputStream(sock.getOutputStream(), BUFFER_SIZE);
+		encoder = new FrameEncoder();
 		ack = new DataInputStream(sock.getInputStream());
+		resumable = resumeWindow != null;
+		window = resumable ? resumeWindow : new AckWindow();
+		ackBuf = new byte[AckWindow.ACK_SIZE];
+	}
+	
+	/**
+	 * Sets the metrics of the remote DA. Messages written and
+	 * acknowledgments received after this call are recorded into them.
+	 * 
+	 * @param metrics The metrics.
+	 */
+	public void setMetrics(PeerMetrics metrics) {
+		encoder.setMetrics(metrics);
+		window.setMetrics(metrics);
 	}
 	
 	public void writeObject(Object o) throws IOException {
-		out = new ObjectOutputStream(bos);
-		out.writeObject(o);
-		out.flush();
-		if(ack.read() != OK_ACK)
+		writeFrame(encoder.encodeObject(o));
+		flush();
+		int status = ack.read();
+		if(status == COMPRESS_ACK)
+			encoder.enableCompression();
+		else if(status != OK_ACK)
 			throw new IOException("Could not write object");
 	}
 	
-	public void writeMessage(Message m, boolean waitAck) throws IOException, OutOfSyncException {
-		out = new ObjectOutputStream(bos);
-		out.writeObject(m);
-		out.flush();
+	/**
+	 * Writes a message without flushing it. If the message is reliable and
+	 * the acknowledgment window is full, this method first blocks until an
+	 * acknowledgment is received. Already received acknowledgments are handled before
+	 * writing. If an exception is thrown, the message has not been added
+	 * to the acknowledgment window.
+	 * 
+	 * @param m The message.
+	 * @param reliable True if the message must be acknowledged.
+	 * 
+	 * @throws IOException If an I/O error occurred, including a time out.
+	 * @throws OutOfSyncException If the receiver signaled it is out of sync.
+	 */
+	public void writeMessage(Message m, boolean reliable) throws IOException, OutOfSyncException {
+		pollAcks();
+		if(reliable || resumable) {
+			while(window.isFull())
+				readAck();
+		}
+
+		writeMessageFrame(m);
+		if(reliable || resumable)
+			window.add(m, reliable);
+	}
+	
+	/**
+	 * Resumes the stream of a broken connection: the sequence number of the
+	 * last message received by the remote DA is read, acknowledged messages
+	 * are removed from the window and the other ones are written again.
+	 * This method must be called after the identification of a resuming
+	 * stream (see {@link IdentificationMessage#isResuming()}).
+	 * 
+	 * @throws IOException If an I/O error occurred or if some messages
+	 * received by the remote DA are not in the window anymore.
+	 */
+	public void resume() throws IOException {
+		ack.readFully(ackBuf);
+		int last;
+		try {
+			last = window.acknowledge(ByteBuffer.wrap(ackBuf));
+		} catch (OutOfSyncException e) {
+			throw new IOException(e.toString());
+		}
 		
-		if(waitAck) {
-			int ackVal = ack.read();
-			if(ackVal == OUT_OF_SYNC)
-				throw new OutOfSyncException("Could not write object");
-			if(ackVal != OK_ACK)
-				throw new IOException("Could not write object");
+		int first = window.getFirstSeqNum();
+		if(first > last + 1)
+			throw new IOException("Messages "+(last + 1)+" to "+(first - 1)+
+					" cannot be written again");
+		
+		for(Message m : window.getMessages())
+			writeMessageFrame(m);
+		flush();
+	}
+	
+	/**
+	 * Handles the acknowledgments that have already been received, without
+	 * blocking.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws OutOfSyncException If the receiver signaled it is out of sync.
+	 */
+	public void pollAcks() throws IOException, OutOfSyncException {
+		while( ! window.isEmpty() && ack.available() >= AckWindow.ACK_SIZE)
+			readAck();
+	}
+	
+	/**
+	 * Sends the written messages that are still buffered.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void flush() throws IOException {
+		if(unflushedBytes > 0) {
+			bos.flush();
+			unflushedBytes = 0;
 		}
 	}
 	
+	/**
+	 * Returns the number of bytes written since last flush.
+	 * 
+	 * @return A number of bytes.
+	 */
+	public int getUnflushedBytes() {
+		return unflushedBytes;
+	}
+	
+	/**
+	 * Blocks until all written reliable messages are acknowledged.
+	 * 
+	 * @throws IOException If an I/O error occurred, including a time out.
+	 * @throws OutOfSyncException If the receiver signaled it is out of sync.
+	 */
+	public void waitAcks() throws IOException, OutOfSyncException {
+		while( ! window.isEmpty())
+			readAck();
+	}
+	
+	/**
+	 * Tells if some reliable messages have not been acknowledged yet.
+	 * 
+	 * @return True if some messages are waiting an acknowledgment.
+	 */
+	public boolean hasUnacknowledged() {
+		return ! window.isEmpty();
+	}
+	
+	/**
+	 * Closes the connection. Reliable messages that have not been
+	 * acknowledged yet are signaled as not sent.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
 	public void close() throws IOException {
+		try {
+			sock.close();
+		} finally {
+			window.failAll();
+		}
+	}
+	
+	/**
+	 * Closes the connection without signaling unacknowledged messages. This
+	 * method is used before resuming a resumable stream.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void abort() throws IOException {
 		sock.close();
 	}
+	
+	private void readAck() throws IOException, OutOfSyncException {
+		flush(); // Receiver could wait for buffered messages
+		ack.readFully(ackBuf);
+		window.acknowledge(ByteBuffer.wrap(ackBuf));
+	}
+	
+	/**
+	 * Writes the frame of a message into the buffer, followed by the
+	 * attachment of the message if any. Attachments larger than the buffer
+	 * are written directly to the socket.
+	 * 
+	 * @param m The message.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private void writeMessageFrame(Message m) throws IOException {
+		writeFrame(encoder.encodeMessage(m));
+		Attachment a = encoder.getLastAttachment();
+		if(a != null) {
+			a.writeTo(bos);
+			unflushedBytes += a.getLength();
+		}
+	}
+	
+	/**
+	 * Writes a frame into the buffer.
+	 * 
+	 * @param frame The frame.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private void writeFrame(ByteBuffer frame) throws IOException {
+		bos.write(frame.array(), frame.arrayOffset() + frame.position(),
+				frame.remaining());
+		unflushedBytes += frame.remaining();
+	}
 
 }
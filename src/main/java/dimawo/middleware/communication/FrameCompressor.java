@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Compresses and decompresses the frames of a connection (see
+ * {@link FrameEncoder}). Compression is negotiated when a connection is
+ * established: the connecting stream requests it in its
+ * {@link IdentificationMessage} and the receiver accepts it by answering
+ * {@link FailureDetectionCommons#COMPRESS_ACK} if compression is enabled
+ * on its side too (see {@link #setDefaultCompression(boolean, int, int)}).
+ * <p>
+ * Only frames and attachments whose size reaches a threshold are
+ * compressed, and they are sent compressed only if this makes them
+ * smaller. A compressed block starts with the 4 bytes length of its
+ * uncompressed content followed by the deflated content.
+ * <p>
+ * Statistics (ratio and CPU time) of all the connections of the JVM are
+ * available through static getters. This class is not thread-safe, each
+ * connection side has its own instance.
+ * 
+ * @author Gerard Dethier
+ */
+public class FrameCompressor {
+	
+	/** Default compression mode */
+	private static boolean defaultEnabled = false;
+	/** Default minimum size of compressed blocks */
+	private static int defaultThreshold = 4096;
+	/** Default deflater compression level */
+	private static int defaultLevel = Deflater.BEST_SPEED;
+	
+	private static final AtomicLong compressedBlocks = new AtomicLong();
+	private static final AtomicLong incompressibleBlocks = new AtomicLong();
+	private static final AtomicLong inputBytes = new AtomicLong();
+	private static final AtomicLong outputBytes = new AtomicLong();
+	private static final AtomicLong compressionTime = new AtomicLong();
+	private static final AtomicLong decompressedBlocks = new AtomicLong();
+	private static final AtomicLong decompressionTime = new AtomicLong();
+	
+	private int threshold;
+	private int level;
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] out;
+	
+	
+	/**
+	 * Enables or disables the compression of connections established after
+	 * this call. Compression is only used on connections whose both ends
+	 * enabled it.
+	 * 
+	 * @param on True to enable compression.
+	 * @param threshold The minimum size in bytes of a compressed frame or
+	 * attachment.
+	 * @param level The compression level of the deflater (see
+	 * {@link Deflater}).
+	 */
+	public static void setDefaultCompression(boolean on, int threshold,
+			int level) {
+		if(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid level "+level);
+		defaultEnabled = on;
+		defaultThreshold = threshold;
+		defaultLevel = level;
+	}
+	
+	/**
+	 * @return True if newly established connections request compression.
+	 */
+	public static boolean isDefaultEnabled() {
+		return defaultEnabled;
+	}
+	
+	/**
+	 * Returns the acknowledgment of the first object received on a
+	 * connection.
+	 * 
+	 * @param o The first object.
+	 * @return {@link FailureDetectionCommons#COMPRESS_ACK} if compression
+	 * is requested and enabled,
+	 * {@link FailureDetectionCommons#OK_ACK} otherwise.
+	 */
+	public static int getIdentificationAck(Object o) {
+		if(defaultEnabled && o instanceof IdentificationMessage &&
+				((IdentificationMessage) o).isCompressionRequested())
+			return FailureDetectionCommons.COMPRESS_ACK;
+		return FailureDetectionCommons.OK_ACK;
+	}
+	
+	/**
+	 * Instantiates a compressor using default threshold and level.
+	 */
+	public FrameCompressor() {
+		threshold = defaultThreshold;
+		level = defaultLevel;
+	}
+	
+	/**
+	 * Tells if a block of given size should be compressed.
+	 * 
+	 * @param len A number of bytes.
+	 * @return True if the size reaches the threshold.
+	 */
+	public boolean accepts(int len) {
+		return len >= threshold;
+	}
+	
+	/**
+	 * Compresses a block.
+	 * 
+	 * @param b The block.
+	 * @param off The offset of the block.
+	 * @param len The length of the block.
+	 * @return The compressed block or null if it is not smaller than the
+	 * original block.
+	 */
+	public byte[] compress(byte[] b, int off, int len) {
+		long t0 = System.nanoTime();
+		if(deflater == null) {
+			deflater = new Deflater(level);
+			out = new byte[1024];
+		}
+		deflater.reset();
+		deflater.setInput(b, off, len);
+		deflater.finish();
+		
+		int n = 4;
+		while( ! deflater.finished() && n < len) {
+			if(n == out.length) {
+				byte[] newOut = new byte[Math.min(2 * out.length, len + 4)];
+				System.arraycopy(out, 0, newOut, 0, n);
+				out = newOut;
+			}
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		
+		byte[] c = null;
+		if(deflater.finished() && n < len) {
+			putInt(out, 0, len);
+			c = new byte[n];
+			System.arraycopy(out, 0, c, 0, n);
+			compressedBlocks.incrementAndGet();
+			outputBytes.addAndGet(n);
+		} else {
+			incompressibleBlocks.incrementAndGet();
+			outputBytes.addAndGet(len);
+		}
+		inputBytes.addAndGet(len);
+		compressionTime.addAndGet(System.nanoTime() - t0);
+		
+		return c;
+	}
+	
+	/**
+	 * Decompresses a block produced by {@link #compress(byte[], int, int)}.
+	 * 
+	 * @param b The compressed block.
+	 * @param off The offset of the block.
+	 * @param len The length of the block.
+	 * @return The uncompressed content.
+	 * 
+	 * @throws IOException If the block is corrupted.
+	 */
+	public byte[] decompress(byte[] b, int off, int len) throws IOException {
+		long t0 = System.nanoTime();
+		if(len < 4)
+			throw new IOException("Truncated compressed block");
+		int size = getInt(b, off);
+		if(size < 0 || size > FrameReader.MAX_FRAME_SIZE)
+			throw new IOException("Invalid uncompressed length "+size);
+		
+		if(inflater == null)
+			inflater = new Inflater();
+		inflater.reset();
+		inflater.setInput(b, off + 4, len - 4);
+		byte[] content = new byte[size];
+		int n = 0;
+		try {
+			while(n < size) {
+				int k = inflater.inflate(content, n, size - n);
+				if(k == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new IOException("Truncated compressed block");
+				n += k;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e.toString());
+		}
+		
+		decompressedBlocks.incrementAndGet();
+		decompressionTime.addAndGet(System.nanoTime() - t0);
+		return content;
+	}
+	
+	
+	/**
+	 * @return The number of blocks sent compressed.
+	 */
+	public static long getCompressedBlocks() {
+		return compressedBlocks.get();
+	}
+	
+	/**
+	 * @return The number of blocks that were not smaller once compressed.
+	 */
+	public static long getIncompressibleBlocks() {
+		return incompressibleBlocks.get();
+	}
+	
+	/**
+	 * Returns the ratio between the number of bytes sent and the number of
+	 * bytes submitted to compression.
+	 * 
+	 * @return A ratio (1 if no block was submitted).
+	 */
+	public static double getCompressionRatio() {
+		long in = inputBytes.get();
+		return in == 0 ? 1 : (double) outputBytes.get() / in;
+	}
+	
+	/**
+	 * @return The time in nanoseconds spent compressing blocks.
+	 */
+	public static long getCompressionTime() {
+		return compressionTime.get();
+	}
+	
+	/**
+	 * @return The number of decompressed blocks.
+	 */
+	public static long getDecompressedBlocks() {
+		return decompressedBlocks.get();
+	}
+	
+	/**
+	 * @return The time in nanoseconds spent decompressing blocks.
+	 */
+	public static long getDecompressionTime() {
+		return decompressionTime.get();
+	}
+	
+	/**
+	 * @return A summary of the compression statistics.
+	 */
+	public static String getStatistics() {
+		return "compressed="+getCompressedBlocks()+
+			" incompressible="+getIncompressibleBlocks()+
+			" in="+inputBytes.get()+" out="+outputBytes.get()+
+			" ratio="+getCompressionRatio()+
+			" compressionMs="+getCompressionTime() / 1000000+
+			" decompressed="+getDecompressedBlocks()+
+			" decompressionMs="+getDecompressionTime() / 1000000;
+	}
+	
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+	
+	private static int getInt(byte[] b, int off) {
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+			((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+	}
+
+}
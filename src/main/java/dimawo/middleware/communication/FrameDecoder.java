@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Decodes the frames produced by a {@link FrameEncoder}. The content of
+ * the frames is read through a single object stream created when the first
+ * frame is decoded.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class FrameDecoder {
+	
+	private FrameInputStream frames;
+	private ConnectionObjectInputStream in;
+	
+	public FrameDecoder() {
+		frames = new FrameInputStream();
+	}
+	
+	/**
+	 * Decodes an object from the payload of a frame (i.e. without its
+	 * length header).
+	 * 
+	 * @param payload The payload of a frame.
+	 * @return The decoded object.
+	 * 
+	 * @throws IOException If the frame could not be decoded.
+	 * @throws ClassNotFoundException If the class of the object is unknown.
+	 */
+	public Object decodeObject(ByteBuffer payload) throws IOException, ClassNotFoundException {
+		frames.append(payload);
+		return getObjectStream().readObject();
+	}
+	
+	/**
+	 * Decodes a message from the payload of a frame (i.e. without its
+	 * length header).
+	 * 
+	 * @param payload The payload of a frame.
+	 * @return The decoded message.
+	 * 
+	 * @throws IOException If the frame could not be decoded.
+	 * @throws ClassNotFoundException If the class of the message is unknown.
+	 */
+	public Message decodeMessage(ByteBuffer payload) throws IOException, ClassNotFoundException {
+		frames.append(payload);
+		return MessageCodecRegistry.readMessage(getObjectStream());
+	}
+	
+	/**
+	 * Returns the object stream of the connection. The stream is created
+	 * (and its header read) on first call.
+	 * 
+	 * @return The object stream.
+	 * 
+	 * @throws IOException If the stream could not be created.
+	 */
+	private ConnectionObjectInputStream getObjectStream() throws IOException {
+		if(in == null) {
+			in = new ConnectionObjectInputStream(frames);
+		}
+		return in;
+	}
+	
+	/**
+	 * The input stream the object stream reads from. It contains the bytes
+	 * of the received frames not yet consumed. Reading after the last
+	 * received byte is an error: an object never spans several frames.
+	 */
+	private static class FrameInputStream extends InputStream {
+		private byte[] buf = new byte[512];
+		private int pos, limit;
+		
+		public void append(ByteBuffer payload) {
+			int len = payload.remaining();
+			if(buf.length - limit < len) {
+				int unread = limit - pos;
+				if(buf.length < unread + len) {
+					byte[] newBuf = new byte[Math.max(2 * buf.length, unread + len)];
+					System.arraycopy(buf, pos, newBuf, 0, unread);
+					buf = newBuf;
+				} else {
+					System.arraycopy(buf, pos, buf, 0, unread);
+				}
+				pos = 0;
+				limit = unread;
+			}
+			payload.get(buf, limit, len);
+			limit += len;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(pos == limit)
+				throw new IOException("Truncated frame");
+			return buf[pos++] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0)
+				return 0;
+			if(pos == limit)
+				throw new IOException("Truncated frame");
+			int n = Math.min(len, limit - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return limit - pos;
+		}
+	}
+
+}
@@ -0,0 +1,345 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Encodes the objects sent on a connection into frames. A frame is made of
+ * a 4 bytes length followed by the bytes produced by the object stream of the
+ * connection for a single object. Frames make message boundaries visible
+ * to the receiver without parsing the object stream, which is required by
+ * non-blocking receivers.
+ * <p>
+ * A single object stream is used for the whole connection: the stream
+ * header, class descriptors, DA IDs and MN IDs are only written once (see
+ * {@link ConnectionObjectOutputStream}). The stream is reset
+ * after a given number of messages or bytes
+ * (see {@link #setDefaultResetThresholds(int, long)}) in order to bound
+ * the size of the back-references tables on both sides of the connection.
+ * With the default thresholds, the stream is reset after each message. This
+ * preserves the semantics of independent messages: an object sent in
+ * 2 different messages is serialized twice (immutable IDs excepted). Higher thresholds allow objects
+ * shared by several messages to be sent as
+ * back-references, but an object must then not be modified after it was
+ * sent.
+ * <p>
+ * Messages are written using the codec registered for their type in
+ * {@link MessageCodecRegistry} if any, Java serialization otherwise.
+ * <p>
+ * If a message has an attachment (see {@link Attachment}), the
+ * {@link #ATTACHMENT_FLAG} is set in the length header of its frame and the
+ * frame ends with the 4 bytes length of the attachment. The bytes of the
+ * attachment are not part of the frame: the connection writes them right
+ * after it.
+ * <p>
+ * If compression was negotiated for the connection (see
+ * {@link #enableCompression()}), the content of frames and attachments
+ * reaching the threshold of the {@link FrameCompressor} is compressed.
+ * The {@link #COMPRESSED_FLAG} is then set in the length header of a
+ * compressed frame and in the length of a compressed attachment.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class FrameEncoder {
+	
+	/** Size of the length header of a frame. */
+	public static final int HEADER_SIZE = 4;
+	/** Flag of the length header indicating an attachment follows the
+	 * frame. */
+	public static final int ATTACHMENT_FLAG = 0x80000000;
+	/** Flag of the length header of a frame or of the length of an
+	 * attachment indicating its content is compressed. */
+	public static final int COMPRESSED_FLAG = 0x40000000;
+	
+	/** Default number of messages after which the stream is reset. */
+	private static int defaultResetMessages = 1;
+	/** Default number of bytes after which the stream is reset. */
+	private static long defaultResetBytes = 1024 * 1024;
+	
+	private FrameBuffer buf;
+	private ConnectionObjectOutputStream out;
+	
+	/** Number of messages after which the stream is reset. */
+	private int resetMessages;
+	/** Number of bytes after which the stream is reset. */
+	private long resetBytes;
+	/** Number of messages written since last reset. */
+	private int messagesSinceReset;
+	/** Number of bytes written since last reset. */
+	private long bytesSinceReset;
+	/** Indicates if the frame being encoded was committed. */
+	private boolean committed;
+	/** Indicates if a frame was committed since the object stream was
+	 * created (i.e. if its header was sent). */
+	private boolean headerSent;
+	
+	/** The compressor of the connection, null if compression is disabled. */
+	private FrameCompressor compressor;
+	/** The attachment to write after the last encoded frame. */
+	private Attachment lastAttachment;
+	/** The metrics encoded messages are recorded into, or null. */
+	private PeerMetrics metrics;
+	
+	/**
+	 * Sets the number of messages or bytes after which the object streams of
+	 * newly created connections are reset.
+	 * 
+	 * @param messages A number of messages (at least 1).
+	 * @param bytes A number of bytes.
+	 */
+	public static void setDefaultResetThresholds(int messages, long bytes) {
+		if(messages < 1)
+			throw new IllegalArgumentException("At least 1 message");
+		defaultResetMessages = messages;
+		defaultResetBytes = bytes;
+	}
+	
+	public FrameEncoder() {
+		buf = new FrameBuffer();
+		
+		resetMessages = defaultResetMessages;
+		resetBytes = defaultResetBytes;
+	}
+	
+	/**
+	 * Enables the compression of the frames encoded after this call. This
+	 * method is called when the remote DA accepted compression.
+	 */
+	public void enableCompression() {
+		if(compressor == null)
+			compressor = new FrameCompressor();
+	}
+	
+	/**
+	 * @return True if compression is enabled.
+	 */
+	public boolean isCompressionEnabled() {
+		return compressor != null;
+	}
+	
+	/**
+	 * Sets the metrics of the remote DA. The size and serialization time
+	 * of each message encoded after this call are recorded into them.
+	 * 
+	 * @param metrics The metrics or null.
+	 */
+	public void setMetrics(PeerMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Encodes an object into a new frame.
+	 * 
+	 * @param o An object.
+	 * @return A buffer containing the frame, ready to be read.
+	 * 
+	 * @throws IOException If the object could not be serialized.
+	 */
+	public ByteBuffer encodeObject(Object o) throws IOException {
+		try {
+			getObjectStream().writeObject(o);
+			return endOfFrame();
+		} finally {
+			discardUncommitted();
+		}
+	}
+	
+	/**
+	 * Encodes a message into a new frame. The attachment of the message, if
+	 * any, must be written after the frame as returned by
+	 * {@link #getLastAttachment()} (it may have been compressed).
+	 * 
+	 * @param m A message.
+	 * @return A buffer containing the frame, ready to be read.
+	 * 
+	 * @throws IOException If the message could not be encoded.
+	 */
+	public ByteBuffer encodeMessage(Message m) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer frame = encode(m);
+		long time = System.nanoTime() - start;
+		int size = frame.remaining();
+		if(lastAttachment != null)
+			size += lastAttachment.getLength();
+		m.setEncodedSize(size);
+		if(metrics != null)
+			metrics.messageSent(size, time);
+		return frame;
+	}
+	
+	private ByteBuffer encode(Message m) throws IOException {
+		try {
+			MessageCodecRegistry.writeMessage(m, getObjectStream());
+			Attachment a = m.getAttachment();
+			lastAttachment = a;
+			if(a == null)
+				return endOfFrame();
+			
+			int length = a.getLength();
+			if(compressor != null && compressor.accepts(length)) {
+				byte[] c = compressor.compress(a.toByteArray(), 0, length);
+				if(c != null) {
+					lastAttachment = Attachment.wrap(c);
+					length = c.length | COMPRESSED_FLAG;
+				}
+			}
+			
+			ByteBuffer frame = endOfFrame(HEADER_SIZE);
+			frame.putInt(0, frame.getInt(0) | ATTACHMENT_FLAG);
+			frame.putInt(frame.limit() - HEADER_SIZE, length);
+			return frame;
+		} finally {
+			discardUncommitted();
+		}
+	}
+	
+	/**
+	 * Returns the attachment to write after the last frame returned by
+	 * {@link #encodeMessage(Message)}.
+	 * 
+	 * @return The attachment of the message, possibly compressed, or null.
+	 */
+	public Attachment getLastAttachment() {
+		return lastAttachment;
+	}
+	
+	/**
+	 * Clears the buffer. If the frame could not be encoded, the object
+	 * stream forgets the class descriptors and IDs it cached and is reset
+	 * (see {@link ConnectionObjectOutputStream#rollback()}): the reset
+	 * marker is sent at the beginning of next frame. If the frame was
+	 * the first one, the object stream is dropped along with its header.
+	 * 
+	 * @throws IOException If the object stream could not be reset.
+	 */
+	private void discardUncommitted() throws IOException {
+		if(committed || out == null) {
+			committed = false;
+			buf.reset();
+			return;
+		}
+		
+		if( ! headerSent) {
+			out = null;
+			buf.reset();
+			return;
+		}
+		
+		out.flush(); // Data buffered by the object stream are discarded too
+		buf.reset();
+		out.rollback();
+		messagesSinceReset = 0;
+		bytesSinceReset = 0;
+	}
+	
+	/**
+	 * Returns the object stream of the connection. The stream is created
+	 * (and its header written) on first call.
+	 * 
+	 * @return The object stream.
+	 * 
+	 * @throws IOException If the stream could not be created.
+	 */
+	private ConnectionObjectOutputStream getObjectStream() throws IOException {
+		if(out == null) {
+			out = new ConnectionObjectOutputStream(buf);
+		}
+		return out;
+	}
+	
+	/**
+	 * Resets the object stream if a threshold is reached, flushes it and
+	 * copies the content of the buffer into a new frame.
+	 * 
+	 * @return The frame.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private ByteBuffer endOfFrame() throws IOException {
+		return endOfFrame(0);
+	}
+	
+	/**
+	 * Resets the object stream if a threshold is reached, flushes it and
+	 * copies the content of the buffer, compressed if possible, into a new
+	 * frame with some extra bytes at its end.
+	 * 
+	 * @param extra The number of extra bytes.
+	 * @return The frame, its extra bytes are zeros.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	private ByteBuffer endOfFrame(int extra) throws IOException {
+		out.flush();
+		++messagesSinceReset;
+		bytesSinceReset += buf.size();
+		if(messagesSinceReset >= resetMessages ||
+				bytesSinceReset >= resetBytes) {
+			out.reset();
+			out.flush();
+			messagesSinceReset = 0;
+			bytesSinceReset = 0;
+		}
+		
+		int len = buf.size();
+		byte[] content = buf.getBuffer();
+		int flags = 0;
+		if(compressor != null && compressor.accepts(len)) {
+			byte[] c = compressor.compress(content, 0, len);
+			if(c != null) {
+				content = c;
+				len = c.length;
+				flags = COMPRESSED_FLAG;
+			}
+		}
+		
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + len + extra);
+		frame.putInt((len + extra) | flags);
+		frame.put(content, 0, len);
+		frame.position(frame.limit());
+		frame.flip();
+		out.commit();
+		committed = true;
+		headerSent = true;
+		return frame;
+	}
+	
+	/**
+	 * A byte array output stream giving access to its internal buffer.
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream {
+		public FrameBuffer() {
+			super(512);
+		}
+		
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads frames (see {@link FrameEncoder}) from a blocking input stream.
+ * If a read times out, the partially read frame is kept and the next call
+ * to {@link #readFrame()} resumes reading it. The attachment following a
+ * frame is read with the frame (see {@link #takeAttachment()}). Compressed
+ * frames and attachments are decompressed.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Gerard Dethier
+ */
+public class FrameReader {
+	
+	/** Maximum accepted frame size. */
+	public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+	
+	private InputStream in;
+	
+	private byte[] header;
+	private int headerRead;
+	private byte[] payload;
+	private int payloadRead;
+	private boolean hasAttachment;
+	private boolean compressed;
+	private byte[] attachment;
+	private int attachmentRead;
+	private ByteBuffer lastAttachment;
+	private FrameCompressor compressor;
+	
+	public FrameReader(InputStream in) {
+		this.in = in;
+		header = new byte[FrameEncoder.HEADER_SIZE];
+	}
+	
+	/**
+	 * Reads the next frame.
+	 * 
+	 * @return The payload of the frame (i.e. without its length header).
+	 * 
+	 * @throws EOFException If the end of the stream was reached.
+	 * @throws IOException If an I/O error occurred, including a time out.
+	 */
+	public ByteBuffer readFrame() throws IOException {
+		while(headerRead < header.length) {
+			int n = in.read(header, headerRead, header.length - headerRead);
+			if(n < 0)
+				throw new EOFException();
+			headerRead += n;
+			if(headerRead == header.length) {
+				payload = new byte[getFrameLength(header)];
+				hasAttachment = hasAttachment(header);
+				compressed = isCompressed(header);
+			}
+		}
+
+		while(payloadRead < payload.length) {
+			int n = in.read(payload, payloadRead, payload.length - payloadRead);
+			if(n < 0)
+				throw new EOFException("Truncated frame");
+			payloadRead += n;
+		}
+		
+		int payloadLength = payload.length;
+		if(hasAttachment) {
+			payloadLength = getPayloadLength(payload.length);
+			if(attachment == null)
+				attachment = new byte[getAttachmentLength(
+						ByteBuffer.wrap(payload), payloadLength)];
+			while(attachmentRead < attachment.length) {
+				int n = in.read(attachment, attachmentRead,
+						attachment.length - attachmentRead);
+				if(n < 0)
+					throw new EOFException("Truncated attachment");
+				attachmentRead += n;
+			}
+			if(isAttachmentCompressed(ByteBuffer.wrap(payload), payloadLength))
+				lastAttachment = ByteBuffer.wrap(getCompressor().decompress(
+						attachment, 0, attachment.length));
+			else
+				lastAttachment = ByteBuffer.wrap(attachment);
+		} else {
+			lastAttachment = null;
+		}
+		
+		ByteBuffer frame;
+		if(compressed)
+			frame = ByteBuffer.wrap(getCompressor().decompress(payload, 0,
+					payloadLength));
+		else
+			frame = ByteBuffer.wrap(payload, 0, payloadLength);
+		headerRead = 0;
+		payload = null;
+		payloadRead = 0;
+		attachment = null;
+		attachmentRead = 0;
+		return frame;
+	}
+	
+	/**
+	 * Returns the attachment that followed the last frame returned by
+	 * {@link #readFrame()}, if any.
+	 * 
+	 * @return The attachment, ready to be read, or null.
+	 */
+	public ByteBuffer takeAttachment() {
+		ByteBuffer a = lastAttachment;
+		lastAttachment = null;
+		return a;
+	}
+	
+	/**
+	 * Returns the compressor used to decompress frames. The compressor is
+	 * created on first call.
+	 * 
+	 * @return The compressor.
+	 */
+	private FrameCompressor getCompressor() {
+		if(compressor == null)
+			compressor = new FrameCompressor();
+		return compressor;
+	}
+	
+	/**
+	 * Returns an estimate of the number of bytes that can be read without
+	 * blocking.
+	 * 
+	 * @return A number of bytes.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public int available() throws IOException {
+		return in.available();
+	}
+	
+	/**
+	 * Decodes and checks the length header of a frame.
+	 * 
+	 * @param header The 4 bytes of the header.
+	 * @return The length of the payload of the frame.
+	 * 
+	 * @throws IOException If the length is invalid.
+	 */
+	public static int getFrameLength(byte[] header) throws IOException {
+		int len = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) |
+			((header[2] & 0xff) << 8) | (header[3] & 0xff);
+		len &= ~(FrameEncoder.ATTACHMENT_FLAG | FrameEncoder.COMPRESSED_FLAG);
+		if(len > MAX_FRAME_SIZE)
+			throw new IOException("Invalid frame length "+len);
+		if(hasAttachment(header) && len < FrameEncoder.HEADER_SIZE)
+			throw new IOException("Invalid frame length "+len);
+		return len;
+	}
+	
+	/**
+	 * Tells if an attachment follows a frame.
+	 * 
+	 * @param header The 4 bytes of the header of the frame.
+	 * @return True if an attachment follows the frame.
+	 */
+	public static boolean hasAttachment(byte[] header) {
+		return (header[0] & 0x80) != 0;
+	}
+	
+	/**
+	 * Tells if the content of a frame is compressed.
+	 * 
+	 * @param header The 4 bytes of the header of the frame.
+	 * @return True if the frame is compressed.
+	 */
+	public static boolean isCompressed(byte[] header) {
+		return (header[0] & 0x40) != 0;
+	}
+	
+	/**
+	 * Returns the length of the encoded message of a frame followed by an
+	 * attachment, the frame ending with the length of the attachment.
+	 * 
+	 * @param frameLength The length of the payload of the frame.
+	 * @return A number of bytes.
+	 */
+	public static int getPayloadLength(int frameLength) {
+		return frameLength - FrameEncoder.HEADER_SIZE;
+	}
+	
+	/**
+	 * Decodes and checks the length of the attachment following a frame.
+	 * 
+	 * @param frame The payload of the frame.
+	 * @param payloadLength The length of the encoded message (see
+	 * {@link #getPayloadLength(int)}).
+	 * @return The length of the attachment.
+	 * 
+	 * @throws IOException If the length is invalid.
+	 */
+	public static int getAttachmentLength(ByteBuffer frame, int payloadLength)
+	throws IOException {
+		int len = frame.getInt(payloadLength) & ~FrameEncoder.COMPRESSED_FLAG;
+		if(len < 0 || len > Attachment.MAX_SIZE)
+			throw new IOException("Invalid attachment length "+len);
+		return len;
+	}
+	
+	/**
+	 * Tells if the attachment following a frame is compressed.
+	 * 
+	 * @param frame The payload of the frame.
+	 * @param payloadLength The length of the encoded message (see
+	 * {@link #getPayloadLength(int)}).
+	 * @return True if the attachment is compressed.
+	 */
+	public static boolean isAttachmentCompressed(ByteBuffer frame,
+			int payloadLength) {
+		return (frame.getInt(payloadLength) & FrameEncoder.COMPRESSED_FLAG)
+			!= 0;
+	}
+
+}
@@ -27,18 +27,54 @@ import dimawo.middleware.distributedAgent.DAId;
 
 
 
+/**
+ * The first object written on a connection by a MessageOutputStream.
+ * Besides the ID of the connecting DA, it tells if the stream is
+ * resumable (all messages are acknowledged) and if the connection resumes
+ * the stream of a previous connection. In the latter case, the receiver
+ * answers with the sequence number of the last message it received.
+ * <p>
+ * The connecting DA may also request the compression of the connection
+ * (see {@link FrameCompressor}).
+ */
 public class IdentificationMessage implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	private DAId remoteDaId;
+	private boolean resumable;
+	private boolean resuming;
+	private boolean compressionRequested;
 
 
 	public IdentificationMessage(DAId remoteDaId) {
+		this(remoteDaId, false, false);
+	}
+
+	public IdentificationMessage(DAId remoteDaId, boolean resumable,
+			boolean resuming) {
 		this.remoteDaId = remoteDaId;
+		this.resumable = resumable;
+		this.resuming = resuming;
 	}
 
 	public DAId getRemoteDaId() {
 		return remoteDaId;
 	}
+	
+	public boolean isResumable() {
+		return resumable;
+	}
+	
+	public boolean isResuming() {
+		return resuming;
+	}
+	
+	public void setCompressionRequested(boolean compressionRequested) {
+		this.compressionRequested = compressionRequested;
+	}
+	
+	public boolean isCompressionRequested() {
+		return compressionRequested;
+	}
 }
@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock-free histogram of non-negative values (typically durations).
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into
+ * {@link #SUB_BUCKETS} buckets of equal width, which bounds the relative
+ * error of reported percentiles to 1/{@link #SUB_BUCKETS} whatever the
+ * magnitude of values. Values lower than 2*{@link #SUB_BUCKETS} are
+ * counted exactly.
+ * <p>
+ * Recording a value costs a few atomic increments, a histogram can
+ * therefore be updated on the path of each message and read by any thread.
+ * Readings are not atomic snapshots: values recorded concurrently may or
+ * may not be taken into account.
+ * 
+ * @author Gerard Dethier
+ */
+public class LatencyHistogram {
+	
+	/** Number of bits of the sub-bucket index. */
+	private static final int SUB_BITS = 4;
+	/** Number of buckets per power of two. */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+	/** Total number of buckets (covers all positive long values). */
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+	
+	private AtomicLongArray counts;
+	private AtomicLong count;
+	private AtomicLong sum;
+	private AtomicLong max;
+	
+	
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+	
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 * 
+	 * @param value The value.
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		
+		long m = max.get();
+		while(value > m && ! max.compareAndSet(m, value))
+			m = max.get();
+	}
+	
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return The mean of recorded values, 0 if no value was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+	
+	/**
+	 * @return The highest recorded value, 0 if no value was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns the value below which a given percentage of recorded values
+	 * fall.
+	 * 
+	 * @param percentile A percentage (between 0 and 100).
+	 * @return The highest value of the bucket containing the percentile,
+	 * bounded by the highest recorded value. 0 if no value was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if(n == 0)
+			return 0;
+		long target = (long) Math.ceil(Math.min(percentile, 100) / 100 * n);
+		if(target < 1)
+			target = 1;
+		
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; ++i) {
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		return max.get();
+	}
+	
+	/**
+	 * Returns a one-line summary of the distribution.
+	 * 
+	 * @return Count, mean, median, 90th, 99th percentiles and maximum.
+	 */
+	@Override
+	public String toString() {
+		return "n="+getCount()+
+			" mean="+Math.round(getMean())+
+			" p50="+getValueAtPercentile(50)+
+			" p90="+getValueAtPercentile(90)+
+			" p99="+getValueAtPercentile(99)+
+			" max="+getMax();
+	}
+	
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exp - SUB_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+	
+	private static long highestValueOf(int index) {
+		if(index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+}
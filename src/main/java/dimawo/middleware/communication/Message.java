@@ -24,7 +24,9 @@ package dimawo.middleware.communication;
 import java.io.Serializable;
 import java.util.concurrent.Semaphore;
 
+import dimawo.agents.AgentScheduler;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
+import dimawo.middleware.communication.outputStream.WriteCredit;
 import dimawo.middleware.distributedAgent.DAId;
 
 
@@ -40,6 +42,12 @@ public class Message implements Serializable {
 	private DAId to; // set by MessageOutputStream
 	private transient MOSCallBack cb; // Used by MOS to signal error
 	private boolean reliabilityFlag = false;
+	/** Estimated size of a message that does not override
+	 * {@link #getEstimatedSize()} */
+	public static final int DEFAULT_ESTIMATED_SIZE = 256;
+	private transient WriteCredit credit; // set by MessageOutputStream
+	private transient int charged;
+	private transient Attachment attachment;
 
 	
 	public Message() {
@@ -55,6 +63,7 @@ public class Message implements Serializable {
 	
 	public void setMessageSent(boolean success) {
 
+		releaseWriteCredit();
 		this.success = success;
 		if(sent != null)
 			sent.release();
@@ -68,7 +77,12 @@ public class Message implements Serializable {
 
 	public boolean waitMessageSent() throws InterruptedException {
 		if(sent != null) {
-			sent.acquire();
+			AgentScheduler.beginBlocking();
+			try {
+				sent.acquire();
+			} finally {
+				AgentScheduler.endBlocking();
+			}
 			return success;
 		}
 		return true;
@@ -117,4 +131,110 @@ public class Message implements Serializable {
 	public void setReliabilityFlag(boolean b) {
 		this.reliabilityFlag = b;
 	}
+	
+	/**
+	 * Returns the estimated size of this message once serialized. This
+	 * value is charged to the credit of the connection the message is
+	 * written to (see {@link WriteCredit}) until the message is encoded,
+	 * the actual encoded size being charged afterwards (see
+	 * {@link #setEncodedSize(int)}). Messages carrying large payloads
+	 * should override this method.
+	 * 
+	 * @return A number of bytes.
+	 */
+	public int getEstimatedSize() {
+		Attachment a = getAttachment();
+		return DEFAULT_ESTIMATED_SIZE + (a == null ? 0 : a.getLength());
+	}
+	
+	/**
+	 * Sets the bulk data sent with this message. Attachments are written
+	 * to connections without being serialized (see {@link Attachment}).
+	 * Attachments are not supported by messages sent as datagrams.
+	 * 
+	 * @param a An attachment or null.
+	 */
+	public void setAttachment(Attachment a) {
+		if(a != null && a.getLength() > Attachment.MAX_SIZE)
+			throw new IllegalArgumentException("Attachment is too large");
+		this.attachment = a;
+	}
+	
+	/**
+	 * @return The bulk data sent with this message or null.
+	 */
+	public Attachment getAttachment() {
+		return attachment;
+	}
+	
+	/**
+	 * Tells if this message belongs to the bulk lane of a connection (see
+	 * {@link dimawo.middleware.communication.outputStream.MessageOutputStream#setDefaultBulkLane(boolean)}).
+	 * Bulk messages carry large payloads (e.g. file chunks) and should not
+	 * delay control messages. They may be overtaken by messages sent
+	 * after them.
+	 * 
+	 * @return True if this message is a bulk message.
+	 */
+	public boolean isBulk() {
+		return false;
+	}
+	
+	/**
+	 * Tells if this message may be lost without its loss being signaled.
+	 * Loss-tolerant messages that are not reliable may be sent as
+	 * datagrams (see {@link DatagramLane}).
+	 * 
+	 * @return True if this message is loss-tolerant.
+	 */
+	public boolean isLossTolerant() {
+		return false;
+	}
+	
+	/**
+	 * Associates this message to the credit it was charged to.
+	 * 
+	 * @param credit The credit.
+	 * @param size The number of charged bytes.
+	 */
+	public synchronized void setWriteCredit(WriteCredit credit, int size) {
+		this.credit = credit;
+		this.charged = size;
+	}
+	
+	/**
+	 * Charges the actual encoded size of this message instead of its
+	 * estimated size. This method is called when the message is encoded.
+	 * 
+	 * @param size The number of bytes of the encoded message, including
+	 * its attachment.
+	 */
+	public void setEncodedSize(int size) {
+		WriteCredit c;
+		int delta;
+		synchronized(this) {
+			c = credit;
+			if(c == null)
+				return;
+			delta = size - charged;
+			charged = size;
+		}
+		c.adjust(delta);
+	}
+	
+	/**
+	 * Gives back the credit charged by this message, if any. Subclasses
+	 * overriding {@link #setMessageSent(boolean)} must call this method.
+	 */
+	protected final void releaseWriteCredit() {
+		WriteCredit c;
+		int size;
+		synchronized(this) {
+			c = credit;
+			size = charged;
+			credit = null;
+		}
+		if(c != null)
+			c.release(size);
+	}
 }
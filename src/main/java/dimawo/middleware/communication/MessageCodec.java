@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+
+/**
+ * A codec encodes messages of a given type into a compact binary form
+ * and decodes them back. Codecs are registered in
+ * {@link MessageCodecRegistry} and are used by connections instead of
+ * Java serialization for the registered message types.
+ * <p>
+ * A codec must encode all the state of a message, including the fields
+ * inherited from {@link Message} (see {@link AbstractMessageCodec}).
+ * 
+ * @author Gerard Dethier
+ */
+public interface MessageCodec {
+
+	/**
+	 * Encodes a message.
+	 * 
+	 * @param m The message to encode.
+	 * @param out The output the message is written to.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public void encode(Message m, ObjectOutput out) throws IOException;
+
+	/**
+	 * Decodes a message previously encoded by {@link #encode(Message, ObjectOutput)}.
+	 * 
+	 * @param in The input the message is read from.
+	 * @return The decoded message.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If a nested object could not be
+	 * deserialized.
+	 */
+	public Message decode(ObjectInput in) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,237 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import dimawo.middleware.communication.outputStream.HeartBeat;
+import dimawo.middleware.fileSystem.fileTransfer.downloader.messages.FileChunk;
+import dimawo.middleware.overlay.faultdetection.FaultDetectionAckMessage;
+import dimawo.middleware.overlay.faultdetection.messages.PingMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.FirstStageAckMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.FirstStageMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.RemoveFromThirdStageCacheMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.SecondStageAckMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.SecondStageMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.ThirdStageAckMessage;
+import dimawo.middleware.overlay.mntree.forwarding.messages.ThirdStageMessage;
+import dimawo.middleware.sharedMap.dht.chord.messages.GetNextHopMessage;
+
+
+/**
+ * This class associates message types to codecs and small integer type IDs.
+ * When a message is written to a connection, its type ID is written followed
+ * by the message encoded by its codec. Messages whose type has no
+ * registered codec are written using Java serialization (type ID
+ * {@link #SERIALIZED}).
+ * <p>
+ * The codec of a type is only used for instances of this exact type:
+ * sub-classes are serialized unless they are registered themselves.
+ * <p>
+ * Type IDs must be identical in all the DAs of a distributed application.
+ * IDs 1 to {@link #MAX_RESERVED_ID} are reserved for DiMaWo's messages and
+ * are registered statically. Applications should register their codecs
+ * before any connection is established.
+ * 
+ * @author Gerard Dethier
+ */
+public class MessageCodecRegistry {
+	
+	/** Type ID of messages written using Java serialization. */
+	public static final int SERIALIZED = 0;
+	/** Greatest type ID reserved for DiMaWo's messages. */
+	public static final int MAX_RESERVED_ID = 255;
+	
+	private static class Registration {
+		private int typeId;
+		private MessageCodec codec;
+		
+		public Registration(int typeId, MessageCodec codec) {
+			this.typeId = typeId;
+			this.codec = codec;
+		}
+	}
+	
+	/** Registrations by message class. Replaced (never modified) on
+	 * registration so it can be read without locking. */
+	private static volatile HashMap<Class<?>, Registration> byClass =
+		new HashMap<Class<?>, Registration>();
+	/** Registrations by type ID. Replaced (never modified) on
+	 * registration so it can be read without locking. */
+	private static volatile HashMap<Integer, Registration> byId =
+		new HashMap<Integer, Registration>();
+	
+	static {
+		registerInternal(1, HeartBeat.class, new HeartBeat.Codec());
+		registerInternal(2, GetNextHopMessage.class, new GetNextHopMessage.Codec());
+		registerInternal(3, FileChunk.class, new FileChunk.Codec());
+		registerInternal(4, MulticastInstanceMessage.class, new MulticastInstanceMessage.Codec());
+		registerInternal(5, PingMessage.class, new PingMessage.Codec());
+		registerInternal(6, FaultDetectionAckMessage.class, new FaultDetectionAckMessage.Codec());
+		registerInternal(10, FirstStageMessage.class, new FirstStageMessage.Codec());
+		registerInternal(11, FirstStageAckMessage.class, new FirstStageAckMessage.Codec());
+		registerInternal(12, SecondStageMessage.class, new SecondStageMessage.Codec());
+		registerInternal(13, SecondStageAckMessage.class, new SecondStageAckMessage.Codec());
+		registerInternal(14, ThirdStageMessage.class, new ThirdStageMessage.Codec());
+		registerInternal(15, ThirdStageAckMessage.class, new ThirdStageAckMessage.Codec());
+		registerInternal(16, RemoveFromThirdStageCacheMessage.class, new RemoveFromThirdStageCacheMessage.Codec());
+	}
+	
+	/**
+	 * Registers the codec of an application message type.
+	 * 
+	 * @param typeId The type ID, greater than {@link #MAX_RESERVED_ID} and
+	 * lower than or equal to {@link Short#MAX_VALUE}.
+	 * @param c The message type.
+	 * @param codec The codec.
+	 * 
+	 * @throws IllegalArgumentException If the type ID is invalid or already
+	 * used, or if the type already has a codec.
+	 */
+	public static void register(int typeId, Class<? extends Message> c,
+			MessageCodec codec) {
+		if(typeId <= MAX_RESERVED_ID)
+			throw new IllegalArgumentException("Type ID "+typeId+" is reserved");
+		registerInternal(typeId, c, codec);
+	}
+	
+	private static synchronized void registerInternal(int typeId,
+			Class<? extends Message> c, MessageCodec codec) {
+		if(typeId <= SERIALIZED || typeId > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid type ID "+typeId);
+		if(byId.containsKey(typeId))
+			throw new IllegalArgumentException("Type ID "+typeId+" already used");
+		if(byClass.containsKey(c))
+			throw new IllegalArgumentException(c.getName()+" already has a codec");
+		
+		Registration r = new Registration(typeId, codec);
+		HashMap<Class<?>, Registration> newByClass =
+			new HashMap<Class<?>, Registration>(byClass);
+		newByClass.put(c, r);
+		HashMap<Integer, Registration> newById =
+			new HashMap<Integer, Registration>(byId);
+		newById.put(typeId, r);
+		byClass = newByClass;
+		byId = newById;
+	}
+	
+	/**
+	 * Returns the type ID of a message type.
+	 * 
+	 * @param c A message type.
+	 * @return The type ID or {@link #SERIALIZED} if the type has no codec.
+	 */
+	public static int getTypeId(Class<?> c) {
+		Registration r = byClass.get(c);
+		return r == null ? SERIALIZED : r.typeId;
+	}
+	
+	/**
+	 * Writes a message using its codec if any, Java serialization
+	 * otherwise.
+	 * 
+	 * @param m A message or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void writeMessage(Message m, ObjectOutput out) throws IOException {
+		Registration r = (m == null) ? null : byClass.get(m.getClass());
+		if(r == null) {
+			out.writeShort(SERIALIZED);
+			if(out instanceof ObjectOutputStream)
+				((ObjectOutputStream) out).writeUnshared(m);
+			else
+				out.writeObject(m);
+		} else {
+			out.writeShort(r.typeId);
+			r.codec.encode(m, out);
+		}
+	}
+	
+	/**
+	 * Reads a message written by {@link #writeMessage(Message, ObjectOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A message or null.
+	 * 
+	 * @throws IOException If an I/O error occurred or if the type ID is
+	 * unknown.
+	 * @throws ClassNotFoundException If the message could not be
+	 * deserialized.
+	 */
+	public static Message readMessage(ObjectInput in) throws IOException, ClassNotFoundException {
+		int typeId = in.readShort();
+		if(typeId == SERIALIZED) {
+			if(in instanceof ObjectInputStream)
+				return (Message) ((ObjectInputStream) in).readUnshared();
+			else
+				return (Message) in.readObject();
+		}
+
+		Registration r = byId.get(typeId);
+		if(r == null)
+			throw new IOException("Unknown message type ID "+typeId);
+		return r.codec.decode(in);
+	}
+
+	/**
+	 * Encodes a message into a self-contained byte array i.e. a byte array
+	 * that can be decoded independently of any connection (see
+	 * {@link #decode(byte[])}).
+	 * 
+	 * @param m A message.
+	 * @return The encoded message.
+	 * 
+	 * @throws IOException If the message could not be encoded.
+	 */
+	public static byte[] encode(Message m) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		writeMessage(m, out);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Decodes a message encoded by {@link #encode(Message)}.
+	 * 
+	 * @param b The encoded message.
+	 * @return A message.
+	 * 
+	 * @throws IOException If the message could not be decoded.
+	 * @throws ClassNotFoundException If the message could not be
+	 * deserialized.
+	 */
+	public static Message decode(byte[] b) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(b));
+		return readMessage(in);
+	}
+
+}
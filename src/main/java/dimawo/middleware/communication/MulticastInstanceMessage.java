@@ -21,9 +21,19 @@
  */
 package dimawo.middleware.communication;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import dimawo.middleware.communication.events.MulticastMessage;
 import dimawo.middleware.distributedAgent.DAId;
 
+/**
+ * The instance of a multicast message sent to one of its destinations.
+ * When written to a connection, the multicast message is not encoded
+ * again: the instance only adds its header to the encoding shared by all
+ * the instances (see {@link MulticastMessage#getEncodedMessage()}).
+ */
 public class MulticastInstanceMessage extends Message {
 
 	private static final long serialVersionUID = 1L;
@@ -41,13 +51,73 @@ public class MulticastInstanceMessage extends Message {
 			throw new Error("A MulticastInstanceMessage cannot be sent through another one");
 	}
 	
+	private MulticastInstanceMessage(Message msg) {
+		this.msg = msg;
+	}
+	
 	public Message getMessage() {
 		return msg;
 	}
 	
+	@Override
+	public int getEstimatedSize() {
+		if(multiMsg == null)
+			return msg.getEstimatedSize();
+		// The shared encoding is needed anyway to write the instances
+		Attachment a = msg.getAttachment();
+		try {
+			return multiMsg.getEncodedMessage().length +
+				(a == null ? 0 : a.getLength());
+		} catch (IOException e) {
+			return msg.getEstimatedSize();
+		}
+	}
+	
+	@Override
+	public void setAttachment(Attachment a) {
+		msg.setAttachment(a);
+	}
+	
+	@Override
+	public Attachment getAttachment() {
+		return msg.getAttachment();
+	}
+	
+	@Override
+	public boolean isBulk() {
+		return msg.isBulk();
+	}
+	
+	@Override
+	public boolean isLossTolerant() {
+		return msg.isLossTolerant();
+	}
+	
 	@Override
 	public void setMessageSent(boolean success) {
-		multiMsg.signalSent(success);
+		releaseWriteCredit();
+		multiMsg.signalSent(getRecipient(), success);
+	}
+	
+	/**
+	 * The codec of multicast instances. The encoding of the multicast
+	 * message is shared by all instances.
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			MulticastInstanceMessage mim = (MulticastInstanceMessage) m;
+			if(mim.multiMsg != null)
+				writeBytes(mim.multiMsg.getEncodedMessage(), out);
+			else
+				writeBytes(MessageCodecRegistry.encode(mim.msg), out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			return new MulticastInstanceMessage(
+					MessageCodecRegistry.decode(readBytes(in)));
+		}
 	}
 
 }
@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import dimawo.middleware.communication.outputStream.WriteCredit;
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * The communication metrics of a remote DA, accumulated over all the
+ * connections to and from it (see {@link CommunicationMetrics}).
+ * <p>
+ * Counters are updated by the threads writing and reading connections and
+ * may be read by any thread. Durations are recorded into
+ * {@link LatencyHistogram}s: serialization times and acknowledgment
+ * round-trip times in microseconds, connection setup times in
+ * milliseconds.
+ * 
+ * @author Gerard Dethier
+ */
+public class PeerMetrics {
+	
+	private DAId daId;
+	
+	private AtomicLong messagesSent;
+	private AtomicLong bytesSent;
+	private AtomicLong messagesReceived;
+	private AtomicLong bytesReceived;
+	private AtomicLong connections;
+	private AtomicLong brokenConnections;
+	
+	private LatencyHistogram serializationTime;
+	private LatencyHistogram ackRtt;
+	private LatencyHistogram connectTime;
+	
+	/** The credit of the last output stream to the DA */
+	private volatile WriteCredit credit;
+	
+	
+	public PeerMetrics(DAId daId) {
+		this.daId = daId;
+		
+		messagesSent = new AtomicLong();
+		bytesSent = new AtomicLong();
+		messagesReceived = new AtomicLong();
+		bytesReceived = new AtomicLong();
+		connections = new AtomicLong();
+		brokenConnections = new AtomicLong();
+		
+		serializationTime = new LatencyHistogram();
+		ackRtt = new LatencyHistogram();
+		connectTime = new LatencyHistogram();
+	}
+	
+	public DAId getDaId() {
+		return daId;
+	}
+	
+	/**
+	 * Records a message written to a connection.
+	 * 
+	 * @param bytes The size of the message on the connection (frame and
+	 * attachment).
+	 * @param serializationNanos The time spent encoding the message, in
+	 * nanoseconds.
+	 */
+	public void messageSent(int bytes, long serializationNanos) {
+		messagesSent.incrementAndGet();
+		bytesSent.addAndGet(bytes);
+		serializationTime.record(serializationNanos / 1000);
+	}
+	
+	/**
+	 * Records a message read from a connection.
+	 * 
+	 * @param bytes The size of the message (frame and attachment, after
+	 * decompression).
+	 */
+	public void messageReceived(int bytes) {
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(bytes);
+	}
+	
+	/**
+	 * Records the round-trip time of a reliable message i.e. the time
+	 * between its writing and the reception of its acknowledgment.
+	 * 
+	 * @param rttNanos A time in nanoseconds.
+	 */
+	public void ackReceived(long rttNanos) {
+		ackRtt.record(rttNanos / 1000);
+	}
+	
+	/**
+	 * Records the establishment of a connection to the DA.
+	 * 
+	 * @param millis The setup time of the connection, including failed
+	 * attempts, in milliseconds.
+	 */
+	public void connectionEstablished(long millis) {
+		connections.incrementAndGet();
+		connectTime.record(millis);
+	}
+	
+	/**
+	 * Records a connection to the DA detected as broken.
+	 */
+	public void connectionBroken() {
+		brokenConnections.incrementAndGet();
+	}
+	
+	/**
+	 * Sets the credit of the current output stream to the DA. Queue
+	 * depths are read from this credit.
+	 * 
+	 * @param credit A credit.
+	 */
+	public void setWriteCredit(WriteCredit credit) {
+		this.credit = credit;
+	}
+	
+	/**
+	 * @return The credit of the current output stream to the DA or null
+	 * if no stream was opened to the DA.
+	 */
+	public WriteCredit getWriteCredit() {
+		return credit;
+	}
+	
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+	
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+	
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+	
+	public long getConnections() {
+		return connections.get();
+	}
+	
+	public long getBrokenConnections() {
+		return brokenConnections.get();
+	}
+	
+	/**
+	 * @return The number of messages written to the output stream to the DA
+	 * and not yet sent.
+	 */
+	public int getQueuedMessages() {
+		WriteCredit c = credit;
+		return c == null ? 0 : c.getQueuedMessages();
+	}
+	
+	/**
+	 * @return The estimated size of the messages written to the output
+	 * stream to the DA and not yet sent.
+	 */
+	public long getQueuedBytes() {
+		WriteCredit c = credit;
+		return c == null ? 0 : c.getQueuedBytes();
+	}
+	
+	/**
+	 * @return The serialization times of sent messages in microseconds.
+	 */
+	public LatencyHistogram getSerializationTime() {
+		return serializationTime;
+	}
+	
+	/**
+	 * @return The round-trip times of reliable messages in microseconds.
+	 */
+	public LatencyHistogram getAckRtt() {
+		return ackRtt;
+	}
+	
+	/**
+	 * @return The setup times of connections in milliseconds.
+	 */
+	public LatencyHistogram getConnectTime() {
+		return connectTime;
+	}
+	
+	@Override
+	public String toString() {
+		return daId+
+			" sent="+getMessagesSent()+"/"+getBytesSent()+"B"+
+			" received="+getMessagesReceived()+"/"+getBytesReceived()+"B"+
+			" queued="+getQueuedMessages()+"/"+getQueuedBytes()+"B"+
+			" connections="+getConnections()+
+			" broken="+getBrokenConnections()+
+			" serializationUs=["+serializationTime+"]"+
+			" ackRttUs=["+ackRtt+"]"+
+			" connectMs=["+connectTime+"]";
+	}
+
+}
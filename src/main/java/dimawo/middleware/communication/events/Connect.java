@@ -23,6 +23,7 @@ package dimawo.middleware.communication.events;
 
 import java.util.concurrent.Semaphore;
 
+import dimawo.agents.AgentScheduler;
 import dimawo.middleware.communication.ConnectionRequestCallBack;
 import dimawo.middleware.communication.outputStream.MOSAccessorInterface;
 import dimawo.middleware.communication.outputStream.MOSCallBack;
@@ -62,7 +63,12 @@ public class Connect {
 	}
 	
 	public void waitConnect() throws InterruptedException {
-		sync.acquire();
+		AgentScheduler.beginBlocking();
+		try {
+			sync.acquire();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
 	}
 	
 	public void signalConnect(MOSAccessorInterface access) {
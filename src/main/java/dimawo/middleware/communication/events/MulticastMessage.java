@@ -21,10 +21,19 @@
  */
 package dimawo.middleware.communication.events;
 
+import java.io.IOException;
+import java.util.LinkedList;
+
 import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.MessageCodecRegistry;
 import dimawo.middleware.communication.MulticastInstanceMessage;
 import dimawo.middleware.distributedAgent.DAId;
 
+/**
+ * A message to be sent to several destinations. The message is encoded
+ * only once, the encoding being shared by the instances sent to each
+ * destination (see {@link MulticastInstanceMessage}).
+ */
 public class MulticastMessage {
 
 	private static final long serialVersionUID = 1L;
@@ -35,6 +44,10 @@ public class MulticastMessage {
 	private int nInstances;
 	private int successes;
 	private int failures;
+	private LinkedList<DAId> failedIds;
+	
+	/** Encoding shared by the instances */
+	private byte[] encodedMsg;
 
 	
 	public MulticastMessage(DAId[] toIds, Message msg) {
@@ -42,6 +55,7 @@ public class MulticastMessage {
 		this.msg = msg;
 
 		nInstances = toIds.length;
+		failedIds = new LinkedList<DAId>();
 	}
 	
 	public void setToIds(DAId[] toIds) {
@@ -60,12 +74,39 @@ public class MulticastMessage {
 //		return msg.getCallBack();
 //	}
 
-	public synchronized void signalSent(boolean success) {
+	/**
+	 * Returns the encoding of the message. The message is encoded on first
+	 * call (see {@link MessageCodecRegistry#encode(Message)}). The returned
+	 * array must not be modified.
+	 * 
+	 * @return The encoded message.
+	 * 
+	 * @throws IOException If the message could not be encoded.
+	 */
+	public synchronized byte[] getEncodedMessage() throws IOException {
+		if(encodedMsg == null)
+			encodedMsg = MessageCodecRegistry.encode(msg);
+		return encodedMsg;
+	}
+	
+	/**
+	 * Returns the destinations the message could not be sent to. The list
+	 * is complete when the message is signaled as sent.
+	 * 
+	 * @return A list of DA IDs.
+	 */
+	public synchronized LinkedList<DAId> getFailedDestinations() {
+		return new LinkedList<DAId>(failedIds);
+	}
+
+	public synchronized void signalSent(DAId to, boolean success) {
 		
-		if(success)
+		if(success) {
 			++successes;
-		else
+		} else {
 			++failures;
+			failedIds.add(to);
+		}
 		
 //		System.out.println("Broadcasted message: "+msg.getClass().getName());
 //		System.out.println((successes+failures)+"/"+nInstances+" messages sent.");
@@ -24,11 +24,14 @@ package dimawo.middleware.communication.inputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
 
 import dimawo.agents.AbstractAgent;
+import dimawo.agents.AgentScheduler;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.FailureDetectionInputStream;
 import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.PeerMetrics;
 import dimawo.middleware.communication.outputStream.HeartBeat;
 import dimawo.middleware.communication.outputStream.OutOfSyncException;
 import dimawo.middleware.distributedAgent.DAId;
@@ -48,7 +51,19 @@ public class MessageInputStream implements Runnable {
 	/** The ID of the hosting DA */
 	private DAId hostingDaId;
 	private DAId remoteDaId;
-	private int lastSeqNum;
+	/** The prefix of the logging messages of this stream. */
+	private String logPrefix;
+	private volatile int lastSeqNum;
+	private PeerMetrics metrics;
+	
+	/** If true, all messages are acknowledged. */
+	private boolean resumable;
+	/** If true, the stream resumes the stream of a previous connection. */
+	private boolean resuming;
+	/** The stream of the previous connection, until it is taken over. */
+	private MessageInputStream previous;
+	/** Released when the stream does not deliver messages anymore. */
+	private final CountDownLatch terminated = new CountDownLatch(1);
 
 	/** Indicates if the MessageInputStream has been stopped or not. */
 	private boolean stopped;
@@ -77,11 +92,15 @@ public class MessageInputStream implements Runnable {
 
 		this.com = com;
 		this.remoteDaId = remoteDaId;
+		logPrefix = "[MIS from "+remoteDaId+"] ";
 		lastSeqNum = -1;
 
 		stopped = false;
 		
 		this.in = in;
+		metrics = com.getMetrics().getPeer(remoteDaId);
+		if(in != null)
+			in.setMetrics(metrics);
 	}
 	
 	
@@ -95,6 +114,59 @@ public class MessageInputStream implements Runnable {
 
 	}
 	
+	public DAId getHostingDaId() {
+
+		return hostingDaId;
+
+	}
+	
+	/**
+	 * @return The metrics of the remote DA.
+	 */
+	public PeerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Marks this stream as resumable (see
+	 * {@link dimawo.middleware.communication.IdentificationMessage}). This
+	 * method must be called before the stream is started.
+	 * 
+	 * @param resuming True if this stream resumes the stream of a previous
+	 * connection.
+	 * @param previous The input stream of the previous connection or null.
+	 * The sequence of received messages is continued.
+	 */
+	public void setResumable(boolean resuming, MessageInputStream previous) {
+
+		this.resumable = true;
+		this.resuming = resuming;
+		if(resuming)
+			this.previous = previous;
+
+	}
+	
+	public boolean isResumable() {
+
+		return resumable;
+
+	}
+	
+	public boolean isResuming() {
+
+		return resuming;
+
+	}
+	
+	/**
+	 * @return The sequence number of the last received message or -1.
+	 */
+	public int getLastSeqNum() {
+
+		return lastSeqNum;
+
+	}
+	
 	public void start() {
 
 		readerThread = new Thread(this, "MIS Thread for remote DA "+remoteDaId);
@@ -133,17 +205,34 @@ public class MessageInputStream implements Runnable {
 	public void run() {
 		
 		printMessage("Started.");
+		takeOver();
+		if(resuming) {
+			try {
+				in.sendResumeReport(lastSeqNum);
+			} catch (IOException e) {
+				printMessage("Could not resume stream: ");
+				printMessage(e);
+				exit();
+				signalTerminated();
+				return;
+			}
+		}
+
 		while(true) {
 			// Low-level stream set, reception of the message.
 			try {
 
 				Message m = in.readMessage(false, hostingDaId);
-				if(m.isReliabilityFlagSet()) {
-					in.ack(m.getRecipient(), hostingDaId);
-				}
+				boolean ack = m.isReliabilityFlagSet() || resumable;
+				if(ack)
+					in.checkRecipient(m, hostingDaId);
 				
 				handleMessage(m);
 				
+				// Only delivered messages are acknowledged
+				if(ack)
+					in.ack(m, hostingDaId);
+				
 				if(isStopped()) {
 					printMessage("Stream closed.");
 					break;
@@ -188,6 +277,7 @@ public class MessageInputStream implements Runnable {
 		} /* while */
 
 		exit();
+		signalTerminated();
 
 	}
 	
@@ -204,34 +294,84 @@ public class MessageInputStream implements Runnable {
 	 * @param o The message read from the socket.
 	 * @throws Throwable If an error occured.
 	 */
-	private void handleMessage(Message o) throws Throwable {
+	protected void handleMessage(Message o) throws Throwable {
 		
 		int recvSeqNum = o.getSeqNum();
-		printMessage("Received message "+o.getClass().getSimpleName()+" with seqNum="+recvSeqNum);
+		printMessage("Received message {} with seqNum={}",
+				o.getClass().getSimpleName(), recvSeqNum);
 		
 		if(lastSeqNum != -1) {
 
 			if(recvSeqNum > lastSeqNum + 1)
 				throw new Exception("Lost messages ("+recvSeqNum+":"+lastSeqNum+")");
 			else if(recvSeqNum <= lastSeqNum) {
-				printMessage("Ignored seqNum="+recvSeqNum);
+				printMessage("Ignored seqNum={}", recvSeqNum);
 				return; // Ignore replay
 			}
 
 		}
+		
+		if( ! (o instanceof HeartBeat)) {
+			o.setSender(remoteDaId);
+			com.submitIncomingMessage(o);
+		}
+		// Set once delivered: a message that could not be delivered must
+		// not be ignored as a replay when it is written again
 		lastSeqNum = recvSeqNum;
+
+	}
+
+	
+	/**
+	 * Continues the sequence of received messages of the stream of the
+	 * previous connection, if any. The previous stream is aborted and this
+	 * method waits until it does not deliver messages anymore: a message
+	 * it would deliver after the sequence number was taken would be
+	 * delivered again when written again by the remote DA.
+	 */
+	protected void takeOver() {
 		
-		if(o instanceof HeartBeat) {
+		if(previous == null)
 			return;
+
+		previous.abort();
+		AgentScheduler.beginBlocking();
+		try {
+			previous.terminated.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			AgentScheduler.endBlocking();
 		}
+		lastSeqNum = previous.lastSeqNum;
+		previous = null;
+		
+	}
+	
+	/**
+	 * Closes this stream and its connection so that no more message is
+	 * delivered.
+	 */
+	protected void abort() {
+		
+		close();
+		try {
+			in.close();
+		} catch (IOException e) {
+			printMessage(e);
+		}
+		
+	}
+	
+	/**
+	 * Signals this stream does not deliver messages anymore. This method
+	 * must be called once the stream has exited.
+	 */
+	protected void signalTerminated() {
+		
+		terminated.countDown();
 		
-		Message m = (Message) o;
-
-		m.setSender(remoteDaId);
-		com.submitIncomingMessage(m);
-
 	}
-
 	
 	/**
 	 * Prints a well-formatted logging message on standard output.
@@ -240,11 +380,25 @@ public class MessageInputStream implements Runnable {
 	 * 
 	 */
 	protected void printMessage(String s) {
-		com.printMessage("[MIS from "+remoteDaId+"] "+s);
+		if(com.isLogged())
+			com.printMessage(logPrefix+s);
+	}
+	
+	/**
+	 * Prints a well-formatted logging message given as a pattern and
+	 * arguments (see {@link CommunicatorInterface#printMessage(String, Object...)}).
+	 * 
+	 * @param pattern The pattern of the message.
+	 * @param args The arguments.
+	 */
+	protected void printMessage(String pattern, Object... args) {
+		if(com.isLogged())
+			com.printMessage(logPrefix+pattern, args);
 	}
 	
 	protected void printMessage(Throwable t) {
-		com.printMessage("[MIS from "+remoteDaId+"] Exception");
+		// Not guarded: stack traces are printed whatever the verbosity
+		com.printMessage(logPrefix+"Exception");
 		com.printMessage(t);
 	}
 	
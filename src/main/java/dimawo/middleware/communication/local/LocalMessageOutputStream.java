@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.local;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import dimawo.agents.AgentException;
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.CommunicatorInterface;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.MessageCodecRegistry;
+import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * An output stream to a DA running in the same JVM (see
+ * {@link LocalTransport}).
+ * <p>
+ * Messages are copied (encoded and decoded by
+ * {@link MessageCodecRegistry}) and the copy is directly submitted to the
+ * Communicator of the destination DA by the thread of the stream.
+ * Messages are therefore received in sequence number order and, as with
+ * other streams, they are signaled as sent when their batch is flushed.
+ * If the destination Communicator is not registered anymore, the stream
+ * is broken.
+ * <p>
+ * Local streams never block, they are executed by the shared pool.
+ * 
+ * @author Gerard Dethier
+ */
+public class LocalMessageOutputStream extends MessageOutputStream {
+	
+	/** The Communicator of the destination DA. */
+	private CommunicatorInterface target;
+	/** Bytes delivered since last flush. */
+	private int unflushedBytes;
+	
+
+	public LocalMessageOutputStream(CommunicatorInterface com, DAId remoteDaId)
+	throws FileNotFoundException {
+		super(com, remoteDaId);
+		
+		try {
+			setExecutionMode(ExecutionMode.SHARED_POOL);
+		} catch (AgentException e) {
+			throw new Error(e); // Agent is not started yet
+		}
+	}
+	
+	
+	/**
+	 * A local stream cannot break because of the network.
+	 */
+	@Override
+	protected boolean supportsResume() {
+		return false;
+	}
+	
+	
+	@Override
+	protected void connect() throws IOException {
+		target = LocalTransport.lookup(remoteDaId);
+		if(target == null)
+			throw new IOException("DA "+remoteDaId+" is not local");
+		agentPrintMessage("Local stream connected to "+
+				target.getHostingDaId());
+	}
+	
+	
+	@Override
+	protected boolean sendMessage(Message m)
+	throws IOException, OutOfSyncException {
+		if(LocalTransport.lookup(remoteDaId) != target)
+			throw new IOException("DA "+remoteDaId+" left");
+		if(m.isReliabilityFlagSet() &&
+				! target.getHostingDaId().equals(m.getRecipient()))
+			throw new OutOfSyncException("Message not sent to "+
+					target.getHostingDaId());
+		
+		long start = System.nanoTime();
+		byte[] encoded = MessageCodecRegistry.encode(m);
+		long time = System.nanoTime() - start;
+		Message copy;
+		try {
+			copy = MessageCodecRegistry.decode(encoded);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getMessage());
+		}
+		int size = encoded.length;
+		Attachment a = m.getAttachment();
+		if(a != null) {
+			copy.setAttachment(a.copy());
+			size += a.getLength();
+		}
+		unflushedBytes += size;
+		m.setEncodedSize(size);
+		getMetrics().messageSent(size, time);
+		target.getMetrics().getPeer(thisDaId).messageReceived(size);
+		
+		target.submitIncomingMessage(copy);
+		return true;
+	}
+	
+	
+	@Override
+	protected void flush() {
+		unflushedBytes = 0;
+	}
+	
+	
+	@Override
+	protected int getUnflushedBytes() {
+		return unflushedBytes;
+	}
+	
+	
+	@Override
+	protected void closeConnection() {
+		target = null;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.local;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import dimawo.middleware.communication.CommunicatorInterface;
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * The registry of the Communicators of the JVM that accept local
+ * connections (see {@link LocalMessageOutputStream}).
+ * <p>
+ * Communicators are registered by host name and port, the time stamp of DA
+ * IDs is ignored, as a socket connection would. A DA ID using another host
+ * name than the one the destination DA registered with is not found: its
+ * messages are written to a socket.
+ * 
+ * @author Gerard Dethier
+ */
+public class LocalTransport {
+	
+	private static final ConcurrentHashMap<String, CommunicatorInterface> communicators =
+		new ConcurrentHashMap<String, CommunicatorInterface>();
+	
+	
+	private static String getKey(DAId daId) {
+		return daId.getHostName()+":"+daId.getPort();
+	}
+	
+	/**
+	 * Registers a Communicator.
+	 * 
+	 * @param com The Communicator.
+	 */
+	public static void register(CommunicatorInterface com) {
+		communicators.put(getKey(com.getHostingDaId()), com);
+	}
+	
+	/**
+	 * Unregisters a Communicator. Local streams to its DA are broken on
+	 * next write.
+	 * 
+	 * @param com The Communicator.
+	 */
+	public static void unregister(CommunicatorInterface com) {
+		communicators.remove(getKey(com.getHostingDaId()), com);
+	}
+	
+	/**
+	 * Returns the Communicator of a DA if it runs in this JVM.
+	 * 
+	 * @param daId The ID of the DA.
+	 * @return A Communicator or null if the DA is not local.
+	 */
+	public static CommunicatorInterface lookup(DAId daId) {
+		return communicators.get(getKey(daId));
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.DirectBufferPool;
+import dimawo.middleware.communication.FrameCompressor;
+import dimawo.middleware.communication.FrameEncoder;
+import dimawo.middleware.communication.FrameReader;
+
+
+/**
+ * Extracts frames (see {@link FrameEncoder}) from the data read from a
+ * non-blocking channel. The attachment following a frame is read into a
+ * buffer of the {@link DirectBufferPool} (see {@link #takeAttachment()}).
+ * Compressed frames and attachments are decompressed into heap buffers.
+ * 
+ * @author Gerard Dethier
+ */
+class FrameParser {
+	
+	private byte[] header;
+	private int headerRead;
+	private byte[] payload;
+	private int payloadRead;
+	private boolean hasAttachment;
+	private boolean compressed;
+	private int payloadLength;
+	private boolean attachmentCompressed;
+	private ByteBuffer attachment;
+	private Attachment lastAttachment;
+	private FrameCompressor compressor;
+	
+	public FrameParser() {
+		header = new byte[FrameEncoder.HEADER_SIZE];
+	}
+	
+	/**
+	 * Consumes data until a frame is complete or all data are consumed.
+	 * 
+	 * @param data Some data.
+	 * @return The payload of the completed frame or null if no frame could
+	 * be completed.
+	 * 
+	 * @throws IOException If the length of a frame is invalid.
+	 */
+	public ByteBuffer next(ByteBuffer data) throws IOException {
+		while(headerRead < header.length) {
+			if(! data.hasRemaining())
+				return null;
+			header[headerRead++] = data.get();
+			if(headerRead == header.length) {
+				payload = new byte[FrameReader.getFrameLength(header)];
+				hasAttachment = FrameReader.hasAttachment(header);
+				compressed = FrameReader.isCompressed(header);
+			}
+		}
+		
+		if(payloadRead < payload.length) {
+			int n = Math.min(payload.length - payloadRead, data.remaining());
+			data.get(payload, payloadRead, n);
+			payloadRead += n;
+			if(payloadRead < payload.length)
+				return null;
+			
+			payloadLength = payload.length;
+			if(hasAttachment) {
+				payloadLength = FrameReader.getPayloadLength(payload.length);
+				ByteBuffer frame = ByteBuffer.wrap(payload);
+				int length = FrameReader.getAttachmentLength(frame,
+						payloadLength);
+				attachmentCompressed = FrameReader.isAttachmentCompressed(
+						frame, payloadLength);
+				if(attachmentCompressed)
+					attachment = ByteBuffer.allocate(length);
+				else
+					attachment = DirectBufferPool.acquire(length);
+			}
+		}
+		
+		if(hasAttachment) {
+			if(data.remaining() <= attachment.remaining()) {
+				attachment.put(data);
+			} else {
+				ByteBuffer part = data.duplicate();
+				part.limit(part.position() + attachment.remaining());
+				attachment.put(part);
+				data.position(part.position());
+			}
+			if(attachment.hasRemaining())
+				return null;
+			
+			attachment.flip();
+			if(attachmentCompressed)
+				lastAttachment = Attachment.wrap(getCompressor().decompress(
+						attachment.array(), 0, attachment.limit()));
+			else
+				lastAttachment = Attachment.wrapPooled(attachment);
+			attachment = null;
+		} else {
+			lastAttachment = null;
+		}
+		
+		ByteBuffer frame;
+		if(compressed)
+			frame = ByteBuffer.wrap(getCompressor().decompress(payload, 0,
+					payloadLength));
+		else
+			frame = ByteBuffer.wrap(payload, 0, payloadLength);
+		headerRead = 0;
+		payload = null;
+		payloadRead = 0;
+		return frame;
+	}
+	
+	/**
+	 * Returns the compressor used to decompress frames. The compressor is
+	 * created on first call.
+	 * 
+	 * @return The compressor.
+	 */
+	private FrameCompressor getCompressor() {
+		if(compressor == null)
+			compressor = new FrameCompressor();
+		return compressor;
+	}
+	
+	/**
+	 * Returns the attachment that followed the last frame returned by
+	 * {@link #next(ByteBuffer)}, if any.
+	 * 
+	 * @return The attachment or null.
+	 */
+	public Attachment takeAttachment() {
+		Attachment a = lastAttachment;
+		lastAttachment = null;
+		return a;
+	}
+	
+	/**
+	 * Releases the buffer of a partially received attachment. This method
+	 * is called when the channel is closed.
+	 */
+	public void release() {
+		if(attachment != null) {
+			DirectBufferPool.release(attachment);
+			attachment = null;
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import dimawo.middleware.communication.AckWindow;
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.FailureDetectionCommons;
+import dimawo.middleware.communication.FailureDetectionInputStream;
+import dimawo.middleware.communication.FrameCompressor;
+import dimawo.middleware.communication.FrameDecoder;
+import dimawo.middleware.communication.IdentificationMessage;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.PeerMetrics;
+import dimawo.middleware.overlay.OverlayMessage;
+
+
+/**
+ * A connection accepted by a {@link NioServer}. The first frame received
+ * identifies the connection: it is either a one-shot overlay message or
+ * the identification message of a remote MessageOutputStream. In the latter
+ * case, the following frames are messages delivered to a
+ * {@link NioMessageInputStream}. Frames received before the input stream
+ * is attached are buffered.
+ * <p>
+ * Reliable messages are acknowledged cumulatively (see {@link AckWindow}):
+ * an acknowledgment is sent after all the frames currently received have
+ * been handled or after {@link FailureDetectionInputStream#ACK_BATCH}
+ * messages.
+ * 
+ * @author Gerard Dethier
+ */
+public class IncomingNioConnection
+implements NioChannelListener, FailureDetectionCommons {
+	
+	private NioServer server;
+	private NioChannel channel;
+	
+	private FrameParser parser;
+	private FrameDecoder decoder;
+	
+	private boolean identified;
+	private NioMessageInputStream reader;
+	private LinkedList<Message> pendingMessages;
+	/** Sizes of the messages received before the reader was attached */
+	private LinkedList<Integer> pendingSizes;
+	private PeerMetrics metrics;
+	
+	private int lastReceived;
+	private int pendingAcks;
+	
+	
+	IncomingNioConnection(NioServer server, NioChannel channel) {
+		this.server = server;
+		this.channel = channel;
+		
+		parser = new FrameParser();
+		decoder = new FrameDecoder();
+		pendingMessages = new LinkedList<Message>();
+		pendingSizes = new LinkedList<Integer>();
+	}
+	
+	void open() {
+		channel.open(this);
+	}
+	
+	/**
+	 * Attaches the input stream the messages are delivered to.
+	 * 
+	 * @param reader The input stream.
+	 */
+	void attach(final NioMessageInputStream reader) {
+		channel.execute(new Runnable() {
+			@Override
+			public void run() {
+				IncomingNioConnection.this.reader = reader;
+				metrics = reader.getMetrics();
+				Message m;
+				while((m = pendingMessages.poll()) != null) {
+					metrics.messageReceived(pendingSizes.poll());
+					reader.messageReceived(m);
+				}
+				flushAck();
+				if(channel.isClosed())
+					reader.connectionClosed(null);
+			}
+		});
+	}
+	
+	/**
+	 * Sends an acknowledgment byte for the first frame to the remote DA.
+	 * 
+	 * @param ack {@link FailureDetectionCommons#OK_ACK} or
+	 * {@link FailureDetectionCommons#COMPRESS_ACK}.
+	 */
+	private void sendAck(int ack) {
+		channel.write(ByteBuffer.wrap(new byte[] {(byte) ack}), null);
+	}
+	
+	/**
+	 * Acknowledges a reliable message. The acknowledgment may be delayed in
+	 * order to acknowledge several messages at once. This method must be
+	 * called by the selector thread.
+	 * 
+	 * @param m The message.
+	 */
+	void acknowledge(Message m) {
+		lastReceived = m.getSeqNum();
+		++pendingAcks;
+		if(pendingAcks >= FailureDetectionInputStream.ACK_BATCH)
+			flushAck();
+	}
+	
+	/**
+	 * Signals the remote DA the given reliable message was not sent to the
+	 * local DA. This method must be called by the selector thread.
+	 * 
+	 * @param m The message.
+	 */
+	void signalOutOfSync(Message m) {
+		channel.write(AckWindow.encodeAck(OUT_OF_SYNC, m.getSeqNum()), null);
+	}
+	
+	/**
+	 * Sends the sequence number of the last message received on the
+	 * previous connection of a resuming stream.
+	 * 
+	 * @param lastSeqNum A sequence number (-1 if no message was received).
+	 */
+	void sendResumeReport(int lastSeqNum) {
+		channel.write(AckWindow.encodeAck(OK_ACK, lastSeqNum), null);
+	}
+	
+	private void flushAck() {
+		if(pendingAcks > 0) {
+			channel.write(AckWindow.encodeAck(OK_ACK, lastReceived), null);
+			pendingAcks = 0;
+		}
+	}
+	
+	/**
+	 * Closes the connection.
+	 */
+	public void close() {
+		channel.close();
+	}
+	
+
+	@Override
+	public void dataReceived(ByteBuffer data) throws IOException {
+		ByteBuffer frame;
+		while((frame = parser.next(data)) != null) {
+			if( ! identified) {
+				handleFirstFrame(frame);
+			} else {
+				Message m;
+				int size = frame.remaining();
+				try {
+					m = decoder.decodeMessage(frame);
+				} catch (ClassNotFoundException e) {
+					throw new IOException(e.toString());
+				}
+				Attachment a = parser.takeAttachment();
+				if(a != null) {
+					size += a.getLength();
+					m.setAttachment(a);
+				}
+				
+				if(reader != null) {
+					metrics.messageReceived(size);
+					reader.messageReceived(m);
+				} else {
+					pendingMessages.add(m);
+					pendingSizes.add(size);
+				}
+			}
+		}
+		flushAck();
+	}
+	
+	private void handleFirstFrame(ByteBuffer frame) throws IOException {
+		Object o;
+		try {
+			o = decoder.decodeObject(frame);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.toString());
+		}
+		identified = true;
+		
+		if(o instanceof OverlayMessage) {
+
+			sendAck(OK_ACK);
+			server.submitOverlayMessage((OverlayMessage) o);
+			channel.closeWhenFlushed();
+
+		} else if(o instanceof IdentificationMessage) {
+
+			sendAck(FrameCompressor.getIdentificationAck(o));
+			server.printMessage("MOS connecting...");
+			server.submitNewConnection((IdentificationMessage) o, this);
+
+		} else {
+
+			server.printMessage("Protocol incoherence, closing connection.");
+			channel.close();
+
+		}
+	}
+
+	@Override
+	public void dataWritten(Object attachment) {
+	}
+
+	@Override
+	public void writeAborted(Object attachment) {
+	}
+
+	@Override
+	public void channelClosed(IOException cause) {
+		parser.release();
+		if(reader != null) {
+			reader.connectionClosed(cause);
+		} else if(cause != null) {
+			server.printMessage("Incoming connection broken: "+cause);
+		}
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A non-blocking socket channel handled by a {@link SelectorLoop}. Writes
+ * can be requested by any thread, they are queued and executed by the
+ * thread of the loop. Read data and completed writes are signaled to a
+ * {@link NioChannelListener}. Queued writes are done using gathering writes
+ * i.e. several writes may be sent by a single system call.
+ * 
+ * @author Gerard Dethier
+ */
+class NioChannel implements NioHandler {
+	
+	/** Size of the buffer data are read into. */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	/** Maximum number of buffers written by a single gathering write. */
+	private static final int MAX_GATHER = 64;
+	
+	private static class WriteRequest {
+		private ByteBuffer data;
+		private Object attachment;
+		
+		public WriteRequest(ByteBuffer data, Object attachment) {
+			this.data = data;
+			this.attachment = attachment;
+		}
+	}
+	
+	private SocketChannel ch;
+	private SelectorLoop loop;
+	private SelectionKey key;
+	private NioChannelListener listener;
+	
+	private ConcurrentLinkedQueue<WriteRequest> writeQueue;
+	private ByteBuffer readBuf;
+	private ByteBuffer[] gather;
+	/** Set when a flush task has been submitted to the loop. */
+	private AtomicBoolean flushScheduled;
+	
+	/** Set when the channel must be closed after all writes were done. */
+	private boolean closeWhenFlushed;
+	/** Set when the channel is closed. Only accessed by loop thread. */
+	private boolean closed;
+	
+	private Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+	
+	
+	public NioChannel(SocketChannel ch, SelectorLoop loop) throws IOException {
+		this.ch = ch;
+		this.loop = loop;
+		
+		ch.configureBlocking(false);
+		
+		writeQueue = new ConcurrentLinkedQueue<WriteRequest>();
+		gather = new ByteBuffer[MAX_GATHER];
+		flushScheduled = new AtomicBoolean();
+	}
+	
+	/**
+	 * Registers the channel with its loop. Read data will be signaled to
+	 * given listener.
+	 * 
+	 * @param l The listener.
+	 */
+	public void open(NioChannelListener l) {
+		this.listener = l;
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					key = loop.register(ch, SelectionKey.OP_READ, NioChannel.this);
+					readBuf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+				} catch (IOException e) {
+					close(e);
+					return;
+				}
+				flush(); // Writes requested before registration
+			}
+		});
+	}
+	
+	/**
+	 * Requests some data to be written. When all the data have been
+	 * written, the listener is called with the given attachment.
+	 * 
+	 * @param data The data.
+	 * @param attachment An attachment or null.
+	 */
+	public void write(ByteBuffer data, Object attachment) {
+		writeQueue.add(new WriteRequest(data, attachment));
+		if(flushScheduled.compareAndSet(false, true))
+			loop.execute(flushTask);
+	}
+	
+	/**
+	 * Executes a task in the thread of the loop handling this channel.
+	 * 
+	 * @param task The task.
+	 */
+	public void execute(Runnable task) {
+		loop.execute(task);
+	}
+	
+	/**
+	 * Tells if all the requested writes have been done. This method must be
+	 * called by the thread of the loop.
+	 * 
+	 * @return True if there is no pending write.
+	 */
+	public boolean isFlushed() {
+		return writeQueue.isEmpty();
+	}
+	
+	/**
+	 * Tells if the channel has been closed. This method must be called by
+	 * the thread of the loop.
+	 * 
+	 * @return True if the channel is closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Requests the closing of the channel once all requested writes are
+	 * done.
+	 */
+	public void closeWhenFlushed() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				closeWhenFlushed = true;
+				flush();
+			}
+		});
+	}
+	
+	/**
+	 * Requests the closing of the channel. Pending writes are aborted.
+	 */
+	public void close() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close(null);
+			}
+		});
+	}
+	
+	
+	@Override
+	public void handleReady(SelectionKey key) throws IOException {
+		if(key.isReadable()) {
+			readBuf.clear();
+			int n = ch.read(readBuf);
+			if(n < 0) {
+				close(new EOFException("Channel remotely closed"));
+				return;
+			}
+			readBuf.flip();
+			listener.dataReceived(readBuf);
+		}
+		
+		if(key.isValid() && key.isWritable()) {
+			flush();
+		}
+	}
+	
+	
+	@Override
+	public void handleError(IOException e) {
+		close(e);
+	}
+	
+	
+	/**
+	 * Writes as much queued data as possible. If some data could not be
+	 * written, the channel waits to be writable. This method must be called by
+	 * the thread of the loop.
+	 */
+	private void flush() {
+		if(closed) {
+			abortWrites();
+			return;
+		}
+		if(key == null)
+			return; // Not registered yet, flushed after registration
+		
+		try {
+			while( ! writeQueue.isEmpty()) {
+				int n = 0;
+				long toWrite = 0;
+				Iterator<WriteRequest> it = writeQueue.iterator();
+				while(n < gather.length && it.hasNext()) {
+					ByteBuffer data = it.next().data;
+					toWrite += data.remaining();
+					gather[n++] = data;
+				}
+				long written = ch.write(gather, 0, n);
+				for(int i = 0; i < n; ++i)
+					gather[i] = null;
+				
+				WriteRequest req;
+				while((req = writeQueue.peek()) != null &&
+						! req.data.hasRemaining()) {
+					writeQueue.poll();
+					listener.dataWritten(req.attachment);
+				}
+				
+				if(written < toWrite) {
+					// Socket buffer is full
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			
+			key.interestOps(SelectionKey.OP_READ);
+			if(closeWhenFlushed)
+				close(null);
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+	
+	
+	/**
+	 * Closes the channel. Pending writes are aborted. This method must be
+	 * called by the thread of the loop.
+	 * 
+	 * @param cause The error causing the closing or null.
+	 */
+	void close(IOException cause) {
+		if(closed)
+			return;
+		closed = true;
+		
+		if(key != null)
+			key.cancel();
+		try {
+			ch.close();
+		} catch (IOException e) {
+		}
+		
+		abortWrites();
+		listener.channelClosed(cause);
+	}
+	
+	
+	private void abortWrites() {
+		WriteRequest req;
+		while((req = writeQueue.poll()) != null) {
+			listener.writeAborted(req.attachment);
+		}
+	}
+
+}
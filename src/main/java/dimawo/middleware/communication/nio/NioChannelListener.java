@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The listener of the events of a {@link NioChannel}. All methods are called
+ * by the thread of the selector loop handling the channel.
+ * 
+ * @author Gerard Dethier
+ */
+interface NioChannelListener {
+
+	/**
+	 * Called when data have been read from the channel. The listener must
+	 * consume (or copy) all the data before returning.
+	 * 
+	 * @param data The data read.
+	 * 
+	 * @throws IOException If the data are invalid. The channel is then
+	 * closed.
+	 */
+	public void dataReceived(ByteBuffer data) throws IOException;
+	
+	/**
+	 * Called when a buffer has been completely written to the channel.
+	 * 
+	 * @param attachment The attachment given when the write was requested.
+	 */
+	public void dataWritten(Object attachment);
+	
+	/**
+	 * Called for each buffer that could not be written because the channel
+	 * was closed.
+	 * 
+	 * @param attachment The attachment given when the write was requested.
+	 */
+	public void writeAborted(Object attachment);
+	
+	/**
+	 * Called when the channel has been closed.
+	 * 
+	 * @param cause The error that caused the closing or null if the
+	 * channel was locally closed.
+	 */
+	public void channelClosed(IOException cause);
+
+}
@@ -0,0 +1,53 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * The handler of a channel registered with a {@link SelectorLoop}. Handlers
+ * are always called by the thread of the loop.
+ * 
+ * @author Gerard Dethier
+ */
+interface NioHandler {
+
+	/**
+	 * Called when the channel is ready for some of the operations it
+	 * registered for.
+	 * 
+	 * @param key The selection key of the channel.
+	 * 
+	 * @throws IOException If an I/O error occurred. The channel is then
+	 * closed.
+	 */
+	public void handleReady(SelectionKey key) throws IOException;
+	
+	/**
+	 * Called when an error occurred while handling the channel.
+	 * 
+	 * @param e The error.
+	 */
+	public void handleError(IOException e);
+
+}
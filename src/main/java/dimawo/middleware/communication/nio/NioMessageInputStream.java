@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import dimawo.middleware.communication.CommunicatorInterface;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.inputStream.MessageInputStream;
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * A MessageInputStream fed by a non-blocking connection. No thread is
+ * associated to the stream: messages are handled by the selector thread
+ * of the connection as soon as they are decoded.
+ * 
+ * @author Gerard Dethier
+ */
+public class NioMessageInputStream extends MessageInputStream {
+	
+	private IncomingNioConnection conn;
+
+	public NioMessageInputStream(CommunicatorInterface com, DAId remoteDaId,
+			IncomingNioConnection conn) throws IOException {
+		super(com, remoteDaId, null);
+		
+		this.conn = conn;
+	}
+	
+	@Override
+	public void start() {
+		printMessage("Started.");
+		takeOver();
+		if(isResuming())
+			conn.sendResumeReport(getLastSeqNum());
+		conn.attach(this);
+	}
+	
+	@Override
+	public synchronized void close() {
+		super.close();
+		conn.close();
+	}
+	
+	@Override
+	protected void abort() {
+		close();
+	}
+	
+	/**
+	 * Does nothing: no thread reads this stream (see {@link #start()}),
+	 * received messages are pushed by the selector thread of the connection
+	 * through {@link #messageReceived(Message)}.
+	 */
+	@Override
+	public void run() {
+	}
+	
+	/**
+	 * Handles a message received on the connection. This method is called
+	 * by the selector thread of the connection.
+	 * 
+	 * @param m The message.
+	 */
+	void messageReceived(Message m) {
+		if(isStopped())
+			return;
+
+		try {
+
+			boolean ack = m.isReliabilityFlagSet() || isResumable();
+			if(m.isReliabilityFlagSet() &&
+					! getHostingDaId().equals(m.getRecipient())) {
+				conn.signalOutOfSync(m);
+				throw new OutOfSyncException();
+			}
+			
+			handleMessage(m);
+			
+			// Only delivered messages are acknowledged
+			if(ack)
+				conn.acknowledge(m);
+
+		} catch (OutOfSyncException e) {
+
+			printMessage("Stream to "+getRemoteDaId()+" out of sync.");
+			printMessage(e);
+			conn.close();
+
+		} catch (Throwable t) {
+
+			printMessage("Signaling error " + t);
+			com.signalChildError(t, "MessageInputStream for remote DA "+
+					getRemoteDaId());
+			conn.close();
+
+		}
+	}
+	
+	/**
+	 * Called when the connection has been closed.
+	 * 
+	 * @param cause The error that caused the closing or null.
+	 */
+	void connectionClosed(IOException cause) {
+		if(cause instanceof EOFException) {
+			printMessage("Stream remotely closed.");
+		} else if(cause != null) {
+			printMessage("Error while reading next message: ");
+			printMessage(cause);
+		}
+		exit();
+		signalTerminated();
+	}
+	
+	@Override
+	protected void exit() {
+		printMessage("Exit.");
+	}
+
+}
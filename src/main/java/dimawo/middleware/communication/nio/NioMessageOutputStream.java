@@ -0,0 +1,474 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dimawo.agents.AgentException;
+import dimawo.agents.AgentScheduler;
+import dimawo.middleware.communication.AckWindow;
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.CommunicatorInterface;
+import dimawo.middleware.communication.FailureDetectionCommons;
+import dimawo.middleware.communication.FrameCompressor;
+import dimawo.middleware.communication.FrameEncoder;
+import dimawo.middleware.communication.IdentificationMessage;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
+
+
+/**
+ * A MessageOutputStream writing to a non-blocking connection. Messages are
+ * encoded by the thread of the stream and written by the selector thread
+ * of the connection. A message is signaled as sent when it has been
+ * written or, for reliable messages, when its acknowledgment has been
+ * received. Up to {@link AckWindow#getCapacity()} reliable messages may
+ * be waiting an acknowledgment, following messages are held until
+ * acknowledgments are received. The stream never blocks on I/O except
+ * while connecting, it is therefore executed by the shared pool of agents'
+ * threads.
+ * 
+ * @author Gerard Dethier
+ */
+public class NioMessageOutputStream extends MessageOutputStream
+implements FailureDetectionCommons {
+	
+	/** Attachment of the identification message. */
+	private static final Object IDENTIFICATION = new Object();
+	/** Period of acknowledgments time-out checks. */
+	private static final long ACK_CHECK_PERIOD = 1000;
+	
+	/** An encoded message waiting to be written. */
+	private static class HeldWrite {
+		private ByteBuffer frame;
+		/** Content of the attachment of the message or null */
+		private ByteBuffer attachment;
+		private Message msg;
+		
+		public HeldWrite(ByteBuffer frame, ByteBuffer attachment,
+				Message msg) {
+			this.frame = frame;
+			this.attachment = attachment;
+			this.msg = msg;
+		}
+	}
+	
+	/** Signals a connection broke. */
+	private static class ChannelBroken {
+		private ChannelHandler handler;
+		private IOException cause;
+		
+		public ChannelBroken(ChannelHandler handler, IOException cause) {
+			this.handler = handler;
+			this.cause = cause;
+		}
+	}
+	
+	private FrameEncoder encoder;
+	/** The handler of the current connection. */
+	private volatile ChannelHandler handler;
+	private Timeout ackCheck;
+	/** Messages encoded since last flush. */
+	private LinkedList<HeldWrite> unflushed;
+	private int unflushedBytes;
+	/** Number of bulk messages encoded and not yet written. */
+	private AtomicInteger bulkInFlight;
+	
+
+	public NioMessageOutputStream(CommunicatorInterface com, DAId remoteDaId)
+	throws FileNotFoundException {
+		super(com, remoteDaId);
+		
+		try {
+			setExecutionMode(ExecutionMode.SHARED_POOL);
+		} catch (AgentException e) {
+			throw new Error(e); // Agent is not started yet
+		}
+		
+		unflushed = new LinkedList<HeldWrite>();
+		bulkInFlight = new AtomicInteger();
+	}
+	
+	
+	/**
+	 * Non-blocking streams do not resume broken connections.
+	 */
+	@Override
+	protected boolean supportsResume() {
+		return false;
+	}
+	
+	
+	@Override
+	protected void connect() throws IOException {
+		
+		SocketChannel sc = SocketChannel.open();
+		NioChannel channel;
+		try {
+			sc.socket().connect(new InetSocketAddress(remoteDaId.getHostName(),
+					remoteDaId.getPort()), connectionTO);
+			sc.socket().setTcpNoDelay(true);
+			channel = new NioChannel(sc, NioTransport.nextLoop());
+		} catch(IOException e) {
+			sc.close();
+			throw e;
+		}
+		
+		encoder = new FrameEncoder();
+		encoder.setMetrics(getMetrics());
+		final ChannelHandler h = new ChannelHandler(channel);
+		channel.open(h);
+		IdentificationMessage idm = new IdentificationMessage(thisDaId);
+		idm.setCompressionRequested(FrameCompressor.isDefaultEnabled());
+		channel.write(encoder.encodeObject(idm), IDENTIFICATION);
+		
+		boolean acked;
+		try {
+			acked = h.identified.await(ackTO, TimeUnit.MILLISECONDS) &&
+				h.identificationAcked;
+		} catch (InterruptedException e) {
+			acked = false;
+		}
+		if( ! acked) {
+			h.closing = true;
+			channel.close();
+			throw new IOException("Identification not acknowledged");
+		}
+		if(h.compressionAccepted)
+			encoder.enableCompression();
+		handler = h;
+		
+		ackCheck = TimerWheel.getSharedWheel().scheduleAtFixedRate(
+				new Runnable() {
+					@Override
+					public void run() {
+						h.channel.execute(new Runnable() {
+							@Override
+							public void run() {
+								h.checkAcks();
+							}
+						});
+					}
+				}, ACK_CHECK_PERIOD, ACK_CHECK_PERIOD);
+		
+		agentPrintMessage("Channel connected to "+
+				sc.socket().getRemoteSocketAddress());
+	}
+	
+	
+	@Override
+	protected boolean sendMessage(Message m) throws IOException {
+		ByteBuffer frame = encoder.encodeMessage(m);
+		Attachment a = encoder.getLastAttachment();
+		ByteBuffer attachment = a == null ? null : a.getBuffer();
+		if(m.isBulk())
+			bulkInFlight.incrementAndGet();
+		unflushed.add(new HeldWrite(frame, attachment, m));
+		unflushedBytes += frame.remaining();
+		if(attachment != null)
+			unflushedBytes += attachment.remaining();
+		return false;
+	}
+	
+	
+	/**
+	 * Submits the messages encoded since last flush to the selector thread
+	 * of the connection.
+	 */
+	@Override
+	protected void flush() {
+		if(unflushed.isEmpty())
+			return;
+		
+		final LinkedList<HeldWrite> l = unflushed;
+		final ChannelHandler h = handler;
+		unflushed = new LinkedList<HeldWrite>();
+		unflushedBytes = 0;
+		h.channel.execute(new Runnable() {
+			@Override
+			public void run() {
+				for(HeldWrite w : l)
+					h.submit(w);
+			}
+		});
+	}
+	
+	
+	@Override
+	protected int getUnflushedBytes() {
+		return unflushedBytes;
+	}
+	
+	
+	/**
+	 * A bulk message is only written when the previous one has been
+	 * written to the channel, other messages are therefore not queued in
+	 * the channel behind several bulk messages.
+	 */
+	@Override
+	protected boolean canWriteBulk() {
+		return bulkInFlight.get() == 0;
+	}
+	
+	
+	/**
+	 * Signals a message left the channel.
+	 * 
+	 * @param m The message.
+	 */
+	private void messageDone(Message m) {
+		if(m.isBulk() && bulkInFlight.decrementAndGet() == 0)
+			resumeBulk();
+	}
+	
+	
+	@Override
+	protected void handleMessage(Object o) throws Exception {
+		if(o instanceof ChannelBroken) {
+			ChannelBroken cb = (ChannelBroken) o;
+			if(cb.handler == handler)
+				signalBrokenStream(cb.cause);
+		} else {
+			super.handleMessage(o);
+		}
+	}
+	
+	
+	/**
+	 * Closes the connection once all written messages have been
+	 * acknowledged. This method blocks until the connection is closed or
+	 * acknowledgments time out.
+	 */
+	@Override
+	protected void closeConnection() throws IOException {
+		if(ackCheck != null)
+			ackCheck.cancel();
+		
+		HeldWrite w;
+		while((w = unflushed.poll()) != null) // Stream is broken
+			w.msg.setMessageSent(false);
+		
+		final ChannelHandler h = handler;
+		if(h == null)
+			return;
+
+		h.closing = true;
+		h.channel.execute(new Runnable() {
+			@Override
+			public void run() {
+				h.closeIfDone();
+			}
+		});
+		
+		AgentScheduler.beginBlocking();
+		try {
+			if( ! h.closed.await(ackTO, TimeUnit.MILLISECONDS))
+				h.channel.close();
+		} catch (InterruptedException e) {
+			h.channel.close();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
+	}
+	
+	
+	/**
+	 * Handles the events of a connection. Except for the latches, the
+	 * state of the handler is only accessed by the selector thread of the
+	 * connection.
+	 */
+	private class ChannelHandler implements NioChannelListener {
+		
+		private NioChannel channel;
+		private AckWindow window;
+		private LinkedList<HeldWrite> held;
+		private ByteBuffer ackBuf;
+		
+		private CountDownLatch identified;
+		private volatile boolean identificationAcked;
+		private volatile boolean compressionAccepted;
+		
+		private volatile boolean closing;
+		private boolean channelClosed;
+		private CountDownLatch closed;
+		
+		public ChannelHandler(NioChannel channel) {
+			this.channel = channel;
+			window = new AckWindow();
+			window.setMetrics(getMetrics());
+			held = new LinkedList<HeldWrite>();
+			ackBuf = ByteBuffer.allocate(AckWindow.ACK_SIZE);
+			identified = new CountDownLatch(1);
+			closed = new CountDownLatch(1);
+		}
+		
+		/**
+		 * Writes an encoded message or holds it if the acknowledgment window
+		 * is full. Messages are always written in submission order.
+		 * 
+		 * @param w The encoded message.
+		 */
+		private void submit(HeldWrite w) {
+			Message m = w.msg;
+			if(channelClosed) {
+				m.setMessageSent(false);
+			} else if( ! held.isEmpty() ||
+				(m.isReliabilityFlagSet() && window.isFull())) {
+				held.add(w);
+			} else {
+				write(w);
+			}
+		}
+		
+		/**
+		 * Writes an encoded message. The attachment of the message is
+		 * written from its own buffer by the same gathering write as the
+		 * frame.
+		 * 
+		 * @param w The encoded message.
+		 */
+		private void write(HeldWrite w) {
+			if(w.msg.isReliabilityFlagSet())
+				window.add(w.msg);
+			if(w.attachment == null) {
+				channel.write(w.frame, w.msg);
+			} else {
+				channel.write(w.frame, null);
+				channel.write(w.attachment, w.msg);
+			}
+		}
+		
+		private void writeHeld() {
+			HeldWrite w;
+			while((w = held.peek()) != null) {
+				if(w.msg.isReliabilityFlagSet() && window.isFull())
+					return;
+				held.poll();
+				write(w);
+			}
+		}
+
+		@Override
+		public void dataReceived(ByteBuffer data) throws IOException {
+			if( ! identificationAcked && data.hasRemaining()) {
+				int status = data.get() & 0xff;
+				if(status == COMPRESS_ACK)
+					compressionAccepted = true;
+				else if(status != OK_ACK)
+					throw new IOException("Could not write object");
+				identificationAcked = true;
+				identified.countDown();
+			}
+			
+			while(data.hasRemaining()) {
+				ackBuf.put(data.get());
+				if( ! ackBuf.hasRemaining()) {
+					ackBuf.flip();
+					try {
+						window.acknowledge(ackBuf);
+					} catch (OutOfSyncException e) {
+						throw new IOException(e.getMessage());
+					}
+					ackBuf.clear();
+				}
+			}
+			
+			writeHeld();
+			closeIfDone();
+		}
+
+		@Override
+		public void dataWritten(Object attachment) {
+			if(attachment instanceof Message) {
+				Message m = (Message) attachment;
+				if( ! m.isReliabilityFlagSet())
+					m.setMessageSent(true);
+				messageDone(m);
+			}
+			closeIfDone();
+		}
+
+		@Override
+		public void writeAborted(Object attachment) {
+			if(attachment instanceof Message) {
+				// Reliable messages are failed by window
+				Message m = (Message) attachment;
+				if( ! m.isReliabilityFlagSet())
+					m.setMessageSent(false);
+				messageDone(m);
+			}
+		}
+
+		@Override
+		public void channelClosed(IOException cause) {
+			channelClosed = true;
+			window.failAll();
+			HeldWrite w;
+			while((w = held.poll()) != null)
+				w.msg.setMessageSent(false);
+			identified.countDown();
+			closed.countDown();
+			
+			if( ! closing) {
+				if(cause == null)
+					cause = new IOException("Channel closed");
+				try {
+					submitMessage(new ChannelBroken(this, cause));
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		/**
+		 * Closes the channel if the stream is closing and all messages have
+		 * been written and acknowledged.
+		 */
+		private void closeIfDone() {
+			if(closing && held.isEmpty() && window.isEmpty() &&
+					channel.isFlushed())
+				channel.closeWhenFlushed();
+		}
+		
+		/**
+		 * Closes the channel if the oldest unacknowledged message timed out.
+		 */
+		private void checkAcks() {
+			if(window.isTimedOut(ackTO))
+				channel.close(new IOException("Acknowledgment time out"));
+		}
+		
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import dimawo.middleware.communication.Communicator;
+import dimawo.middleware.communication.IdentificationMessage;
+import dimawo.middleware.communication.server.ServerInterface;
+import dimawo.middleware.overlay.OverlayAgentInterface;
+import dimawo.middleware.overlay.OverlayMessage;
+
+
+/**
+ * A server accepting connections using a non-blocking server channel.
+ * Accepted connections are handled by the selector threads of the
+ * {@link NioTransport}: no thread is created per connection.
+ * 
+ * @author Gerard Dethier
+ */
+public class NioServer implements ServerInterface, NioHandler {
+	
+	private Communicator com;
+	private OverlayAgentInterface overInt;
+	
+	private ServerSocketChannel serv;
+	private SelectorLoop loop;
+	
+	
+	public NioServer(int port, Communicator com,
+			OverlayAgentInterface overInt) throws IOException {
+
+		this.com = com;
+		this.overInt = overInt;
+		
+		serv = ServerSocketChannel.open();
+		serv.socket().bind(new InetSocketAddress(port));
+		serv.configureBlocking(false);
+		
+		loop = NioTransport.nextLoop();
+
+	}
+
+	@Override
+	public void start() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				printMessage("Launching server.");
+				try {
+					loop.register(serv, SelectionKey.OP_ACCEPT, NioServer.this);
+				} catch (IOException e) {
+					com.signalChildError(e, "NioServer");
+					close();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	@Override
+	public int getPort() {
+		return serv.socket().getLocalPort();
+	}
+
+	@Override
+	public void handleReady(SelectionKey key) throws IOException {
+		SocketChannel sc;
+		while((sc = serv.accept()) != null) {
+			sc.socket().setTcpNoDelay(true);
+			NioChannel ch = new NioChannel(sc, NioTransport.nextLoop());
+			new IncomingNioConnection(this, ch).open();
+		}
+	}
+
+	@Override
+	public void handleError(IOException e) {
+		com.signalChildError(e, "NioServer");
+		close();
+	}
+	
+	void submitOverlayMessage(OverlayMessage o) {
+		overInt.submitOverlayMessage(o);
+	}
+	
+	void submitNewConnection(IdentificationMessage idm,
+			IncomingNioConnection conn) {
+		com.submitNewMOSConnection(new NewNioMOSConnection(idm, conn));
+	}
+	
+	void printMessage(String txt) {
+		com.printMessage("[NioServer] "+txt);
+	}
+	
+	/**
+	 * Closes the server channel and signals the closing to the
+	 * Communicator. This method is called by the thread of the loop.
+	 */
+	private void close() {
+		if( ! serv.isOpen())
+			return;
+
+		printMessage("Server closing.");
+		try {
+			serv.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		com.submitConnectionHandlerClosed();
+	}
+
+}
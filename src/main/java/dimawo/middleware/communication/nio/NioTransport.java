@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This class manages the selector threads shared by all the connections
+ * of the JVM. The threads are started when the first connection is created.
+ * Channels are assigned to threads in a round-robin way.
+ * 
+ * @author Gerard Dethier
+ */
+public class NioTransport {
+	
+	/** Default number of selector threads. */
+	public static final int DEFAULT_SELECTOR_THREADS = 2;
+	
+	private static int selectorThreads = DEFAULT_SELECTOR_THREADS;
+	private static SelectorLoop[] loops;
+	private static AtomicInteger nextLoop = new AtomicInteger();
+	
+	/**
+	 * Sets the number of selector threads. This method must be called before
+	 * the first connection is created.
+	 * 
+	 * @param n A number of threads.
+	 * 
+	 * @throws IllegalStateException If the selector threads are already
+	 * running.
+	 */
+	public static synchronized void setSelectorThreads(int n) {
+		if(n < 1)
+			throw new IllegalArgumentException("At least 1 thread");
+		if(loops != null)
+			throw new IllegalStateException("Selector threads already running");
+		selectorThreads = n;
+	}
+	
+	/**
+	 * Returns the number of selector threads.
+	 * 
+	 * @return A number of threads.
+	 */
+	public static synchronized int getSelectorThreads() {
+		return selectorThreads;
+	}
+	
+	/**
+	 * Returns the loop a new channel should be handled by.
+	 * 
+	 * @return A selector loop.
+	 * 
+	 * @throws IOException If the selectors could not be opened.
+	 */
+	static SelectorLoop nextLoop() throws IOException {
+		SelectorLoop[] l = getLoops();
+		int i = nextLoop.getAndIncrement() & Integer.MAX_VALUE;
+		return l[i % l.length];
+	}
+	
+	private static synchronized SelectorLoop[] getLoops() throws IOException {
+		if(loops == null) {
+			SelectorLoop[] l = new SelectorLoop[selectorThreads];
+			for(int i = 0; i < l.length; ++i)
+				l[i] = new SelectorLoop("NioTransport-selector-"+i);
+			loops = l;
+		}
+		return loops;
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A thread multiplexing the I/O operations of several channels using a
+ * selector. Tasks submitted to the loop are executed by its thread, which
+ * is therefore the only thread modifying the state of the channels handled
+ * by the loop.
+ * 
+ * @author Gerard Dethier
+ */
+class SelectorLoop implements Runnable {
+	
+	private Selector selector;
+	private Thread thread;
+	
+	private ConcurrentLinkedQueue<Runnable> tasks;
+	private AtomicBoolean wakeUpPending;
+	
+	public SelectorLoop(String name) throws IOException {
+		selector = Selector.open();
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		wakeUpPending = new AtomicBoolean();
+		
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Submits a task to the loop.
+	 * 
+	 * @param task The task.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if(Thread.currentThread() != thread &&
+				wakeUpPending.compareAndSet(false, true))
+			selector.wakeup();
+	}
+	
+	/**
+	 * Registers a channel. This method must be called by the thread of the
+	 * loop.
+	 * 
+	 * @param ch The channel.
+	 * @param ops The interest set.
+	 * @param h The handler of the channel.
+	 * @return The selection key of the channel.
+	 * 
+	 * @throws ClosedChannelException If the channel is closed.
+	 */
+	public SelectionKey register(SelectableChannel ch, int ops, NioHandler h)
+	throws ClosedChannelException {
+		return ch.register(selector, ops, h);
+	}
+	
+	/**
+	 * Tells if the calling thread is the thread of the loop.
+	 * 
+	 * @return True if the calling thread is the thread of the loop.
+	 */
+	public boolean isLoopThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			wakeUpPending.set(false);
+			
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while(it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				
+				NioHandler h = (NioHandler) key.attachment();
+				try {
+					h.handleReady(key);
+				} catch (CancelledKeyException e) {
+					// Channel closed in the meantime
+				} catch (IOException e) {
+					h.handleError(e);
+				} catch (RuntimeException e) {
+					// A faulty handler must not kill the loop
+					h.handleError(new IOException(e.toString()));
+				}
+			}
+			
+			Runnable task;
+			while((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.outputStream;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The threads establishing the connections of output streams. Connection
+ * attempts block (socket connection and identification) and are
+ * therefore not executed by the threads of the streams: a stream submits
+ * its connection attempt and handles its result as an event. Up to
+ * {@link #MAX_CONCURRENT_CONNECTS} attempts are executed concurrently,
+ * others are queued.
+ * <p>
+ * This class also computes the delays between attempts: the base delay
+ * is doubled after each failure and a random jitter is applied so that
+ * DAs that failed to connect at the same time do not retry at the same
+ * time.
+ * 
+ * @author Gerard Dethier
+ */
+public class Connector {
+	
+	/** Maximum number of concurrent connection attempts. */
+	public static final int MAX_CONCURRENT_CONNECTS = 64;
+	
+	private static ThreadPoolExecutor pool;
+	private static final Random rand = new Random();
+	
+	
+	/**
+	 * Submits a connection attempt.
+	 * 
+	 * @param attempt The attempt.
+	 */
+	public static void execute(Runnable attempt) {
+		getPool().execute(attempt);
+	}
+	
+	/**
+	 * Returns the delay before a new connection attempt. The delay is
+	 * randomly chosen between the half and the whole of
+	 * <code>baseDelay * 2^(failures-1)</code>.
+	 * 
+	 * @param baseDelay The delay in milliseconds after the first failure.
+	 * @param failures The number of failed attempts (at least 1).
+	 * @return A delay in milliseconds.
+	 */
+	public static long getBackoff(long baseDelay, int failures) {
+		long max = baseDelay << Math.min(failures - 1, 16);
+		long half = max / 2;
+		synchronized(rand) {
+			return half + (long) (rand.nextDouble() * (max - half));
+		}
+	}
+	
+	private static synchronized ThreadPoolExecutor getPool() {
+		if(pool == null) {
+			pool = new ThreadPoolExecutor(MAX_CONCURRENT_CONNECTS,
+				MAX_CONCURRENT_CONNECTS,
+				10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private int nextId = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Connector-"+(nextId++));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			pool.allowCoreThreadTimeOut(true);
+		}
+		return pool;
+	}
+
+}
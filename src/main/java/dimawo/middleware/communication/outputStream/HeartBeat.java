@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.communication.outputStream;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 
@@ -37,4 +42,19 @@ public class HeartBeat extends Message {
 		this(id);
 		this.setCallBack(cb);
 	}
+	
+	/**
+	 * The codec of heart beats (only the fields of {@link Message} are
+	 * encoded).
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) {
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException {
+			return new HeartBeat(null);
+		}
+	}
 }
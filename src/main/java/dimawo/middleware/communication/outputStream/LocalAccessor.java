@@ -74,4 +74,20 @@ public class LocalAccessor implements MOSAccessorInterface {
 	public DAId getDestinationDAId() {
 		return daId;
 	}
+
+
+	/**
+	 * Local messages are directly submitted to the Communicator, a local
+	 * accessor is therefore always writable.
+	 */
+	@Override
+	public boolean canWrite() {
+		return true;
+	}
+
+
+	@Override
+	public void notifyWhenWritable(WritableCallBack cb) {
+		cb.signalWritable(daId);
+	}
 }
@@ -34,5 +34,24 @@ public interface MOSAccessorInterface {
 	public void writeBlockingMessage(Message m) throws IOException, InterruptedException;
 	public void writeNonBlockingMessage(Message m);
 	public void close() throws IOException, InterruptedException;
+	
+	/**
+	 * Tells if the connection accepts more messages without exceeding its
+	 * credit (see {@link WriteCredit}). Producers of many or large
+	 * messages should stop writing when this method returns false and
+	 * wait to be notified (see {@link #notifyWhenWritable(WritableCallBack)}).
+	 * 
+	 * @return True if the connection is writable.
+	 */
+	public boolean canWrite();
+	
+	/**
+	 * Registers a call-back notified once when the connection becomes
+	 * writable. The call-back is notified immediately if the connection is
+	 * already writable.
+	 * 
+	 * @param cb The call-back.
+	 */
+	public void notifyWhenWritable(WritableCallBack cb);
 
 }
@@ -24,18 +24,24 @@ package dimawo.middleware.communication.outputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.NotSerializableException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Timer;
 
 import dimawo.agents.AgentException;
+import dimawo.agents.AgentScheduler;
 import dimawo.agents.LoggingAgent;
 import dimawo.agents.UnknownAgentMessage;
+import dimawo.middleware.communication.AckWindow;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.FailureDetectionOutputStream;
+import dimawo.middleware.communication.FrameCompressor;
 import dimawo.middleware.communication.IdentificationMessage;
 import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.PeerMetrics;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.simulation.socket.SocketInterface;
+import dimawo.timer.Timeout;
 
 
 
@@ -47,23 +53,65 @@ extends LoggingAgent {
 	 * retries before the channel is reported as broken */
 	final static int retries = 3;
 	/** Base time in milliseconds between the retries. After a failure
-	 * this time is doubled */
+	 * this time is doubled, a random jitter is applied (see
+	 * {@link Connector#getBackoff(long, int)}) */
 	final static int retryTO = 1000;
 	/** Time out of connection failure */
-	final static int connectionTO = 10000;
+	protected final static int connectionTO = 10000;
 	/** Time out of ack read failure */
-	final static int ackTO = 20000;
+	protected final static int ackTO = 20000;
+	
+	/** Default maximum number of messages in a batch */
+	private static int defaultMaxBatchMessages = 64;
+	/** Default maximum number of bytes in a batch */
+	private static int defaultMaxBatchBytes =
+		FailureDetectionOutputStream.BUFFER_SIZE;
+	/** Default time in milliseconds a batch waits for more messages */
+	private static long defaultLinger = 0;
+	
+	/** Default resume mode */
+	private static boolean defaultResume = false;
+	
+	/** Default bulk lane mode */
+	private static boolean defaultBulkLane = false;
+	
+	/** Event triggering the flush of a lingering batch. */
+	private static class FlushBatch {}
+	private static final FlushBatch FLUSH = new FlushBatch();
+	
+	/** Result of a connection attempt. */
+	private static class ConnectResult {
+		private IOException error;
+		
+		public ConnectResult(IOException error) {
+			this.error = error;
+		}
+	}
+	
+	/** Event triggering a new connection attempt. */
+	private static class RetryConnect {}
+	private static final RetryConnect RETRY_CONNECT = new RetryConnect();
+	
+	/** Stop request received while connecting. */
+	private static class DeferredStop {}
+	private static final DeferredStop DEFERRED_STOP = new DeferredStop();
+	
+	/** Event triggering the writing of next bulk message. */
+	private static class SendBulk {}
+	private static final SendBulk SEND_BULK = new SendBulk();
 
 	/** The Communicator */
 	protected CommunicatorInterface com;
 	/** Address of the remote node */
 	protected DAId remoteDaId;
+	/** The prefix of the logging messages of this stream. */
+	private String logPrefix;
 	/** Address of this node */
 	protected DAId thisDaId;
 	private int seqNum;
 	private int lastSent;
 
-	private enum State {open, broken, closed};
+	private enum State {connecting, open, broken, closed};
 	private State state;
 
 	/** Timer used to send the heart beats */
@@ -71,6 +119,53 @@ extends LoggingAgent {
 	
 	
 	private FailureDetectionOutputStream out;
+	
+	private int maxBatchMessages;
+	private int maxBatchBytes;
+	private long linger;
+	/** Number of messages written since last flush */
+	private int batchSize;
+	/** Written messages signaled as sent after next flush */
+	private LinkedList<Message> batch;
+	private Timeout lingerTO;
+	private long lingerStart;
+	
+	private volatile long flushCount;
+	private volatile long flushedMessages;
+	private volatile int maxBatchSize;
+	private volatile long lingerFlushCount;
+	private volatile long totalLingerTime;
+	
+	/** If true, broken connections are resumed */
+	private boolean resume;
+	/** Window of a resumable stream, shared by successive connections */
+	private AckWindow resumeWindow;
+	/** Set while a connection is being resumed */
+	private boolean resuming;
+	private volatile long resumeCount;
+	
+	/** Bytes charged by queued messages */
+	private WriteCredit credit;
+	
+	/** Messages and close requests received while connecting */
+	private LinkedList<Object> pending;
+	private int failedConnects;
+	private long connectStart;
+	private volatile long connectTime;
+	private volatile int connectAttempts;
+	private PeerMetrics metrics;
+	/** Set when the agent exits, a late connection is then closed */
+	private boolean abandoned;
+	/** Set while other messages received while connecting remain to be
+	 * written */
+	private boolean draining;
+	
+	/** If true, bulk messages are queued in their own lane */
+	private boolean bulkLane;
+	/** Bulk messages waiting to be written */
+	private LinkedList<Message> bulk;
+	/** Set while a SEND_BULK event is queued */
+	private boolean bulkScheduled;
 
 
 	public MessageOutputStream(CommunicatorInterface com, DAId remoteDaId)
@@ -81,9 +176,22 @@ extends LoggingAgent {
 		thisDaId = com.getHostingDaId();
 		this.com = com;
 		this.remoteDaId = remoteDaId;
+		logPrefix = "[MOS to "+remoteDaId+"] ";
 		seqNum = 0;
 		lastSent = -1;
-		state = null;
+		state = State.connecting;
+		
+		maxBatchMessages = defaultMaxBatchMessages;
+		maxBatchBytes = defaultMaxBatchBytes;
+		linger = defaultLinger;
+		batch = new LinkedList<Message>();
+		credit = new WriteCredit(remoteDaId);
+		bulkLane = defaultBulkLane;
+		bulk = new LinkedList<Message>();
+		pending = new LinkedList<Object>();
+		connectTime = -1;
+		metrics = com.getMetrics().getPeer(remoteDaId);
+		metrics.setWriteCredit(credit);
 		
 		agentPrintMessage("MessageOutputStream constructed.");
 
@@ -94,11 +202,146 @@ extends LoggingAgent {
 	// Public methods //
 	////////////////////
 	
+	/**
+	 * Sets the batching parameters of streams instantiated after this call.
+	 * Messages queued while a stream is writing are written in a batch
+	 * that is flushed at once. A batch is flushed when it reaches given
+	 * number of messages or bytes, or when no more messages are queued and
+	 * the batch waited more messages for given linger time.
+	 * 
+	 * @param messages Maximum number of messages in a batch (1 disables
+	 * batching).
+	 * @param bytes Maximum number of bytes in a batch.
+	 * @param linger Time in milliseconds a batch waits for more messages
+	 * (0 means the batch is flushed as soon as no more messages are queued).
+	 */
+	public static void setDefaultBatching(int messages, int bytes,
+			long linger) {
+		if(messages < 1)
+			throw new IllegalArgumentException("At least 1 message per batch");
+		defaultMaxBatchMessages = messages;
+		defaultMaxBatchBytes = bytes;
+		defaultLinger = linger;
+	}
+	
+	/**
+	 * Sets the resume mode of streams instantiated after this call. In
+	 * resume mode, all messages are kept until they are acknowledged by
+	 * remote DA. When the connection breaks, a new connection is
+	 * established and messages not received by remote DA are written
+	 * again. The stream is only signaled as broken if the connection
+	 * cannot be resumed.
+	 * 
+	 * @param on True to enable resume mode.
+	 */
+	public static void setDefaultResumeMode(boolean on) {
+		defaultResume = on;
+	}
+	
+	/**
+	 * Sets the bulk lane mode of streams instantiated after this call.
+	 * When enabled, bulk messages (see {@link Message#isBulk()}) are queued
+	 * apart from other messages and written one at a time, other queued
+	 * messages being written in-between. Bulk messages are written in
+	 * the order they were queued but may be overtaken by other messages.
+	 * The bulk lane is disabled by default: it must only be enabled if no
+	 * upper layer relies on the order between bulk and other messages sent
+	 * to the same DA.
+	 * 
+	 * @param on True to enable the bulk lane.
+	 */
+	public static void setDefaultBulkLane(boolean on) {
+		defaultBulkLane = on;
+	}
+	
+	/**
+	 * @return The number of times the connection was resumed.
+	 */
+	public long getResumeCount() {
+		return resumeCount;
+	}
+	
+	/**
+	 * @return The time in milliseconds it took to establish the connection
+	 * (including failed attempts), -1 if the stream is not connected yet.
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+	
+	/**
+	 * @return The number of connection attempts.
+	 */
+	public int getConnectAttempts() {
+		return connectAttempts;
+	}
+	
+	/**
+	 * @return The number of flushed batches.
+	 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+	
+	/**
+	 * @return The number of messages written in flushed batches.
+	 */
+	public long getFlushedMessagesCount() {
+		return flushedMessages;
+	}
+	
+	/**
+	 * @return The average number of messages in a batch.
+	 */
+	public double getAverageBatchSize() {
+		long c = flushCount;
+		return c == 0 ? 0 : flushedMessages / (double) c;
+	}
+	
+	/**
+	 * @return The largest number of messages flushed at once.
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+	
+	/**
+	 * @return The number of batches flushed after lingering.
+	 */
+	public long getLingerFlushCount() {
+		return lingerFlushCount;
+	}
+	
+	/**
+	 * @return The total time in milliseconds batches lingered.
+	 */
+	public long getTotalLingerTime() {
+		return totalLingerTime;
+	}
+	
 	public DAId getRemoteDaId() {
 
 		return remoteDaId;
 
 	}
+	
+	/**
+	 * Returns the credit of this stream. Messages written to this stream
+	 * are charged to the credit until they are signaled as sent or not
+	 * sent.
+	 * 
+	 * @return The credit of this stream.
+	 */
+	public WriteCredit getWriteCredit() {
+		return credit;
+	}
+	
+	/**
+	 * @return The metrics of the destination DA.
+	 */
+	public PeerMetrics getMetrics() {
+		return metrics;
+	}
 
 	/**
 	 * Requests a given message to be sent.
@@ -111,12 +354,13 @@ extends LoggingAgent {
 	public void writeMessage(Message m) throws IOException {
 		
 		synchronized(this) {
-			if(state != null && ! isOpen())
+			if(isBroken() || isClosed())
 				throw new IOException("Stream is not open");
 		}
 		
 		m.setSender(thisDaId);
 		m.setRecipient(remoteDaId);
+		credit.charge(m);
 		try {
 			submitMessage(m);
 		} catch (InterruptedException e) {
@@ -132,7 +376,7 @@ extends LoggingAgent {
 	 */
 	public void writeClose(MessageOutputStreamAccessor mos) throws IOException {
 		synchronized(this) {
-			if(state != null && ! isOpen())
+			if(isBroken() || isClosed())
 				throw new IOException("Stream is not open");
 		}
 		
@@ -144,6 +388,24 @@ extends LoggingAgent {
 	}
 
 
+	/**
+	 * Stops this stream. If the connection is still being established, the
+	 * stream is stopped after the messages written before this call
+	 * have been written to the connection.
+	 */
+	@Override
+	public void stop() throws InterruptedException, AgentException {
+		synchronized(this) {
+			if(isConnecting()) {
+				submitMessage(DEFERRED_STOP);
+				return;
+			}
+		}
+		
+		super.stop();
+	}
+
+
 	private boolean isBroken() {
 
 		return State.broken.equals(state);
@@ -163,6 +425,13 @@ extends LoggingAgent {
 		return State.open.equals(state);
 
 	}
+	
+	
+	private boolean isConnecting() {
+
+		return State.connecting.equals(state);
+
+	}
 
 
 	//////////////////////////////////
@@ -174,36 +443,48 @@ extends LoggingAgent {
 
 		agentPrintMessage("Connecting to "+remoteDaId+"...");
 		
-		try {
-
-			connectToRemoteDA();
-			synchronized (this) {
-				state = State.open;
-			}
-//			startHeartBeat();
-
-		} catch(IOException e) {
-			
-			signalBrokenStream(e);
-			
-		} catch(OutOfSyncException e) {
-			
-			signalBrokenStream(e);
-			
-		}
+		resume = defaultResume && supportsResume();
+		if(resume)
+			resumeWindow = new AckWindow();
 		
-		agentPrintMessage("Connected to "+remoteDaId);
+		connectStart = System.currentTimeMillis();
+		startConnect();
 
 	}
 	
 	@Override
 	protected void logAgentExit() {
+		synchronized(this) {
+			abandoned = true;
+		}
+		
+		rejectPendingMessages(pending);
 		LinkedList<Object> l = this.flushPendingMessages();
 		rejectPendingMessages(l);
+		
+		try {
+			writeAllBulk();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			failBulk();
+		}
+		
+		if(isOpen()) {
+			try {
+				flushBatch();
+			} catch (IOException e) {
+				agentPrintMessage(e);
+				failBatch();
+			} catch (OutOfSyncException e) {
+				agentPrintMessage(e);
+				failBatch();
+			}
+		} else {
+			failBatch();
+		}
 
 		try {
-			if(out != null)
-				out.close();
+			closeConnection();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -238,9 +519,45 @@ extends LoggingAgent {
 	protected void handleMessage(Object o) throws Exception {
 		try {
 //			stopHeartBeat();
-			if( ! isOpen()) {
+			if(isConnecting()) {
+				
+				handleWhileConnecting(o);
+				return;
+				
+			} else if(o == FLUSH) {
 				
-				if(o instanceof Message) {
+				lingerTO = null;
+				if(isOpen() && batchSize > 0) {
+					++lingerFlushCount;
+					totalLingerTime += System.currentTimeMillis() - lingerStart;
+					flushOrBreak();
+				}
+				return;
+				
+			} else if(o == DEFERRED_STOP) {
+				
+				try {
+					super.stop();
+				} catch (AgentException e) {
+					// Already stopped
+				}
+				return;
+				
+			} else if(o == SEND_BULK) {
+				
+				bulkScheduled = false;
+				if(isOpen())
+					writeNextBulk();
+				else
+					failBulk();
+				return;
+				
+			} else if( ! isOpen()) {
+				
+				if(o instanceof ConnectResult ||
+						o == RETRY_CONNECT) {
+					return;
+				} else if(o instanceof Message) {
 					Message m = (Message) o;
 					m.setMessageSent(false);
 				} else if(o instanceof CloseConfirmationRequest) {
@@ -254,42 +571,19 @@ extends LoggingAgent {
 			if(o instanceof CloseConfirmationRequest) {
 
 				CloseConfirmationRequest req = (CloseConfirmationRequest) o;
-				req.getAccessor().confirmClose(true);
+				writeAllBulk();
+				if(isOpen() && batchSize > 0)
+					flushOrBreak();
+				req.getAccessor().confirmClose(isOpen());
 
 			} else if(o instanceof Message) {
 
 				Message m = (Message) o;
-				m.setSender(thisDaId);
-				m.setRecipient(remoteDaId);
-
-				assert seqNum-1 == lastSent;
-				lastSent = seqNum;
-				m.setSeqNum(seqNum++);
-				
-				
-				agentPrintMessage("Sending message n°"+m.getSeqNum()+
-						" ("+o.getClass().getSimpleName()+")");
-
-				try {
-
-					sendMessage(m);
-					m.setMessageSent(true);
-//					startHeartBeat();
-
-				} catch (NotSerializableException e) {
-
-					throw e;
-
-				} catch (IOException e) {
-
-					signalBrokenStream(e);
-					m.setMessageSent(false);
-
-				} catch (OutOfSyncException e) {
-
-					signalBrokenStream(e);
-					m.setMessageSent(false);
-
+				if(bulkLane && m.isBulk()) {
+					bulk.add(m);
+					scheduleBulk();
+				} else {
+					write(m);
 				}
 
 			} else {
@@ -311,14 +605,418 @@ extends LoggingAgent {
 	/////////////////////
 	// Private methods //
 	/////////////////////
+	
+	/**
+	 * Submits a connection attempt to the {@link Connector}. Its result is
+	 * inserted into the messages queue of this stream.
+	 */
+	private void startConnect() {
+		
+		++connectAttempts;
+		Connector.execute(new Runnable() {
+			@Override
+			public void run() {
+				IOException error = null;
+				try {
+					connect();
+				} catch (IOException e) {
+					error = e;
+				}
+				
+				synchronized(MessageOutputStream.this) {
+					if(abandoned) {
+						if(error == null) {
+							try {
+								closeConnection();
+							} catch (IOException e) {
+							}
+						}
+						return;
+					}
+				}
 
-	private void signalBrokenStream(Exception e) throws InterruptedException {
+				try {
+					submitMessage(new ConnectResult(error));
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		
+	}
+	
+	/**
+	 * Handles an event while the connection is being established. Messages
+	 * and close requests are kept until the connection is established.
+	 * 
+	 * @param o The event.
+	 * 
+	 * @throws Exception
+	 */
+	private void handleWhileConnecting(Object o) throws Exception {
+		
+		if(o instanceof ConnectResult) {
+			
+			IOException error = ((ConnectResult) o).error;
+			if(error == null) {
+				connectionEstablished();
+			} else {
+				++failedConnects;
+				agentPrintMessage("Connection attempt #"+failedConnects+
+						" to DA "+remoteDaId+" failed:");
+				agentPrintMessage(error);
+				if(failedConnects < retries)
+					scheduleMessage(RETRY_CONNECT,
+							Connector.getBackoff(retryTO, failedConnects));
+				else
+					signalBrokenStream(new IOException(
+							"Could not connect to remote DA "+remoteDaId));
+			}
+			
+		} else if(o == RETRY_CONNECT) {
+			
+			startConnect();
+			
+		} else if(o instanceof Message ||
+				o instanceof CloseConfirmationRequest ||
+				o == DEFERRED_STOP) {
+			
+			pending.add(o);
+			
+		}
+		
+	}
+	
+	/**
+	 * Opens the stream and writes the messages received while connecting.
+	 * 
+	 * @throws Exception
+	 */
+	private void connectionEstablished() throws Exception {
+		
+		synchronized (this) {
+			state = State.open;
+		}
+		connectTime = System.currentTimeMillis() - connectStart;
+		metrics.connectionEstablished(connectTime);
+		agentPrintMessage("Connected to "+remoteDaId+" in "+connectTime+
+				" ms ("+connectAttempts+" attempt(s))");
+		
+		LinkedList<Object> l = pending;
+		pending = new LinkedList<Object>();
+		try {
+			Iterator<Object> it = l.iterator();
+			while(it.hasNext()) {
+				Object p = it.next();
+				draining = it.hasNext();
+				handleMessage(p);
+			}
+		} finally {
+			draining = false;
+		}
+		
+		if(isOpen() && batchSize > 0 && ! hasPendingMessages())
+			flushOrBreak();
+		
+	}
+	
+	/**
+	 * Writes a message to the connection. The message is signaled as sent
+	 * when its batch is flushed.
+	 * 
+	 * @param m The message.
+	 * 
+	 * @throws NotSerializableException If the message cannot be encoded.
+	 * @throws InterruptedException
+	 */
+	private void write(Message m)
+	throws NotSerializableException, InterruptedException {
+
+		m.setSender(thisDaId);
+		m.setRecipient(remoteDaId);
+
+		assert seqNum-1 == lastSent;
+		lastSent = seqNum;
+		m.setSeqNum(seqNum++);
+		
+		
+		agentPrintMessage("Sending message n°{} ({})", m.getSeqNum(),
+				m.getClass().getSimpleName());
+
+		try {
+
+			try {
+				if(sendMessage(m))
+					batch.add(m);
+			} catch (NotSerializableException e) {
+				throw e;
+			} catch (IOException e) {
+				if( ! resumeConnection(e))
+					throw e;
+				if(sendMessage(m)) // Once on resumed connection
+					batch.add(m);
+			}
+			++batchSize;
+//			startHeartBeat();
+
+		} catch (NotSerializableException e) {
+
+			throw e;
+
+		} catch (IOException e) {
+
+			signalBrokenStream(e);
+			m.setMessageSent(false);
+			failBatch();
+			return;
+
+		} catch (OutOfSyncException e) {
+
+			signalBrokenStream(e);
+			m.setMessageSent(false);
+			failBatch();
+			return;
+
+		}
+		
+		if(batchSize >= maxBatchMessages ||
+				getUnflushedBytes() >= maxBatchBytes) {
+			flushOrBreak();
+		} else if( ! draining && ! hasPendingMessages()) {
+			if(linger <= 0) {
+				flushOrBreak();
+			} else if(lingerTO == null) {
+				lingerStart = System.currentTimeMillis();
+				lingerTO = scheduleMessage(FLUSH, linger);
+			}
+		}
+
+	}
+	
+	/**
+	 * Schedules the writing of next bulk message after the messages
+	 * currently queued.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void scheduleBulk() throws InterruptedException {
+		
+		if( ! bulkScheduled) {
+			bulkScheduled = true;
+			submitMessage(SEND_BULK);
+		}
+		
+	}
+	
+	/**
+	 * Writes next bulk message if the connection accepts it (see
+	 * {@link #canWriteBulk()}). Pending messages are flushed first.
+	 * 
+	 * @throws NotSerializableException If the message cannot be encoded.
+	 * @throws InterruptedException
+	 */
+	private void writeNextBulk()
+	throws NotSerializableException, InterruptedException {
+		
+		if(bulk.isEmpty() || ! canWriteBulk())
+			return;
+		
+		if(batchSize > 0) {
+			flushOrBreak();
+			if( ! isOpen())
+				return;
+		}
+		
+		write(bulk.poll());
+		if( ! bulk.isEmpty())
+			scheduleBulk();
+		
+	}
+	
+	/**
+	 * Writes all queued bulk messages. If the stream is or gets broken,
+	 * the messages not written are signaled as not sent.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void writeAllBulk() throws InterruptedException {
+		
+		Message m;
+		while(isOpen() && (m = bulk.poll()) != null) {
+			try {
+				write(m);
+			} catch (NotSerializableException e) {
+				agentPrintMessage(e);
+				m.setMessageSent(false);
+			}
+		}
+		failBulk();
+		
+	}
+	
+	/**
+	 * Signals the bulk messages not yet written as not sent.
+	 */
+	private void failBulk() {
+		
+		Message m;
+		while((m = bulk.poll()) != null)
+			m.setMessageSent(false);
+		
+	}
+	
+	/**
+	 * Tells if the connection can accept a new bulk message. Streams that
+	 * do not block while writing should only accept a bulk message when
+	 * the previous one has been written and call
+	 * {@link #resumeBulk()} when this happens.
+	 * 
+	 * @return True if a bulk message can be written.
+	 */
+	protected boolean canWriteBulk() {
+		return true;
+	}
+	
+	/**
+	 * Requests the writing of next bulk message. This method may be called
+	 * by any thread.
+	 */
+	protected void resumeBulk() {
+		
+		try {
+			submitMessage(SEND_BULK);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		
+	}
+	
+	/**
+	 * Flushes current batch. Written messages are signaled as sent.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws OutOfSyncException If remote DA is out of sync.
+	 */
+	private void flushBatch() throws IOException, OutOfSyncException {
+		
+		if(lingerTO != null) {
+			lingerTO.cancel();
+			lingerTO = null;
+		}
+		
+		flush();
+		
+		++flushCount;
+		flushedMessages += batchSize;
+		if(batchSize > maxBatchSize)
+			maxBatchSize = batchSize;
+		batchSize = 0;
+		
+		Message m;
+		while((m = batch.poll()) != null)
+			m.setMessageSent(true);
+		
+	}
+	
+	/**
+	 * Flushes current batch and signals a broken stream in case of failure.
+	 * 
+	 * @throws InterruptedException
+	 */
+	private void flushOrBreak() throws InterruptedException {
+		
+		try {
+			try {
+				flushBatch();
+			} catch(IOException e) {
+				if( ! resumeConnection(e))
+					throw e;
+				flushBatch(); // Once on resumed connection
+			}
+		} catch(IOException e) {
+			failBatch();
+			signalBrokenStream(e);
+		} catch(OutOfSyncException e) {
+			failBatch();
+			signalBrokenStream(e);
+		}
+		
+	}
+	
+	/**
+	 * Tries to resume the connection after an I/O error (in resume mode
+	 * only). Messages not received by remote DA are written again on the
+	 * new connection.
+	 * 
+	 * @param e The error that broke the connection.
+	 * @return True if the connection was resumed.
+	 */
+	private boolean resumeConnection(IOException e) {
+		
+		if( ! resume || ! isOpen() || out == null)
+			return false;
+		
+		agentPrintMessage("Connection to "+remoteDaId+" broken, resuming: ");
+		agentPrintMessage(e);
+		
+		try {
+			out.abort();
+		} catch (IOException e1) {
+		}
+		out = null;
+		
+		AgentScheduler.beginBlocking();
+		resuming = true;
+		try {
+			connectToRemoteDA();
+			++resumeCount;
+			agentPrintMessage("Connection resumed.");
+			return true;
+		} catch (IOException e1) {
+			agentPrintMessage(e1);
+			resumeWindow.failAll();
+			return false;
+		} catch (OutOfSyncException e1) {
+			agentPrintMessage(e1);
+			resumeWindow.failAll();
+			return false;
+		} finally {
+			resuming = false;
+			AgentScheduler.endBlocking();
+		}
+		
+	}
+	
+	/**
+	 * Tells if this stream is able to resume a broken connection (see
+	 * {@link #setDefaultResumeMode(boolean)}).
+	 * 
+	 * @return True if broken connections can be resumed.
+	 */
+	protected boolean supportsResume() {
+		return true;
+	}
+	
+	/**
+	 * Signals the messages of current batch as not sent.
+	 */
+	private void failBatch() {
+		
+		Message m;
+		while((m = batch.poll()) != null)
+			m.setMessageSent(false);
+		batchSize = 0;
+		
+	}
+
+	protected void signalBrokenStream(Exception e) throws InterruptedException {
 
 		if( ! isBroken() && ! isClosed()) {
 
 			synchronized (this) {
 				state = State.broken;
 			}
+			metrics.connectionBroken();
 			agentPrintMessage("Destination DA "+remoteDaId+
 					" seems to be broken : ");
 			agentPrintMessage(e);
@@ -376,33 +1074,21 @@ extends LoggingAgent {
 	
 
 	/**
-	 * Creates the low-level connection to the remote DA.
+	 * Creates the low-level connection to the remote DA. This method
+	 * blocks the calling thread until the connection is established or all
+	 * the attempts failed, it is used to resume a broken connection.
 	 * 
 	 * @throws IOException
 	 * @throws InterruptedException 
 	 */
 	protected void connectToRemoteDA() throws IOException, OutOfSyncException {
 
-		int currentRetryTO = retryTO;
-
 		// Connect socket
 		for(int i = 0; i < retries; ++i) {
 
-			SocketInterface sock = com.getSocketFactory().newSocket();
-
 			try {
 
-				// Streams creation
-				sock.connect(
-						sock.getSocketAddress(remoteDaId.getHostName(), remoteDaId.getPort()),
-						connectionTO);
-				out = new FailureDetectionOutputStream(sock, ackTO);
-				
-				// Send identification message
-				out.writeObject(new IdentificationMessage(thisDaId));
-
-				agentPrintMessage("Stream connected to "+
-						sock.getRemoteSocketAddress());
+				connect();
 				
 				// Properly identified
 				return;
@@ -415,16 +1101,13 @@ extends LoggingAgent {
 				agentPrintMessage(e);
 
 				// Wait some time before re-connection
-				try {
-					Thread.sleep(retryTO);
-				} catch (InterruptedException e2) {
-					e2.printStackTrace();
+				if(i + 1 < retries) {
+					try {
+						Thread.sleep(Connector.getBackoff(retryTO, i + 1));
+					} catch (InterruptedException e2) {
+						e2.printStackTrace();
+					}
 				}
-				currentRetryTO *= 2;
-				
-				try {
-					sock.close();
-				} catch(Throwable e1) {}
 
 			}
 
@@ -432,23 +1115,137 @@ extends LoggingAgent {
 		
 		throw new IOException("Could not connect to remote DA "+remoteDaId);
 	}
+	
+	/**
+	 * Tries once to establish the connection to the remote DA and to send
+	 * the identification message. If the connection could not be
+	 * established, all allocated resources are released.
+	 * 
+	 * @throws IOException If the connection could not be established.
+	 */
+	protected void connect() throws IOException {
+		
+		SocketInterface sock = com.getSocketFactory().newSocket();
+
+		try {
+
+			// Streams creation
+			sock.connect(
+					sock.getSocketAddress(remoteDaId.getHostName(), remoteDaId.getPort()),
+					connectionTO);
+			out = new FailureDetectionOutputStream(sock, ackTO, resumeWindow);
+			out.setMetrics(metrics);
+			
+			// Send identification message
+			IdentificationMessage idm = new IdentificationMessage(thisDaId,
+					resume, resuming);
+			idm.setCompressionRequested(FrameCompressor.isDefaultEnabled());
+			out.writeObject(idm);
+			if(resuming)
+				out.resume();
+
+			agentPrintMessage("Stream connected to "+
+					sock.getRemoteSocketAddress());
+
+		} catch(IOException e) {
+
+			out = null;
+			try {
+				sock.close();
+			} catch(Throwable e1) {}
+			
+			throw e;
+
+		}
+		
+	}
+	
+	/**
+	 * Closes the connection to the remote DA (if it was established). If
+	 * the stream is open, written reliable messages are acknowledged
+	 * before closing.
+	 * 
+	 * @throws IOException If an error occurred during closing.
+	 */
+	protected void closeConnection() throws IOException {
+		
+		if(out == null)
+			return;
+
+		try {
+			if(isOpen() && out.hasUnacknowledged()) {
+				AgentScheduler.beginBlocking();
+				try {
+					out.waitAcks();
+				} catch(IOException e) {
+					agentPrintMessage(e);
+				} catch(OutOfSyncException e) {
+					agentPrintMessage(e);
+				} finally {
+					AgentScheduler.endBlocking();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		
+	}
 
 	/**
 	 * Sends a message to the remote DA.
 	 * 
 	 * @param m The message to send.
 	 * 
+	 * @return True if the message is sent on next flush (see
+	 * {@link #flush()}). False if the message will be signaled as sent
+	 * (or not) later using {@link Message#setMessageSent(boolean)}.
+	 * 
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws AgentException
 	 */
-	protected void sendMessage(Message m) throws IOException, OutOfSyncException {
-		if(m.isReliabilityFlagSet()) {
-			out.writeMessage(m, true);
-		} else {
-			out.writeMessage(m, false);
+	protected boolean sendMessage(Message m) throws IOException, OutOfSyncException {
+		boolean reliable = m.isReliabilityFlagSet();
+		// The write blocks when the window or the socket buffer is full
+		AgentScheduler.beginBlocking();
+		try {
+			out.writeMessage(m, reliable);
+			return ! reliable; // Reliable messages are signaled on ack
+		} finally {
+			AgentScheduler.endBlocking();
 		}
 	}
+	
+	/**
+	 * Sends the messages written since last flush.
+	 * 
+	 * @throws IOException
+	 * @throws OutOfSyncException
+	 */
+	protected void flush() throws IOException, OutOfSyncException {
+		AgentScheduler.beginBlocking();
+		try {
+			out.flush();
+
+			// Acknowledgments are only waited for when there is nothing
+			// else to write. If they are not received, the messages are
+			// signaled as not sent when the connection is closed.
+			if(out.hasUnacknowledged() && ! draining &&
+					! hasPendingMessages())
+				out.waitAcks();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes written since last flush.
+	 * 
+	 * @return A number of bytes.
+	 */
+	protected int getUnflushedBytes() {
+		return out.getUnflushedBytes();
+	}
 
 //	/**
 //	 * Resets the connection to the remote DA. This method is called if a message
@@ -477,12 +1274,20 @@ extends LoggingAgent {
 	
 	@Override
 	public void agentPrintMessage(String msg) {
-		com.printMessage("[MOS to "+remoteDaId+"] "+msg);
+		if(com.isLogged())
+			com.printMessage(logPrefix+msg);
+	}
+	
+	@Override
+	public void agentPrintMessage(String pattern, Object... args) {
+		if(com.isLogged())
+			com.printMessage(logPrefix+pattern, args);
 	}
 	
 	@Override
 	public void agentPrintMessage(Throwable t) {
-		com.printMessage("[MOS to "+remoteDaId+"] Exception");
+		// Not guarded: stack traces are printed whatever the verbosity
+		com.printMessage(logPrefix+"Exception");
 		com.printMessage(t);
 	}
 }
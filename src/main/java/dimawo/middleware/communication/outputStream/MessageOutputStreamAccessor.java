@@ -24,6 +24,7 @@ package dimawo.middleware.communication.outputStream;
 import java.io.IOException;
 import java.util.concurrent.Semaphore;
 
+import dimawo.agents.AgentScheduler;
 import dimawo.middleware.commonEvents.BrokenDA;
 import dimawo.middleware.communication.Communicator;
 import dimawo.middleware.communication.Message;
@@ -140,7 +141,12 @@ implements MOSAccessorInterface, Comparable<MessageOutputStreamAccessor> {
 		// Signal accessor closed
 		waitClose = new Semaphore(0);
 		mos.writeClose(this);
-		waitClose.acquire();
+		AgentScheduler.beginBlocking();
+		try {
+			waitClose.acquire();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
 		
 		if( ! closeSuccess)
 			throw new IOException("Unsuccessful close");
@@ -182,4 +188,16 @@ implements MOSAccessorInterface, Comparable<MessageOutputStreamAccessor> {
 		return mos.getRemoteDaId();
 	}
 
+
+	@Override
+	public boolean canWrite() {
+		return mos.getWriteCredit().canWrite();
+	}
+
+
+	@Override
+	public void notifyWhenWritable(WritableCallBack cb) {
+		mos.getWriteCredit().notifyWhenWritable(cb);
+	}
+
 }
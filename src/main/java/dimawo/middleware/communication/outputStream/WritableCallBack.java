@@ -0,0 +1,44 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.outputStream;
+
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * Call-back notified when a connection can accept messages again (see
+ * {@link MOSAccessorInterface#notifyWhenWritable(WritableCallBack)}).
+ * 
+ * @author Gerard Dethier
+ */
+public interface WritableCallBack {
+	
+	/**
+	 * Signals the connection to given DA is writable. This method may be
+	 * called by the thread that signals a message as sent, it should
+	 * therefore not block (typically, an event is submitted to an agent).
+	 * 
+	 * @param daId The ID of the DA.
+	 */
+	public void signalWritable(DAId daId);
+
+}
@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.outputStream;
+
+import java.util.LinkedList;
+
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.distributedAgent.DAId;
+
+
+/**
+ * Byte credit of a {@link MessageOutputStream}.
+ * <p>
+ * Each message written to a stream is charged its estimated size (see
+ * {@link Message#getEstimatedSize()}) and then, once encoded, its actual
+ * size (see {@link Message#setEncodedSize(int)}) until it is signaled as
+ * sent or not sent. A stream is writable as long as the number of charged bytes is
+ * lower than the capacity of its credit. Producers can poll the credit
+ * (see {@link MOSAccessorInterface#canWrite()}) or ask to be notified when
+ * the stream becomes writable again (see
+ * {@link MOSAccessorInterface#notifyWhenWritable(WritableCallBack)}),
+ * which happens when charged bytes fall to half of the capacity.
+ * <p>
+ * The credit does not block writers: a producer that ignores it still
+ * queues its messages.
+ * 
+ * @author Gerard Dethier
+ */
+public class WriteCredit {
+	
+	/** Default capacity of a credit in bytes. */
+	private static int defaultCapacity = 1 << 20;
+	
+	private DAId daId;
+	private int capacity;
+	private long queuedBytes;
+	private int queuedMessages;
+	private LinkedList<WritableCallBack> waiting;
+	
+	
+	/**
+	 * Instantiates a credit with default capacity.
+	 * 
+	 * @param daId The ID of the DA messages are written to.
+	 */
+	public WriteCredit(DAId daId) {
+		this(daId, defaultCapacity);
+	}
+	
+	/**
+	 * Instantiates a credit.
+	 * 
+	 * @param daId The ID of the DA messages are written to.
+	 * @param capacity The capacity of the credit in bytes.
+	 */
+	public WriteCredit(DAId daId, int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.daId = daId;
+		this.capacity = capacity;
+		waiting = new LinkedList<WritableCallBack>();
+	}
+	
+	/**
+	 * Sets the capacity of credits instantiated after this call.
+	 * 
+	 * @param bytes A number of bytes.
+	 */
+	public static void setDefaultCapacity(int bytes) {
+		if(bytes <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		defaultCapacity = bytes;
+	}
+	
+	/**
+	 * @return The capacity of this credit in bytes.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return The number of bytes charged by messages not yet sent.
+	 */
+	public synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+	
+	/**
+	 * @return The number of messages charged and not yet sent.
+	 */
+	public synchronized int getQueuedMessages() {
+		return queuedMessages;
+	}
+	
+	/**
+	 * @return True if charged bytes are lower than capacity.
+	 */
+	public synchronized boolean canWrite() {
+		return queuedBytes < capacity;
+	}
+	
+	/**
+	 * Charges a message. The credit is given back when the message is
+	 * signaled as sent or not sent.
+	 * 
+	 * @param m The message.
+	 */
+	public void charge(Message m) {
+		int size = m.getEstimatedSize();
+		synchronized(this) {
+			queuedBytes += size;
+			++queuedMessages;
+		}
+		m.setWriteCredit(this, size);
+	}
+	
+	/**
+	 * Gives back the credit charged by a message. This method is called
+	 * by the message (see {@link Message#setMessageSent(boolean)}).
+	 * 
+	 * @param size The number of bytes charged by the message.
+	 */
+	public void release(int size) {
+		synchronized(this) {
+			--queuedMessages;
+		}
+		adjust(-size);
+	}
+	
+	/**
+	 * Changes the number of bytes charged by a message. This method is
+	 * called by the message (see {@link Message#setEncodedSize(int)}).
+	 * 
+	 * @param delta The number of bytes to add to the charged bytes (may be
+	 * negative).
+	 */
+	public void adjust(int delta) {
+		LinkedList<WritableCallBack> l = null;
+		synchronized(this) {
+			queuedBytes += delta;
+			if(queuedBytes <= capacity / 2 && ! waiting.isEmpty()) {
+				l = waiting;
+				waiting = new LinkedList<WritableCallBack>();
+			}
+		}
+		
+		if(l != null)
+			for(WritableCallBack cb : l)
+				cb.signalWritable(daId);
+	}
+	
+	/**
+	 * Registers a call-back notified once when this credit becomes writable.
+	 * If the credit is already writable, the call-back is notified
+	 * immediately by calling thread.
+	 * 
+	 * @param cb The call-back.
+	 */
+	public void notifyWhenWritable(WritableCallBack cb) {
+		synchronized(this) {
+			if(queuedBytes >= capacity) {
+				waiting.add(cb);
+				return;
+			}
+		}
+		cb.signalWritable(daId);
+	}
+
+}
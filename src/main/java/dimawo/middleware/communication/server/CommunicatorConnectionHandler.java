@@ -176,7 +176,7 @@ implements ConnectionHandler {
 
 
 	@Override
-	public synchronized void printMessage(String msg) {
+	public void printMessage(String msg) {
 		agentPrintMessage(msg);
 	}
 
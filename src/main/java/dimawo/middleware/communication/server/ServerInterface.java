@@ -0,0 +1,51 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.server;
+
+
+/**
+ * A server accepting the connections of remote DAs on behalf of a
+ * Communicator.
+ * 
+ * @author Gerard Dethier
+ */
+public interface ServerInterface {
+	
+	/**
+	 * Starts accepting connections.
+	 */
+	public void start();
+	
+	/**
+	 * Requests the server to stop. The Communicator is notified when
+	 * the server is actually closed.
+	 */
+	public void stop();
+	
+	/**
+	 * Returns the port the server accepts connections on.
+	 * 
+	 * @return A port number.
+	 */
+	public int getPort();
+
+}
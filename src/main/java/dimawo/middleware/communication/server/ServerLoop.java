@@ -34,7 +34,7 @@ import dimawo.simulation.socket.SocketInterface;
 
 
 
-public class ServerLoop implements Runnable {
+public class ServerLoop implements Runnable, ServerInterface {
 
 	/** Associated Communicator */
 	private ErrorHandler errorHandler;
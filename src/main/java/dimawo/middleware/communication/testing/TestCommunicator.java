@@ -23,6 +23,8 @@ package dimawo.middleware.communication.testing;
 
 import java.io.IOException;
 
+import dimawo.agents.AsyncLogWriter;
+import dimawo.middleware.communication.CommunicationMetrics;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.ConnectionRequestCallBack;
 import dimawo.middleware.communication.Message;
@@ -40,12 +42,14 @@ public class TestCommunicator implements CommunicatorInterface {
 	
 	private DAId localAddr;
 	private SocketFactory sockFact;
+	private CommunicationMetrics metrics;
 
 
 	public TestCommunicator(DAId localAddr, SocketFactory sockFact) {
 		
 		this.localAddr = localAddr;
 		this.sockFact = sockFact;
+		metrics = new CommunicationMetrics();
 
 	}
 	
@@ -55,6 +59,11 @@ public class TestCommunicator implements CommunicatorInterface {
 		return localAddr;
 	}
 
+	@Override
+	public CommunicationMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public SocketFactory getSocketFactory() {
 		return sockFact;
@@ -121,6 +130,16 @@ public class TestCommunicator implements CommunicatorInterface {
 	@Override
 	public synchronized void printMessage(Throwable t) {
 	}
+	
+	@Override
+	public void printMessage(String pattern, Object... args) {
+		printMessage(AsyncLogWriter.format(pattern, args));
+	}
+	
+	@Override
+	public boolean isLogged() {
+		return true;
+	}
 
 
 	@Override
@@ -72,6 +72,11 @@ public class DAId implements Comparable<DAId>, Serializable {
 		return compareTo(id) == 0;
 	}
 	
+	public int hashCode() {
+		int h = 31 * hostName.hashCode() + port;
+		return 31 * h + (int) (timeStamp ^ (timeStamp >>> 32));
+	}
+	
 	public String toString() {
 		return hostName+":"+port+":"+timeStamp;
 	}
@@ -759,7 +759,7 @@ extends LoggingAgent implements DistributedAgentInterface, MnTreeLocalUpdateCall
 //	public abstract void submitTransactionRequest(TransactionRequest tr);
 //	protected abstract void shutdownComLayer();
 
-	public synchronized void printMessage(String string) {
+	public void printMessage(String string) {
 		agentPrintMessage(string);
 	}
 
@@ -42,4 +42,12 @@ public class NetworkLoggerMessage extends Message {
 	public String getMessage() {
 		return msg;
 	}
+	
+	/**
+	 * Log messages are sent as datagrams when the datagram lane is enabled.
+	 */
+	@Override
+	public boolean isLossTolerant() {
+		return true;
+	}
 }
@@ -33,7 +33,7 @@ import java.util.regex.Pattern;
 
 import dimawo.agents.AgentException;
 import dimawo.agents.LoggingAgent;
-import dimawo.agents.UnknownAgentMessage;
+import dimawo.agents.MessageDispatcher;
 import dimawo.middleware.commonEvents.BrokenDA;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.Message;
@@ -112,12 +112,15 @@ implements FileDownloaderCallBack, MOSCallBack, SharedMapCallBackInterface, Faul
 	// Downloads data
 	private TreeMap<String, TreeSet<DAId>> filesToReplicate;
 	private TreeMap<String, LinkedList<GetFile>> currentDownloads;
+	
+	private MessageDispatcher dispatcher;
 
 
 	public FileSystemAgent(DistributedAgent da,
 			FileSystemAgentParameters fsParams) {
 
 		super(da, "DFS_Peer");
+		setHighPriority(BrokenDA.class);
 
 		this.da = da;
 		
@@ -140,9 +143,99 @@ implements FileDownloaderCallBack, MOSCallBack, SharedMapCallBackInterface, Faul
 		
 		filesToReplicate = new TreeMap<String, TreeSet<DAId>>();
 		currentDownloads = new TreeMap<String, LinkedList<GetFile>>();
+		
+		dispatcher = new MessageDispatcher();
+		registerHandlers();
+	}
 
+	private void registerHandlers() {
+		dispatcher.register(ReplicateFile.class,
+				new MessageDispatcher.Handler<ReplicateFile>() {
+			public void handle(ReplicateFile m) throws Exception {
+				handleReplicateFile(m);
+			}
+		});
+		dispatcher.register(GetFile.class,
+				new MessageDispatcher.Handler<GetFile>() {
+			public void handle(GetFile m) throws Exception {
+				handleGetFile(m);
+			}
+		});
+		dispatcher.register(FileReplicationRequest.class,
+				new MessageDispatcher.Handler<FileReplicationRequest>() {
+			public void handle(FileReplicationRequest m) throws Exception {
+				handleFileReplicationRequest(m);
+			}
+		});
+		dispatcher.register(FileReplicated.class,
+				new MessageDispatcher.Handler<FileReplicated>() {
+			public void handle(FileReplicated m) throws Exception {
+				handleFileReplicated(m);
+			}
+		});
+		dispatcher.register(FileLocationUpdate.class,
+				new MessageDispatcher.Handler<FileLocationUpdate>() {
+			public void handle(FileLocationUpdate m) throws Exception {
+				handleFileLocationUpdate(m);
+			}
+		});
+		dispatcher.register(FileDownloaderMessage.class,
+				new MessageDispatcher.Handler<FileDownloaderMessage>() {
+			public void handle(FileDownloaderMessage m) throws Exception {
+				downloader.submitDownloaderMessage(m);
+			}
+		});
+		dispatcher.register(FileUploaderMessage.class,
+				new MessageDispatcher.Handler<FileUploaderMessage>() {
+			public void handle(FileUploaderMessage m) throws Exception {
+				uploader.submitFileUploaderMessage(m);
+			}
+		});
+		dispatcher.register(AddFile.class,
+				new MessageDispatcher.Handler<AddFile>() {
+			public void handle(AddFile m) throws Exception {
+				handleAddFile(m);
+			}
+		});
+		dispatcher.register(RemoveFile.class,
+				new MessageDispatcher.Handler<RemoveFile>() {
+			public void handle(RemoveFile m) throws Exception {
+				handleRemoveFile(m);
+			}
+		});
+		dispatcher.register(DeleteDFSFiles.class,
+				new MessageDispatcher.Handler<DeleteDFSFiles>() {
+			public void handle(DeleteDFSFiles m) throws Exception {
+				handleDeleteDFSFiles(m);
+			}
+		});
+		dispatcher.register(DeleteLocalFilesMessage.class,
+				new MessageDispatcher.Handler<DeleteLocalFilesMessage>() {
+			public void handle(DeleteLocalFilesMessage m) throws Exception {
+				handleDeleteLocalFilesMessage(m);
+			}
+		});
+		dispatcher.register(DownloadFinished.class,
+				new MessageDispatcher.Handler<DownloadFinished>() {
+			public void handle(DownloadFinished m) throws Exception {
+				handleDownloadFinished(m);
+			}
+		});
+		dispatcher.register(SharedMapResult.class,
+				new MessageDispatcher.Handler<SharedMapResult>() {
+			public void handle(SharedMapResult m) throws Exception {
+				handleDMapResult(m);
+			}
+		});
+		dispatcher.register(BrokenDA.class,
+				new MessageDispatcher.Handler<BrokenDA>() {
+			public void handle(BrokenDA m) throws Exception {
+				handleBrokenDA(m);
+			}
+		});
 	}
 
+
 	
 	////////////////////
 	// Public methods //
@@ -299,6 +392,7 @@ implements FileDownloaderCallBack, MOSCallBack, SharedMapCallBackInterface, Faul
 
 	@Override
 	protected void logAgentExit() {
+		agentPrintMessage("Handled messages: "+dispatcher);
 		agentPrintMessage("exit");
 		exitActions();
 	}
@@ -315,77 +409,7 @@ implements FileDownloaderCallBack, MOSCallBack, SharedMapCallBackInterface, Faul
 	
 	@Override
 	protected void handleMessage(Object o) throws Exception {
-
-		if(o instanceof ReplicateFile) {
-
-			handleReplicateFile((ReplicateFile) o);
-
-		} else if(o instanceof GetFile) {
-
-			handleGetFile((GetFile) o);
-
-		} else if(o instanceof FileReplicationRequest) {
-
-			handleFileReplicationRequest((FileReplicationRequest) o);
-
-		} else if(o instanceof FileReplicated) {
-
-			handleFileReplicated((FileReplicated) o);
-
-		} else if(o instanceof FileLocationUpdate) {
-
-			handleFileLocationUpdate((FileLocationUpdate) o);
-
-		} else if(o instanceof FileDownloaderMessage) {
-
-			downloader.submitDownloaderMessage((FileDownloaderMessage) o);
-
-		} else if(o instanceof FileUploaderMessage) {
-
-			uploader.submitFileUploaderMessage((FileUploaderMessage) o);
-
-		} else if(o instanceof AddFile) {
-
-			handleAddFile((AddFile) o);
-
-		} else if(o instanceof RemoveFile) {
-
-			handleRemoveFile((RemoveFile) o);
-
-		} else if(o instanceof DeleteDFSFiles) {
-
-			handleDeleteDFSFiles((DeleteDFSFiles) o);
-
-//		} else if(o instanceof ListDFSFiles) {
-//
-//			handleListDFSFiles((ListDFSFiles) o);
-
-		} else if(o instanceof DeleteLocalFilesMessage) {
-
-			handleDeleteLocalFilesMessage((DeleteLocalFilesMessage) o);
-
-		} else if(o instanceof DownloadFinished) {
-
-			handleDownloadFinished((DownloadFinished) o);
-
-		} else if(o instanceof SharedMapResult) {
-
-			handleDMapResult((SharedMapResult) o);
-
-		} else if(o instanceof BrokenDA) {
-
-			handleBrokenDA((BrokenDA) o);
-
-//		} else if(o instanceof MessageSent) {
-//
-//			handleMessageSent((MessageSent) o);
-
-		} else {
-
-			throw new UnknownAgentMessage(o);
-
-		}
-		
+		dispatcher.dispatchOrFail(o);
 	}
 	
 //	private void handleMessageSent(MessageSent o) throws Exception {
@@ -21,7 +21,14 @@
  */
 package dimawo.middleware.fileSystem.fileTransfer.downloader.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import dimawo.fileTransfer.client.messages.ChunkMessage;
+import dimawo.middleware.communication.AbstractMessageCodec;
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 
 
@@ -30,20 +37,21 @@ public class FileChunk extends FileDownloaderMessage implements ChunkMessage {
 	private static final long serialVersionUID = 1L;
 
 	protected String fileUID;
-	protected byte[] fileChunk;
 	protected boolean isLastChunk;
 	
 	/**
-	 * Constructor used when data is transfered.
-	 * @param t
+	 * Constructor used when data is transfered. The data of the chunk are
+	 * sent as an attachment (see {@link Attachment}).
+	 * 
 	 * @param fileUID
-	 * @param fileChunk
+	 * @param fileChunk The data or null if they are attached later.
 	 * @param isLastChunk
 	 */
 	public FileChunk(String fileUID, byte[] fileChunk, boolean isLastChunk) {
 		this.fileUID = fileUID;
-		this.fileChunk = fileChunk;
 		this.isLastChunk = isLastChunk;
+		if(fileChunk != null)
+			setAttachment(Attachment.wrap(fileChunk));
 	}
 
 	public String getFileUID() {
@@ -54,14 +62,42 @@ public class FileChunk extends FileDownloaderMessage implements ChunkMessage {
 		return isLastChunk;
 	}
 
+	@Override
+	public boolean isBulk() {
+		return true;
+	}
+
 	@Override
 	public DAId getServerDaId() {
 		return this.getSender();
 	}
 
 	@Override
-	public byte[] getData() {
-		return fileChunk;
+	public byte[] getData() throws IOException {
+		Attachment a = getAttachment();
+		if(a == null)
+			return new byte[0];
+		return a.toByteArray();
+	}
+	
+	/**
+	 * The codec of file chunks. Chunk data are not encoded, they are
+	 * written as an attachment.
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			FileChunk chunk = (FileChunk) m;
+			writeString(chunk.fileUID, out);
+			out.writeBoolean(chunk.isLastChunk);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException {
+			String fileUID = readString(in);
+			boolean isLast = in.readBoolean();
+			return new FileChunk(fileUID, null, isLast);
+		}
 	}
 
 }
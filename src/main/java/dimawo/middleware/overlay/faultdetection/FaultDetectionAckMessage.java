@@ -21,6 +21,12 @@
  */
 package dimawo.middleware.overlay.faultdetection;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.faultdetection.messages.FaultDetectionServiceMessage;
 
@@ -33,5 +39,28 @@ public class FaultDetectionAckMessage extends FaultDetectionServiceMessage {
 	public FaultDetectionAckMessage(DAId to) {
 		super(to);
 	}
+	
+	/**
+	 * A lost acknowledgment is compensated by next ping.
+	 */
+	@Override
+	public boolean isLossTolerant() {
+		return true;
+	}
+	
+	/**
+	 * The codec of ping acknowledgments (only the fields of {@link Message} are
+	 * encoded).
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) {
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException {
+			return new FaultDetectionAckMessage(null);
+		}
+	}
 
 }
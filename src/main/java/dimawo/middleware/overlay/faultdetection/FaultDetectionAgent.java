@@ -23,8 +23,6 @@ package dimawo.middleware.overlay.faultdetection;
 
 import java.util.Iterator;
 import java.util.Map.Entry;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeMap;
 
 import dimawo.agents.ErrorHandler;
@@ -39,6 +37,7 @@ import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.faultdetection.events.RegisterCB;
 import dimawo.middleware.overlay.faultdetection.events.UnregisterCB;
 import dimawo.middleware.overlay.faultdetection.messages.PingMessage;
+import dimawo.timer.Timeout;
 
 
 
@@ -50,11 +49,13 @@ public class FaultDetectionAgent extends LoggingAgent implements MOSCallBack, Me
 	private long timeout;
 
 	private TreeMap<DAId, TargetInfo> toPing;
-	private Timer pingTimer;
+	private Timeout pingTimer;
 
 	public FaultDetectionAgent(ErrorHandler parent, CommunicatorInterface com,
 			long pingPeriod, long timeout) {
 		super(com, "PingServiceAgent");
+		setHighPriority(TriggerPing.class);
+		setHighPriority(BrokenDA.class);
 		this.com = com;
 		com.registerMessageHandler(FAULT_DETECTION_HANDLER_ID, this);
 		
@@ -67,16 +68,8 @@ public class FaultDetectionAgent extends LoggingAgent implements MOSCallBack, Me
 	@Override
 	protected void init() throws Throwable {
 		agentPrintMessage("init");
-		pingTimer = new Timer(true);
-		pingTimer.schedule(new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new TriggerPing());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}, pingPeriod, pingPeriod);
+		pingTimer = scheduleMessageAtFixedRate(new TriggerPing(),
+				pingPeriod, pingPeriod);
 	}
 
 	@Override
@@ -21,6 +21,12 @@
  */
 package dimawo.middleware.overlay.faultdetection.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 
 public class PingMessage extends FaultDetectionServiceMessage {
@@ -29,5 +35,28 @@ public class PingMessage extends FaultDetectionServiceMessage {
 	public PingMessage(DAId dest) {
 		super(dest);
 	}
+	
+	/**
+	 * A lost ping is detected by the time-out of its acknowledgment.
+	 */
+	@Override
+	public boolean isLossTolerant() {
+		return true;
+	}
+	
+	/**
+	 * The codec of pings (only the fields of {@link Message} are
+	 * encoded).
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) {
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException {
+			return new PingMessage(null);
+		}
+	}
 
 }
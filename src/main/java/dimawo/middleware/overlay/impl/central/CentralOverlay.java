@@ -24,8 +24,6 @@ package dimawo.middleware.overlay.impl.central;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -74,6 +72,7 @@ import dimawo.middleware.overlay.mntree.MnTreeLocalUpdate.Target;
 import dimawo.middleware.sharedMap.messages.SharedMapAgentMessage;
 import dimawo.simulation.socket.SocketFactory;
 import dimawo.simulation.socket.SocketInterface;
+import dimawo.timer.Timeout;
 
 
 
@@ -85,7 +84,7 @@ public class CentralOverlay extends LoggingAgent implements OverlayAgentInterfac
 	
 	private boolean isLeader;
 	private DAId ctrlId;
-	private Timer connCheck;
+	private Timeout connCheck;
 	
 	private String joinHost;
 	private int joinPort;
@@ -104,6 +103,8 @@ public class CentralOverlay extends LoggingAgent implements OverlayAgentInterfac
 	public CentralOverlay(DistributedAgent da,
 			SocketFactory sockFact) throws IOException {
 		super(null, "CentralOverlay");
+		setHighPriority(CheckConnectivity.class);
+		setHighPriority(BrokenDA.class);
 		
 		this.setPrintStream(da.getFilePrefix());
 
@@ -286,12 +287,8 @@ public class CentralOverlay extends LoggingAgent implements OverlayAgentInterfac
 			throw new OverlayException(e);
 		}
 		
-		connCheck = new Timer(true);
-		connCheck.schedule(new TimerTask() {
-			public void run() {
-				checkConnectivity();
-			}
-		}, 10000, 10000);
+		connCheck = scheduleMessageAtFixedRate(new CheckConnectivity(),
+				10000, 10000);
 	}
 	
 	private void stopAgents() {
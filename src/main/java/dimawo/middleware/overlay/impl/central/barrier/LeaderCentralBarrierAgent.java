@@ -53,6 +53,7 @@ public class LeaderCentralBarrierAgent extends AbstractBarrierAgent implements M
 
 	public LeaderCentralBarrierAgent(ErrorHandler parent, DistributedAgent da, CommunicatorInterface com) {
 		super(parent, "LeaderCentralBarrier");
+		setHighPriority(BrokenDA.class);
 		
 		setPrintStream(da.getFilePrefix());
 		
@@ -21,6 +21,7 @@
  */
 package dimawo.middleware.overlay.impl.central.broadcast;
 
+import java.util.LinkedList;
 import java.util.TreeSet;
 
 import dimawo.WorkerMessage;
@@ -30,6 +31,8 @@ import dimawo.agents.UnknownAgentMessage;
 import dimawo.middleware.communication.Communicator;
 import dimawo.middleware.communication.CommunicatorInterface;
 import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.outputStream.WritableCallBack;
+import dimawo.middleware.communication.outputStream.WriteCredit;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.distributedAgent.DistributedAgent;
 import dimawo.middleware.distributedAgent.messages.BroadcastRequestMessage;
@@ -50,6 +53,12 @@ implements BroadcastingAgentInterface {
 	private WaitingDABroadcasts waitingDABroadcasts;
 	
 	private CommunicatorInterface com;
+	
+	/** Event signaling the credit of a stream is available again. */
+	private static class CreditAvailable {}
+	/** Broadcasts delayed until the credits of all streams are available. */
+	private LinkedList<LocalBroadcastRequest> pendingBroadcasts;
+	private WritableCallBack writableCB;
 
 	public CentralControllerBroadcastAgent(ErrorHandler over,
 			DistributedAgent ctrl, Communicator com) {
@@ -62,6 +71,17 @@ implements BroadcastingAgentInterface {
 		das = new TreeSet<DAId>();
 		
 		waitingDABroadcasts = new WaitingDABroadcasts(com);
+		
+		pendingBroadcasts = new LinkedList<LocalBroadcastRequest>();
+		writableCB = new WritableCallBack() {
+			@Override
+			public void signalWritable(DAId daId) {
+				try {
+					submitMessage(new CreditAvailable());
+				} catch (InterruptedException e) {
+				}
+			}
+		};
 	}
 
 	@Override
@@ -75,6 +95,8 @@ implements BroadcastingAgentInterface {
 
 	@Override
 	protected void logAgentExit() {
+		for(LocalBroadcastRequest r : pendingBroadcasts)
+			r.getMessage().setMessageSent(false);
 		agentPrintMessage("exit");
 	}
 
@@ -94,6 +116,8 @@ implements BroadcastingAgentInterface {
 			handleBroadcastRequestMessage((BroadcastRequestMessage) o);
 		} else if(o instanceof DAId) {
 			handleDAId((DAId) o);
+		} else if(o instanceof CreditAvailable) {
+			handleCreditAvailable();
 		} else {
 			throw new UnknownAgentMessage(o);
 		}
@@ -123,6 +147,39 @@ implements BroadcastingAgentInterface {
 	}
 
 	private void handleLocalBroadcastRequest(LocalBroadcastRequest o) {
+		// Broadcasts are delayed while a stream has no credit left: large
+		// broadcasts would otherwise pile up in the queues of slow streams
+		if( ! pendingBroadcasts.isEmpty() || ! isWritable()) {
+			pendingBroadcasts.add(o);
+			return;
+		}
+		broadcast(o);
+	}
+	
+	private void handleCreditAvailable() {
+		while( ! pendingBroadcasts.isEmpty() && isWritable())
+			broadcast(pendingBroadcasts.removeFirst());
+	}
+	
+	/**
+	 * Tells if the streams to all DAs have credit left. If not, the agent
+	 * is notified when the credit of the first full stream is available
+	 * again.
+	 * 
+	 * @return True if a broadcast can be written.
+	 */
+	private boolean isWritable() {
+		for(DAId id : das) {
+			WriteCredit c = com.getMetrics().getPeer(id).getWriteCredit();
+			if(c != null && ! c.canWrite()) {
+				c.notifyWhenWritable(writableCB);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void broadcast(LocalBroadcastRequest o) {
 		DAId[] daIds = new DAId[das.size()];
 		das.toArray(daIds);
 
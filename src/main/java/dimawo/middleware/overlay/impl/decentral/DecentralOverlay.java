@@ -77,6 +77,7 @@ public class DecentralOverlay extends LoggingAgent implements OverlayAgentInterf
 			int maxNumOfChildren, int reliabilityThresh,
 			SocketFactory sockFact) throws IOException {
 		super(null, "DecentralOverlay");
+		setHighPriority(BrokenDA.class);
 		
 		this.setPrintStream(da.getFilePrefix());
 
@@ -21,9 +21,16 @@
  */
 package dimawo.middleware.overlay.mntree;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.util.Arrays;
 
+import dimawo.middleware.communication.ConnectionObjectInputStream;
+import dimawo.middleware.communication.ConnectionObjectOutputStream;
+
 public class MnId implements Serializable, Comparable<MnId> {
 	private static final long serialVersionUID = 1L;
 
@@ -62,6 +69,10 @@ public class MnId implements Serializable, Comparable<MnId> {
 		MnId otherId = (MnId) o;
 		return Arrays.equals(edgeIds, otherId.edgeIds);
 	}
+	
+	public int hashCode() {
+		return Arrays.hashCode(edgeIds);
+	}
 
 	public static MnId getRootId() {
 		return new MnId(new int[0]);
@@ -114,4 +125,61 @@ public class MnId implements Serializable, Comparable<MnId> {
 	public int getLastLevelChildIndex() {
 		return edgeIds[edgeIds.length - 1];
 	}
+	
+	/**
+	 * Writes an MN ID, which may be null, in a compact form. On a connection
+	 * (see {@link ConnectionObjectOutputStream}), the ID is interned: it is
+	 * written entirely only the first time.
+	 * 
+	 * @param id An MN ID or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void write(MnId id, DataOutput out) throws IOException {
+		if(out instanceof ConnectionObjectOutputStream &&
+				! ((ConnectionObjectOutputStream) out).writeInternedTag(id))
+			return;
+		
+		if(id == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(id.edgeIds.length);
+			for(int i = 0; i < id.edgeIds.length; ++i)
+				out.writeInt(id.edgeIds[i]);
+		}
+	}
+	
+	/**
+	 * Reads an MN ID written by {@link #write(MnId, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return An MN ID or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static MnId read(DataInput in) throws IOException {
+		ConnectionObjectInputStream cin = null;
+		if(in instanceof ConnectionObjectInputStream) {
+			cin = (ConnectionObjectInputStream) in;
+			int tag = cin.readInternedTag();
+			if(tag == ConnectionObjectOutputStream.NULL_OBJECT)
+				return null;
+			else if(tag == ConnectionObjectOutputStream.CACHED_OBJECT)
+				return cin.readInterned(MnId.class);
+			else if(tag != ConnectionObjectOutputStream.NEW_OBJECT)
+				throw new StreamCorruptedException("Unknown MN ID tag "+tag);
+		}
+		
+		int len = in.readInt();
+		if(len < 0)
+			return null;
+		int[] edgeIds = new int[len];
+		for(int i = 0; i < len; ++i)
+			edgeIds[i] = in.readInt();
+		MnId id = new MnId(edgeIds);
+		if(cin != null)
+			cin.intern(id);
+		return id;
+	}
 }
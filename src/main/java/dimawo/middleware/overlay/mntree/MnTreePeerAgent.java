@@ -24,14 +24,13 @@ package dimawo.middleware.overlay.mntree;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import dimawo.agents.AgentException;
 import dimawo.agents.LoggingAgent;
+import dimawo.agents.MessageDispatcher;
 import dimawo.agents.UnknownAgentMessage;
 import dimawo.middleware.commonEvents.BrokenDA;
 import dimawo.middleware.communication.CommunicatorInterface;
@@ -76,6 +75,7 @@ import dimawo.middleware.overlay.mntree.messages.UpdateThisRoutingTableMessage;
 import dimawo.middleware.overlay.mntree.messages.WrongRouteMessage;
 import dimawo.simulation.socket.SocketFactory;
 import dimawo.simulation.socket.SocketInterface;
+import dimawo.timer.Timeout;
 
 
 /**
@@ -104,7 +104,9 @@ LeaderElectionInterface {
 	private DistributedAgent da;
 	private CommunicatorInterface com;
 	
-	private Timer connCheckTimer;
+	private Timeout connCheckTimer;
+	
+	private MessageDispatcher treeMessages;
 	
 	private MnPeerState state;
 	private LinkedList<MnTreeMessage> waitingState;
@@ -119,6 +121,8 @@ LeaderElectionInterface {
 	public MnTreePeerAgent(DecentralOverlay parent, CommunicatorInterface com,
 			DistributedAgent da) {
 		super(parent, "MNTreePeerAgent");
+		setHighPriority(CheckConnectivity.class);
+		setHighPriority(BrokenDA.class);
 		this.over = parent;
 		this.da = da;
 		this.com = com;
@@ -128,6 +132,75 @@ LeaderElectionInterface {
 		toNotifyOnLocalUp = new HashSet<MnTreeLocalUpdateCallBackInterface>();
 		
 		relForw = new ReliableForwarder(this);
+		
+		treeMessages = new MessageDispatcher();
+		registerTreeMessageHandlers();
+	}
+	
+	private void registerTreeMessageHandlers() {
+		treeMessages.register(MnTreeMainPeerMessage.class,
+				new MessageDispatcher.Handler<MnTreeMainPeerMessage>() {
+			public void handle(MnTreeMainPeerMessage m) throws Exception {
+				if(! state.isMainPeer(da.getDaId())) {
+					throw new Error("must be main peer");
+				}
+				handleMnTreeMainPeerMessage(m);
+			}
+		});
+		treeMessages.register(MnTreeMovePeerMessage.class,
+				new MessageDispatcher.Handler<MnTreeMovePeerMessage>() {
+			public void handle(MnTreeMovePeerMessage m) throws Exception {
+				handleMnTreeMovePeerMessage(m);
+			}
+		});
+		treeMessages.register(MnTreeRemovePeersMessage.class,
+				new MessageDispatcher.Handler<MnTreeRemovePeersMessage>() {
+			public void handle(MnTreeRemovePeersMessage m) throws Exception {
+				handleMnTreeRemovePeersMessage(m);
+			}
+		});
+		treeMessages.register(MnTreeNewPeerMessage.class,
+				new MessageDispatcher.Handler<MnTreeNewPeerMessage>() {
+			public void handle(MnTreeNewPeerMessage m) throws Exception {
+				handleMnTreeNewPeerMessage(m);
+			}
+		});
+		treeMessages.register(MnTreeNewChildMessage.class,
+				new MessageDispatcher.Handler<MnTreeNewChildMessage>() {
+			public void handle(MnTreeNewChildMessage m) throws Exception {
+				handleMnTreeNewChildMessage(m);
+			}
+		});
+		treeMessages.register(ReliableForwarderMessage.class,
+				new MessageDispatcher.Handler<ReliableForwarderMessage>() {
+			public void handle(ReliableForwarderMessage m) throws Exception {
+				relForw.handleReliableForwarderMessage(m);
+			}
+		});
+		treeMessages.register(WrongRouteMessage.class,
+				new MessageDispatcher.Handler<WrongRouteMessage>() {
+			public void handle(WrongRouteMessage m) throws Exception {
+				handleWrongRouteMessage(m);
+			}
+		});
+		treeMessages.register(UpdateRoutingTableMessage.class,
+				new MessageDispatcher.Handler<UpdateRoutingTableMessage>() {
+			public void handle(UpdateRoutingTableMessage m) throws Exception {
+				handleUpdateRoutingTableMessage(m);
+			}
+		});
+		treeMessages.register(ChooseNewMainMessage.class,
+				new MessageDispatcher.Handler<ChooseNewMainMessage>() {
+			public void handle(ChooseNewMainMessage m) throws Exception {
+				handleChooseNewMainMessage(m);
+			}
+		});
+		treeMessages.register(CheckConnectivityMessage.class,
+				new MessageDispatcher.Handler<CheckConnectivityMessage>() {
+			public void handle(CheckConnectivityMessage m) {
+				// SKIP
+			}
+		});
 	}
 	
 	public void initOverlay(int maxNumOfChildren, int reliabilityThreshold) throws AgentException {
@@ -199,6 +272,7 @@ LeaderElectionInterface {
 	
 	@Override
 	protected void logAgentExit() {
+		agentPrintMessage("Handled messages: "+treeMessages);
 		agentPrintMessage("exit");
 		over.signalMnTreeDisconnected();
 	}
@@ -206,16 +280,8 @@ LeaderElectionInterface {
 	@Override
 	protected void init() throws Throwable {
 		agentPrintMessage("init");
-		connCheckTimer = new Timer(true);
-		connCheckTimer.schedule(new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new CheckConnectivity());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}, 5000, 5000);
+		connCheckTimer = scheduleMessageAtFixedRate(new CheckConnectivity(),
+				5000, 5000);
 	}
 
 	@Override
@@ -526,32 +592,7 @@ LeaderElectionInterface {
 	}
 
 	private void handleCheckedMnTreeMessage(Object o) throws Exception {
-		if(o instanceof MnTreeMainPeerMessage) {
-			if(! state.isMainPeer(da.getDaId())) {
-				throw new Error("must be main peer");
-			}
-			handleMnTreeMainPeerMessage(o);
-		} else if(o instanceof MnTreeMovePeerMessage) {
-			handleMnTreeMovePeerMessage((MnTreeMovePeerMessage) o);
-		} else if(o instanceof MnTreeRemovePeersMessage) {
-			handleMnTreeRemovePeersMessage((MnTreeRemovePeersMessage) o);
-		} else if(o instanceof MnTreeNewPeerMessage) {
-			handleMnTreeNewPeerMessage((MnTreeNewPeerMessage) o);
-		} else if(o instanceof MnTreeNewChildMessage) {
-			handleMnTreeNewChildMessage((MnTreeNewChildMessage) o);
-		} else if(o instanceof ReliableForwarderMessage) {
-			relForw.handleReliableForwarderMessage(o);
-		} else if(o instanceof WrongRouteMessage) {
-			handleWrongRouteMessage((WrongRouteMessage) o);
-		} else if(o instanceof UpdateRoutingTableMessage) {
-			handleUpdateRoutingTableMessage((UpdateRoutingTableMessage) o);
-		} else if(o instanceof ChooseNewMainMessage) {
-			handleChooseNewMainMessage((ChooseNewMainMessage) o);
-		} else if(o instanceof CheckConnectivityMessage) {
-			// SKIP
-		} else {
-			throw new UnknownAgentMessage(o);
-		}
+		treeMessages.dispatchOrFail(o);
 	}
 	
 	private void handleChooseNewMainMessage(ChooseNewMainMessage o) {
@@ -21,8 +21,12 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.distributedAgent.DAId;
 
 
@@ -48,4 +52,36 @@ public class MessageId implements Serializable, Comparable<MessageId> {
 	public String toString() {
 		return daId.toString() + ":" + seqNum;
 	}
+	
+	/**
+	 * Writes a message ID, which may be null, in a compact form.
+	 * 
+	 * @param id A message ID or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void write(MessageId id, DataOutput out) throws IOException {
+		out.writeBoolean(id != null);
+		if(id != null) {
+			AbstractMessageCodec.writeDAId(id.daId, out);
+			out.writeInt(id.seqNum);
+		}
+	}
+	
+	/**
+	 * Reads a message ID written by {@link #write(MessageId, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A message ID or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static MessageId read(DataInput in) throws IOException {
+		if(! in.readBoolean())
+			return null;
+		DAId daId = AbstractMessageCodec.readDAId(in);
+		int seqNum = in.readInt();
+		return new MessageId(daId, seqNum);
+	}
 }
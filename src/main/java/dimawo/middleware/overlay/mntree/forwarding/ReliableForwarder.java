@@ -87,7 +87,7 @@ public class ReliableForwarder {
 	}
 	
 	public void broadcastMessage(Message m) {
-		printMessage("Broadcasting message: "+m.getClass().getName());
+		printMessage("Broadcasting message: {}", m.getClass().getName());
 		MnPeerState peerState = mnPeer.getPeerState();
 		ForwardType type = ForwardType.broadcast;
 		if(mnPeer.isMainPeer()) {
@@ -109,11 +109,11 @@ public class ReliableForwarder {
 			tsWaitingAck.waitForAcks(tDest, msgId);
 			waitSent.put(msgId, m);
 			
-			printMessage("2nd cache size: "+ssCache.size());
+			printMessage("2nd cache size: {}", ssCache.size());
 		} else {
 			// Send 1st stage message to main peer
 			MessageId msgId = getNextMessageId();
-			printMessage("Sending a first stage message: "+msgId);
+			printMessage("Sending a first stage message: {}", msgId);
 			
 			DAId mainPeerId = peerState.getThisMnMainPeer();
 			MnId thisId = peerState.getThisMnId();
@@ -124,7 +124,7 @@ public class ReliableForwarder {
 			waitSent.put(msgId, m);
 			com.sendDatagramMessage(fsm);
 			
-			printMessage("1st cache size: "+fsCache.size());
+			printMessage("1st cache size: {}", fsCache.size());
 		}
 	}
 
@@ -137,7 +137,7 @@ public class ReliableForwarder {
 			// Send 2nd stage message to parent
 			SourceMn src = new SourceMn();
 			src.setChild(peerState.getThisChildIndex());
-			printMessage("Sending a second stage message to parent ("+parentDaId+"): "+msgInf.getMessageId());
+			printMessage("Sending a second stage message to parent ({}): {}", parentDaId, msgInf.getMessageId());
 
 			if(dest != null)
 				dest.setWaitAckFromParent();
@@ -172,7 +172,7 @@ public class ReliableForwarder {
 		src.setParent();
 		if(childDaId != null) {
 			// Send 2nd stage message to parent
-			printMessage("Sending a second stage message to child "+childIndex+" ("+childDaId+"): "+msgInf.getMessageId());
+			printMessage("Sending a second stage message to child {} ({}): {}", childIndex, childDaId, msgInf.getMessageId());
 
 			if(dest != null)
 				dest.setWaitAckFromChild(childIndex);
@@ -187,7 +187,7 @@ public class ReliableForwarder {
 	}
 	
 	public void sendMessageToLeader(Message m) {
-		printMessage("Sending message to leader: "+m.getClass().getName());
+		printMessage("Sending message to leader: {}", m.getClass().getName());
 		MnPeerState peerState = mnPeer.getPeerState();
 		if(mnPeer.isMainPeer()) {
 			DAId parentDaId = peerState.getParentMnMainPeer();
@@ -206,7 +206,7 @@ public class ReliableForwarder {
 				ssWaitingAck.waitForAcks(dest, msgId);
 				waitSent.put(msgId, m);
 				
-				printMessage("2nd cache size: "+ssCache.size());
+				printMessage("2nd cache size: {}", ssCache.size());
 			} else {
 				printMessage("Message reached destination.");
 				
@@ -224,7 +224,7 @@ public class ReliableForwarder {
 		} else {
 			// Send 1st stage message to main peer
 			MessageId msgId = getNextMessageId();
-			printMessage("Sending a first stage message: "+msgId);
+			printMessage("Sending a first stage message: {}", msgId);
 			
 			DAId mainPeerId = peerState.getThisMnMainPeer();
 			MnId thisId = peerState.getThisMnId();
@@ -235,7 +235,7 @@ public class ReliableForwarder {
 			waitSent.put(msgId, m);
 			com.sendDatagramMessage(fsm);
 			
-			printMessage("1st cache size: "+fsCache.size());
+			printMessage("1st cache size: {}", fsCache.size());
 		}
 	}
 	
@@ -256,7 +256,7 @@ public class ReliableForwarder {
 		ForwardType type = fsm.getForwardType();
 		Message m = fsm.getMessage();
 		
-		printMessage("Received 1st stage message ("+type+") from "+fsm.getSender());
+		printMessage("Received 1st stage message ({}) from {}", type, fsm.getSender());
 
 		DAId senderId = fsm.getSender();
 		FirstStageAckMessage ack = new FirstStageAckMessage(senderId, msgId);
@@ -300,7 +300,7 @@ public class ReliableForwarder {
 		fsWaitingAck.waitAck(msgId, ack);
 		tsWaitingAck.waitForAcks(tDest, msgId);
 		
-		printMessage("2nd cache size: "+ssCache.size());
+		printMessage("2nd cache size: {}", ssCache.size());
 		
 		if(type.equals(ForwardType.broadcast)) {
 			// Message reached destination
@@ -363,7 +363,7 @@ public class ReliableForwarder {
 		if(src == null)
 			throw new Error("No source given for 2nd stage message");
 		
-		printMessage("Forwarding 2nd stage message "+msgId+" coming from "+src+" ("+type+")");
+		printMessage("Forwarding 2nd stage message {} coming from {} ({})", msgId, src, type);
 		SecondStageWaitingAcks.Destinations dest = new SecondStageWaitingAcks.Destinations(peerState.getMaxNumOfChildren());
 		ThirdStageWaitingAcks.Destinations tDest = new ThirdStageWaitingAcks.Destinations();
 		SecondStageMessageInfo newMsgInf = new SecondStageMessageInfo(
@@ -378,7 +378,7 @@ public class ReliableForwarder {
 				ssWaitingAck.waitForAcks(dest, msgId);
 				tsWaitingAck.waitForAcks(tDest, msgId);
 				
-				printMessage("2nd cache size: "+ssCache.size());
+				printMessage("2nd cache size: {}", ssCache.size());
 			} else {
 				printMessage("Message reached destination");
 				Message m = msgInf.getMessage();
@@ -394,7 +394,7 @@ public class ReliableForwarder {
 				ssCache.cache(newMsgInf);
 				ackSecondStageMessage(msgId);
 				
-				printMessage("2nd cache size: "+ssCache.size());
+				printMessage("2nd cache size: {}", ssCache.size());
 			}
 		} else if(type.equals(ForwardType.broadcast)) {
 			// Continue forwarding
@@ -418,7 +418,7 @@ public class ReliableForwarder {
 				tsWaitingAck.waitForAcks(tDest, msgId);
 			}
 			
-			printMessage("2nd cache size: "+ssCache.size());
+			printMessage("2nd cache size: {}", ssCache.size());
 
 			// Message reached destination
 			m.setSender(getMainDaId(src));
@@ -448,7 +448,7 @@ public class ReliableForwarder {
 		}
 		
 		MessageId msgId = ack.getAckedMessageId();
-		printMessage("Received an ack for second stage message "+msgId);
+		printMessage("Received an ack for second stage message {}", msgId);
 		
 		SourceMn ackSrc = ack.getSource();
 		ForwardType forwType = ack.getAckedMessageType();
@@ -493,15 +493,15 @@ public class ReliableForwarder {
 	private void ackFirstStageMessage(MessageId msgId) {
 		FirstStageAckMessage fsAck = fsWaitingAck.ack(msgId);
 		if(fsAck != null) {
-			printMessage("Ack 1st stage message "+fsAck.getAckedMessageId());
+			printMessage("Ack 1st stage message {}", fsAck.getAckedMessageId());
 			com.sendDatagramMessage(fsAck);
 		} else {
-			printMessage("No 1st stage message to ack: "+msgId);
+			printMessage("No 1st stage message to ack: {}", msgId);
 		}
 	}
 
 	private void clearThirdStageCaches(MessageId msgId) {
-		printMessage("Clearing 3rd stage caches: "+msgId);
+		printMessage("Clearing 3rd stage caches: {}", msgId);
 		
 		DAId[] peers = new DAId[mnPeer.getPeerState().getThisMnSize()];
 		mnPeer.getPeerState().getThisMnPeersIds(peers);
@@ -521,6 +521,11 @@ public class ReliableForwarder {
 		mnPeer.agentPrintMessage("[ReliableForwarder] "+string);
 	}
 
+	private void printMessage(String pattern, Object... args) {
+		if(mnPeer.isLogged(0))
+			mnPeer.agentPrintMessage("[ReliableForwarder] "+pattern, args);
+	}
+
 	public void handleReliableForwarderMessage(Object o) throws Exception {
 		if(o instanceof FirstStageMessage) {
 			handleFirstStageMessage((FirstStageMessage) o);
@@ -545,7 +550,7 @@ public class ReliableForwarder {
 			RemoveFromThirdStageCacheMessage o) {
 		MessageId msgId = o.getMessageId();
 		tsCache.remove(msgId);
-		printMessage("3rd cache size: "+tsCache.size());
+		printMessage("3rd cache size: {}", tsCache.size());
 	}
 
 	private void handleThirdStageAckMessage(ThirdStageAckMessage o) {
@@ -559,7 +564,7 @@ public class ReliableForwarder {
 	private void onThirdStageAck(MessageId msgId, ForwardType type,
 			DAId senderId) {
 		if(tsWaitingAck.ack(msgId, senderId)) {
-			printMessage("All 3rd stage acks received for "+msgId);
+			printMessage("All 3rd stage acks received for {}", msgId);
 			
 			// If 2nd stage ack was already received, 3rd caches
 			// need to be cleared. If the message was broadcasted,
@@ -585,12 +590,12 @@ public class ReliableForwarder {
 
 	private void ackSecondStageMessage(MessageId msgId) {
 		SecondStageMessageInfo msgInf = ssCache.remove(msgId);
-		printMessage("2nd cache size: "+ssCache.size());
+		printMessage("2nd cache size: {}", ssCache.size());
 
 		if(msgInf != null) {
 			SourceMn src = msgInf.getSource();
 			if(! src.isThis()) {
-				printMessage("Sending 2nd stage ack for message "+msgId);
+				printMessage("Sending 2nd stage ack for message {}", msgId);
 	
 				DAId destId;
 				MnId destMnId;
@@ -614,16 +619,16 @@ public class ReliableForwarder {
 					thisMnId, destMnId, msgId, msgInf.getForwardType(), sentAckSrc);
 				com.sendDatagramMessage(newAck);
 			} else {
-				printMessage("No ack to send for 2nd stage message "+msgId);
+				printMessage("No ack to send for 2nd stage message {}", msgId);
 			}
 		} else {
-			printMessage("2nd stage message already acked: "+msgId);
+			printMessage("2nd stage message already acked: {}", msgId);
 		}
 	}
 
 	private void handleThirdStageMessage(ThirdStageMessage o) {
 		boolean notAlreadyReceived = tsCache.cache(o);
-		printMessage("3rd cache size: "+tsCache.size());
+		printMessage("3rd cache size: {}", tsCache.size());
 		
 		// Submit if message reached destination
 		if(notAlreadyReceived) {
@@ -654,17 +659,17 @@ public class ReliableForwarder {
 
 	private void handleFirstStageAckMessage(FirstStageAckMessage o) {
 		MessageId msgId = o.getAckedMessageId();
-		printMessage("Received an ack for first stage message "+msgId);
+		printMessage("Received an ack for first stage message {}", msgId);
 		fsCache.remove(msgId);
 		signalSent(msgId);
 		
-		printMessage("1st cache size: "+fsCache.size());
+		printMessage("1st cache size: {}", fsCache.size());
 	}
 
 	private void signalSent(MessageId msgId) {
 		Message m = waitSent.remove(msgId);
 		if(m != null) {
-			printMessage("Signaling "+m.getClass().getName()+" has been sucessfully sent");
+			printMessage("Signaling {} has been sucessfully sent", m.getClass().getName());
 			m.setMessageSent(true);
 		}
 	}
@@ -672,7 +677,7 @@ public class ReliableForwarder {
 	public void handleWrongRoute(WrongRouteMessage o) {
 		MnTreeMessage m = o.getMessage();
 		
-		printMessage("Wrongly routed message: "+m.getClass().getName());
+		printMessage("Wrongly routed message: {}", m.getClass().getName());
 		if(m instanceof FirstStageMessage) {
 			FirstStageMessage fsm = (FirstStageMessage) m;
 			fsm.setRecipient(mnPeer.getPeerState().getThisMnMainPeer());
@@ -747,7 +752,7 @@ public class ReliableForwarder {
 					" is forwarded again to child "+childIndex);
 				sendSecondStageMessageToChild(state, childIndex, null, info);
 			} else {
-				printMessage(id+" in ssWaitingAck but not in cache ???");
+				printMessage("{} in ssWaitingAck but not in cache ???", id);
 			}
 		}
 	}
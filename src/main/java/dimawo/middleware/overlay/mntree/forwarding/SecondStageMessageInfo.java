@@ -21,8 +21,12 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.overlay.mntree.forwarding.ReliableForwarder.ForwardType;
 
@@ -59,4 +63,44 @@ public class SecondStageMessageInfo implements Serializable {
 	public Message getMessage() {
 		return m;
 	}
+	
+	/**
+	 * Writes a message info in a compact form. The forwarded message is
+	 * written using its codec if any.
+	 * 
+	 * @param info A message info or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void write(SecondStageMessageInfo info, ObjectOutput out) throws IOException {
+		out.writeBoolean(info != null);
+		if(info != null) {
+			MessageId.write(info.msgId, out);
+			AbstractMessageCodec.writeEnum(info.type, out);
+			SourceMn.write(info.src, out);
+			AbstractMessageCodec.writeMessage(info.m, out);
+		}
+	}
+	
+	/**
+	 * Reads a message info written by
+	 * {@link #write(SecondStageMessageInfo, ObjectOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A message info or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 * @throws ClassNotFoundException If the forwarded message could not be
+	 * deserialized.
+	 */
+	public static SecondStageMessageInfo read(ObjectInput in) throws IOException, ClassNotFoundException {
+		if(! in.readBoolean())
+			return null;
+		MessageId msgId = MessageId.read(in);
+		ForwardType type = AbstractMessageCodec.readEnum(ForwardType.values(), in);
+		SourceMn src = SourceMn.read(in);
+		Message m = AbstractMessageCodec.readMessage(in);
+		return new SecondStageMessageInfo(msgId, type, src, m);
+	}
 }
@@ -21,8 +21,13 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
+import dimawo.middleware.communication.AbstractMessageCodec;
+
 public class SourceMn implements Serializable {
 	private enum Source {childMn,parentMn,thisMn};
 	
@@ -75,4 +80,37 @@ public class SourceMn implements Serializable {
 		}
 		return sb.toString();
 	}
+	
+	/**
+	 * Writes a source MN, which may be null, in a compact form.
+	 * 
+	 * @param src A source MN or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void write(SourceMn src, DataOutput out) throws IOException {
+		out.writeBoolean(src != null);
+		if(src != null) {
+			AbstractMessageCodec.writeEnum(src.src, out);
+			out.writeInt(src.childIndex);
+		}
+	}
+	
+	/**
+	 * Reads a source MN written by {@link #write(SourceMn, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A source MN or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static SourceMn read(DataInput in) throws IOException {
+		if(! in.readBoolean())
+			return null;
+		SourceMn src = new SourceMn();
+		src.src = AbstractMessageCodec.readEnum(Source.values(), in);
+		src.childIndex = in.readInt();
+		return src;
+	}
 }
@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
 import dimawo.middleware.overlay.mntree.forwarding.MessageId;
@@ -40,5 +45,20 @@ implements ReliableForwarderMessage, UncheckedMnTreeMessage {
 	public MessageId getAckedMessageId() {
 		return msgId;
 	}
+	
+	/**
+	 * The codec of first stage acknowledgments.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			FirstStageAckMessage msg = (FirstStageAckMessage) m;
+			MessageId.write(msg.msgId, out);
+		}
 
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			return new FirstStageAckMessage(null, MessageId.read(in));
+		}
+	}
 }
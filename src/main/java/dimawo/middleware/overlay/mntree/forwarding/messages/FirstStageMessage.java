@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
@@ -52,4 +57,25 @@ implements ReliableForwarderMessage {
 	public Message getMessage() {
 		return m;
 	}
+	
+	/**
+	 * The codec of first stage messages.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			FirstStageMessage msg = (FirstStageMessage) m;
+			MessageId.write(msg.msgId, out);
+			AbstractMessageCodec.writeEnum(msg.type, out);
+			AbstractMessageCodec.writeMessage(msg.m, out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			MessageId msgId = MessageId.read(in);
+			ForwardType type = AbstractMessageCodec.readEnum(ForwardType.values(), in);
+			Message forwarded = AbstractMessageCodec.readMessage(in);
+			return new FirstStageMessage(null, null, null, msgId, type, forwarded);
+		}
+	}
 }
@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
 import dimawo.middleware.overlay.mntree.forwarding.MessageId;
@@ -39,5 +44,21 @@ public class RemoveFromThirdStageCacheMessage extends MnTreeMessage implements
 	public MessageId getMessageId() {
 		return msgId;
 	}
+	
+	/**
+	 * The codec of third stage cache removal requests.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			RemoveFromThirdStageCacheMessage msg = (RemoveFromThirdStageCacheMessage) m;
+			MessageId.write(msg.msgId, out);
+		}
 
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			return new RemoveFromThirdStageCacheMessage(null, null, null,
+					MessageId.read(in));
+		}
+	}
 }
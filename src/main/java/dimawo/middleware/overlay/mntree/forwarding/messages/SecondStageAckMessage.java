@@ -21,6 +21,12 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
 import dimawo.middleware.overlay.mntree.forwarding.MessageId;
@@ -53,4 +59,25 @@ implements ReliableForwarderMessage {
 	public ForwardType getAckedMessageType() {
 		return type;
 	}
+	
+	/**
+	 * The codec of second stage acknowledgments.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			SecondStageAckMessage msg = (SecondStageAckMessage) m;
+			MessageId.write(msg.ackedMsgId, out);
+			AbstractMessageCodec.writeEnum(msg.type, out);
+			SourceMn.write(msg.src, out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			MessageId ackedMsgId = MessageId.read(in);
+			ForwardType type = AbstractMessageCodec.readEnum(ForwardType.values(), in);
+			SourceMn src = SourceMn.read(in);
+			return new SecondStageAckMessage(null, null, null, ackedMsgId, type, src);
+		}
+	}
 }
@@ -21,6 +21,10 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
@@ -49,5 +53,23 @@ implements ReliableForwarderMessage {
 	public SourceMn getSource() {
 		return src;
 	}
+	
+	/**
+	 * The codec of second stage messages.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			SecondStageMessage msg = (SecondStageMessage) m;
+			SecondStageMessageInfo.write(msg.msgInf, out);
+			SourceMn.write(msg.src, out);
+		}
 
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			SecondStageMessageInfo msgInf = SecondStageMessageInfo.read(in);
+			SourceMn src = SourceMn.read(in);
+			return new SecondStageMessage(null, null, null, msgInf, src);
+		}
+	}
 }
@@ -21,6 +21,12 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
 import dimawo.middleware.overlay.mntree.forwarding.MessageId;
@@ -46,4 +52,23 @@ public class ThirdStageAckMessage extends MnTreeMessage implements
 	public ForwardType getType() {
 		return type;
 	}
+	
+	/**
+	 * The codec of third stage acknowledgments.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			ThirdStageAckMessage msg = (ThirdStageAckMessage) m;
+			MessageId.write(msg.msgId, out);
+			AbstractMessageCodec.writeEnum(msg.type, out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			MessageId msgId = MessageId.read(in);
+			ForwardType type = AbstractMessageCodec.readEnum(ForwardType.values(), in);
+			return new ThirdStageAckMessage(null, null, null, msgId, type);
+		}
+	}
 }
@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.overlay.mntree.forwarding.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.mntree.MnId;
 import dimawo.middleware.overlay.mntree.forwarding.SecondStageMessageInfo;
@@ -40,4 +45,21 @@ public class ThirdStageMessage extends MnTreeMessage implements
 	public SecondStageMessageInfo getMessageInfo() {
 		return info;
 	}
+	
+	/**
+	 * The codec of third stage messages.
+	 */
+	public static class Codec extends MnTreeMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			ThirdStageMessage msg = (ThirdStageMessage) m;
+			SecondStageMessageInfo.write(msg.info, out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException, ClassNotFoundException {
+			return new ThirdStageMessage(null, null, null,
+					SecondStageMessageInfo.read(in));
+		}
+	}
 }
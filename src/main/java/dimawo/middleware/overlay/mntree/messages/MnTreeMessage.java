@@ -21,6 +21,11 @@
  */
 package dimawo.middleware.overlay.mntree.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
 import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.overlay.OverlayMessage;
@@ -63,4 +68,27 @@ public class MnTreeMessage extends Message implements OverlayMessage {
 	public void setRecipientMn(MnId to) {
 		this.to = to;
 	}
+	
+	/**
+	 * A base class for the codecs of MN-tree messages: sender and
+	 * recipient MNs are encoded in addition to the fields of
+	 * {@link Message}.
+	 */
+	public static abstract class MnTreeMessageCodec extends AbstractMessageCodec {
+		@Override
+		public void encode(Message m, ObjectOutput out) throws IOException {
+			super.encode(m, out);
+			MnTreeMessage msg = (MnTreeMessage) m;
+			MnId.write(msg.from, out);
+			MnId.write(msg.to, out);
+		}
+
+		@Override
+		public Message decode(ObjectInput in) throws IOException, ClassNotFoundException {
+			MnTreeMessage msg = (MnTreeMessage) super.decode(in);
+			msg.from = MnId.read(in);
+			msg.to = MnId.read(in);
+			return msg;
+		}
+	}
 }
@@ -24,13 +24,11 @@ package dimawo.middleware.sharedMap.dht.chord;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
-import dimawo.agents.UnknownAgentMessage;
+import dimawo.agents.MessageDispatcher;
 import dimawo.agents.events.AsynchronousCall;
 import dimawo.middleware.commonEvents.BrokenDA;
 import dimawo.middleware.communication.CommunicatorInterface;
@@ -77,6 +75,7 @@ import dimawo.middleware.sharedMap.events.GetValue;
 import dimawo.middleware.sharedMap.events.PutValue;
 import dimawo.middleware.sharedMap.events.RemoveValue;
 import dimawo.middleware.sharedMap.events.UpdateValue;
+import dimawo.timer.Timeout;
 
 
 
@@ -97,16 +96,21 @@ public class ChordAgent extends AbstractSharedMapAgent implements MOSCallBack {
 
 	private ChordRoutingAlgorithm routing;
 	private StabilizationAlgorithm stab;
-	private Timer stabTimer;
+	private Timeout stabTimer;
 	private long stabPeriod;
 	private boolean successorsChanged;
 	
 	private TreeSet<DAId> brokenPeers;
+	
+	private MessageDispatcher dispatcher;
 
 
 	public ChordAgent(DecentralOverlay over, int nSuccessors, boolean init,
 			DAId contact) {
 		super(over, "ChordAgent");
+		setHighPriority(RoutingTO.class);
+		setHighPriority(RequestTO.class);
+		setHighPriority(BrokenDA.class);
 		com = over.getCommunicator();
 		
 		DAId thisDaId = over.getDA().getDaId();
@@ -130,6 +134,133 @@ public class ChordAgent extends AbstractSharedMapAgent implements MOSCallBack {
 		}
 		
 		brokenPeers = new TreeSet<DAId>();
+		
+		dispatcher = new MessageDispatcher();
+		registerHandlers();
+	}
+	
+	private void registerHandlers() {
+		dispatcher.register(GetNextHopMessage.class,
+				new MessageDispatcher.Handler<GetNextHopMessage>() {
+			public void handle(GetNextHopMessage m) throws Exception {
+				handleGetNextHopMessage(m);
+			}
+		});
+		dispatcher.register(RoutingResultMessage.class,
+				new MessageDispatcher.Handler<RoutingResultMessage>() {
+			public void handle(RoutingResultMessage m) throws Exception {
+				routing.handleRoutingResultMessage(m);
+			}
+		});
+		dispatcher.register(GetDataEntryMessage.class,
+				new MessageDispatcher.Handler<GetDataEntryMessage>() {
+			public void handle(GetDataEntryMessage m) throws Exception {
+				handleGetDataEntryMessage(m);
+			}
+		});
+		dispatcher.register(PutDataEntryMessage.class,
+				new MessageDispatcher.Handler<PutDataEntryMessage>() {
+			public void handle(PutDataEntryMessage m) throws Exception {
+				handlePutDataEntryMessage(m);
+			}
+		});
+		dispatcher.register(CallStateMessage.class,
+				new MessageDispatcher.Handler<CallStateMessage>() {
+			public void handle(CallStateMessage m) throws Exception {
+				handleCallStateMessage(m);
+			}
+		});
+		dispatcher.register(ChordJoinMessage.class,
+				new MessageDispatcher.Handler<ChordJoinMessage>() {
+			public void handle(ChordJoinMessage m) throws Exception {
+				handleChordJoinMessage(m);
+			}
+		});
+		dispatcher.register(UpdateDataEntryMessage.class,
+				new MessageDispatcher.Handler<UpdateDataEntryMessage>() {
+			public void handle(UpdateDataEntryMessage m) throws Exception {
+				handleUpdateDataEntryMessage(m);
+			}
+		});
+		dispatcher.register(RemoveDataEntryMessage.class,
+				new MessageDispatcher.Handler<RemoveDataEntryMessage>() {
+			public void handle(RemoveDataEntryMessage m) throws Exception {
+				handleRemoveDataEntryMessage(m);
+			}
+		});
+		dispatcher.register(GetPredecessorMessage.class,
+				new MessageDispatcher.Handler<GetPredecessorMessage>() {
+			public void handle(GetPredecessorMessage m) throws Exception {
+				handleGetPredecessorMessage(m);
+			}
+		});
+		dispatcher.register(StabilizationAlgorithmMessage.class,
+				new MessageDispatcher.Handler<StabilizationAlgorithmMessage>() {
+			public void handle(StabilizationAlgorithmMessage m) throws Exception {
+				stab.handleStabilizationAlgorithmMessage(m);
+			}
+		});
+		dispatcher.register(SetPredecessorMessage.class,
+				new MessageDispatcher.Handler<SetPredecessorMessage>() {
+			public void handle(SetPredecessorMessage m) throws Exception {
+				handleSetPredecessorMessage(m);
+			}
+		});
+		dispatcher.register(TriggerStabilization.class,
+				new MessageDispatcher.Handler<TriggerStabilization>() {
+			public void handle(TriggerStabilization m) throws Exception {
+				handleTriggerStabilization(m);
+			}
+		});
+		dispatcher.register(SetDataMessage.class,
+				new MessageDispatcher.Handler<SetDataMessage>() {
+			public void handle(SetDataMessage m) throws Exception {
+				handleSetDataMessage(m);
+			}
+		});
+		dispatcher.register(BrokenDA.class,
+				new MessageDispatcher.Handler<BrokenDA>() {
+			public void handle(BrokenDA m) throws Exception {
+				handleBrokenDA(m);
+			}
+		});
+		dispatcher.register(SetSuccessorsMessage.class,
+				new MessageDispatcher.Handler<SetSuccessorsMessage>() {
+			public void handle(SetSuccessorsMessage m) throws Exception {
+				handleSetSuccessorsMessage(m);
+			}
+		});
+		dispatcher.register(ReplicateDataMessage.class,
+				new MessageDispatcher.Handler<ReplicateDataMessage>() {
+			public void handle(ReplicateDataMessage m) throws Exception {
+				handleReplicateDataMessage(m);
+			}
+		});
+		dispatcher.register(RemoveReplicaMessage.class,
+				new MessageDispatcher.Handler<RemoveReplicaMessage>() {
+			public void handle(RemoveReplicaMessage m) throws Exception {
+				handleRemoveReplicaMessage(m);
+			}
+		});
+		dispatcher.register(TriggerCallRouting.class,
+				new MessageDispatcher.Handler<TriggerCallRouting>() {
+			public void handle(TriggerCallRouting m) throws Exception {
+				handleTriggerCallRouting(m);
+			}
+		});
+		dispatcher.register(RoutingTO.class,
+				new MessageDispatcher.Handler<RoutingTO>() {
+			public void handle(RoutingTO m) throws Exception {
+				routing.signalTO(m);
+			}
+		});
+		dispatcher.register(RequestTO.class,
+				new MessageDispatcher.Handler<RequestTO>() {
+			public void handle(RequestTO m) throws Exception {
+				if(currentCallState != null)
+					currentCallState.signalTO(m);
+			}
+		});
 	}
 	
 	@Override
@@ -138,6 +269,9 @@ public class ChordAgent extends AbstractSharedMapAgent implements MOSCallBack {
 			AsynchronousCall call = it.next();
 			call.signalError(new Exception("DMap agent closed"));
 		}
+		if(stabTimer != null)
+			stabTimer.cancel();
+		agentPrintMessage("Handled messages: "+dispatcher);
 		agentPrintMessage("exit");
 	}
 
@@ -153,51 +287,7 @@ public class ChordAgent extends AbstractSharedMapAgent implements MOSCallBack {
 
 	@Override
 	protected void handleSpecificMessage(Object o) throws Exception {
-		if(o instanceof GetNextHopMessage) {
-			handleGetNextHopMessage((GetNextHopMessage) o);
-		} else if(o instanceof RoutingResultMessage) {
-			routing.handleRoutingResultMessage((RoutingResultMessage) o);
-		} else if(o instanceof GetDataEntryMessage) {
-			handleGetDataEntryMessage((GetDataEntryMessage) o);
-		} else if(o instanceof PutDataEntryMessage) {
-			handlePutDataEntryMessage((PutDataEntryMessage) o);
-		} else if(o instanceof CallStateMessage) {
-			handleCallStateMessage((CallStateMessage) o);
-		} else if(o instanceof ChordJoinMessage) {
-			handleChordJoinMessage((ChordJoinMessage) o);
-		} else if(o instanceof UpdateDataEntryMessage) {
-			handleUpdateDataEntryMessage((UpdateDataEntryMessage) o);
-		} else if(o instanceof RemoveDataEntryMessage) {
-			handleRemoveDataEntryMessage((RemoveDataEntryMessage) o);
-		} else if(o instanceof GetPredecessorMessage) {
-			handleGetPredecessorMessage((GetPredecessorMessage) o);
-		} else if(o instanceof StabilizationAlgorithmMessage) {
-			stab.handleStabilizationAlgorithmMessage((StabilizationAlgorithmMessage) o);
-		} else if(o instanceof SetPredecessorMessage) {
-			handleSetPredecessorMessage((SetPredecessorMessage) o);
-		} else if(o instanceof TriggerStabilization) {
-			handleTriggerStabilization((TriggerStabilization) o);
-		} else if(o instanceof SetDataMessage) {
-			handleSetDataMessage((SetDataMessage) o);
-		} else if(o instanceof BrokenDA) {
-			handleBrokenDA((BrokenDA) o);
-		} else if(o instanceof SetSuccessorsMessage) {
-			handleSetSuccessorsMessage((SetSuccessorsMessage) o);
-		} else if(o instanceof ReplicateDataMessage) {
-			handleReplicateDataMessage((ReplicateDataMessage) o);
-		} else if(o instanceof RemoveReplicaMessage) {
-			handleRemoveReplicaMessage((RemoveReplicaMessage) o);
-		} else if(o instanceof TriggerCallRouting) {
-			handleTriggerCallRouting((TriggerCallRouting) o);
-		} else if(o instanceof RoutingTO) {
-			routing.signalTO((RoutingTO) o);
-		} else if(o instanceof RequestTO) {
-			if(currentCallState != null) {
-				currentCallState.signalTO((RequestTO) o);
-			}
-		} else {
-			throw new UnknownAgentMessage(o);
-		}
+		dispatcher.dispatchOrFail(o);
 	}
 
 	private void handleTriggerCallRouting(TriggerCallRouting o) {
@@ -616,16 +706,10 @@ public class ChordAgent extends AbstractSharedMapAgent implements MOSCallBack {
 	}
 
 	public void scheduleStabilization() {
-		stabTimer = new Timer(true);
-		stabTimer.schedule(new TimerTask() {
-			public void run() {
-				try {
-					submitMessage(new TriggerStabilization());
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		}, stabPeriod, stabPeriod);
+		if(stabTimer != null)
+			stabTimer.cancel();
+		stabTimer = scheduleMessageAtFixedRate(new TriggerStabilization(),
+				stabPeriod, stabPeriod);
 	}
 
 	@Override
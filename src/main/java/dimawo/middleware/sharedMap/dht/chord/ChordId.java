@@ -21,6 +21,9 @@
  */
 package dimawo.middleware.sharedMap.dht.chord;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.MessageDigest;
@@ -49,6 +52,45 @@ public class ChordId implements Serializable, Comparable<ChordId> {
 	public ChordId(DAId id) {
 		this(id.toString());
 	}
+	
+	private ChordId(BigInteger key) {
+		this.key = key;
+	}
+	
+	/**
+	 * Writes a Chord ID, which may be null, in a compact form.
+	 * 
+	 * @param id A Chord ID or null.
+	 * @param out The output.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static void write(ChordId id, DataOutput out) throws IOException {
+		if(id == null) {
+			out.writeByte(-1);
+		} else {
+			byte[] b = id.key.toByteArray();
+			out.writeByte(b.length);
+			out.write(b);
+		}
+	}
+	
+	/**
+	 * Reads a Chord ID written by {@link #write(ChordId, DataOutput)}.
+	 * 
+	 * @param in The input.
+	 * @return A Chord ID or null.
+	 * 
+	 * @throws IOException If an I/O error occurred.
+	 */
+	public static ChordId read(DataInput in) throws IOException {
+		int len = in.readByte();
+		if(len < 0)
+			return null;
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return new ChordId(new BigInteger(b));
+	}
 
 	/**
 	 * Low exclusive, up inclusive.
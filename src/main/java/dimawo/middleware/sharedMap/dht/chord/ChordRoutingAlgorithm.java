@@ -21,13 +21,12 @@
  */
 package dimawo.middleware.sharedMap.dht.chord;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.sharedMap.dht.chord.events.RoutingTO;
 import dimawo.middleware.sharedMap.dht.chord.messages.GetNextHopMessage;
 import dimawo.middleware.sharedMap.dht.chord.messages.RoutingResultMessage;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
 
 
 
@@ -35,7 +34,7 @@ public class ChordRoutingAlgorithm {
 	private ChordAgent agent;
 	
 	private int toId;
-	private Timer toTimer;
+	private Timeout toTimer;
 	
 	private int nHops;
 	private DAId nextHopFrom;
@@ -67,12 +66,11 @@ public class ChordRoutingAlgorithm {
 		if(toTimer != null)
 			throw new Error("TO timer already set");
 		
-		++toId;
+		final int id = ++toId;
 		
-		toTimer = new Timer(true);
-		toTimer.schedule(new TimerTask() {
+		toTimer = TimerWheel.getSharedWheel().schedule(new Runnable() {
 			public void run() {
-				agent.submitRoutingTO(toId);
+				agent.submitRoutingTO(id);
 			}
 		}, 3000);
 	}
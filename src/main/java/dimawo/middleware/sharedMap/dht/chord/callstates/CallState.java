@@ -21,22 +21,21 @@
  */
 package dimawo.middleware.sharedMap.dht.chord.callstates;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import dimawo.agents.events.AsynchronousCall;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.sharedMap.dht.chord.ChordAgent;
 import dimawo.middleware.sharedMap.dht.chord.ChordTableEntry;
 import dimawo.middleware.sharedMap.dht.chord.events.RequestTO;
 import dimawo.middleware.sharedMap.dht.chord.messages.CallStateMessage;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
 
 
 
 public abstract class CallState {
 	private ChordAgent chordAgent;
 	private AsynchronousCall call;
-	private Timer toTimer;
+	private Timeout toTimer;
 
 	public CallState(ChordAgent chordAgent, AsynchronousCall call) {
 		this.chordAgent = chordAgent;
@@ -51,8 +50,7 @@ public abstract class CallState {
 		if(toTimer != null)
 			throw new Error("TO timer already set");
 		
-		toTimer = new Timer(true);
-		toTimer.schedule(new TimerTask() {
+		toTimer = TimerWheel.getSharedWheel().schedule(new Runnable() {
 			public void run() {
 				chordAgent.submitCallRequestTO(callType, dest, key);
 			}
@@ -21,6 +21,12 @@
  */
 package dimawo.middleware.sharedMap.dht.chord.messages;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import dimawo.middleware.communication.AbstractMessageCodec;
+import dimawo.middleware.communication.Message;
 import dimawo.middleware.distributedAgent.DAId;
 import dimawo.middleware.sharedMap.dht.chord.ChordId;
 
@@ -38,4 +44,25 @@ public class GetNextHopMessage extends ChordAgentMessage {
 	public ChordId getSearchedForKey() {
 		return toFind;
 	}
+	
+	/**
+	 * The codec of next hop requests.
+	 */
+	public static class Codec extends AbstractMessageCodec {
+		@Override
+		protected void encodeBody(Message m, ObjectOutput out) throws IOException {
+			GetNextHopMessage msg = (GetNextHopMessage) m;
+			ChordId.write(msg.getChordFrom(), out);
+			ChordId.write(msg.getChordTo(), out);
+			ChordId.write(msg.toFind, out);
+		}
+
+		@Override
+		protected Message decodeBody(ObjectInput in) throws IOException {
+			ChordId chordFrom = ChordId.read(in);
+			ChordId chordTo = ChordId.read(in);
+			ChordId toFind = ChordId.read(in);
+			return new GetNextHopMessage(null, chordFrom, chordTo, toFind);
+		}
+	}
 }
@@ -21,14 +21,14 @@
  */
 package dimawo.middleware.stabilizer;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import dimawo.timer.Timeout;
+import dimawo.timer.TimerWheel;
 
 public class Stabilizer {
 	private StabilizerCallbackInterface cbInt;
 	
 	private long waitTime;
-	private Timer stabTimer;
+	private Timeout stabTimer;
 	private boolean isClosed;
 	
 	public Stabilizer(long stabTimeout, StabilizerCallbackInterface cbInt) {
@@ -39,8 +39,8 @@ public class Stabilizer {
 	}
 	
 	public synchronized void startStabilizer() {
-		stabTimer = new Timer("Stabilizer timer", true);
-		stabTimer.schedule(new TimerTask() {
+		// Callbacks must not delay the other time-outs of the wheel
+		stabTimer = TimerWheel.getSharedWheel().scheduleBlocking(new Runnable() {
 			public void run() {
 				stabTimer = null;
 				timeOutHandling();
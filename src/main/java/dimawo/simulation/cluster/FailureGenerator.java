@@ -21,9 +21,6 @@
  */
 package dimawo.simulation.cluster;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import dimawo.simulation.FailureParameters;
 
 
@@ -38,18 +35,29 @@ public class FailureGenerator {
 	}
 	
 	public void start() {
-		Timer t = new Timer(true);
-		TimerTask task = new TimerTask() {
+		final int period = params.getPeriod();
+		final int delay = params.getDelay();
+		if(delay <= 0 || period < 0)
+			return;
+		
+		// Failing a host blocks until its agents are stopped: failures
+		// are therefore generated by a dedicated thread and not by the
+		// shared timer wheel. Periods are fixed-delay.
+		Thread t = new Thread("FailureGenerator") {
+			@Override
 			public void run() {
-				cluster.fail(1);
+				try {
+					Thread.sleep(delay);
+					cluster.fail(1);
+					while(period > 0) {
+						Thread.sleep(period);
+						cluster.fail(1);
+					}
+				} catch (InterruptedException e) {
+				}
 			}
 		};
-		
-		int period = params.getPeriod();
-		int delay = params.getDelay();
-		if(period == 0 && delay > 0)
-			t.schedule(task, delay);
-		else if(period > 0 && delay > 0)
-			t.schedule(task, delay, period);
+		t.setDaemon(true);
+		t.start();
 	}
 }
@@ -28,6 +28,7 @@ import java.util.Random;
 import java.util.TreeMap;
 
 import dimawo.agents.LoggingAgent;
+import dimawo.agents.MessageDispatcher;
 import dimawo.agents.UnknownAgentMessage;
 import dimawo.exec.WorkerParameters;
 import dimawo.exec.WorkerProcess;
@@ -79,6 +80,8 @@ public class VirtualHost extends LoggingAgent {
 	private TreeMap<Integer, ProcessHandle> procHandles;
 
 	private VirtualTask runningTask;
+	
+	private MessageDispatcher networkEvents;
 
 	
 	public VirtualHost(String hostname, VirtualNetwork net) throws NetworkException {
@@ -95,9 +98,57 @@ public class VirtualHost extends LoggingAgent {
 		nextProcID = 0;
 		procHandles = new TreeMap<Integer, ProcessHandle>();
 		
+		networkEvents = new MessageDispatcher();
+		registerNetworkEventHandlers();
+		
 		net.connectHost(this);
 	}
 	
+	private void registerNetworkEventHandlers() {
+		networkEvents.register(ConnectEvent.class,
+				new MessageDispatcher.Handler<ConnectEvent>() {
+			public void handle(ConnectEvent m) throws Exception {
+				handleConnectEvent(m);
+			}
+		});
+		networkEvents.register(DataEvent.class,
+				new MessageDispatcher.Handler<DataEvent>() {
+			public void handle(DataEvent m) throws Exception {
+				handleDataEvent(m);
+			}
+		});
+		networkEvents.register(CloseServerSocket.class,
+				new MessageDispatcher.Handler<CloseServerSocket>() {
+			public void handle(CloseServerSocket m) throws Exception {
+				handleCloseServerSocket(m);
+			}
+		});
+		networkEvents.register(CloseSocket.class,
+				new MessageDispatcher.Handler<CloseSocket>() {
+			public void handle(CloseSocket m) throws Exception {
+				handleCloseSocket(m);
+			}
+		});
+		networkEvents.register(SignalCloseSocket.class,
+				new MessageDispatcher.Handler<SignalCloseSocket>() {
+			public void handle(SignalCloseSocket m) throws Exception {
+				handleSignalCloseSocket(m);
+			}
+		});
+		networkEvents.register(NewServerSocketEvent.class,
+				new MessageDispatcher.Handler<NewServerSocketEvent>() {
+			public void handle(NewServerSocketEvent m) throws Exception {
+				handleNewServerSocket(m);
+			}
+		});
+		networkEvents.register(NewSocketEvent.class,
+				new MessageDispatcher.Handler<NewSocketEvent>() {
+			public void handle(NewSocketEvent m) throws Exception {
+				handleNewSocket(m);
+			}
+		});
+	}
+	
 	public static void enableLog() {
 		log = true;
 	}
@@ -106,6 +157,10 @@ public class VirtualHost extends LoggingAgent {
 		log = false;
 	}
 	
+	public static boolean isLogEnabled() {
+		return log;
+	}
+	
 	public String getHostName() {
 		return hostname;
 	}
@@ -143,24 +198,9 @@ public class VirtualHost extends LoggingAgent {
 		}
 	}
 
-	private void handleNetworkEvent(NetworkEvent ne) throws NetworkException {
-		if(ne instanceof ConnectEvent) {
-			handleConnectEvent((ConnectEvent) ne);
-		} else if(ne instanceof DataEvent) {
-			handleDataEvent((DataEvent) ne);
-		} else if(ne instanceof CloseServerSocket) {
-			handleCloseServerSocket((CloseServerSocket) ne);
-		} else if(ne instanceof CloseSocket) {
-			handleCloseSocket((CloseSocket) ne);
-		} else if(ne instanceof SignalCloseSocket) {
-			handleSignalCloseSocket((SignalCloseSocket) ne);
-		} else if(ne instanceof NewServerSocketEvent) {
-			handleNewServerSocket((NewServerSocketEvent) ne);
-		} else if(ne instanceof NewSocketEvent) {
-			handleNewSocket((NewSocketEvent) ne);
-		} else {
+	private void handleNetworkEvent(NetworkEvent ne) throws Exception {
+		if( ! networkEvents.dispatch(ne))
 			throw new NetworkException("Unknown event: "+ne.getClass().getName());
-		}
 	}
 	
 	private void handleCloseServerSocket(CloseServerSocket css) {
@@ -466,7 +506,7 @@ public class VirtualHost extends LoggingAgent {
 		}
 	}
 
-	public synchronized void printMessage(String msg) {
+	public void printMessage(String msg) {
 		if( ! log)
 			return;
 		agentPrintMessage(System.currentTimeMillis()+"-- [VirtualHost "+hostname+"] "+msg);
@@ -24,6 +24,7 @@ package dimawo.simulation.host.events;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import dimawo.agents.AgentScheduler;
 import dimawo.simulation.host.TimeoutException;
 import dimawo.simulation.net.NetworkException;
 
@@ -42,12 +43,24 @@ public class NetworkEvent {
 	}
 	
 	public void waitOn() throws InterruptedException {
-		waitSem.acquire();
+		AgentScheduler.beginBlocking();
+		try {
+			waitSem.acquire();
+		} finally {
+			AgentScheduler.endBlocking();
+		}
 		waitSem.release(); // If several threads are waiting.
 	}
 	
 	public void waitOn(long timeout) throws TimeoutException, InterruptedException {
-		if( ! waitSem.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+		boolean acquired;
+		AgentScheduler.beginBlocking();
+		try {
+			acquired = waitSem.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} finally {
+			AgentScheduler.endBlocking();
+		}
+		if( ! acquired) {
 			throw new TimeoutException();
 		}
 	}
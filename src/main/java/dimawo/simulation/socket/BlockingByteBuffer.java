@@ -28,6 +28,7 @@ import java.util.LinkedList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import dimawo.simulation.host.VirtualHost;
 import dimawo.simulation.host.events.DataEvent;
 
 
@@ -172,7 +173,8 @@ public class BlockingByteBuffer {
 				return len - rem;
 
 			try {
-				sock.printMessage("Waiting packet (rem="+rem+") #"+num);
+				if(VirtualHost.isLogEnabled())
+					sock.printMessage("Waiting packet (rem="+rem+") #"+num);
 				if(timeout == 0) {
 					available.acquire();
 				} else {
@@ -41,6 +41,15 @@ public class SocketFactory {
 		this.host = host;
 	}
 	
+	/**
+	 * Tells if the sockets created by this factory are simulated.
+	 * 
+	 * @return True if sockets are simulated, false if they are real sockets.
+	 */
+	public boolean isVirtual() {
+		return host != null;
+	}
+	
 	public String getHostName() throws UnknownHostException {
 		if(host != null)
 			return host.getHostName();
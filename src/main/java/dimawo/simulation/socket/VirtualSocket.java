@@ -211,6 +211,8 @@ public class VirtualSocket implements SocketInterface {
 	}
 	
 	public void printMessage(String msg) {
+		if( ! VirtualHost.isLogEnabled())
+			return;
 		host.printMessage("[VirtualSocket "+host.getHostName()+":"+localPort+"] "+ msg);
 	}
 
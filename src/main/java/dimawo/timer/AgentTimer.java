@@ -21,13 +21,10 @@
  */
 package dimawo.timer;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 public class AgentTimer {
 
-	/** Current Timer (if any). */
-	private Timer timer;
+	/** Current time-out (if any). */
+	private Timeout timer;
 	/** Agent to be notified in case of time-out. */
 	private TimedAgent ta;
 
@@ -56,8 +53,7 @@ public class AgentTimer {
 
 		privateCancel();
 
-		timer = new Timer("ResourceGraphBuilder timer", true);
-		timer.schedule(new TimerTask() {
+		timer = TimerWheel.getSharedWheel().schedule(new Runnable() {
 
 			public void run() {
 
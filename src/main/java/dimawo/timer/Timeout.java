@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.timer;
+
+
+/**
+ * A time-out scheduled on a {@link TimerWheel}. A time-out can be canceled
+ * in constant time.
+ * 
+ * @author Gerard Dethier
+ */
+public class Timeout {
+
+	/** The wheel this time-out is scheduled on. */
+	private TimerWheel wheel;
+	/** The task to execute when the time-out expires. */
+	Runnable task;
+	/** Period in ticks of a periodic time-out, 0 for a one-shot time-out. */
+	long periodTicks;
+	/** The tick at which the time-out expires. */
+	long deadline;
+	/** Number of wheel rotations before the time-out expires. */
+	long remainingRounds;
+	/** Indicates if the time-out was canceled. */
+	boolean canceled;
+	/** Indicates if the task of the time-out was executed at least once. */
+	boolean fired;
+
+	/** The bucket the time-out is currently in (null if not in a bucket). */
+	TimerWheel.Bucket bucket;
+	/** Previous time-out in bucket. */
+	Timeout prev;
+	/** Next time-out in bucket. */
+	Timeout next;
+
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param wheel The wheel the time-out is scheduled on.
+	 * @param task The task to execute when the time-out expires.
+	 * @param periodTicks Period in ticks (0 for a one-shot time-out).
+	 */
+	Timeout(TimerWheel wheel, Runnable task, long periodTicks) {
+		this.wheel = wheel;
+		this.task = task;
+		this.periodTicks = periodTicks;
+	}
+
+	/**
+	 * Cancels this time-out. If the time-out is periodic, no more expiration
+	 * will occur.
+	 * 
+	 * @return True if the time-out was canceled, false if it was already
+	 * canceled or, for a one-shot time-out, already expired.
+	 */
+	public boolean cancel() {
+		return wheel.cancel(this);
+	}
+
+	/**
+	 * Tells if this time-out was canceled.
+	 * 
+	 * @return True if the time-out was canceled.
+	 */
+	public boolean isCanceled() {
+		synchronized(wheel) {
+			return canceled;
+		}
+	}
+
+}
@@ -0,0 +1,401 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.timer;
+
+import java.util.ArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A hashed timing wheel executing one-shot and periodic time-outs.
+ * <p>
+ * Time is divided in ticks of fixed duration. The wheel is an array of
+ * buckets, a time-out expiring at tick <i>t</i> being inserted into
+ * bucket <i>t mod wheelSize</i> (if the expiration is more than one rotation
+ * away, the time-out also counts the remaining rotations). Scheduling and
+ * canceling a time-out are constant time operations. A single thread
+ * advances the wheel and executes the tasks of expired time-outs. These tasks
+ * should therefore be short and non-blocking, typically the submission of
+ * a message to an agent (see
+ * {@link dimawo.agents.AbstractAgent#scheduleMessage(Object, long)}). Tasks
+ * that may block are scheduled with {@link #scheduleBlocking(Runnable, long)}:
+ * they are handed off to a pool of daemon threads when they expire.
+ * <p>
+ * A time-out never expires before its delay and the expiration may be
+ * delayed by at most one tick (plus the time the wheel thread is late). A
+ * shared wheel, used by all DiMaWo components, is given by
+ * {@link #getSharedWheel()}.
+ * 
+ * @author Gerard Dethier
+ */
+public class TimerWheel implements Runnable {
+
+	/** Default duration of a tick of the shared wheel in milliseconds. */
+	public static final long DEFAULT_TICK_DURATION = 20;
+	/** Default number of buckets of the shared wheel. */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/** The shared wheel. */
+	private static TimerWheel sharedWheel;
+	/** The threads executing the tasks that may block. */
+	private static ThreadPoolExecutor blockingPool;
+
+
+	/** A bucket of the wheel: a doubly linked list of time-outs. */
+	static class Bucket {
+		/** First time-out of the bucket. */
+		Timeout head;
+		/** Last time-out of the bucket. */
+		Timeout tail;
+	}
+
+	/** Name of the thread advancing the wheel. */
+	private String name;
+	/** Duration of a tick in milliseconds. */
+	private long tickDuration;
+	/** The buckets of the wheel. */
+	private Bucket[] wheel;
+	/** Mask used to compute a bucket index from a tick. */
+	private int mask;
+	/** The last tick that was processed. */
+	private long currentTick;
+	/** Time at which the wheel was started (in nanoseconds). */
+	private long startTime;
+	/** The thread advancing the wheel. */
+	private Thread wheelThread;
+
+
+	/**
+	 * Returns the shared wheel. It is instantiated on the first call.
+	 * 
+	 * @return The shared wheel.
+	 */
+	public static synchronized TimerWheel getSharedWheel() {
+		if(sharedWheel == null)
+			sharedWheel = new TimerWheel("TimerWheel",
+					DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+		return sharedWheel;
+	}
+
+
+	/**
+	 * Instantiates a wheel. The thread advancing the wheel is started when
+	 * the first time-out is scheduled.
+	 * 
+	 * @param name The name of the thread advancing the wheel.
+	 * @param tickDuration The duration of a tick in milliseconds.
+	 * @param wheelSize The number of buckets of the wheel. This value is
+	 * rounded to the next power of 2.
+	 */
+	public TimerWheel(String name, long tickDuration, int wheelSize) {
+		if(tickDuration <= 0)
+			throw new IllegalArgumentException("Tick duration must be positive");
+		if(wheelSize <= 0)
+			throw new IllegalArgumentException("Wheel size must be positive");
+
+		this.name = name;
+		this.tickDuration = tickDuration;
+
+		int size = 1;
+		while(size < wheelSize)
+			size <<= 1;
+		wheel = new Bucket[size];
+		for(int i = 0; i < size; ++i)
+			wheel[i] = new Bucket();
+		mask = size - 1;
+	}
+
+
+	/**
+	 * Schedules a one-shot time-out.
+	 * 
+	 * @param task The task to execute when the time-out expires.
+	 * @param delay The delay in milliseconds before the time-out expires.
+	 * 
+	 * @return The time-out.
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Timeout to = new Timeout(this, task, 0);
+		synchronized(this) {
+			startIfNeeded();
+			insert(to, deadlineOf(delay));
+		}
+		return to;
+	}
+
+	/**
+	 * Schedules a one-shot time-out whose task may block. When the time-out
+	 * expires, the task is executed by a pool of daemon threads instead of
+	 * the thread advancing the wheel, the other time-outs being therefore
+	 * not delayed.
+	 * 
+	 * @param task The task to execute when the time-out expires.
+	 * @param delay The delay in milliseconds before the time-out expires.
+	 * 
+	 * @return The time-out.
+	 */
+	public Timeout scheduleBlocking(final Runnable task, long delay) {
+		return schedule(new Runnable() {
+			@Override
+			public void run() {
+				getBlockingPool().execute(task);
+			}
+		}, delay);
+	}
+
+	/**
+	 * Schedules a periodic time-out.
+	 * 
+	 * @param task The task to execute each time the time-out expires.
+	 * @param delay The delay in milliseconds before the first expiration.
+	 * @param period The delay in milliseconds between two expirations.
+	 * 
+	 * @return The time-out.
+	 */
+	public Timeout scheduleAtFixedRate(Runnable task, long delay, long period) {
+		if(period <= 0)
+			throw new IllegalArgumentException("Period must be positive");
+		Timeout to = new Timeout(this, task, toTicks(period));
+		synchronized(this) {
+			startIfNeeded();
+			insert(to, deadlineOf(delay));
+		}
+		return to;
+	}
+
+
+	private static synchronized ThreadPoolExecutor getBlockingPool() {
+		if(blockingPool == null) {
+			blockingPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+				10, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					private int nextId = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "TimerWheel-task-"+(nextId++));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		return blockingPool;
+	}
+
+
+	/**
+	 * Cancels a time-out.
+	 * 
+	 * @param to The time-out.
+	 * 
+	 * @return True if the time-out was canceled, false if it had already
+	 * been canceled or had expired.
+	 */
+	synchronized boolean cancel(Timeout to) {
+		if(to.canceled || (to.fired && to.periodTicks == 0))
+			return false;
+		to.canceled = true;
+		if(to.bucket != null)
+			unlink(to);
+		return true;
+	}
+
+
+	/////////////////////////////
+	// Runnable implementation //
+	/////////////////////////////
+
+	/**
+	 * The loop advancing the wheel.
+	 */
+	@Override
+	public void run() {
+		ArrayList<Timeout> expired = new ArrayList<Timeout>();
+		while(true) {
+			try {
+				waitNextTick();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			synchronized(this) {
+				++currentTick;
+				collectExpired(wheel[(int) (currentTick & mask)], expired);
+			}
+
+			for(int i = 0; i < expired.size(); ++i) {
+				Timeout to = expired.get(i);
+				synchronized(this) {
+					if(to.canceled)
+						continue;
+					to.fired = true;
+				}
+				try {
+					to.task.run();
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+
+				if(to.periodTicks > 0) {
+					synchronized(this) {
+						if( ! to.canceled)
+							insert(to, to.deadline + to.periodTicks);
+					}
+				}
+			}
+			expired.clear();
+		}
+	}
+
+
+	/////////////////////
+	// Private methods //
+	/////////////////////
+
+	/**
+	 * Converts a delay in milliseconds into a number of ticks (at least 1).
+	 * 
+	 * @param delay A delay in milliseconds.
+	 * 
+	 * @return A number of ticks.
+	 */
+	private long toTicks(long delay) {
+		long ticks = (delay + tickDuration - 1) / tickDuration;
+		return ticks < 1 ? 1 : ticks;
+	}
+
+	/**
+	 * Computes the tick at which a time-out scheduled now with given delay
+	 * expires. The computation is based on elapsed time rather than on
+	 * current tick (which may be late) and rounds up the partially elapsed
+	 * tick, so that a time-out never expires before its delay.
+	 * Must be called with wheel's lock, after the wheel was started.
+	 * 
+	 * @param delay A delay in milliseconds.
+	 * 
+	 * @return A tick.
+	 */
+	private long deadlineOf(long delay) {
+		long now = (System.nanoTime() - startTime) / (tickDuration * 1000000L);
+		return now + toTicks(delay) + 1;
+	}
+
+	/**
+	 * Starts the thread advancing the wheel if not already done.
+	 * Must be called with wheel's lock.
+	 */
+	private void startIfNeeded() {
+		if(wheelThread == null) {
+			startTime = System.nanoTime();
+			wheelThread = new Thread(this, name);
+			wheelThread.setDaemon(true);
+			wheelThread.start();
+		}
+	}
+
+	/**
+	 * Waits until the time of the tick following current tick has come.
+	 * If the wheel is late, this method returns immediately.
+	 * 
+	 * @throws InterruptedException If the thread was interrupted.
+	 */
+	private void waitNextTick() throws InterruptedException {
+		long nextTick;
+		synchronized(this) {
+			nextTick = currentTick + 1;
+		}
+		long deadline = startTime + nextTick * tickDuration * 1000000L;
+		long sleepTime = (deadline - System.nanoTime()) / 1000000L;
+		if(sleepTime > 0)
+			Thread.sleep(sleepTime);
+	}
+
+	/**
+	 * Inserts a time-out into the wheel. Must be called with wheel's lock.
+	 * 
+	 * @param to The time-out.
+	 * @param deadline The tick at which the time-out expires (must be
+	 * greater than current tick).
+	 */
+	private void insert(Timeout to, long deadline) {
+		if(deadline <= currentTick)
+			deadline = currentTick + 1;
+		to.deadline = deadline;
+		to.remainingRounds = (deadline - currentTick - 1) / wheel.length;
+
+		Bucket b = wheel[(int) (deadline & mask)];
+		to.bucket = b;
+		to.next = null;
+		to.prev = b.tail;
+		if(b.tail == null)
+			b.head = to;
+		else
+			b.tail.next = to;
+		b.tail = to;
+	}
+
+	/**
+	 * Removes a time-out from its bucket. Must be called with wheel's lock.
+	 * 
+	 * @param to The time-out.
+	 */
+	private void unlink(Timeout to) {
+		Bucket b = to.bucket;
+		if(to.prev == null)
+			b.head = to.next;
+		else
+			to.prev.next = to.next;
+		if(to.next == null)
+			b.tail = to.prev;
+		else
+			to.next.prev = to.prev;
+		to.prev = null;
+		to.next = null;
+		to.bucket = null;
+	}
+
+	/**
+	 * Removes expired time-outs from a bucket and decrements the rounds
+	 * counter of the other ones. Must be called with wheel's lock.
+	 * 
+	 * @param b The bucket.
+	 * @param expired The list expired time-outs are added to.
+	 */
+	private void collectExpired(Bucket b, ArrayList<Timeout> expired) {
+		Timeout to = b.head;
+		while(to != null) {
+			Timeout next = to.next;
+			if(to.remainingRounds <= 0) {
+				unlink(to);
+				expired.add(to);
+			} else {
+				--to.remainingRounds;
+			}
+			to = next;
+		}
+	}
+
+}
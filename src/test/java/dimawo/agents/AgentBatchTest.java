@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import dimawo.agents.AbstractAgent.ExecutionMode;
+
+public class AgentBatchTest extends TestCase {
+
+	/**
+	 * An agent recording handled messages. Its initialization waits until
+	 * the test has queued all messages so that they are taken in a single
+	 * batch.
+	 */
+	private static class RecordingAgent extends AbstractAgent {
+		private final CountDownLatch queued = new CountDownLatch(1);
+		private final List<Object> events;
+		private LinkedList<Object> remainder;
+
+		public RecordingAgent(ErrorHandler parent, List<Object> events,
+				ExecutionMode mode) throws AgentException {
+			super(parent, "RecordingAgent");
+			this.events = events;
+			setBatchSize(16);
+			setExecutionMode(mode);
+			setVerbosityLevel(1);
+			// Errors are expected: their stack traces are not printed
+			setPrintStream(new PrintStream(new ByteArrayOutputStream()));
+		}
+
+		public void queue(Object... messages) throws InterruptedException {
+			for(Object o : messages)
+				submitMessage(o);
+		}
+
+		@Override
+		protected void init() throws Throwable {
+			queued.await();
+		}
+
+		@Override
+		protected void handleMessage(Object o) throws Throwable {
+			events.add(o);
+		}
+
+		@Override
+		protected void exit() {
+			remainder = flushPendingMessages();
+		}
+	}
+
+	/**
+	 * A child error queued in the normal lane: only the exact
+	 * {@link UncaughtThrowable} class goes through the high priority lane.
+	 */
+	private static class QueuedChildError extends UncaughtThrowable {
+		private static final long serialVersionUID = 1L;
+
+		public QueuedChildError() {
+			super(new Exception("Child error"), "child");
+		}
+	}
+
+	public void testStopInBatch() throws Exception {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			List<Object> events = Collections.synchronizedList(
+					new ArrayList<Object>());
+			RecordingAgent a = new RecordingAgent(null, events, mode);
+			a.start();
+			a.queue(1, 2, 3);
+			a.stop();
+			a.queue(4, 5);
+			a.queued.countDown();
+			a.join();
+
+			assertEquals(mode.toString(), Arrays.asList(1, 2, 3), events);
+			assertEquals(mode.toString(), Arrays.asList(4, 5), a.remainder);
+		}
+	}
+
+	public void testUnhandledChildErrorInBatch() throws Exception {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			List<Object> events = Collections.synchronizedList(
+					new ArrayList<Object>());
+			RecordingAgent a = new RecordingAgent(null, events, mode);
+			a.start();
+			a.queue(1, 2);
+			a.queue(new QueuedChildError());
+			a.queue(3, 4);
+			a.queued.countDown();
+			a.join();
+
+			// No parent: the error stops the agent
+			assertEquals(mode.toString(), Arrays.asList(1, 2), events);
+			assertEquals(mode.toString(), Arrays.asList(3, 4), a.remainder);
+		}
+	}
+
+	public void testForwardedChildErrorInBatch() throws Exception {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			final List<Object> events = Collections.synchronizedList(
+					new ArrayList<Object>());
+			ErrorHandler parent = new ErrorHandler() {
+				@Override
+				public void signalChildError(Throwable t,
+						String errorSourceId) {
+					events.add("error");
+				}
+			};
+			RecordingAgent a = new RecordingAgent(parent, events, mode);
+			a.start();
+			a.queue(1, 2);
+			a.queue(new QueuedChildError());
+			a.queue(3, 4);
+			a.stop();
+			a.queue(5);
+			a.queued.countDown();
+			a.join();
+
+			// The error is forwarded in queue order
+			assertEquals(mode.toString(),
+					Arrays.asList(1, 2, "error", 3, 4), events);
+			assertEquals(mode.toString(), Arrays.asList(5), a.remainder);
+		}
+	}
+
+	public void testUrgentChildErrorInBatch() throws Exception {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			final List<Object> events = Collections.synchronizedList(
+					new ArrayList<Object>());
+			ErrorHandler parent = new ErrorHandler() {
+				@Override
+				public void signalChildError(Throwable t,
+						String errorSourceId) {
+					events.add("error");
+				}
+			};
+			RecordingAgent a = new RecordingAgent(parent, events, mode);
+			a.start();
+			a.queue(1, 2);
+			a.signalChildError(new Exception("Child error"), "child");
+			a.stop();
+			a.queue(3);
+			a.queued.countDown();
+			a.join();
+
+			// Child errors overtake queued messages
+			assertEquals(mode.toString(), Arrays.asList("error", 1, 2),
+					events);
+			assertEquals(mode.toString(), Arrays.asList(3), a.remainder);
+		}
+	}
+
+	public void testErrorInBatch() throws Exception {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			List<Object> events = Collections.synchronizedList(
+					new ArrayList<Object>());
+			RecordingAgent a = new RecordingAgent(null, events, mode);
+			a.start();
+			a.queue(1);
+			a.submitError(new Exception("Error"));
+			a.queue(2, 3);
+			a.queued.countDown();
+			a.join();
+
+			assertEquals(mode.toString(), Arrays.asList(1), events);
+			assertEquals(mode.toString(), Arrays.asList(2, 3), a.remainder);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Measures the throughput of the mailbox implementations with several
+ * producers and a single consumer, the raw {@link LinkedBlockingQueue}
+ * being used as a baseline. The first rounds warm up the JIT. Usage:
+ * <code>MailboxBenchmark [producers [messages per producer [rounds]]]</code>.
+ * 
+ * @author Gerard Dethier
+ */
+public class MailboxBenchmark {
+
+	private interface Queue {
+		void put(Object o) throws InterruptedException;
+		Object take() throws InterruptedException;
+	}
+
+	private static Queue wrap(final BlockingQueue<Object> q) {
+		return new Queue() {
+			@Override
+			public void put(Object o) throws InterruptedException {
+				q.put(o);
+			}
+
+			@Override
+			public Object take() throws InterruptedException {
+				return q.take();
+			}
+		};
+	}
+
+	private static Queue wrap(final Mailbox mb) {
+		return new Queue() {
+			@Override
+			public void put(Object o) throws InterruptedException {
+				mb.put(o);
+			}
+
+			@Override
+			public Object take() throws InterruptedException {
+				return mb.take();
+			}
+		};
+	}
+
+	private static long run(final Queue q, int producers,
+			final int perProducer) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Object msg = new Object();
+		for(int p = 0; p < producers; ++p) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < perProducer; ++i)
+							q.put(msg);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		int total = producers * perProducer;
+		for(int i = 0; i < total; ++i)
+			q.take();
+		return (System.nanoTime() - begin) / 1000000;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		String[] names = {"LinkedBlockingQueue", "BlockingQueueMailbox",
+				"MpscMailbox", "ArrayMailbox(1024)"};
+		for(int r = 0; r < rounds; ++r) {
+			Queue[] queues = {
+				wrap(new LinkedBlockingQueue<Object>()),
+				wrap(new BlockingQueueMailbox(0)),
+				wrap(new MpscMailbox()),
+				wrap(new ArrayMailbox(1024))
+			};
+			StringBuilder sb = new StringBuilder("Round "+r+":");
+			for(int i = 0; i < queues.length; ++i) {
+				long ms = run(queues[i], producers, perProducer);
+				sb.append(" ").append(names[i]).append("=").append(ms).append("ms");
+			}
+			System.out.println(sb);
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class MailboxTest extends TestCase {
+
+	/**
+	 * Instantiates a mailbox of each implementation.
+	 * 
+	 * @param capacity The capacity of bounded mailboxes.
+	 */
+	private static Mailbox[] newMailboxes(int capacity) {
+		return new Mailbox[] {
+			new BlockingQueueMailbox(capacity),
+			new MpscMailbox(),
+			new ArrayMailbox(capacity)
+		};
+	}
+
+	private static String name(Mailbox mb) {
+		return mb.getClass().getSimpleName();
+	}
+
+	public void testFifo() throws InterruptedException {
+		for(Mailbox mb : newMailboxes(1024)) {
+			assertTrue(mb.isEmpty());
+			assertNull(mb.poll());
+			for(int i = 0; i < 1000; ++i)
+				mb.put(i);
+			assertFalse(mb.isEmpty());
+
+			for(int i = 0; i < 500; ++i)
+				assertEquals(name(mb), i, mb.poll());
+			ArrayList<Object> l = new ArrayList<Object>();
+			assertEquals(300, mb.drainTo(l, 300));
+			for(int i = 0; i < 300; ++i)
+				assertEquals(name(mb), 500 + i, l.get(i));
+			for(int i = 800; i < 1000; ++i)
+				assertEquals(name(mb), i, mb.take());
+			assertTrue(name(mb), mb.isEmpty());
+			assertNull(mb.poll());
+		}
+	}
+
+	public void testUrgentLane() throws InterruptedException {
+		for(Mailbox mb : newMailboxes(16)) {
+			mb.put("a");
+			mb.put("b");
+			mb.putUrgent("u1");
+			mb.put("c");
+			mb.putUrgent("u2");
+
+			assertEquals(name(mb), "u1", mb.poll());
+			assertEquals(name(mb), "u2", mb.take());
+			mb.putUrgent("u3");
+			ArrayList<Object> l = new ArrayList<Object>();
+			assertEquals(4, mb.drainTo(l, 10));
+			assertEquals(name(mb), "u3", l.get(0));
+			assertEquals(name(mb), "a", l.get(1));
+			assertEquals(name(mb), "b", l.get(2));
+			assertEquals(name(mb), "c", l.get(3));
+			assertTrue(name(mb), mb.isEmpty());
+		}
+	}
+
+	public void testUrgentWakesUpConsumer() throws InterruptedException {
+		for(final Mailbox mb : newMailboxes(16)) {
+			final Object[] taken = new Object[1];
+			Thread consumer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						taken[0] = mb.take();
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			consumer.start();
+			Thread.sleep(20);
+			mb.putUrgent("u");
+			consumer.join(5000);
+			assertFalse(name(mb), consumer.isAlive());
+			assertEquals(name(mb), "u", taken[0]);
+		}
+	}
+
+	public void testMultipleProducers() throws InterruptedException {
+		final int producers = 4;
+		final int perProducer = 20000;
+		for(final Mailbox mb : newMailboxes(64)) {
+			Thread[] threads = new Thread[producers];
+			for(int p = 0; p < producers; ++p) {
+				final int id = p;
+				threads[p] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for(int i = 0; i < perProducer; ++i) {
+								mb.put(new int[] {id, i});
+								if(i % 1000 == 0)
+									Thread.sleep(1); // Consumer may park
+							}
+						} catch (InterruptedException e) {
+						}
+					}
+				};
+				threads[p].start();
+			}
+
+			// Each producer's messages are taken in order, none is lost
+			int[] next = new int[producers];
+			long deadline = System.currentTimeMillis() + 30000;
+			for(int n = 0; n < producers * perProducer; ++n) {
+				assertTrue(name(mb)+": consumer not woken up",
+						System.currentTimeMillis() < deadline);
+				int[] m = (int[]) mb.take();
+				assertEquals(name(mb), next[m[0]], m[1]);
+				++next[m[0]];
+			}
+			for(Thread t : threads) {
+				t.join(5000);
+				assertFalse(t.isAlive());
+			}
+			assertTrue(name(mb), mb.isEmpty());
+		}
+	}
+
+	public void testBlockingWhenFull() throws InterruptedException {
+		Mailbox[] bounded = {
+			new BlockingQueueMailbox(4),
+			new ArrayMailbox(4)
+		};
+		for(final Mailbox mb : bounded) {
+			for(int i = 0; i < 4; ++i)
+				mb.put(i);
+
+			final AtomicBoolean inserted = new AtomicBoolean();
+			Thread producer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						mb.put(4);
+						inserted.set(true);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			producer.start();
+			producer.join(100);
+			assertTrue(name(mb), producer.isAlive());
+			assertFalse(name(mb), inserted.get());
+
+			// The urgent lane is not bounded
+			mb.putUrgent("u");
+			assertEquals(name(mb), "u", mb.poll());
+
+			assertEquals(name(mb), 0, mb.poll());
+			assertEquals(name(mb), 1, mb.poll());
+			producer.join(5000);
+			assertTrue(name(mb), inserted.get());
+			for(int i = 2; i < 5; ++i)
+				assertEquals(name(mb), i, mb.poll());
+			assertTrue(name(mb), mb.isEmpty());
+		}
+	}
+
+	public void testInterruptedConsumer() throws InterruptedException {
+		for(final Mailbox mb : newMailboxes(16)) {
+			final AtomicBoolean interrupted = new AtomicBoolean();
+			Thread consumer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						mb.take();
+					} catch (InterruptedException e) {
+						interrupted.set(true);
+					}
+				}
+			};
+			consumer.start();
+			TimeUnit.MILLISECONDS.sleep(20);
+			consumer.interrupt();
+			consumer.join(5000);
+			assertTrue(name(mb), interrupted.get());
+		}
+	}
+
+}
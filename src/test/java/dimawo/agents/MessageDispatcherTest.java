@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.agents;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class MessageDispatcherTest extends TestCase {
+
+	private interface Tagged {}
+	private static class Base {}
+	private static class Sub extends Base {}
+	private static class TaggedSub extends Sub implements Tagged {}
+	private static class Other {}
+
+	/** A handler recording the messages it handles, prefixed by a name. */
+	private static class Recorder implements MessageDispatcher.Handler<Object> {
+		private final String name;
+		private final ArrayList<String> log;
+
+		public Recorder(String name, ArrayList<String> log) {
+			this.name = name;
+			this.log = log;
+		}
+
+		@Override
+		public void handle(Object message) {
+			log.add(name+":"+message.getClass().getSimpleName());
+		}
+	}
+
+	public void testSubclassResolution() throws Exception {
+		ArrayList<String> log = new ArrayList<String>();
+		MessageDispatcher d = new MessageDispatcher();
+		d.register(Base.class, new Recorder("base", log));
+
+		assertTrue(d.dispatch(new Base()));
+		assertTrue(d.dispatch(new Sub()));
+		assertTrue(d.dispatch(new TaggedSub()));
+		assertEquals("[base:Base, base:Sub, base:TaggedSub]", log.toString());
+	}
+
+	public void testRegistrationOrder() throws Exception {
+		ArrayList<String> log = new ArrayList<String>();
+		MessageDispatcher d = new MessageDispatcher();
+		// Same as: if(o instanceof Tagged) ... else if(o instanceof Base) ...
+		// else if(o instanceof Sub) ...
+		d.register(Tagged.class, new Recorder("tagged", log));
+		d.register(Base.class, new Recorder("base", log));
+		d.register(Sub.class, new Recorder("sub", log));
+
+		d.dispatch(new TaggedSub());
+		d.dispatch(new Sub());
+		d.dispatch(new Base());
+		// Second dispatch of each class goes through the table
+		d.dispatch(new TaggedSub());
+		d.dispatch(new Sub());
+		assertEquals("[tagged:TaggedSub, base:Sub, base:Base, " +
+				"tagged:TaggedSub, base:Sub]", log.toString());
+
+		// A later registration does not affect already matched types
+		d.register(TaggedSub.class, new Recorder("taggedSub", log));
+		log.clear();
+		d.dispatch(new TaggedSub());
+		assertEquals("[tagged:TaggedSub]", log.toString());
+	}
+
+	public void testMiss() throws Exception {
+		ArrayList<String> log = new ArrayList<String>();
+		MessageDispatcher d = new MessageDispatcher();
+		d.register(Sub.class, new Recorder("sub", log));
+
+		// The miss is cached: it must be returned again
+		assertFalse(d.dispatch(new Base()));
+		assertFalse(d.dispatch(new Base()));
+		assertFalse(d.dispatch(new Other()));
+		assertEquals(0, d.getCount(Base.class));
+		try {
+			d.dispatchOrFail(new Other());
+			fail("Unknown message not detected");
+		} catch (UnknownAgentMessage e) {
+		}
+		assertTrue(log.isEmpty());
+
+		// Registering a type invalidates cached misses
+		d.register(Base.class, new Recorder("base", log));
+		assertTrue(d.dispatch(new Base()));
+		assertEquals("[base:Base]", log.toString());
+	}
+
+	public void testCounts() throws Exception {
+		ArrayList<String> log = new ArrayList<String>();
+		MessageDispatcher d = new MessageDispatcher();
+		d.register(Base.class, new Recorder("base", log));
+
+		d.dispatch(new Base());
+		d.dispatch(new Sub());
+		d.dispatch(new Sub());
+		d.dispatch(new TaggedSub());
+		d.dispatch(new Other());
+
+		// Counts are per class, subclasses being counted apart
+		assertEquals(1, d.getCount(Base.class));
+		assertEquals(2, d.getCount(Sub.class));
+		assertEquals(1, d.getCount(TaggedSub.class));
+		assertEquals(0, d.getCount(Other.class));
+
+		Map<String, Long> counts = d.getCounts();
+		assertEquals(3, counts.size());
+		assertEquals(Long.valueOf(1), counts.get(Base.class.getName()));
+		assertEquals(Long.valueOf(2), counts.get(Sub.class.getName()));
+		assertEquals(Long.valueOf(1), counts.get(TaggedSub.class.getName()));
+		assertFalse(counts.containsKey(Other.class.getName()));
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+import junit.framework.TestCase;
+
+public class AckWindowTest extends TestCase {
+
+	/** A message recording how it was signaled. */
+	private static class SignaledMessage extends Message {
+		private static final long serialVersionUID = 1L;
+
+		private ArrayList<Boolean> signals = new ArrayList<Boolean>();
+
+		public SignaledMessage(int seqNum) {
+			setSeqNum(seqNum);
+		}
+
+		@Override
+		public void setMessageSent(boolean success) {
+			super.setMessageSent(success);
+			signals.add(success);
+		}
+	}
+
+	private AckWindow window;
+	private SignaledMessage[] msgs;
+
+
+	@Override
+	protected void setUp() {
+		window = new AckWindow(4);
+		msgs = new SignaledMessage[4];
+		for(int i = 0; i < msgs.length; ++i) {
+			msgs[i] = new SignaledMessage(i);
+			window.add(msgs[i]);
+		}
+	}
+
+	public void testCumulative() throws Exception {
+		assertEquals(2, window.acknowledge(AckWindow.encodeAck(
+				FailureDetectionCommons.OK_ACK, 2)));
+		assertEquals(1, window.size());
+		assertEquals(3, window.getFirstSeqNum());
+		for(int i = 0; i < 3; ++i)
+			assertSignaled(msgs[i], true);
+		assertNotSignaled(msgs[3]);
+
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				3));
+		assertTrue(window.isEmpty());
+		assertEquals(-1, window.getFirstSeqNum());
+		assertSignaled(msgs[3], true);
+	}
+
+	public void testDuplicate() throws Exception {
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				1));
+		// An older or repeated acknowledgment does not change anything
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				1));
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				0));
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				-1));
+		assertEquals(2, window.size());
+		assertEquals(2, window.getFirstSeqNum());
+		assertSignaled(msgs[0], true);
+		assertSignaled(msgs[1], true);
+		assertNotSignaled(msgs[2]);
+	}
+
+	public void testOutOfSync() throws Exception {
+		try {
+			window.acknowledge(AckWindow.encodeAck(
+					FailureDetectionCommons.OUT_OF_SYNC, 1));
+			fail("Out of sync not detected");
+		} catch (OutOfSyncException e) {
+		}
+		assertEquals(4, window.size());
+		for(SignaledMessage m : msgs)
+			assertNotSignaled(m);
+
+		try {
+			window.acknowledge(AckWindow.encodeAck(99, 1));
+			fail("Invalid acknowledgment accepted");
+		} catch (IOException e) {
+		}
+		assertEquals(4, window.size());
+	}
+
+	public void testWindowFull() throws Exception {
+		assertTrue(window.isFull());
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				0));
+		assertFalse(window.isFull());
+
+		SignaledMessage m = new SignaledMessage(4);
+		window.add(m, false);
+		assertTrue(window.isFull());
+
+		// Acknowledging beyond the last written message empties the window
+		window.acknowledge(AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				10));
+		assertTrue(window.isEmpty());
+		assertFalse(window.isFull());
+		assertNotSignaled(m); // Not signaled by the window
+	}
+
+	public void testFailAll() {
+		SignaledMessage m = new SignaledMessage(4);
+		window = new AckWindow(8);
+		window.add(msgs[0]);
+		window.add(m, false);
+		window.failAll();
+		assertTrue(window.isEmpty());
+		assertSignaled(msgs[0], false);
+		assertNotSignaled(m);
+	}
+
+	public void testTimeout() throws InterruptedException {
+		assertFalse(window.isTimedOut(1000));
+		Thread.sleep(50);
+		assertTrue(window.isTimedOut(20));
+		assertFalse(new AckWindow().isTimedOut(0));
+	}
+
+	public void testEncodeAck() throws Exception {
+		ByteBuffer b = AckWindow.encodeAck(FailureDetectionCommons.OK_ACK,
+				1234567);
+		assertEquals(AckWindow.ACK_SIZE, b.remaining());
+		assertEquals(1234567, window.acknowledge(b));
+		assertFalse(b.hasRemaining());
+	}
+
+
+	private static void assertSignaled(SignaledMessage m, boolean success) {
+		assertEquals(1, m.signals.size());
+		assertEquals(success, m.signals.get(0).booleanValue());
+	}
+
+	private static void assertNotSignaled(SignaledMessage m) {
+		assertTrue(m.signals.isEmpty());
+	}
+
+}
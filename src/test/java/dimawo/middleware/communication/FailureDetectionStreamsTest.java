@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import dimawo.middleware.communication.inputStream.MessageInputStream;
+import dimawo.middleware.communication.outputStream.OutOfSyncException;
+import dimawo.middleware.communication.testing.TestCommunicator;
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.simulation.socket.RealSocket;
+import dimawo.simulation.socket.SocketAddressInterface;
+import dimawo.simulation.socket.SocketInterface;
+import junit.framework.TestCase;
+
+public class FailureDetectionStreamsTest extends TestCase {
+
+	private static final DAId LOCAL = new DAId("localhost", 50400, 0);
+
+	/** A socket reading given bytes and recording written bytes. */
+	private static class BufferSocket implements SocketInterface {
+		private InputStream in;
+		private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		public BufferSocket(byte[] input) {
+			in = new ByteArrayInputStream(input);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void setSoTimeout(int timeout) {
+		}
+
+		@Override
+		public void connect(SocketAddressInterface endpoint, int timeout) {
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public SocketAddressInterface getLocalSocketAddress() {
+			return null;
+		}
+
+		@Override
+		public SocketAddressInterface getRemoteSocketAddress() {
+			return null;
+		}
+
+		@Override
+		public SocketAddressInterface getSocketAddress(String hostName,
+				int port) {
+			return null;
+		}
+	}
+
+
+	public void testAckBatches() throws Exception {
+		int n = 2 * FailureDetectionInputStream.ACK_BATCH + 3;
+		BufferSocket sock = new BufferSocket(encode(n, LOCAL));
+		FailureDetectionInputStream in = new FailureDetectionInputStream(
+				sock, 0);
+
+		for(int i = 0; i < n; ++i) {
+			Message m = in.readMessage(true, LOCAL);
+			assertEquals(i, m.getSeqNum());
+			in.ack(m, LOCAL);
+		}
+		// A full batch is acknowledged at once, the remaining messages
+		// are only acknowledged before blocking on the next read.
+		assertEquals(2, readAcks(sock).size());
+		try {
+			in.readMessage(true, LOCAL);
+			fail("Read after end of stream");
+		} catch (IOException e) {
+		}
+
+		ArrayList<Integer> acks = readAcks(sock);
+		assertEquals(3, acks.size());
+		assertEquals(FailureDetectionInputStream.ACK_BATCH - 1,
+				acks.get(0).intValue());
+		assertEquals(2 * FailureDetectionInputStream.ACK_BATCH - 1,
+				acks.get(1).intValue());
+		assertEquals(n - 1, acks.get(2).intValue());
+	}
+
+	public void testOutOfSync() throws Exception {
+		DAId other = new DAId("localhost", 50401, 0);
+		BufferSocket sock = new BufferSocket(encode(1, other));
+		FailureDetectionInputStream in = new FailureDetectionInputStream(
+				sock, 0);
+
+		Message m = in.readMessage(true, LOCAL);
+		try {
+			in.ack(m, LOCAL);
+			fail("Out of sync not detected");
+		} catch (OutOfSyncException e) {
+		}
+
+		ByteBuffer ack = ByteBuffer.wrap(sock.out.toByteArray());
+		try {
+			new AckWindow().acknowledge(ack);
+			fail("Out of sync not signaled");
+		} catch (OutOfSyncException e) {
+		}
+	}
+
+	public void testUndeliveredNotAcknowledged() throws Exception {
+		final int failed = FailureDetectionInputStream.ACK_BATCH - 1;
+		BufferSocket sock = new BufferSocket(encode(failed + 5, LOCAL));
+		FailureDetectionInputStream in = new FailureDetectionInputStream(
+				sock, 0);
+		TestCommunicator com = new TestCommunicator(LOCAL, null) {
+			@Override
+			public void printMessage(String msg) {
+			}
+
+			@Override
+			public void submitIncomingMessage(Message m) {
+				if(m.getSeqNum() == failed)
+					throw new RuntimeException("Delivery failed");
+			}
+
+			@Override
+			public void signalChildError(Throwable t, String errorSourceId) {
+			}
+		};
+
+		// Delivery of the last message of a batch fails
+		new MessageInputStream(com, LOCAL, in).run();
+		for(int ack : readAcks(sock))
+			assertTrue("Undelivered message acknowledged", ack < failed);
+	}
+
+	public void testAckTimeout() throws Exception {
+		ServerSocket serv = new ServerSocket(0);
+		Socket client = new Socket("localhost", serv.getLocalPort());
+		Socket peer = serv.accept();
+		try {
+			FailureDetectionOutputStream out =
+				new FailureDetectionOutputStream(new RealSocket(client), 200);
+			Message m = new Message(LOCAL);
+			m.setReliabilityFlag(true);
+			out.writeMessage(m, true);
+			assertTrue(out.hasUnacknowledged());
+
+			// The peer never acknowledges
+			long start = System.currentTimeMillis();
+			try {
+				out.waitAcks();
+				fail("Missing acknowledgment not detected");
+			} catch (IOException e) {
+			}
+			assertTrue(System.currentTimeMillis() - start >= 150);
+		} finally {
+			peer.close();
+			client.close();
+			serv.close();
+		}
+	}
+
+
+	private static byte[] encode(int n, DAId to) throws IOException {
+		FrameEncoder enc = new FrameEncoder();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int i = 0; i < n; ++i) {
+			Message m = new Message(to);
+			m.setSeqNum(i);
+			m.setReliabilityFlag(true);
+			ByteBuffer frame = enc.encodeMessage(m);
+			out.write(frame.array(), frame.position(), frame.remaining());
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes all the acknowledgments written to a socket.
+	 */
+	private static ArrayList<Integer> readAcks(BufferSocket sock) {
+		ArrayList<Integer> acks = new ArrayList<Integer>();
+		ByteBuffer b = ByteBuffer.wrap(sock.out.toByteArray());
+		while(b.remaining() >= AckWindow.ACK_SIZE) {
+			assertEquals((byte) FailureDetectionCommons.OK_ACK, b.get());
+			acks.add(b.getInt());
+		}
+		assertFalse(b.hasRemaining());
+		return acks;
+	}
+
+}
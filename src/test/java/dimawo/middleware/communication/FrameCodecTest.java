@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.middleware.overlay.faultdetection.messages.PingMessage;
+import dimawo.middleware.overlay.mntree.MnId;
+import junit.framework.TestCase;
+
+public class FrameCodecTest extends TestCase {
+
+	private static final DAId A = new DAId("hostA", 50600, 1);
+	private static final DAId B = new DAId("hostB", 50601, 2);
+	private static final DAId C = new DAId("hostC", 50602, 3);
+
+	/** A serialized message carrying IDs and shared objects. */
+	private static class IdsMessage extends Message {
+		private static final long serialVersionUID = 1L;
+
+		private DAId da;
+		private MnId mn;
+		private Object first;
+		private Object second;
+		private Object failing;
+
+		public IdsMessage(DAId to, DAId da, MnId mn, Object shared) {
+			super(to);
+			this.da = da;
+			this.mn = mn;
+			this.first = shared;
+			this.second = shared;
+		}
+	}
+
+	/** An object whose serialization fails. */
+	private static class Failing implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			throw new NotSerializableException("Failing");
+		}
+	}
+
+	private FrameEncoder enc;
+	private FrameDecoder dec;
+
+
+	@Override
+	protected void setUp() {
+		// Keep handles across frames so that rollbacks must reset them
+		FrameEncoder.setDefaultResetThresholds(1000, 1 << 20);
+		enc = new FrameEncoder();
+		dec = new FrameDecoder();
+	}
+
+	@Override
+	protected void tearDown() {
+		FrameEncoder.setDefaultResetThresholds(1, 1024 * 1024);
+	}
+
+	public void testInternedCodecIds() throws Exception {
+		int[] sizes = new int[3];
+		for(int i = 0; i < sizes.length; ++i) {
+			PingMessage m = new PingMessage(B);
+			m.setSender(A);
+			m.setSeqNum(i);
+			ByteBuffer frame = enc.encodeMessage(m);
+			sizes[i] = frame.remaining();
+
+			Message r = roundTrip(frame);
+			assertTrue(r instanceof PingMessage);
+			assertEquals(i, r.getSeqNum());
+			assertEquals(A, r.getSender());
+			assertEquals(B, r.getRecipient());
+		}
+		assertTrue(sizes[1] < sizes[0]);
+		assertEquals(sizes[1], sizes[2]);
+	}
+
+	public void testInternedSerializedIds() throws Exception {
+		MnId mn = MnId.getRootId().getChildId(3).getChildId(1);
+		int[] sizes = new int[3];
+		for(int i = 0; i < sizes.length; ++i) {
+			ByteBuffer frame = enc.encodeMessage(
+					new IdsMessage(B, C, mn, "shared"+i));
+			sizes[i] = frame.remaining();
+
+			IdsMessage r = (IdsMessage) roundTrip(frame);
+			assertEquals(B, r.getRecipient());
+			assertEquals(C, r.da);
+			assertEquals(mn, r.mn);
+			assertEquals("shared"+i, r.first);
+			assertSame(r.first, r.second);
+		}
+		assertTrue(sizes[1] < sizes[0]);
+	}
+
+	public void testRollback() throws Exception {
+		MnId mn = MnId.getRootId().getChildId(7);
+		roundTrip(enc.encodeMessage(new IdsMessage(B, A, mn, "before")));
+
+		// A new ID and new handles are written before the failure
+		IdsMessage bad = new IdsMessage(B, C, mn.getChildId(2), "lost");
+		bad.failing = new Failing();
+		try {
+			enc.encodeMessage(bad);
+			fail("Encoding did not fail");
+		} catch (IOException e) {
+		}
+
+		for(int i = 0; i < 3; ++i) {
+			IdsMessage r = (IdsMessage) roundTrip(enc.encodeMessage(
+					new IdsMessage(B, C, mn.getChildId(2), "after"+i)));
+			assertEquals(C, r.da);
+			assertEquals(mn.getChildId(2), r.mn);
+			assertEquals("after"+i, r.first);
+			assertSame(r.first, r.second);
+		}
+
+		PingMessage m = new PingMessage(C);
+		m.setSender(A);
+		Message r = roundTrip(enc.encodeMessage(m));
+		assertEquals(A, r.getSender());
+		assertEquals(C, r.getRecipient());
+	}
+
+	public void testRollbackOfFirstFrame() throws Exception {
+		IdsMessage bad = new IdsMessage(B, C, MnId.getRootId(), "lost");
+		bad.failing = new Failing();
+		try {
+			enc.encodeMessage(bad);
+			fail("Encoding did not fail");
+		} catch (IOException e) {
+		}
+
+		IdsMessage r = (IdsMessage) roundTrip(enc.encodeMessage(
+				new IdsMessage(B, C, MnId.getRootId(), "first")));
+		assertEquals(C, r.da);
+		assertEquals("first", r.first);
+	}
+
+
+	/**
+	 * Decodes a frame (skipping its header).
+	 */
+	private Message roundTrip(ByteBuffer frame) throws Exception {
+		assertEquals(frame.remaining() - FrameEncoder.HEADER_SIZE,
+				frame.getInt(frame.position()));
+		frame.position(frame.position() + FrameEncoder.HEADER_SIZE);
+		return dec.decodeMessage(frame);
+	}
+
+}
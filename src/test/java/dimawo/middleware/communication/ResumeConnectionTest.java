@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dimawo.middleware.communication.inputStream.MessageInputStream;
+import dimawo.middleware.communication.outputStream.MessageOutputStream;
+import dimawo.middleware.communication.testing.TestCommunicator;
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.simulation.host.VirtualHost;
+import dimawo.simulation.net.VirtualNetwork;
+import dimawo.simulation.socket.ServerSocketInterface;
+import dimawo.simulation.socket.SocketFactory;
+import dimawo.simulation.socket.SocketInterface;
+import junit.framework.TestCase;
+
+public class ResumeConnectionTest extends TestCase {
+
+	private static final int PORT = 50500;
+	private static final int MESSAGES = 3000;
+	private static final int BREAK_PERIOD = 700;
+	private static final int BREAKS = 3;
+
+	/** A numbered message recording how it was signaled. */
+	private static class NumberedMessage extends Message {
+		private static final long serialVersionUID = 1L;
+
+		private int num;
+		private transient AtomicInteger signals;
+		private transient volatile boolean success;
+
+		public NumberedMessage(int num, boolean reliable) {
+			this.num = num;
+			signals = new AtomicInteger();
+			setReliabilityFlag(reliable);
+		}
+
+		@Override
+		public void setMessageSent(boolean success) {
+			this.success = success;
+			signals.incrementAndGet();
+			super.setMessageSent(success);
+		}
+	}
+
+	/** The communicator of the receiver: checks order and breaks the
+	 * current connection periodically. */
+	private class Receiver extends TestCommunicator {
+		private int last = -1;
+		private int received;
+		private int duplicates;
+		private int gaps;
+		private int breaks;
+
+		public Receiver(DAId id, SocketFactory fact) {
+			super(id, fact);
+		}
+
+		@Override
+		public void printMessage(String msg) {
+		}
+
+		@Override
+		public synchronized void submitIncomingMessage(Message m) {
+			int num = ((NumberedMessage) m).num;
+			if(num <= last)
+				++duplicates;
+			else if(num > last + 1)
+				++gaps;
+			last = Math.max(last, num);
+			++received;
+
+			if(num % BREAK_PERIOD == BREAK_PERIOD - 1 && breaks < BREAKS) {
+				++breaks;
+				try {
+					current.close();
+				} catch (Exception e) {
+					fail("Could not break connection: "+e);
+				}
+			}
+			if(received == MESSAGES)
+				done.countDown();
+		}
+	}
+
+	private volatile SocketInterface current;
+	private CountDownLatch done;
+	private VirtualHost host1, host2;
+
+
+	@Override
+	protected void setUp() throws Exception {
+		MessageOutputStream.setDefaultResumeMode(true);
+		done = new CountDownLatch(1);
+
+		VirtualNetwork net = new VirtualNetwork();
+		host1 = new VirtualHost("host1", net);
+		host2 = new VirtualHost("host2", net);
+		host1.start();
+		host2.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		MessageOutputStream.setDefaultResumeMode(false);
+		host1.stop();
+		host2.stop();
+	}
+
+	public void testResumeAfterBrokenSocket() throws Exception {
+		final SocketFactory servFact = new SocketFactory(host1.getAccess());
+		SocketFactory cliFact = new SocketFactory(host2.getAccess());
+		DAId servId = new DAId("host1", PORT, 0);
+		DAId cliId = new DAId("host2", PORT, 0);
+
+		final ServerSocketInterface serv = servFact.newServerSocket(PORT);
+		final Receiver receiver = new Receiver(servId, servFact);
+		Thread acceptor = new Thread("Acceptor") {
+			@Override
+			public void run() {
+				MessageInputStream previous = null;
+				try {
+					while(true) {
+						SocketInterface s = serv.accept();
+						current = s;
+						FailureDetectionInputStream in =
+							new FailureDetectionInputStream(s, 10000);
+						IdentificationMessage idm =
+							(IdentificationMessage) in.readObject();
+						MessageInputStream mis = new MessageInputStream(
+								receiver, idm.getRemoteDaId(), in);
+						if(idm.isResumable())
+							mis.setResumable(idm.isResuming(), previous);
+						previous = mis;
+						mis.start();
+					}
+				} catch (Exception e) {
+					// Server socket closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		TestCommunicator sender = new TestCommunicator(cliId, cliFact) {
+			@Override
+			public void printMessage(String msg) {
+			}
+		};
+		MessageOutputStream mos = new MessageOutputStream(sender, servId);
+		mos.start();
+		NumberedMessage[] msgs = new NumberedMessage[MESSAGES];
+		for(int i = 0; i < MESSAGES; ++i) {
+			msgs[i] = new NumberedMessage(i, i % 3 != 0);
+			mos.writeMessage(msgs[i]);
+		}
+
+		assertTrue("Messages lost", done.await(60, TimeUnit.SECONDS));
+		mos.stop();
+		mos.join();
+		serv.close();
+
+		synchronized(receiver) {
+			assertEquals(BREAKS, receiver.breaks);
+			assertEquals(0, receiver.duplicates);
+			assertEquals(0, receiver.gaps);
+			assertEquals(MESSAGES, receiver.received);
+		}
+		assertEquals(BREAKS, mos.getResumeCount());
+		for(NumberedMessage m : msgs) {
+			assertEquals(1, m.signals.get());
+			assertTrue(m.success);
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import dimawo.middleware.communication.Attachment;
+import dimawo.middleware.communication.FrameDecoder;
+import dimawo.middleware.communication.FrameEncoder;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.distributedAgent.DAId;
+import junit.framework.TestCase;
+
+public class FrameParserTest extends TestCase {
+
+	private static final DAId TO = new DAId("localhost", 50200, 0);
+
+	private ArrayList<byte[]> attachments;
+	private byte[] stream;
+
+
+	@Override
+	protected void setUp() throws IOException {
+		attachments = new ArrayList<byte[]>();
+		attachments.add(null);
+		attachments.add(data(100, false));
+		attachments.add(null);
+		attachments.add(data(1000, false));
+		stream = encode(new FrameEncoder());
+	}
+
+	public void testWholeStream() throws Exception {
+		check(stream, stream.length);
+	}
+
+	public void testSplitHeaders() throws Exception {
+		// Single bytes split every header (and everything else)
+		check(stream, 1);
+		check(stream, FrameEncoder.HEADER_SIZE - 1);
+	}
+
+	public void testSplitPayloadsAndAttachments() throws Exception {
+		for(int chunk = 2; chunk <= 64; ++chunk)
+			check(stream, chunk);
+		check(stream, 333);
+	}
+
+	public void testCompressedFrames() throws Exception {
+		attachments.clear();
+		attachments.add(data(10000, true));
+		attachments.add(null);
+		attachments.add(data(5000, true));
+		FrameEncoder enc = new FrameEncoder();
+		enc.enableCompression();
+		byte[] compressed = encode(enc);
+		assertTrue(compressed.length < 15000);
+
+		check(compressed, 1);
+		check(compressed, 7);
+		check(compressed, compressed.length);
+	}
+
+
+	private static byte[] data(int length, boolean repetitive) {
+		byte[] b = new byte[length];
+		for(int i = 0; i < length; ++i)
+			b[i] = (byte) (repetitive ? i % 4 : i * 31 + 7);
+		return b;
+	}
+
+	private byte[] encode(FrameEncoder enc) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int i = 0; i < attachments.size(); ++i) {
+			Message m = new Message(TO);
+			m.setSeqNum(i);
+			byte[] a = attachments.get(i);
+			if(a != null)
+				m.setAttachment(Attachment.wrap(a));
+			
+			ByteBuffer frame = enc.encodeMessage(m);
+			out.write(frame.array(), frame.position(), frame.remaining());
+			Attachment last = enc.getLastAttachment();
+			if(last != null)
+				out.write(last.toByteArray());
+		}
+		return out.toByteArray();
+	}
+
+	private void check(byte[] stream, int chunk) throws Exception {
+		FrameParser parser = new FrameParser();
+		FrameDecoder decoder = new FrameDecoder();
+		int received = 0;
+		for(int off = 0; off < stream.length; off += chunk) {
+			ByteBuffer data = ByteBuffer.wrap(stream, off,
+					Math.min(chunk, stream.length - off));
+			ByteBuffer frame;
+			while((frame = parser.next(data)) != null) {
+				Message m = decoder.decodeMessage(frame);
+				assertEquals("chunk="+chunk, received, m.getSeqNum());
+				assertEquals(TO, m.getRecipient());
+
+				Attachment a = parser.takeAttachment();
+				byte[] expected = attachments.get(received);
+				if(expected == null) {
+					assertNull(a);
+				} else {
+					assertNotNull(a);
+					assertTrue("chunk="+chunk,
+							Arrays.equals(expected, a.toByteArray()));
+					a.release();
+				}
+				++received;
+			}
+			assertFalse(data.hasRemaining());
+		}
+		assertEquals(attachments.size(), received);
+		parser.release();
+	}
+
+}
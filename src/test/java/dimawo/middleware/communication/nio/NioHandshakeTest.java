@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import dimawo.middleware.communication.FailureDetectionCommons;
+import dimawo.middleware.communication.FailureDetectionInputStream;
+import dimawo.middleware.communication.FrameEncoder;
+import dimawo.middleware.communication.IdentificationMessage;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.communication.testing.TestCommunicator;
+import dimawo.middleware.distributedAgent.DAId;
+import dimawo.middleware.overlay.OverlayMessage;
+import junit.framework.TestCase;
+
+public class NioHandshakeTest extends TestCase {
+
+	private static final DAId SERVER = new DAId("localhost", 50300, 0);
+	private static final DAId CLIENT = new DAId("localhost", 50301, 0);
+
+	private IdentificationMessage idm;
+	private IncomingNioConnection conn;
+	private CountDownLatch connected;
+	private NioServer server;
+	private LinkedBlockingQueue<Message> received;
+
+	private Socket sock;
+	private OutputStream out;
+	private DataInputStream in;
+	private FrameEncoder enc;
+
+
+	@Override
+	protected void setUp() throws IOException {
+		connected = new CountDownLatch(1);
+		received = new LinkedBlockingQueue<Message>();
+		server = new NioServer(0, null, null) {
+			@Override
+			void submitNewConnection(IdentificationMessage m,
+					IncomingNioConnection c) {
+				idm = m;
+				conn = c;
+				connected.countDown();
+			}
+
+			@Override
+			void submitOverlayMessage(OverlayMessage o) {
+			}
+
+			@Override
+			void printMessage(String txt) {
+			}
+		};
+		server.start();
+
+		sock = new Socket("localhost", server.getPort());
+		sock.setSoTimeout(5000);
+		out = sock.getOutputStream();
+		in = new DataInputStream(sock.getInputStream());
+		enc = new FrameEncoder();
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		sock.close();
+	}
+
+	public void testHandshake() throws Exception {
+		NioMessageInputStream mis = identify();
+
+		for(int i = 0; i < 3; ++i)
+			write(message(SERVER, i));
+		readAck(FailureDetectionCommons.OK_ACK, 2);
+
+		for(int i = 0; i < 3; ++i) {
+			Message m = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull(m);
+			assertEquals(i, m.getSeqNum());
+			assertEquals(CLIENT, m.getSender());
+		}
+		assertEquals(2, mis.getLastSeqNum());
+	}
+
+	public void testAckBatches() throws Exception {
+		identify();
+
+		int n = 4 * FailureDetectionInputStream.ACK_BATCH + 1;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		for(int i = 0; i < n; ++i) {
+			ByteBuffer frame = enc.encodeMessage(message(SERVER, i));
+			buf.write(frame.array(), frame.position(), frame.remaining());
+		}
+		out.write(buf.toByteArray());
+		out.flush();
+
+		// Acknowledgments are cumulative and never cover more than a batch
+		int last = -1;
+		while(last < n - 1) {
+			assertEquals((byte) FailureDetectionCommons.OK_ACK, in.readByte());
+			int seqNum = in.readInt();
+			assertTrue(seqNum > last);
+			assertTrue(seqNum - last <= FailureDetectionInputStream.ACK_BATCH);
+			last = seqNum;
+		}
+		assertEquals(n - 1, last);
+	}
+
+	public void testOutOfSync() throws Exception {
+		identify();
+
+		write(message(SERVER, 0));
+		readAck(FailureDetectionCommons.OK_ACK, 0);
+
+		// A reliable message for another DA is rejected and the
+		// connection closed
+		DAId other = new DAId("localhost", 50302, 0);
+		write(message(other, 1));
+		readAck(FailureDetectionCommons.OUT_OF_SYNC, 1);
+		assertEquals(-1, in.read());
+
+		assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		assertNull(received.poll());
+	}
+
+
+	private NioMessageInputStream identify() throws Exception {
+		write(enc.encodeObject(new IdentificationMessage(CLIENT)));
+		assertEquals(FailureDetectionCommons.OK_ACK, in.read());
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+		assertEquals(CLIENT, idm.getRemoteDaId());
+
+		TestCommunicator com = new TestCommunicator(SERVER, null) {
+			@Override
+			public void submitIncomingMessage(Message m) {
+				received.add(m);
+			}
+
+			@Override
+			public void printMessage(String msg) {
+			}
+		};
+		NioMessageInputStream mis = new NioMessageInputStream(com,
+				idm.getRemoteDaId(), conn);
+		mis.start();
+		return mis;
+	}
+
+	private static Message message(DAId to, int seqNum) {
+		Message m = new Message(to);
+		m.setSeqNum(seqNum);
+		m.setReliabilityFlag(true);
+		return m;
+	}
+
+	private void write(Message m) throws IOException {
+		write(enc.encodeMessage(m));
+	}
+
+	private void write(ByteBuffer frame) throws IOException {
+		out.write(frame.array(), frame.position(), frame.remaining());
+		out.flush();
+	}
+
+	/**
+	 * Reads (cumulative) acknowledgments until given message is
+	 * acknowledged.
+	 */
+	private void readAck(int status, int seqNum) throws IOException {
+		int last;
+		do {
+			assertEquals((byte) status, in.readByte());
+			last = in.readInt();
+			assertTrue(last <= seqNum);
+		} while(last < seqNum);
+	}
+
+}
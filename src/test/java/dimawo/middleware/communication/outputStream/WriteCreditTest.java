@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.middleware.communication.outputStream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import dimawo.middleware.communication.Message;
+import dimawo.middleware.distributedAgent.DAId;
+
+public class WriteCreditTest extends TestCase {
+
+	private static final DAId DA = new DAId("localhost", 50000, 0);
+
+	public void testEncodedSizeIsCharged() {
+		WriteCredit credit = new WriteCredit(DA, 1000);
+		Message m = new Message();
+		credit.charge(m);
+		assertEquals(Message.DEFAULT_ESTIMATED_SIZE, credit.getQueuedBytes());
+
+		m.setEncodedSize(5000);
+		assertEquals(5000, credit.getQueuedBytes());
+		assertFalse(credit.canWrite());
+
+		m.setMessageSent(true);
+		assertEquals(0, credit.getQueuedBytes());
+		assertEquals(0, credit.getQueuedMessages());
+		assertTrue(credit.canWrite());
+
+		// Credit is given back only once
+		m.setEncodedSize(100);
+		m.setMessageSent(false);
+		assertEquals(0, credit.getQueuedBytes());
+	}
+
+	public void testNotifyWhenWritable() {
+		WriteCredit credit = new WriteCredit(DA, 1000);
+		final AtomicInteger notified = new AtomicInteger();
+		WritableCallBack cb = new WritableCallBack() {
+			@Override
+			public void signalWritable(DAId daId) {
+				assertEquals(DA, daId);
+				notified.incrementAndGet();
+			}
+		};
+
+		Message m1 = new Message();
+		Message m2 = new Message();
+		credit.charge(m1);
+		credit.charge(m2);
+		m1.setEncodedSize(600);
+		m2.setEncodedSize(600);
+		credit.notifyWhenWritable(cb);
+		assertEquals(0, notified.get());
+
+		// Still above half of the capacity
+		m1.setMessageSent(true);
+		assertEquals(0, notified.get());
+
+		// A smaller encoded size than estimated also releases credit
+		m2.setEncodedSize(400);
+		assertEquals(1, notified.get());
+		m2.setMessageSent(true);
+		assertEquals(1, notified.get());
+
+		credit.notifyWhenWritable(cb);
+		assertEquals(2, notified.get());
+	}
+
+}
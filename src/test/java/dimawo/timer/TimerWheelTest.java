@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * DiMaWo
+ * %%
+ * Copyright (C) 2011 DiMaWo Team
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+package dimawo.timer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TimerWheelTest extends TestCase {
+
+	private static final long TICK = 10;
+
+	private TimerWheel wheel;
+
+	@Override
+	protected void setUp() {
+		// Small wheel so that time-outs span several rotations
+		wheel = new TimerWheel("TimerWheelTest", TICK, 4);
+	}
+
+	public void testOneShot() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final long[] firedAt = new long[1];
+		long start = System.nanoTime();
+		Timeout to = wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				firedAt[0] = System.nanoTime();
+				latch.countDown();
+			}
+		}, 25);
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue("Fired early: "+(firedAt[0] - start)+"ns",
+				firedAt[0] - start >= 25 * 1000000L);
+		assertFalse(to.cancel());
+	}
+
+	public void testNeverEarly() throws InterruptedException {
+		final int n = 50;
+		final CountDownLatch latch = new CountDownLatch(n);
+		final AtomicInteger early = new AtomicInteger();
+		for(int i = 0; i < n; ++i) {
+			final long delay = 1 + i % 7;
+			final long start = System.nanoTime();
+			wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if(System.nanoTime() - start < delay * 1000000L)
+						early.incrementAndGet();
+					latch.countDown();
+				}
+			}, delay);
+			Thread.sleep(1);
+		}
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+	}
+
+	public void testPeriodic() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(5);
+		Timeout to = wheel.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, TICK, 2 * TICK);
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(to.cancel());
+		assertTrue(to.isCanceled());
+	}
+
+	public void testCancel() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		};
+		Timeout oneShot = wheel.schedule(task, 5 * TICK);
+		Timeout periodic = wheel.scheduleAtFixedRate(task, 5 * TICK, TICK);
+		assertTrue(oneShot.cancel());
+		assertTrue(periodic.cancel());
+		assertFalse(oneShot.cancel());
+		assertFalse(periodic.cancel());
+
+		Thread.sleep(15 * TICK);
+		assertEquals(0, count.get());
+	}
+
+	public void testSeveralRotations() throws InterruptedException {
+		// 4 buckets of 10ms: a 120ms delay spans 3 rotations
+		final CountDownLatch latch = new CountDownLatch(1);
+		final long[] firedAt = new long[1];
+		final AtomicInteger shortCount = new AtomicInteger();
+		long start = System.nanoTime();
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				firedAt[0] = System.nanoTime();
+				latch.countDown();
+			}
+		}, 12 * TICK);
+		// Time-outs in the same buckets must not make the long one expire
+		for(int i = 1; i <= 4; ++i)
+			wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					shortCount.incrementAndGet();
+				}
+			}, i * TICK);
+
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue("Fired early: "+(firedAt[0] - start)+"ns",
+				firedAt[0] - start >= 12 * TICK * 1000000L);
+		assertEquals(4, shortCount.get());
+	}
+
+	public void testBlockingTask() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch fired = new CountDownLatch(1);
+		wheel.scheduleBlocking(new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		}, TICK);
+		assertTrue(blocked.await(2, TimeUnit.SECONDS));
+
+		// The blocked task must not delay the other time-outs
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				fired.countDown();
+			}
+		}, TICK);
+		assertTrue(fired.await(2, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+}